@@ -106,6 +106,13 @@ class Cql3ParsingRuleSet(CqlParsingRuleSet):
         'timestamp_resolution'
     )
 
+    unified_compaction_strategy_options = (
+        'scaling_parameters',
+        'min_sstable_size_in_mb',
+        'target_sstable_size_in_mb',
+        'base_shard_count'
+    )
+
     @classmethod
     def escape_value(cls, value):
         if value is None:
@@ -540,6 +547,8 @@ def cf_prop_val_mapkey_completer(ctxt, cass):
             opts = opts.union(set(CqlRuleSet.date_tiered_compaction_strategy_options))
         elif csc == 'TimeWindowCompactionStrategy':
             opts = opts.union(set(CqlRuleSet.time_window_compaction_strategy_options))
+        elif csc == 'UnifiedCompactionStrategy':
+            opts = opts.union(set(CqlRuleSet.unified_compaction_strategy_options))
 
         return map(escape_value, opts)
     return ()
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.notifications.INotification;
+import org.apache.cassandra.notifications.INotificationConsumer;
+import org.apache.cassandra.notifications.SSTableAddedNotification;
+import org.apache.cassandra.notifications.TruncationNotification;
+
+/**
+ * A small per-table cache of the partition keys that are known to have no data at all in the table, neither
+ * in the memtables nor in any sstable.
+ * <p>
+ * Reads of such keys would otherwise probe the bloom filter of every sstable (and the index on false positives)
+ * on each request; with this cache, repeated reads of a missing key return immediately.
+ * <p>
+ * An entry is invalidated when the key is written to (see {@code ColumnFamilyStore#apply}) and when a new sstable
+ * that may contain it is added to the table (flush, streaming, sstable import, ...), which we learn through the
+ * {@code Tracker} notifications. Keys are only added once a read confirmed they are absent, and only if nothing
+ * invalidated them since the read started: each invalidation bumps a generation (per stripe of keys, or all of them
+ * for new sstables), which readers take before looking at the memtables and sstables and check once they are done.
+ */
+public class NegativeLookupCache implements INotificationConsumer
+{
+    private static final Object ABSENT = new Object();
+    private static final int STRIPES = 64;
+
+    private final Cache<DecoratedKey, Object> cache;
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+    public NegativeLookupCache(long capacity)
+    {
+        cache = Caffeine.newBuilder()
+                        .maximumSize(capacity)
+                        .executor(MoreExecutors.directExecutor())
+                        .build();
+    }
+
+    /**
+     * @return whether {@code key} is known to have no data in the table.
+     */
+    public boolean isAbsent(DecoratedKey key)
+    {
+        return cache.getIfPresent(key) == ABSENT;
+    }
+
+    /**
+     * Returns the generation to pass to {@link #markAbsent} if the lookup of {@code key} finds it absent.
+     * <p>
+     * This must be called <b>before</b> the memtables and sstables are checked for the key.
+     */
+    public long generation(DecoratedKey key)
+    {
+        return generations.get(stripe(key));
+    }
+
+    /**
+     * Records that {@code key} is absent, unless it has been invalidated since {@link #generation} was called.
+     */
+    public void markAbsent(DecoratedKey key, long generation)
+    {
+        if (generations.get(stripe(key)) != generation)
+            return;
+
+        cache.put(key, ABSENT);
+        // invalidations bump the generation before removing the key, so one that removed it before our put is seen here
+        if (generations.get(stripe(key)) != generation)
+            cache.asMap().remove(key, ABSENT);
+    }
+
+    public void invalidate(DecoratedKey key)
+    {
+        generations.incrementAndGet(stripe(key));
+        cache.invalidate(key);
+    }
+
+    public void clear()
+    {
+        invalidateLookups();
+        cache.invalidateAll();
+    }
+
+    private void invalidateLookups()
+    {
+        for (int i = 0; i < STRIPES; i++)
+            generations.incrementAndGet(i);
+    }
+
+    private static int stripe(DecoratedKey key)
+    {
+        return (key.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    public long size()
+    {
+        return cache.estimatedSize();
+    }
+
+    public void handleNotification(INotification notification, Object sender)
+    {
+        if (notification instanceof SSTableAddedNotification)
+        {
+            Iterable<SSTableReader> added = ((SSTableAddedNotification) notification).added;
+            // lookups in progress may not have seen the new sstables
+            invalidateLookups();
+            for (Iterator<DecoratedKey> iter = cache.asMap().keySet().iterator(); iter.hasNext(); )
+            {
+                DecoratedKey key = iter.next();
+                for (SSTableReader sstable : added)
+                {
+                    if (sstable.getBloomFilter().isPresent(key))
+                    {
+                        iter.remove();
+                        break;
+                    }
+                }
+            }
+        }
+        else if (notification instanceof TruncationNotification)
+        {
+            clear();
+        }
+    }
+}
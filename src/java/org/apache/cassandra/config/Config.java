@@ -104,6 +104,7 @@ public class Config
     public int streaming_socket_timeout_in_ms = 86400000; //24 hours
 
     public Integer streaming_connections_per_host = 1;
+    public int streaming_channels_per_session = 1;
     public Integer streaming_keep_alive_period_in_secs = 300; //5 minutes
 
     public boolean cross_node_timeout = false;
@@ -168,10 +169,24 @@ public class Config
     public Integer unlogged_batch_across_partitions_warn_threshold = 10;
     public volatile Integer concurrent_compactors;
     public volatile int compaction_throughput_mb_per_sec = 16;
+    public volatile int compaction_parallelism = 1;
+    public volatile int compaction_parallelism_min_size_in_mb = 1024;
+    public volatile boolean adaptive_throughput_enabled = false;
+    public volatile int adaptive_compaction_throughput_min_mb_per_sec = 8;
+    public volatile int adaptive_compaction_throughput_max_mb_per_sec = 256;
+    public volatile int adaptive_throughput_read_latency_target_ms = 20;
+    public volatile int adaptive_throughput_pending_compactions_target = 32;
     public volatile int compaction_large_partition_warning_threshold_mb = 100;
     public int min_free_space_per_drive_in_mb = 50;
 
     public volatile int concurrent_validations = Integer.MAX_VALUE;
+    public volatile int validation_parallelism = 1;
+    public volatile int repair_row_level_max_partitions = 0;
+    public volatile boolean repair_range_digests_enabled = false;
+    public volatile boolean repair_scheduler_enabled = false;
+    public volatile long repair_scheduler_partitions_per_subrange = 100000;
+    public volatile int repair_scheduler_interval_in_hours = 120;
+    public volatile double repair_scheduler_intensity = 0.5;
 
     /**
      * @deprecated retry support removed on CASSANDRA-10992
@@ -212,8 +227,11 @@ public class Config
     public boolean dynamic_snitch = true;
     public int dynamic_snitch_update_interval_in_ms = 100;
     public int dynamic_snitch_reset_interval_in_ms = 600000;
+    public int dynamic_snitch_probe_interval_in_ms = 1000;
     public double dynamic_snitch_badness_threshold = 0.1;
 
+    public volatile double speculative_retry_budget = 0.1;
+
     public EncryptionOptions.ServerEncryptionOptions server_encryption_options = new EncryptionOptions.ServerEncryptionOptions();
     public EncryptionOptions.ClientEncryptionOptions client_encryption_options = new EncryptionOptions.ClientEncryptionOptions();
     // this encOptions is for backward compatibility (a warning is logged by DatabaseDescriptor)
@@ -246,6 +264,8 @@ public class Config
     public volatile int counter_cache_save_period = 7200;
     public volatile int counter_cache_keys_to_save = Integer.MAX_VALUE;
 
+    public int negative_lookup_cache_size = 0;
+
     private static boolean isClientMode = false;
 
     public Integer file_cache_size_in_mb;
@@ -568,6 +568,31 @@ public class DatabaseDescriptor
         if (conf.concurrent_compactors <= 0)
             throw new ConfigurationException("concurrent_compactors should be strictly greater than 0, but was " + conf.concurrent_compactors, false);
 
+        if (conf.compaction_parallelism <= 0)
+            throw new ConfigurationException("compaction_parallelism should be strictly greater than 0, but was " + conf.compaction_parallelism, false);
+
+        if (conf.validation_parallelism <= 0)
+            throw new ConfigurationException("validation_parallelism should be strictly greater than 0, but was " + conf.validation_parallelism, false);
+
+        if (conf.adaptive_compaction_throughput_min_mb_per_sec <= 0)
+            throw new ConfigurationException("adaptive_compaction_throughput_min_mb_per_sec should be strictly greater than 0, but was " + conf.adaptive_compaction_throughput_min_mb_per_sec, false);
+
+        if (conf.adaptive_compaction_throughput_max_mb_per_sec < conf.adaptive_compaction_throughput_min_mb_per_sec)
+            throw new ConfigurationException(String.format("adaptive_compaction_throughput_max_mb_per_sec (%d) should not be smaller than adaptive_compaction_throughput_min_mb_per_sec (%d)",
+                                                           conf.adaptive_compaction_throughput_max_mb_per_sec, conf.adaptive_compaction_throughput_min_mb_per_sec), false);
+
+        if (conf.speculative_retry_budget < 0)
+            throw new ConfigurationException("speculative_retry_budget should not be negative, but was " + conf.speculative_retry_budget, false);
+
+        if (conf.streaming_channels_per_session <= 0)
+            throw new ConfigurationException("streaming_channels_per_session should be strictly greater than 0, but was " + conf.streaming_channels_per_session, false);
+
+        if (conf.repair_scheduler_partitions_per_subrange <= 0)
+            throw new ConfigurationException("repair_scheduler_partitions_per_subrange should be strictly greater than 0, but was " + conf.repair_scheduler_partitions_per_subrange, false);
+
+        if (conf.repair_scheduler_intensity <= 0 || conf.repair_scheduler_intensity > 1)
+            throw new ConfigurationException("repair_scheduler_intensity should be in (0, 1], but was " + conf.repair_scheduler_intensity, false);
+
         if (conf.num_tokens > MAX_NUM_TOKENS)
             throw new ConfigurationException(String.format("A maximum number of %d tokens per node is supported", MAX_NUM_TOKENS), false);
 
@@ -619,6 +644,10 @@ public class DatabaseDescriptor
                                              + conf.counter_cache_size_in_mb + "', supported values are <integer> >= 0.", false);
         }
 
+        if (conf.negative_lookup_cache_size < 0)
+            throw new ConfigurationException("negative_lookup_cache_size option was set incorrectly to '"
+                                             + conf.negative_lookup_cache_size + "', it should be a non-negative integer.", false);
+
         // if set to empty/"auto" then use 5% of Heap size
         indexSummaryCapacityInMB = (conf.index_summary_capacity_in_mb == null)
                                    ? Math.max(1, (int) (Runtime.getRuntime().totalMemory() * 0.05 / 1024 / 1024))
@@ -1391,6 +1420,21 @@ public class DatabaseDescriptor
         conf.concurrent_compactors = value;
     }
 
+    public static int getCompactionParallelism()
+    {
+        return conf.compaction_parallelism;
+    }
+
+    public static void setCompactionParallelism(int value)
+    {
+        conf.compaction_parallelism = value;
+    }
+
+    public static long getCompactionParallelismMinSize()
+    {
+        return conf.compaction_parallelism_min_size_in_mb * 1024L * 1024L;
+    }
+
     public static int getCompactionThroughputMbPerSec()
     {
         return conf.compaction_throughput_mb_per_sec;
@@ -1401,6 +1445,36 @@ public class DatabaseDescriptor
         conf.compaction_throughput_mb_per_sec = value;
     }
 
+    public static boolean isAdaptiveThroughputEnabled()
+    {
+        return conf.adaptive_throughput_enabled;
+    }
+
+    public static void setAdaptiveThroughputEnabled(boolean enabled)
+    {
+        conf.adaptive_throughput_enabled = enabled;
+    }
+
+    public static int getAdaptiveCompactionThroughputMinMbPerSec()
+    {
+        return conf.adaptive_compaction_throughput_min_mb_per_sec;
+    }
+
+    public static int getAdaptiveCompactionThroughputMaxMbPerSec()
+    {
+        return conf.adaptive_compaction_throughput_max_mb_per_sec;
+    }
+
+    public static int getAdaptiveThroughputReadLatencyTargetMillis()
+    {
+        return conf.adaptive_throughput_read_latency_target_ms;
+    }
+
+    public static int getAdaptiveThroughputPendingCompactionsTarget()
+    {
+        return conf.adaptive_throughput_pending_compactions_target;
+    }
+
     public static int getCompactionLargePartitionWarningThreshold() { return conf.compaction_large_partition_warning_threshold_mb * 1024 * 1024; }
 
     public static int getConcurrentValidations()
@@ -1414,6 +1488,56 @@ public class DatabaseDescriptor
         conf.concurrent_validations = value;
     }
 
+    public static int getValidationParallelism()
+    {
+        return conf.validation_parallelism;
+    }
+
+    public static void setValidationParallelism(int value)
+    {
+        conf.validation_parallelism = value;
+    }
+
+    public static int getRepairRowLevelMaxPartitions()
+    {
+        return conf.repair_row_level_max_partitions;
+    }
+
+    public static void setRepairRowLevelMaxPartitions(int value)
+    {
+        conf.repair_row_level_max_partitions = value;
+    }
+
+    public static boolean isRepairRangeDigestsEnabled()
+    {
+        return conf.repair_range_digests_enabled;
+    }
+
+    public static void setRepairRangeDigestsEnabled(boolean enabled)
+    {
+        conf.repair_range_digests_enabled = enabled;
+    }
+
+    public static boolean isRepairSchedulerEnabled()
+    {
+        return conf.repair_scheduler_enabled;
+    }
+
+    public static long getRepairSchedulerPartitionsPerSubrange()
+    {
+        return conf.repair_scheduler_partitions_per_subrange;
+    }
+
+    public static int getRepairSchedulerIntervalInHours()
+    {
+        return conf.repair_scheduler_interval_in_hours;
+    }
+
+    public static double getRepairSchedulerIntensity()
+    {
+        return conf.repair_scheduler_intensity;
+    }
+
     public static long getMinFreeSpacePerDriveInBytes()
     {
         return conf.min_free_space_per_drive_in_mb * 1024L * 1024L;
@@ -1819,6 +1943,15 @@ public class DatabaseDescriptor
         conf.dynamic_snitch_reset_interval_in_ms = dynamicResetInterval;
     }
 
+    public static int getDynamicProbeInterval()
+    {
+        return conf.dynamic_snitch_probe_interval_in_ms;
+    }
+    public static void setDynamicProbeInterval(int dynamicProbeInterval)
+    {
+        conf.dynamic_snitch_probe_interval_in_ms = dynamicProbeInterval;
+    }
+
     public static double getDynamicBadnessThreshold()
     {
         return conf.dynamic_snitch_badness_threshold;
@@ -1829,6 +1962,16 @@ public class DatabaseDescriptor
         conf.dynamic_snitch_badness_threshold = dynamicBadnessThreshold;
     }
 
+    public static double getSpeculativeRetryBudget()
+    {
+        return conf.speculative_retry_budget;
+    }
+
+    public static void setSpeculativeRetryBudget(double budget)
+    {
+        conf.speculative_retry_budget = budget;
+    }
+
     public static EncryptionOptions.ServerEncryptionOptions getServerEncryptionOptions()
     {
         return conf.server_encryption_options;
@@ -2031,6 +2174,11 @@ public class DatabaseDescriptor
         conf.counter_cache_keys_to_save = counterCacheKeysToSave;
     }
 
+    public static int getNegativeLookupCacheSize()
+    {
+        return conf.negative_lookup_cache_size;
+    }
+
     public static void setStreamingSocketTimeout(int value)
     {
         conf.streaming_socket_timeout_in_ms = value;
@@ -2056,6 +2204,11 @@ public class DatabaseDescriptor
         return conf.streaming_connections_per_host;
     }
 
+    public static int getStreamingChannelsPerSession()
+    {
+        return conf.streaming_channels_per_session;
+    }
+
     public static String getLocalDataCenter()
     {
         return localDC;
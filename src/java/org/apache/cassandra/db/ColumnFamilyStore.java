@@ -49,12 +49,16 @@ import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.commitlog.CommitLogPosition;
 import org.apache.cassandra.db.compaction.*;
 import org.apache.cassandra.db.filter.ClusteringIndexFilter;
+import org.apache.cassandra.db.filter.ColumnFilter;
 import org.apache.cassandra.db.filter.DataLimits;
 import org.apache.cassandra.db.view.TableViews;
 import org.apache.cassandra.db.lifecycle.*;
+import org.apache.cassandra.db.partitions.CachedBTreePartition;
 import org.apache.cassandra.db.partitions.CachedPartition;
 import org.apache.cassandra.db.partitions.PartitionUpdate;
 import org.apache.cassandra.db.rows.CellPath;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterators;
 import org.apache.cassandra.dht.*;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.exceptions.ConfigurationException;
@@ -242,6 +246,9 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
     private final CompactionStrategyManager compactionStrategyManager;
 
+    /** Keys known to have no data in this table, or null if the negative lookup cache is disabled */
+    public final NegativeLookupCache negativeLookupCache;
+
     private volatile Directories directories;
 
     public final TableMetrics metric;
@@ -424,6 +431,16 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             initialMemtable = new Memtable(new AtomicReference<>(CommitLog.instance.getCurrentPosition()), this);
         data = new Tracker(initialMemtable, loadSSTables);
 
+        if (DatabaseDescriptor.getNegativeLookupCacheSize() > 0 && !metadata.get().isIndex())
+        {
+            negativeLookupCache = new NegativeLookupCache(DatabaseDescriptor.getNegativeLookupCacheSize());
+            data.subscribe(negativeLookupCache);
+        }
+        else
+        {
+            negativeLookupCache = null;
+        }
+
         // scan for sstables corresponding to this cf and load them
         if (data.loadsstables)
         {
@@ -489,6 +506,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                     switch (retryPolicy.kind())
                     {
                         case PERCENTILE:
+                        case PREDICTIVE: // used for the replicas we don't know the latencies of yet
                             // get percentile in nanos
                             sampleLatencyNanos = (long) (metric.coordinatorReadLatency.getSnapshot().getValue(retryPolicy.threshold()));
                             break;
@@ -1344,8 +1362,10 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             Memtable mt = data.getMemtableFor(opGroup, commitLogPosition);
             long timeDelta = mt.put(update, indexer, opGroup);
             DecoratedKey key = update.partitionKey();
-            invalidateCachedPartition(key);
-            metric.samplers.get(Sampler.WRITES).addSample(key.getKey(), key.hashCode(), 1);
+            updateCachedPartition(update);
+            if (negativeLookupCache != null)
+                negativeLookupCache.invalidate(key);
+            metric.samplePartition(Sampler.WRITES, key);
             StorageHook.instance.reportWrite(metadata.id, update);
             metric.writeLatency.addNano(System.nanoTime() - start);
             // CASSANDRA-11117 - certain resolution paths on memtable put can result in very
@@ -1737,6 +1757,24 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 samplerResults.cardinality, result});
     }
 
+    public Map<String, Long> getHotPartitions(String sampler, int count)
+    {
+        return partitionKeysToString(metric.hotPartitions.get(Sampler.valueOf(sampler)).top(count));
+    }
+
+    public Map<String, Long> getLargestPartitions(int count)
+    {
+        return partitionKeysToString(metric.largestPartitions.top(count));
+    }
+
+    private Map<String, Long> partitionKeysToString(List<HeavyHitters.Entry> entries)
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (HeavyHitters.Entry entry : entries)
+            result.put(metadata().partitionKeyType.getString(entry.key), entry.value);
+        return result;
+    }
+
     public boolean isCompactionDiskSpaceCheckEnabled()
     {
         return compactionSpaceCheck;
@@ -2073,6 +2111,85 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         invalidateCachedPartition(new RowCacheKey(metadata(), key));
     }
 
+    /**
+     * Applies a freshly written update to the cached partition for its key, if there is one.
+     * <p>
+     * Rather than evicting the whole partition on every write (CASSANDRA-2864), the update is merged into
+     * the cached head of the partition, so that wide and frequently updated partitions (time-series heads
+     * typically) can still be served from the cache. We fall back to invalidation whenever the merge cannot
+     * be done safely: if a read is concurrently populating the entry (sentinel), if the table is a counter one,
+     * if the merged result would not satisfy the guarantees {@link #isFilterFullyCoveredBy} relies on, or if
+     * the entry changed under us.
+     */
+    public void updateCachedPartition(PartitionUpdate update)
+    {
+        if (!isRowCacheEnabled())
+            return;
+
+        RowCacheKey key = new RowCacheKey(metadata(), update.partitionKey());
+        IRowCacheEntry cached = CacheService.instance.rowCache.getInternal(key);
+        if (cached == null)
+            return;
+
+        // For counters, the update is not the final value (and merging counter contexts twice isn't idempotent)
+        if (cached instanceof RowCacheSentinel || metadata().isCounter())
+        {
+            invalidateCachedPartition(key);
+            return;
+        }
+
+        CachedPartition merged = mergeIntoCachedPartition((CachedPartition) cached, update, FBUtilities.nowInSeconds());
+        // nothing to write back when the update falls entirely after the cached head
+        if (merged == cached)
+            return;
+        if (merged == null || !CacheService.instance.rowCache.replace(key, cached, merged))
+            invalidateCachedPartition(key);
+    }
+
+    /**
+     * Merges {@code update} into {@code cached}, returning {@code null} if the result cannot be cached.
+     * <p>
+     * A cached partition either holds the whole partition (when it has less than {@code rowsPerPartitionToCache}
+     * live rows) or all the data of the partition up to its last row. In the first case, merging the full
+     * update keeps the entry complete. In the second case, we only merge the part of the update that falls
+     * within the cached head, and we have to give up if the merge drops the number of live rows below
+     * {@code rowsPerPartitionToCache} (through deletions) since the entry would then wrongly look complete.
+     * Either way, the merged entry is trimmed back to {@code rowsPerPartitionToCache} live rows, as if read to
+     * populate the cache, so it can't grow past the configured head. {@code cached} itself is returned when the
+     * update doesn't touch the cached head.
+     */
+    @VisibleForTesting
+    CachedPartition mergeIntoCachedPartition(CachedPartition cached, PartitionUpdate update, int nowInSec)
+    {
+        int rowsToCache = metadata().params.caching.rowsPerPartitionToCache();
+        boolean isComplete = cached.cachedLiveRows() < rowsToCache;
+
+        UnfilteredRowIterator updateIterator;
+        if (isComplete)
+        {
+            updateIterator = update.unfilteredIterator();
+        }
+        else
+        {
+            Slice head = Slice.make(ClusteringBound.BOTTOM, ClusteringBound.inclusiveEndOf(cached.lastRow().clustering()));
+            updateIterator = update.unfilteredIterator(ColumnFilter.all(metadata()), Slices.with(metadata().comparator, head), false);
+            if (updateIterator.isEmpty())
+            {
+                updateIterator.close();
+                return cached;
+            }
+        }
+
+        CachedPartition merged;
+        UnfilteredRowIterator mergedIterator = UnfilteredRowIterators.merge(Arrays.asList(cached.unfilteredIterator(), updateIterator), nowInSec);
+        try (UnfilteredRowIterator iterator = DataLimits.cqlLimits(rowsToCache).filter(mergedIterator, nowInSec))
+        {
+            merged = CachedBTreePartition.create(iterator, Math.min(rowsToCache, cached.rowCount() + update.rowCount()), nowInSec);
+        }
+
+        return isComplete || merged.cachedLiveRows() >= rowsToCache ? merged : null;
+    }
+
     public ClockAndCount getCachedCounter(ByteBuffer partitionKey, Clustering clustering, ColumnMetadata column, CellPath path)
     {
         if (CacheService.instance.counterCache.getCapacity() == 0L) // counter cache disabled.
@@ -186,6 +186,19 @@ public interface ColumnFamilyStoreMBean
      */
     public CompositeData finishLocalSampling(String sampler, int count) throws OpenDataException;
 
+    /**
+     * @return the (at most) <i>count</i> partitions with the most reads or writes (depending on the sampler) over
+     * the last few minutes, mapped to their estimated, exponentially decayed, count. Unlike
+     * beginLocalSampling/finishLocalSampling, these are tracked continuously.
+     */
+    public Map<String, Long> getHotPartitions(String sampler, int count);
+
+    /**
+     * @return the (at most) <i>count</i> largest partitions written to sstables over the last
+     * day or so, mapped to their size in bytes
+     */
+    public Map<String, Long> getLargestPartitions(int count);
+
     /*
         Is Compaction space check enabled
      */
@@ -117,6 +117,8 @@ public class ColumnIndex
     {
         ByteBufferUtil.writeWithShortLength(iterator.partitionKey().getKey(), writer);
         DeletionTime.serializer.serialize(iterator.partitionLevelDeletion(), writer);
+        if (!observers.isEmpty())
+            observers.forEach((o) -> o.partitionLevelDeletion(iterator.partitionLevelDeletion()));
         if (header.hasStatic())
         {
             Row staticRow = iterator.staticRow();
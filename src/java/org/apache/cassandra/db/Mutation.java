@@ -18,10 +18,12 @@
 package org.apache.cassandra.db;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.primitives.Ints;
 import org.apache.commons.lang3.StringUtils;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
@@ -29,6 +31,7 @@ import org.apache.cassandra.db.partitions.PartitionUpdate;
 import org.apache.cassandra.db.rows.SerializationHelper;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataInputPlus;
+import org.apache.cassandra.io.util.DataOutputBufferFixed;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
@@ -61,6 +64,10 @@ public class Mutation implements IMutation
 
     private boolean cdcEnabled = false;
 
+    // the serialized form of this mutation for the current messaging version, if kept by serialize(int) because it
+    // is shared by the messages to several replicas and the commit log entry; it's dropped when modifications are added
+    private volatile byte[] serializedCurrentVersion;
+
     public Mutation(String keyspaceName, DecoratedKey key)
     {
         this(keyspaceName, key, new HashMap<>());
@@ -145,6 +152,7 @@ public class Mutation implements IMutation
         assert update.partitionKey().getPartitioner() == key.getPartitioner();
 
         cdcEnabled |= update.metadata().params.cdc;
+        serializedCurrentVersion = null;
 
         PartitionUpdate prev = modifications.put(update.metadata().id, update);
         if (prev != null)
@@ -245,6 +253,25 @@ public class Mutation implements IMutation
         apply(false);
     }
 
+    /**
+     * Returns the serialized form of this mutation for the provided messaging version. The serialization for the
+     * current version is kept and then written by {@link #serializer} instead of walking the partition updates again,
+     * so this should be called before sending a mutation to several replicas and writing it to the commit log.
+     * Mutations that are only serialized once (like the ones received from the coordinator, hints or batchlog
+     * entries) don't need it and are serialized directly. The mutation should not be modified afterwards.
+     */
+    public byte[] serialize(int version)
+    {
+        if (version == MessagingService.current_version)
+        {
+            byte[] serialized = serializedCurrentVersion;
+            if (serialized == null)
+                serializedCurrentVersion = serialized = serializer.serializeUncached(this, version);
+            return serialized;
+        }
+        return serializer.serializeUncached(this, version);
+    }
+
     public MessageOut<Mutation> createMessage()
     {
         return createMessage(MessagingService.Verb.MUTATION);
@@ -370,6 +397,29 @@ public class Mutation implements IMutation
     public static class MutationSerializer implements IVersionedSerializer<Mutation>
     {
         public void serialize(Mutation mutation, DataOutputPlus out, int version) throws IOException
+        {
+            byte[] serialized = version == MessagingService.current_version ? mutation.serializedCurrentVersion : null;
+            if (serialized != null)
+                out.write(serialized);
+            else
+                serializeModifications(mutation, out, version);
+        }
+
+        private byte[] serializeUncached(Mutation mutation, int version)
+        {
+            byte[] serialized = new byte[Ints.checkedCast(modificationsSize(mutation, version))];
+            try (DataOutputBufferFixed out = new DataOutputBufferFixed(ByteBuffer.wrap(serialized)))
+            {
+                serializeModifications(mutation, out, version);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            return serialized;
+        }
+
+        private void serializeModifications(Mutation mutation, DataOutputPlus out, int version) throws IOException
         {
             /* serialize the modifications in the mutation */
             int size = mutation.modifications.size();
@@ -409,7 +459,15 @@ public class Mutation implements IMutation
 
         public long serializedSize(Mutation mutation, int version)
         {
-            int size = TypeSizes.sizeofUnsignedVInt(mutation.modifications.size());
+            byte[] serialized = version == MessagingService.current_version ? mutation.serializedCurrentVersion : null;
+            if (serialized != null)
+                return serialized.length;
+            return modificationsSize(mutation, version);
+        }
+
+        private long modificationsSize(Mutation mutation, int version)
+        {
+            long size = TypeSizes.sizeofUnsignedVInt(mutation.modifications.size());
             for (Map.Entry<TableId, PartitionUpdate> entry : mutation.modifications.entrySet())
                 size += PartitionUpdate.serializer.serializedSize(entry.getValue(), version);
 
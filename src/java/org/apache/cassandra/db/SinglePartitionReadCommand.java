@@ -28,6 +28,7 @@ import com.google.common.collect.Sets;
 import org.apache.commons.lang3.tuple.Pair;
 
 import org.apache.cassandra.cache.IRowCacheEntry;
+import org.apache.cassandra.cache.NegativeLookupCache;
 import org.apache.cassandra.cache.RowCacheKey;
 import org.apache.cassandra.cache.RowCacheSentinel;
 import org.apache.cassandra.concurrent.Stage;
@@ -363,7 +364,6 @@ public class SinglePartitionReadCommand extends ReadCommand
 
         // Attempt a sentinel-read-cache sequence.  if a write invalidates our sentinel, we'll return our
         // (now potentially obsolete) data, but won't cache it. see CASSANDRA-3862
-        // TODO: don't evict entire partitions on writes (#2864)
         IRowCacheEntry cached = CacheService.instance.rowCache.get(key);
         if (cached != null)
         {
@@ -490,6 +490,24 @@ public class SinglePartitionReadCommand extends ReadCommand
 
     private UnfilteredRowIterator queryMemtableAndDiskInternal(ColumnFamilyStore cfs)
     {
+        NegativeLookupCache negativeLookupCache = cfs.negativeLookupCache;
+        if (negativeLookupCache != null)
+        {
+            if (negativeLookupCache.isAbsent(partitionKey()))
+            {
+                cfs.metric.negativeLookupCacheHit.inc();
+                cfs.metric.updateSSTableIterated(0);
+                Tracing.trace("Negative lookup cache hit, partition is absent from the table");
+                return EmptyIterators.unfilteredRow(cfs.metadata(), partitionKey(), clusteringIndexFilter().isReversed());
+            }
+
+            if (checkAndCacheAbsence(cfs, negativeLookupCache))
+            {
+                Tracing.trace("Partition is absent from the table, caching it in the negative lookup cache");
+                return EmptyIterators.unfilteredRow(cfs.metadata(), partitionKey(), clusteringIndexFilter().isReversed());
+            }
+        }
+
         /*
          * We have 2 main strategies:
          *   1) We query memtables and sstables simulateneously. This is our most generic strategy and the one we use
@@ -619,6 +637,53 @@ public class SinglePartitionReadCommand extends ReadCommand
         }
     }
 
+    /**
+     * Checks whether the queried partition has no data in the table and records it in the negative lookup
+     * cache if that's the case.
+     * <p>
+     * Only a confirmed miss is inserted in the cache. When a bloom filter says the key may be in a sstable, the index is
+     * only checked if that sstable caches its keys, as that lookup populates the key cache the actual read then uses;
+     * otherwise the partition is assumed present and the read proceeds as if there were no negative lookup cache.
+     *
+     * @return whether the partition is absent from the table.
+     */
+    private boolean checkAndCacheAbsence(ColumnFamilyStore cfs, NegativeLookupCache cache)
+    {
+        DecoratedKey key = partitionKey();
+        // The generation must be taken before we grab the view, so that a concurrent write or sstable addition that
+        // we don't see prevents caching the key.
+        long generation = cache.generation(key);
+        ColumnFamilyStore.ViewFragment view = cfs.select(View.select(SSTableSet.LIVE, key));
+        if (mayBeInMemtables(view.memtables) || mayBeInSSTables(view.sstables))
+            return false;
+
+        cache.markAbsent(key, generation);
+        return true;
+    }
+
+    private boolean mayBeInMemtables(Iterable<Memtable> memtables)
+    {
+        for (Memtable memtable : memtables)
+        {
+            if (memtable.getPartition(partitionKey()) != null)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean mayBeInSSTables(List<SSTableReader> sstables)
+    {
+        for (SSTableReader sstable : sstables)
+        {
+            if (!sstable.getBloomFilter().isPresent(partitionKey()))
+                continue;
+
+            if (!sstable.keyCacheEnabled() || sstable.getPosition(partitionKey(), SSTableReader.Operator.EQ) != null)
+                return true;
+        }
+        return false;
+    }
+
     private boolean shouldInclude(SSTableReader sstable)
     {
         // If some static columns are queried, we should always include the sstable: the clustering values stats of the sstable
@@ -654,7 +719,7 @@ public class SinglePartitionReadCommand extends ReadCommand
         if (!merged.isEmpty())
         {
             DecoratedKey key = merged.partitionKey();
-            metrics.samplers.get(TableMetrics.Sampler.READS).addSample(key.getKey(), key.hashCode(), 1);
+            metrics.samplePartition(TableMetrics.Sampler.READS, key);
         }
 
         class UpdateSstablesIterated extends Transformation
@@ -775,7 +840,7 @@ public class SinglePartitionReadCommand extends ReadCommand
             return EmptyIterators.unfilteredRow(metadata(), partitionKey(), false);
 
         DecoratedKey key = result.partitionKey();
-        cfs.metric.samplers.get(TableMetrics.Sampler.READS).addSample(key.getKey(), key.hashCode(), 1);
+        cfs.metric.samplePartition(TableMetrics.Sampler.READS, key);
         StorageHook.instance.reportRead(cfs.metadata.id, partitionKey());
 
         // "hoist up" the requested data into a more recent sstable
@@ -99,6 +99,7 @@ public final class SystemKeyspace
     public static final String SIZE_ESTIMATES = "size_estimates";
     public static final String AVAILABLE_RANGES = "available_ranges";
     public static final String TRANSFERRED_RANGES = "transferred_ranges";
+    public static final String STREAM_CHECKPOINTS = "stream_checkpoints";
     public static final String VIEWS_BUILDS_IN_PROGRESS = "views_builds_in_progress";
     public static final String BUILT_VIEWS = "built_views";
     public static final String PREPARED_STATEMENTS = "prepared_statements";
@@ -262,6 +263,19 @@ public final class SystemKeyspace
               + "PRIMARY KEY ((operation, keyspace_name), peer))")
               .build();
 
+    private static final TableMetadata StreamCheckpoints =
+        parse(STREAM_CHECKPOINTS,
+              "sstables of peers received by streaming operations that can be resumed",
+              "CREATE TABLE %s ("
+              + "operation text,"
+              + "keyspace_name text,"
+              + "peer inet,"
+              + "table_name text,"
+              + "ranges set<blob>,"
+              + "files map<int, bigint>,"
+              + "PRIMARY KEY ((operation, keyspace_name), peer, table_name))")
+              .build();
+
     private static final TableMetadata ViewsBuildsInProgress =
         parse(VIEWS_BUILDS_IN_PROGRESS,
               "views builds current progress",
@@ -337,6 +351,7 @@ public final class SystemKeyspace
                          SizeEstimates,
                          AvailableRanges,
                          TransferredRanges,
+                         StreamCheckpoints,
                          ViewsBuildsInProgress,
                          BuiltViews,
                          PreparedStatements,
@@ -1155,6 +1170,24 @@ public final class SystemKeyspace
         mutation.apply();
     }
 
+    /**
+     * @return the partition count and mean partition size estimates of each local primary range of the table, as
+     * last written by {@link #updateSizeEstimates}
+     */
+    public static Map<Range<Token>, Pair<Long, Long>> getSizeEstimates(String keyspace, String table)
+    {
+        String cql = format("SELECT range_start, range_end, partitions_count, mean_partition_size FROM %s WHERE keyspace_name = ? AND table_name = ?", SizeEstimates.toString());
+        Token.TokenFactory factory = StorageService.instance.getTokenFactory();
+        Map<Range<Token>, Pair<Long, Long>> estimates = new HashMap<>();
+        for (UntypedResultSet.Row row : executeInternal(cql, keyspace, table))
+        {
+            Range<Token> range = new Range<>(factory.fromString(row.getString("range_start")),
+                                             factory.fromString(row.getString("range_end")));
+            estimates.put(range, Pair.create(row.getLong("partitions_count"), row.getLong("mean_partition_size")));
+        }
+        return estimates;
+    }
+
     /**
      * Clears size estimates for a table (on table drop)
      */
@@ -1230,6 +1263,67 @@ public final class SystemKeyspace
         return ImmutableMap.copyOf(result);
     }
 
+    /**
+     * Records that the sstable of the given generation of a peer was received, for the given ranges, by a session of
+     * a resumable streaming operation. Any file received for other ranges of the table is forgotten.
+     *
+     * @param size the number of bytes of the sstable streamed for these ranges
+     */
+    public static synchronized void updateStreamCheckpoint(StreamOperation streamOperation,
+                                                           InetAddress peer,
+                                                           String keyspace,
+                                                           String table,
+                                                           Collection<Range<Token>> ranges,
+                                                           int generation,
+                                                           long size)
+    {
+        Set<ByteBuffer> rawRanges = new HashSet<>(ranges.size());
+        for (Range<Token> range : ranges)
+            rawRanges.add(rangeToBytes(range));
+
+        String query = "SELECT ranges FROM system.%s WHERE operation = ? AND keyspace_name = ? AND peer = ? AND table_name = ?";
+        UntypedResultSet rs = executeInternal(format(query, STREAM_CHECKPOINTS), streamOperation.getDescription(), keyspace, peer, table);
+        if (!rs.isEmpty() && rawRanges.equals(rs.one().getSet("ranges", BytesType.instance)))
+        {
+            String cql = "UPDATE system.%s SET files[?] = ? WHERE operation = ? AND keyspace_name = ? AND peer = ? AND table_name = ?";
+            executeInternal(format(cql, STREAM_CHECKPOINTS), generation, size, streamOperation.getDescription(), keyspace, peer, table);
+        }
+        else
+        {
+            String cql = "INSERT INTO system.%s (operation, keyspace_name, peer, table_name, ranges, files) VALUES (?, ?, ?, ?, ?, ?)";
+            executeInternal(format(cql, STREAM_CHECKPOINTS), streamOperation.getDescription(), keyspace, peer, table, rawRanges, singletonMap(generation, size));
+        }
+    }
+
+    /**
+     * @return for each table of the keyspace, the ranges that sstables of the peer were received for by a resumable
+     * streaming operation, and the size of each of these sstables by generation
+     */
+    public static synchronized Map<String, Pair<Set<Range<Token>>, Map<Integer, Long>>> getStreamCheckpoints(StreamOperation streamOperation,
+                                                                                                        InetAddress peer,
+                                                                                                        String keyspace,
+                                                                                                        IPartitioner partitioner)
+    {
+        Map<String, Pair<Set<Range<Token>>, Map<Integer, Long>>> result = new HashMap<>();
+        String query = "SELECT * FROM system.%s WHERE operation = ? AND keyspace_name = ? AND peer = ?";
+        UntypedResultSet rs = executeInternal(format(query, STREAM_CHECKPOINTS), streamOperation.getDescription(), keyspace, peer);
+        for (UntypedResultSet.Row row : rs)
+        {
+            Set<Range<Token>> ranges = new HashSet<>();
+            for (ByteBuffer rawRange : row.getSet("ranges", BytesType.instance))
+                ranges.add(byteBufferToRange(rawRange, partitioner));
+            Map<Integer, Long> files = row.has("files") ? row.getMap("files", Int32Type.instance, LongType.instance) : emptyMap();
+            result.put(row.getString("table_name"), Pair.create(ranges, files));
+        }
+        return result;
+    }
+
+    public static void resetStreamCheckpoints()
+    {
+        ColumnFamilyStore checkpoints = Keyspace.open(SchemaConstants.SYSTEM_KEYSPACE_NAME).getColumnFamilyStore(STREAM_CHECKPOINTS);
+        checkpoints.truncateBlocking();
+    }
+
     /**
      * Compare the release version in the system.local table with the one included in the distro.
      * If they don't match, snapshot all tables in the system keyspace. This is intended to be
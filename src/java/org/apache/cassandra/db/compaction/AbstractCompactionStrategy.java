@@ -599,4 +599,13 @@ public abstract class AbstractCompactionStrategy
     {
         return true;
     }
+
+    /**
+     * @return true if the background tasks of this strategy compact unrelated sets of sstables, so that the next
+     * one should be started without waiting for the current one to finish
+     */
+    public boolean supportsConcurrentBackgroundTasks()
+    {
+        return false;
+    }
 }
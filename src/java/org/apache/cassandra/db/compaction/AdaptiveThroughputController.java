@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.concurrent.ScheduledExecutors;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.metrics.AdaptiveThroughputMetrics;
+import org.apache.cassandra.metrics.TableMetrics;
+import org.apache.cassandra.service.StorageProxy;
+
+/**
+ * Adjusts the compaction and streaming throughput limits from what we observe, when
+ * {@code adaptive_throughput_enabled} is set.
+ *
+ * Every few seconds, we compare the recent 99th percentile of the local and coordinator read latencies to
+ * {@code adaptive_throughput_read_latency_target_ms}, and we consider compaction to be behind if there are more than
+ * {@code adaptive_throughput_pending_compactions_target} pending compactions or if a data directory is almost full.
+ * Then:
+ * <ul>
+ *     <li>if reads are slow and compaction isn't behind, we slow compaction down,</li>
+ *     <li>if compaction is behind and reads are fast, we speed it up,</li>
+ *     <li>otherwise we leave it alone,</li>
+ * </ul>
+ * within {@code adaptive_compaction_throughput_min_mb_per_sec} and {@code adaptive_compaction_throughput_max_mb_per_sec}.
+ * Streaming is slowed down to as little as a quarter of {@code stream_throughput_outbound_megabits_per_sec} while
+ * reads are slow, and goes back to it otherwise.
+ *
+ * Decreases are steeper than increases so that read latency recovers quickly.
+ */
+public class AdaptiveThroughputController implements Runnable
+{
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveThroughputController.class);
+
+    public static final AdaptiveThroughputController instance = new AdaptiveThroughputController();
+
+    private static final long UPDATE_INTERVAL_SECONDS = Long.getLong("cassandra.adaptive_throughput_interval_seconds", 5);
+
+    @VisibleForTesting
+    static final double INCREASE_FACTOR = 1.2;
+    @VisibleForTesting
+    static final double DECREASE_FACTOR = 0.7;
+    @VisibleForTesting
+    static final double MIN_STREAM_THROUGHPUT_RATIO = 0.25;
+    // compaction reclaims space (from overwritten, deleted and expired data), so a full disk means it is behind
+    private static final double DISK_USAGE_HIGH_WATERMARK = 0.8;
+
+    public enum Decision
+    {
+        INCREASE, DECREASE, HOLD;
+
+        @VisibleForTesting
+        static Decision of(boolean latencyHigh, boolean compactionBehind)
+        {
+            if (latencyHigh == compactionBehind)
+                return HOLD;
+            return latencyHigh ? DECREASE : INCREASE;
+        }
+    }
+
+    private final AdaptiveThroughputMetrics metrics = new AdaptiveThroughputMetrics(this);
+
+    // only changed by the (single threaded) updates
+    private volatile double compactionThroughputMbPerSec = -1;
+    private volatile double streamThroughputRatio = 1;
+    private volatile double lastReadLatencyMillis;
+    private volatile double lastDiskUsage;
+
+    private AdaptiveThroughputController()
+    {
+    }
+
+    public void start()
+    {
+        ScheduledExecutors.optionalTasks.scheduleWithFixedDelay(this, UPDATE_INTERVAL_SECONDS, UPDATE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the compaction throughput to use, in MB/s, 0 meaning unthrottled
+     */
+    public double getCompactionThroughputMbPerSec()
+    {
+        double adaptive = compactionThroughputMbPerSec;
+        return isActive() && adaptive > 0 ? adaptive : DatabaseDescriptor.getCompactionThroughputMbPerSec();
+    }
+
+    /**
+     * @return the fraction of the configured streaming throughput to use
+     */
+    public double getStreamThroughputRatio()
+    {
+        return isActive() ? streamThroughputRatio : 1;
+    }
+
+    public double getLastReadLatencyMillis()
+    {
+        return lastReadLatencyMillis;
+    }
+
+    public double getLastDiskUsage()
+    {
+        return lastDiskUsage;
+    }
+
+    // an unthrottled compaction stays unthrottled
+    private static boolean isActive()
+    {
+        return DatabaseDescriptor.isAdaptiveThroughputEnabled() && DatabaseDescriptor.getCompactionThroughputMbPerSec() > 0;
+    }
+
+    public void run()
+    {
+        try
+        {
+            update();
+        }
+        catch (Throwable t)
+        {
+            logger.warn("Failed to update the adaptive compaction throughput", t);
+        }
+    }
+
+    private void update()
+    {
+        if (!isActive())
+        {
+            // start again from the configured throughput if enabled later on
+            compactionThroughputMbPerSec = -1;
+            streamThroughputRatio = 1;
+            return;
+        }
+
+        double min = DatabaseDescriptor.getAdaptiveCompactionThroughputMinMbPerSec();
+        double max = DatabaseDescriptor.getAdaptiveCompactionThroughputMaxMbPerSec();
+        double current = compactionThroughputMbPerSec > 0
+                         ? compactionThroughputMbPerSec
+                         : clamp(DatabaseDescriptor.getCompactionThroughputMbPerSec(), min, max);
+
+        lastReadLatencyMillis = readLatencyMillis();
+        lastDiskUsage = maxDataDiskUsage();
+        int pendingCompactions = CompactionManager.instance.getPendingTasks();
+
+        boolean latencyHigh = lastReadLatencyMillis > DatabaseDescriptor.getAdaptiveThroughputReadLatencyTargetMillis();
+        boolean compactionBehind = pendingCompactions > DatabaseDescriptor.getAdaptiveThroughputPendingCompactionsTarget()
+                                   || lastDiskUsage > DISK_USAGE_HIGH_WATERMARK;
+        Decision decision = Decision.of(latencyHigh, compactionBehind);
+
+        double next = nextCompactionThroughput(current, decision, min, max);
+        if (next > current)
+            metrics.increases.inc();
+        else if (next < current)
+            metrics.decreases.inc();
+        streamThroughputRatio = nextStreamThroughputRatio(streamThroughputRatio, latencyHigh);
+
+        if (next != current)
+            logger.debug("{} compaction throughput from {} to {} MB/s (read latency p99: {} ms, pending compactions: {}, disk usage: {})",
+                         decision, current, next, lastReadLatencyMillis, pendingCompactions, lastDiskUsage);
+
+        compactionThroughputMbPerSec = next;
+        // running compactions share the limiter, so they pick the new rate up right away
+        CompactionManager.instance.setRate(next);
+    }
+
+    @VisibleForTesting
+    static double nextCompactionThroughput(double current, Decision decision, double min, double max)
+    {
+        switch (decision)
+        {
+            case INCREASE:
+                return clamp(current * INCREASE_FACTOR, min, max);
+            case DECREASE:
+                return clamp(current * DECREASE_FACTOR, min, max);
+            default:
+                return clamp(current, min, max);
+        }
+    }
+
+    @VisibleForTesting
+    static double nextStreamThroughputRatio(double current, boolean latencyHigh)
+    {
+        return latencyHigh
+               ? Math.max(MIN_STREAM_THROUGHPUT_RATIO, current * DECREASE_FACTOR)
+               : Math.min(1, current * INCREASE_FACTOR);
+    }
+
+    /**
+     * @return the recent 99th percentile of the local or coordinator read latency, whichever is higher, in milliseconds
+     */
+    public static double readLatencyMillis()
+    {
+        double localReadLatency = TableMetrics.globalReadLatency.latency.getSnapshot().get99thPercentile();
+        double coordinatorReadLatency = StorageProxy.getReadLatencySnapshot().get99thPercentile();
+        return Math.max(localReadLatency, coordinatorReadLatency) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static double clamp(double value, double min, double max)
+    {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static double maxDataDiskUsage()
+    {
+        double usage = 0;
+        for (Directories.DataDirectory directory : Directories.dataDirectories)
+        {
+            long total = directory.location.getTotalSpace();
+            if (total > 0)
+                usage = Math.max(usage, 1 - (double) directory.location.getUsableSpace() / total);
+        }
+        return usage;
+    }
+}
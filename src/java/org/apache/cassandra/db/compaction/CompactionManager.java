@@ -22,6 +22,10 @@ import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -67,6 +71,7 @@ import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.metrics.CompactionMetrics;
 import org.apache.cassandra.metrics.TableMetrics;
+import org.apache.cassandra.repair.SSTableRangeDigests;
 import org.apache.cassandra.repair.Validator;
 import org.apache.cassandra.schema.CompactionParams.TombstoneOption;
 import org.apache.cassandra.service.ActiveRepairService;
@@ -122,6 +127,7 @@ public class CompactionManager implements CompactionManagerMBean
 
     private final CompactionExecutor executor = new CompactionExecutor();
     private final CompactionExecutor validationExecutor = new ValidationExecutor();
+    private final CompactionExecutor subRangeExecutor = new SubRangeCompactionExecutor();
     private final static CompactionExecutor cacheCleanupExecutor = new CacheCleanupExecutor();
 
     private final CompactionMetrics metrics = new CompactionMetrics(executor, validationExecutor);
@@ -137,7 +143,7 @@ public class CompactionManager implements CompactionManagerMBean
      */
     public RateLimiter getRateLimiter()
     {
-        setRate(DatabaseDescriptor.getCompactionThroughputMbPerSec());
+        setRate(AdaptiveThroughputController.instance.getCompactionThroughputMbPerSec());
         return compactionRateLimiter;
     }
 
@@ -209,6 +215,7 @@ public class CompactionManager implements CompactionManagerMBean
         // shutdown executors to prevent further submission
         executor.shutdown();
         validationExecutor.shutdown();
+        subRangeExecutor.shutdown();
 
         // interrupt compactions and validations
         for (Holder compactionHolder : CompactionMetrics.getCompactions())
@@ -219,7 +226,7 @@ public class CompactionManager implements CompactionManagerMBean
         // wait for tasks to terminate
         // compaction tasks are interrupted above, so it shuold be fairy quick
         // until not interrupted tasks to complete.
-        for (ExecutorService exec : Arrays.asList(executor, validationExecutor))
+        for (ExecutorService exec : Arrays.asList(executor, validationExecutor, subRangeExecutor))
         {
             try
             {
@@ -268,6 +275,10 @@ public class CompactionManager implements CompactionManagerMBean
                     logger.trace("No tasks available");
                     return;
                 }
+                // if a strategy compacting unrelated sstables (like different UCS shards) has more to compact,
+                // check for it now rather than once this task is done, so that these compactions run concurrently
+                if (strategy.hasConcurrentBackgroundTasks())
+                    submitBackground(cfs);
                 task.execute(metrics);
             }
             finally
@@ -1350,22 +1361,36 @@ public class CompactionManager implements CompactionManagerMBean
             // We blindly assume that a partition is evenly distributed on all sstables for now.
             MerkleTrees tree = createMerkleTrees(sstables, validator.desc.ranges, cfs);
             long start = System.nanoTime();
-            long partitionCount = 0;
-            try (AbstractCompactionStrategy.ScannerList scanners = cfs.getCompactionStrategyManager().getScanners(sstables, validator.desc.ranges);
-                 ValidationCompactionController controller = new ValidationCompactionController(cfs, gcBefore);
-                 CompactionIterator ci = new ValidationCompactionIterator(scanners.scanners, controller, nowInSec, metrics))
+            AtomicLong partitionCount = new AtomicLong();
+            try
             {
-                // validate the CF as we iterate over it
                 validator.prepare(cfs, tree);
-                while (ci.hasNext())
+                // the segments only one sstable has partitions in may not need to be read, if it has their digests
+                List<Range<Token>> precomputed = SSTableRangeDigests.addPrecomputed(cfs, sstables, validator, gcBefore, nowInSec, partitionCount);
+                List<List<Range<Token>>> subRanges = tree.splitByLeaves(DatabaseDescriptor.getValidationParallelism());
+                if (subRanges.size() > 1)
                 {
-                    if (ci.isStopRequested())
-                        throw new CompactionInterruptedException(ci.getCompactionInfo());
-                    try (UnfilteredRowIterator partition = ci.next())
+                    // each sub-range builds its own leaves of the trees, that are only hashed together once complete
+                    List<Runnable> tasks = new ArrayList<>(subRanges.size());
+                    for (List<Range<Token>> ranges : subRanges)
                     {
-                        validator.add(partition);
-                        partitionCount++;
+                        List<Range<Token>> toRead = SSTableRangeDigests.subtract(ranges, precomputed);
+                        if (toRead.isEmpty())
+                            continue;
+                        Validator.SubRangeBuilder builder = validator.subRangeBuilder();
+                        Refs<SSTableReader> toValidate = sstables;
+                        int subRangeGcBefore = gcBefore;
+                        tasks.add(() -> validatePartitions(cfs, toValidate, toRead, subRangeGcBefore, nowInSec, builder::add, partitionCount));
                     }
+                    logger.debug("Validating {} sub-ranges of {} in parallel", tasks.size(), validator.desc);
+                    runInParallel(tasks);
+                }
+                else
+                {
+                    // validate the CF as we iterate over it
+                    List<Range<Token>> toRead = SSTableRangeDigests.subtract(validator.desc.ranges, precomputed);
+                    if (!toRead.isEmpty())
+                        validatePartitions(cfs, sstables, toRead, gcBefore, nowInSec, validator::add, partitionCount);
                 }
                 validator.complete();
             }
@@ -1377,7 +1402,7 @@ public class CompactionManager implements CompactionManagerMBean
                     // is done).
                     cfs.clearSnapshot(snapshotName);
                 }
-                cfs.metric.partitionsValidated.update(partitionCount);
+                cfs.metric.partitionsValidated.update(partitionCount.get());
             }
             long estimatedTotalBytes = 0;
             for (SSTableReader sstable : sstables)
@@ -1390,7 +1415,7 @@ public class CompactionManager implements CompactionManagerMBean
             {
                 long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
                 logger.debug("Validation of {} partitions (~{}) finished in {} msec, for {}",
-                             partitionCount,
+                             partitionCount.get(),
                              FBUtilities.prettyPrintMemory(estimatedTotalBytes),
                              duration,
                              validator.desc);
@@ -1403,6 +1428,45 @@ public class CompactionManager implements CompactionManagerMBean
         }
     }
 
+    /**
+     * Feeds the partitions of the given ranges of the sstables to the validator, throttled by the compaction
+     * throughput.
+     */
+    private void validatePartitions(ColumnFamilyStore cfs,
+                                    Collection<SSTableReader> sstables,
+                                    Collection<Range<Token>> ranges,
+                                    int gcBefore,
+                                    int nowInSec,
+                                    Consumer<UnfilteredRowIterator> validator,
+                                    AtomicLong partitionCount)
+    {
+        RateLimiter limiter = getRateLimiter();
+        try (AbstractCompactionStrategy.ScannerList scanners = cfs.getCompactionStrategyManager().getScanners(sstables, ranges);
+             ValidationCompactionController controller = new ValidationCompactionController(cfs, gcBefore);
+             CompactionIterator ci = new ValidationCompactionIterator(scanners.scanners, controller, nowInSec, metrics))
+        {
+            double compressionRatio = scanners.getCompressionRatio();
+            if (compressionRatio == MetadataCollector.NO_COMPRESSION_RATIO)
+                compressionRatio = 1.0;
+            long lastBytesScanned = 0;
+
+            while (ci.hasNext())
+            {
+                if (ci.isStopRequested())
+                    throw new CompactionInterruptedException(ci.getCompactionInfo());
+                try (UnfilteredRowIterator partition = ci.next())
+                {
+                    validator.accept(partition);
+                    partitionCount.incrementAndGet();
+                }
+
+                long bytesScanned = scanners.getTotalBytesScanned();
+                compactionRateLimiterAcquire(limiter, bytesScanned, lastBytesScanned, compressionRatio);
+                lastBytesScanned = bytesScanned;
+            }
+        }
+    }
+
     private static MerkleTrees createMerkleTrees(Iterable<SSTableReader> sstables, Collection<Range<Token>> ranges, ColumnFamilyStore cfs)
     {
         MerkleTrees tree = new MerkleTrees(cfs.getPartitioner());
@@ -1755,6 +1819,48 @@ public class CompactionManager implements CompactionManagerMBean
         return CompactionMetrics.getCompactions().size();
     }
 
+    /**
+     * Runs the given (sub-range compaction or validation) tasks using the calling thread and up to {@code tasks.size() - 1} threads
+     * of the sub-range executor, and returns once they have all completed.
+     *
+     * Each thread claims the next task not run yet, so that all tasks get run by the calling thread if the executor
+     * is busy or shut down. No new task is started once one has failed, and the first failure is rethrown.
+     */
+    void runInParallel(List<Runnable> tasks)
+    {
+        AtomicInteger nextTask = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            int index;
+            while (failure.get() == null && (index = nextTask.getAndIncrement()) < tasks.size())
+            {
+                try
+                {
+                    tasks.get(index).run();
+                }
+                catch (Throwable t)
+                {
+                    if (!failure.compareAndSet(null, t))
+                        failure.get().addSuppressed(t);
+                }
+            }
+        };
+
+        List<Future<?>> helpers = new ArrayList<>(tasks.size() - 1);
+        for (int i = 1; i < tasks.size(); i++)
+            helpers.add(subRangeExecutor.submitIfRunning(worker, "compaction sub-range"));
+
+        worker.run();
+
+        // helpers may still be running the last tasks they claimed
+        for (Future<?> helper : helpers)
+        {
+            if (!helper.isCancelled())
+                FBUtilities.waitOnFuture(helper);
+        }
+        Throwables.maybeFail(failure.get());
+    }
+
     private static class CompactionExecutor extends JMXEnabledThreadPoolExecutor
     {
         protected CompactionExecutor(int minThreads, int maxThreads, String name, BlockingQueue<Runnable> queue)
@@ -1858,6 +1964,14 @@ public class CompactionManager implements CompactionManagerMBean
         }
     }
 
+    private static class SubRangeCompactionExecutor extends CompactionExecutor
+    {
+        public SubRangeCompactionExecutor()
+        {
+            super(Math.max(1, DatabaseDescriptor.getConcurrentCompactors()), "SubRangeCompactionExecutor");
+        }
+    }
+
     private static class CacheCleanupExecutor extends CompactionExecutor
     {
         public CacheCleanupExecutor()
@@ -1960,6 +2074,13 @@ public class CompactionManager implements CompactionManagerMBean
     }
 
     public void setConcurrentCompactors(int value)
+    {
+        resize(executor, value);
+        // sub-range compactions are helping the compactions of the main executor, so it gets as many threads
+        resize(subRangeExecutor, value);
+    }
+
+    private static void resize(CompactionExecutor executor, int value)
     {
         if (value > executor.getCorePoolSize())
         {
@@ -1975,6 +2096,18 @@ public class CompactionManager implements CompactionManagerMBean
         }
     }
 
+    public int getCompactionParallelism()
+    {
+        return DatabaseDescriptor.getCompactionParallelism();
+    }
+
+    public void setCompactionParallelism(int value)
+    {
+        if (value <= 0)
+            throw new IllegalArgumentException("Compaction parallelism should be greater than 0, but was " + value);
+        DatabaseDescriptor.setCompactionParallelism(value);
+    }
+
     public void setConcurrentValidations(int value)
     {
         value = value > 0 ? value : Integer.MAX_VALUE;
@@ -116,4 +116,15 @@ public interface CompactionManagerMBean
      * @param number New maximum of validator threads
      */
     public void setMaximumValidatorThreads(int number);
+
+    /**
+     * Returns the number of sub-ranges a large compaction is split into to be compacted in parallel
+     */
+    public int getCompactionParallelism();
+
+    /**
+     * Sets the number of sub-ranges a large compaction is split into to be compacted in parallel; 1 disables it.
+     * @param value New compaction parallelism, greater than 0
+     */
+    public void setCompactionParallelism(int value);
 }
@@ -975,6 +975,28 @@ public class CompactionStrategyManager implements INotificationConsumer
         return tasks;
     }
 
+    /**
+     * @return true if one of the repaired or unrepaired strategies supporting concurrent background tasks has more
+     * than one task left to run
+     */
+    public boolean hasConcurrentBackgroundTasks()
+    {
+        readLock.lock();
+        try
+        {
+            for (AbstractCompactionStrategy strategy : Iterables.concat(repaired, unrepaired))
+            {
+                if (strategy.supportsConcurrentBackgroundTasks() && strategy.getEstimatedRemainingTasks() > 1)
+                    return true;
+            }
+            return false;
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+    }
+
     public boolean shouldBeEnabled()
     {
         return params.isEnabled();
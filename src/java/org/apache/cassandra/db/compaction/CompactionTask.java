@@ -17,14 +17,19 @@
  */
 package org.apache.cassandra.db.compaction;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
@@ -43,9 +48,14 @@ import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.db.compaction.CompactionManager.CompactionExecutorStatsCollector;
 import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
 import org.apache.cassandra.service.ActiveRepairService;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Throwables;
 import org.apache.cassandra.utils.concurrent.Refs;
 
 public class CompactionTask extends AbstractCompactionTask
@@ -168,65 +178,83 @@ public class CompactionTask extends AbstractCompactionTask
             long[] mergedRowCounts;
             long totalSourceCQLRows;
 
-            // SSTableScanners need to be closed before markCompactedSSTablesReplaced call as scanners contain references
-            // to both ifile and dfile and SSTR will throw deletion errors on Windows if it tries to delete before scanner is closed.
-            // See CASSANDRA-8019 and CASSANDRA-8399
-            int nowInSec = FBUtilities.nowInSeconds();
-            try (Refs<SSTableReader> refs = Refs.ref(actuallyCompact);
-                 AbstractCompactionStrategy.ScannerList scanners = strategy.getScanners(actuallyCompact);
-                 CompactionIterator ci = new CompactionIterator(compactionType, scanners.scanners, controller, nowInSec, taskId))
+            List<Range<Token>> subRanges = getSubRanges(actuallyCompact);
+            if (subRanges.size() > 1)
             {
-                long lastCheckObsoletion = start;
-                inputSizeBytes = scanners.getTotalCompressedSize();
-                double compressionRatio = scanners.getCompressionRatio();
-                if (compressionRatio == MetadataCollector.NO_COMPRESSION_RATIO)
-                    compressionRatio = 1.0;
+                logger.debug("Compacting ({}) in {} sub-ranges", taskId, subRanges.size());
+                try (Refs<SSTableReader> refs = Refs.ref(actuallyCompact))
+                {
+                    SubRangeCompaction compaction = new SubRangeCompaction(strategy, actuallyCompact, subRanges, taskId, limiter);
+                    newSStables = compaction.run();
+                    inputSizeBytes = SSTableReader.getTotalBytes(actuallyCompact);
+                    estimatedKeys = compaction.estimatedKeys;
+                    totalKeysWritten = compaction.totalKeysWritten;
+                    mergedRowCounts = compaction.mergedRowCounts;
+                    totalSourceCQLRows = compaction.totalSourceCQLRows;
+                }
+            }
+            else
+            {
+                // SSTableScanners need to be closed before markCompactedSSTablesReplaced call as scanners contain references
+                // to both ifile and dfile and SSTR will throw deletion errors on Windows if it tries to delete before scanner is closed.
+                // See CASSANDRA-8019 and CASSANDRA-8399
+                int nowInSec = FBUtilities.nowInSeconds();
+                try (Refs<SSTableReader> refs = Refs.ref(actuallyCompact);
+                     AbstractCompactionStrategy.ScannerList scanners = strategy.getScanners(actuallyCompact);
+                     CompactionIterator ci = new CompactionIterator(compactionType, scanners.scanners, controller, nowInSec, taskId))
+                {
+                    long lastCheckObsoletion = start;
+                    inputSizeBytes = scanners.getTotalCompressedSize();
+                    double compressionRatio = scanners.getCompressionRatio();
+                    if (compressionRatio == MetadataCollector.NO_COMPRESSION_RATIO)
+                        compressionRatio = 1.0;
 
-                long lastBytesScanned = 0;
+                    long lastBytesScanned = 0;
 
-                if (!controller.cfs.getCompactionStrategyManager().isActive())
-                    throw new CompactionInterruptedException(ci.getCompactionInfo());
+                    if (!controller.cfs.getCompactionStrategyManager().isActive())
+                        throw new CompactionInterruptedException(ci.getCompactionInfo());
 
-                if (collector != null)
-                    collector.beginCompaction(ci);
+                    if (collector != null)
+                        collector.beginCompaction(ci);
 
-                try (CompactionAwareWriter writer = getCompactionAwareWriter(cfs, getDirectories(), transaction, actuallyCompact))
-                {
-                    estimatedKeys = writer.estimatedKeys();
-                    while (ci.hasNext())
+                    try (CompactionAwareWriter writer = getCompactionAwareWriter(cfs, getDirectories(), transaction, actuallyCompact))
                     {
-                        if (ci.isStopRequested())
-                            throw new CompactionInterruptedException(ci.getCompactionInfo());
+                        estimatedKeys = writer.estimatedKeys();
+                        while (ci.hasNext())
+                        {
+                            if (ci.isStopRequested())
+                                throw new CompactionInterruptedException(ci.getCompactionInfo());
 
-                        if (writer.append(ci.next()))
-                            totalKeysWritten++;
+                            if (writer.append(ci.next()))
+                                totalKeysWritten++;
 
 
-                        long bytesScanned = scanners.getTotalBytesScanned();
+                            long bytesScanned = scanners.getTotalBytesScanned();
 
-                        //Rate limit the scanners, and account for compression
-                        CompactionManager.compactionRateLimiterAcquire(limiter, bytesScanned, lastBytesScanned, compressionRatio);
+                            //Rate limit the scanners, and account for compression
+                            CompactionManager.compactionRateLimiterAcquire(limiter, bytesScanned, lastBytesScanned, compressionRatio);
 
-                        lastBytesScanned = bytesScanned;
+                            lastBytesScanned = bytesScanned;
 
-                        if (System.nanoTime() - lastCheckObsoletion > TimeUnit.MINUTES.toNanos(1L))
-                        {
-                            controller.maybeRefreshOverlaps();
-                            lastCheckObsoletion = System.nanoTime();
+                            if (System.nanoTime() - lastCheckObsoletion > TimeUnit.MINUTES.toNanos(1L))
+                            {
+                                controller.maybeRefreshOverlaps();
+                                lastCheckObsoletion = System.nanoTime();
+                            }
                         }
-                    }
 
-                    // point of no return
-                    newSStables = writer.finish();
-                }
-                finally
-                {
-                    if (collector != null)
-                        collector.finishCompaction(ci);
+                        // point of no return
+                        newSStables = writer.finish();
+                    }
+                    finally
+                    {
+                        if (collector != null)
+                            collector.finishCompaction(ci);
 
-                    mergedRowCounts = ci.getMergedRowCounts();
+                        mergedRowCounts = ci.getMergedRowCounts();
 
-                    totalSourceCQLRows = ci.getTotalSourceCQLRows();
+                        totalSourceCQLRows = ci.getTotalSourceCQLRows();
+                    }
                 }
             }
 
@@ -277,6 +305,204 @@ public class CompactionTask extends AbstractCompactionTask
         }
     }
 
+    private List<Range<Token>> getSubRanges(Set<SSTableReader> sstables)
+    {
+        int parallelism = DatabaseDescriptor.getCompactionParallelism();
+        if (parallelism <= 1
+            || transaction.isOffline()
+            || !cfs.getPartitioner().splitter().isPresent()
+            || SSTableReader.getTotalBytes(sstables) < DatabaseDescriptor.getCompactionParallelismMinSize())
+            return Collections.emptyList();
+
+        return getParallelSubRanges(sstables, parallelism);
+    }
+
+    /**
+     * Returns at most {@code parallelism} disjoint token ranges, covering all of the given sstables, which can be
+     * compacted concurrently (see {@link SubRangeCompaction}). Implementations must make sure that writing the output
+     * of each range separately doesn't change what the strategy does with it, so by default we don't split compactions.
+     *
+     * Only called if the partitioner has a {@link org.apache.cassandra.dht.Splitter}.
+     */
+    protected List<Range<Token>> getParallelSubRanges(Set<SSTableReader> sstables, int parallelism)
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the ranges ending at each of the given (inclusive, sorted) upper bounds, the first one starting at the
+     * partitioner minimum token
+     */
+    @VisibleForTesting
+    static List<Range<Token>> rangesFromBoundaries(IPartitioner partitioner, List<Token> boundaries)
+    {
+        List<Range<Token>> ranges = new ArrayList<>(boundaries.size());
+        Token left = partitioner.getMinimumToken();
+        for (Token right : boundaries)
+        {
+            ranges.add(new Range<>(left, right));
+            left = right;
+        }
+        return ranges;
+    }
+
+    /**
+     * @return the bounds between the smallest first token and the largest last token of the given sstables
+     */
+    protected static Bounds<Token> tokenBounds(Collection<SSTableReader> sstables)
+    {
+        Token first = null;
+        Token last = null;
+        for (SSTableReader sstable : sstables)
+        {
+            if (first == null || sstable.first.getToken().compareTo(first) < 0)
+                first = sstable.first.getToken();
+            if (last == null || sstable.last.getToken().compareTo(last) > 0)
+                last = sstable.last.getToken();
+        }
+        return new Bounds<>(first, last);
+    }
+
+    /**
+     * Compacts each of the given disjoint token ranges of the input with its own controller, scanners, iterator and
+     * writer, concurrently, then commits the output of all of them and the obsoletion of the originals atomically in
+     * the task transaction.
+     */
+    private class SubRangeCompaction
+    {
+        private final CompactionStrategyManager strategy;
+        private final Set<SSTableReader> actuallyCompact;
+        private final List<Range<Token>> subRanges;
+        private final UUID taskId;
+        private final RateLimiter limiter;
+        private final int nowInSec = FBUtilities.nowInSeconds();
+
+        private long estimatedKeys;
+        private long totalKeysWritten;
+        private long[] mergedRowCounts = new long[0];
+        private long totalSourceCQLRows;
+
+        private SubRangeCompaction(CompactionStrategyManager strategy,
+                                   Set<SSTableReader> actuallyCompact,
+                                   List<Range<Token>> subRanges,
+                                   UUID taskId,
+                                   RateLimiter limiter)
+        {
+            this.strategy = strategy;
+            this.actuallyCompact = actuallyCompact;
+            this.subRanges = subRanges;
+            this.taskId = taskId;
+            this.limiter = limiter;
+        }
+
+        private Collection<SSTableReader> run()
+        {
+            List<CompactionAwareWriter> writers = new ArrayList<>(subRanges.size());
+            List<SSTableReader> newSSTables = new ArrayList<>();
+            Throwable fail = null;
+            try
+            {
+                List<Runnable> tasks = new ArrayList<>(subRanges.size());
+                for (Range<Token> range : subRanges)
+                {
+                    CompactionAwareWriter writer = getCompactionAwareWriter(cfs, getDirectories(), transaction, actuallyCompact).sharingTransaction();
+                    writers.add(writer);
+                    tasks.add(() -> compact(range, writer));
+                }
+                estimatedKeys = writers.get(0).estimatedKeys();
+
+                CompactionManager.instance.runInParallel(tasks);
+
+                // point of no return
+                for (CompactionAwareWriter writer : writers)
+                    newSSTables.addAll(writer.finished());
+                transaction.update(newSSTables, false);
+                transaction.checkpoint();
+                if (!keepOriginals)
+                    transaction.obsoleteOriginals();
+                transaction.prepareToCommit();
+
+                for (CompactionAwareWriter writer : writers)
+                    fail = writer.commit(fail);
+                fail = transaction.commit(fail);
+            }
+            catch (Throwable t)
+            {
+                fail = Throwables.merge(fail, t);
+            }
+            // aborts the writers that haven't been committed, the transaction being aborted when the task closes it
+            fail = Throwables.close(fail, writers);
+            Throwables.maybeFail(fail);
+            return newSSTables;
+        }
+
+        private void compact(Range<Token> range, CompactionAwareWriter writer)
+        {
+            try (CompactionController controller = getCompactionController(transaction.originals());
+                 AbstractCompactionStrategy.ScannerList scanners = strategy.getScanners(actuallyCompact, Collections.singleton(range));
+                 CompactionIterator ci = new CompactionIterator(compactionType, scanners.scanners, controller, nowInSec, taskId))
+            {
+                long lastCheckObsoletion = System.nanoTime();
+                double compressionRatio = scanners.getCompressionRatio();
+                if (compressionRatio == MetadataCollector.NO_COMPRESSION_RATIO)
+                    compressionRatio = 1.0;
+
+                long lastBytesScanned = 0;
+                long keysWritten = 0;
+
+                if (!controller.cfs.getCompactionStrategyManager().isActive())
+                    throw new CompactionInterruptedException(ci.getCompactionInfo());
+
+                if (collector != null)
+                    collector.beginCompaction(ci);
+
+                try
+                {
+                    while (ci.hasNext())
+                    {
+                        if (ci.isStopRequested())
+                            throw new CompactionInterruptedException(ci.getCompactionInfo());
+
+                        if (writer.append(ci.next()))
+                            keysWritten++;
+
+                        long bytesScanned = scanners.getTotalBytesScanned();
+
+                        // all the sub-ranges share the limiter, so the whole task is throttled like a sequential one
+                        CompactionManager.compactionRateLimiterAcquire(limiter, bytesScanned, lastBytesScanned, compressionRatio);
+
+                        lastBytesScanned = bytesScanned;
+
+                        if (System.nanoTime() - lastCheckObsoletion > TimeUnit.MINUTES.toNanos(1L))
+                        {
+                            controller.maybeRefreshOverlaps();
+                            lastCheckObsoletion = System.nanoTime();
+                        }
+                    }
+
+                    writer.prepareToCommit();
+                }
+                finally
+                {
+                    if (collector != null)
+                        collector.finishCompaction(ci);
+
+                    addStatistics(keysWritten, ci.getMergedRowCounts(), ci.getTotalSourceCQLRows());
+                }
+            }
+        }
+
+        private synchronized void addStatistics(long keysWritten, long[] rangeMergedRowCounts, long rangeSourceCQLRows)
+        {
+            totalKeysWritten += keysWritten;
+            totalSourceCQLRows += rangeSourceCQLRows;
+            if (rangeMergedRowCounts.length > mergedRowCounts.length)
+                mergedRowCounts = Arrays.copyOf(mergedRowCounts, rangeMergedRowCounts.length);
+            for (int i = 0; i < rangeMergedRowCounts.length; i++)
+                mergedRowCounts[i] += rangeMergedRowCounts[i];
+        }
+    }
+
     @Override
     public CompactionAwareWriter getCompactionAwareWriter(ColumnFamilyStore cfs,
                                                           Directories directories,
@@ -17,6 +17,8 @@
  */
 package org.apache.cassandra.db.compaction;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.cassandra.db.ColumnFamilyStore;
@@ -24,6 +26,9 @@ import org.apache.cassandra.db.Directories;
 import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
 import org.apache.cassandra.db.compaction.writers.MajorLeveledCompactionWriter;
 import org.apache.cassandra.db.compaction.writers.MaxSSTableSizeWriter;
+import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
 
@@ -52,6 +57,24 @@ public class LeveledCompactionTask extends CompactionTask
         return new MaxSSTableSizeWriter(cfs, directories, txn, nonExpiredSSTables, maxSSTableBytes, getLevel(), false);
     }
 
+    /**
+     * Splits the token span of the input evenly. The output of each sub-range being written in separate sstables of
+     * the same level, which don't overlap, this doesn't change anything but the number of sstables. We don't split
+     * major compactions nor compactions staying in L0 (which can overlap anyway and are compacted in size tiers).
+     */
+    @Override
+    protected List<Range<Token>> getParallelSubRanges(Set<SSTableReader> sstables, int parallelism)
+    {
+        if (majorCompaction || level == 0)
+            return Collections.emptyList();
+
+        Bounds<Token> bounds = tokenBounds(sstables);
+        List<Token> boundaries = cfs.getPartitioner().splitter().get().splitOwnedRanges(parallelism,
+                                                                                          Collections.singletonList(new Range<>(bounds.left, bounds.right)),
+                                                                                          false);
+        return rangesFromBoundaries(cfs.getPartitioner(), boundaries);
+    }
+
     @Override
     protected boolean partialCompactionsAcceptable()
     {
@@ -0,0 +1,411 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
+import org.apache.cassandra.db.compaction.writers.ShardedCompactionWriter;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Splitter;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.schema.CompactionParams;
+
+import static com.google.common.collect.Iterables.filter;
+
+/**
+ * A compaction strategy that can be configured anywhere between size tiered and leveled compaction through a scaling
+ * parameter W (see {@link UnifiedCompactionStrategyOptions}):
+ * <ul>
+ *     <li>W > 0 is tiered: levels have a fanout F = 2 + W and are compacted once F sstables overlap</li>
+ *     <li>W < 0 is leveled: levels have a fanout F = 2 - W and are compacted as soon as 2 sstables overlap</li>
+ *     <li>W = 0 is the middle ground where both are 2</li>
+ * </ul>
+ * SSTables are assigned a level based on their density, that is their size divided by the fraction of the token
+ * space they span, level i holding the densities between min_sstable_size * F^i and min_sstable_size * F^(i + 1).
+ * Compaction output is split at fixed token boundaries (shards), whose number only depends on the output density,
+ * so that the output sstables of a compaction end up in the same level as the data they were compacted from. Since
+ * the level isn't stored anywhere but derived from the sstables, the scaling parameters (and levels) can be changed
+ * at any time without recompacting.
+ * <p>
+ * Compactions of sstables that don't overlap are independent and can run concurrently.
+ */
+public class UnifiedCompactionStrategy extends AbstractCompactionStrategy
+{
+    private static final Logger logger = LoggerFactory.getLogger(UnifiedCompactionStrategy.class);
+
+    // spans smaller than this (~1 millionth of the token space), like those of sstables with a single partition,
+    // don't tell anything about the density of the data: we just use the sstable size
+    private static final double MINIMUM_TOKEN_COVERAGE = Math.scalb(1.0, -20);
+    private static final int MAX_LEVELS = 32;
+
+    protected UnifiedCompactionStrategyOptions unifiedOptions;
+    protected volatile int estimatedRemainingTasks;
+    private final Set<SSTableReader> sstables = new HashSet<>();
+    private final Map<Integer, List<Token>> shardBoundaries = new ConcurrentHashMap<>();
+
+    public UnifiedCompactionStrategy(ColumnFamilyStore cfs, Map<String, String> options)
+    {
+        super(cfs, options);
+        this.estimatedRemainingTasks = 0;
+        this.unifiedOptions = new UnifiedCompactionStrategyOptions(options);
+    }
+
+    private synchronized List<SSTableReader> getNextBackgroundSSTables(final int gcBefore)
+    {
+        int maxThreshold = cfs.getMaximumCompactionThreshold();
+
+        Iterable<SSTableReader> candidates = filterSuspectSSTables(filter(cfs.getUncompactingSSTables(), sstables::contains));
+
+        List<List<SSTableReader>> levels = getLevels(candidates);
+        List<SSTableReader> selected = Collections.emptyList();
+        int selectedLevel = -1;
+        int pending = 0;
+        for (int level = 0; level < levels.size(); level++)
+        {
+            int threshold = unifiedOptions.threshold(level);
+            for (List<SSTableReader> overlapping : overlappingSets(levels.get(level), s -> s.first.getToken(), s -> s.last.getToken()))
+            {
+                if (overlapping.size() < threshold)
+                    continue;
+
+                pending += Math.ceil((double) overlapping.size() / Math.max(threshold, maxThreshold));
+                // compact the lowest levels first, as they are the cheapest and where most of the overlap is
+                if (selectedLevel < 0 || (selectedLevel == level && overlapping.size() > selected.size()))
+                {
+                    selected = overlapping;
+                    selectedLevel = level;
+                }
+            }
+        }
+        logger.trace("Compaction levels are {}, selected {} from level {}", levels, selected, selectedLevel);
+        estimatedRemainingTasks = pending;
+        cfs.getCompactionStrategyManager().compactionLogger.pending(this, estimatedRemainingTasks);
+
+        if (!selected.isEmpty())
+        {
+            int limit = Math.max(unifiedOptions.threshold(selectedLevel), maxThreshold);
+            if (selected.size() <= limit)
+                return selected;
+            selected.sort(SSTableReader.sizeComparator);
+            return selected.subList(0, limit);
+        }
+
+        // if there is no sstable to compact in standard way, try compacting single sstable whose droppable tombstone
+        // ratio is greater than threshold.
+        List<SSTableReader> sstablesWithTombstones = new ArrayList<>();
+        for (SSTableReader sstable : candidates)
+        {
+            if (worthDroppingTombstones(sstable, gcBefore))
+                sstablesWithTombstones.add(sstable);
+        }
+        if (sstablesWithTombstones.isEmpty())
+            return Collections.emptyList();
+
+        return Collections.singletonList(Collections.max(sstablesWithTombstones, SSTableReader.sizeComparator));
+    }
+
+    /**
+     * Groups the given sstables by level, the returned list being indexed by level.
+     */
+    @VisibleForTesting
+    List<List<SSTableReader>> getLevels(Iterable<SSTableReader> candidates)
+    {
+        List<List<SSTableReader>> levels = new ArrayList<>();
+        for (SSTableReader sstable : candidates)
+        {
+            int level = levelOf(unifiedOptions, density(sstable));
+            while (levels.size() <= level)
+                levels.add(new ArrayList<>());
+            levels.get(level).add(sstable);
+        }
+        return levels;
+    }
+
+    @VisibleForTesting
+    static int levelOf(UnifiedCompactionStrategyOptions options, double density)
+    {
+        int level = 0;
+        double bound = (double) options.minSSTableSize * options.fanout(0);
+        while (density >= bound && level < MAX_LEVELS - 1)
+        {
+            level++;
+            bound *= options.fanout(level);
+        }
+        return level;
+    }
+
+    private double density(SSTableReader sstable)
+    {
+        return sstable.onDiskLength() / tokenSpan(sstable.first.getToken(), sstable.last.getToken());
+    }
+
+    /**
+     * @return the fraction of the token space between {@code first} and {@code last} (inclusive), or 1 if it's not
+     * known or too small to be meaningful.
+     */
+    private double tokenSpan(Token first, Token last)
+    {
+        if (!cfs.getPartitioner().splitter().isPresent() || first.compareTo(last) >= 0)
+            return 1.0;
+        double span = first.size(last);
+        return span < MINIMUM_TOKEN_COVERAGE ? 1.0 : span;
+    }
+
+    /**
+     * Returns the maximal sets of items that all overlap at some point, given the (inclusive) bounds of each item.
+     * An item can be part of more than one set.
+     */
+    @VisibleForTesting
+    static <T, P extends Comparable<? super P>> List<List<T>> overlappingSets(Collection<T> items, Function<T, P> start, Function<T, P> end)
+    {
+        List<T> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparing(start));
+
+        // the active items all contain the start of the last one added, and form a maximal set when we are about
+        // to remove some of them (or reach the end) after adding new ones
+        List<List<T>> sets = new ArrayList<>();
+        List<T> active = new ArrayList<>();
+        boolean added = false;
+        for (T item : sorted)
+        {
+            P itemStart = start.apply(item);
+            if (active.stream().anyMatch(a -> end.apply(a).compareTo(itemStart) < 0))
+            {
+                if (added)
+                    sets.add(new ArrayList<>(active));
+                added = false;
+                active.removeIf(a -> end.apply(a).compareTo(itemStart) < 0);
+            }
+            active.add(item);
+            added = true;
+        }
+        if (added)
+            sets.add(active);
+        return sets;
+    }
+
+    /**
+     * @return the (inclusive) upper bounds of the shards that the output of compacting {@code sstables} should be
+     * split into: enough shards so that each output sstable is about target_sstable_size (but at least
+     * base_shard_count). Shard counts are base_shard_count multiplied by a power of 2 so that the boundaries of
+     * lower shard counts are also boundaries of the higher ones.
+     */
+    @VisibleForTesting
+    List<Token> getShardBoundaries(Collection<SSTableReader> sstables)
+    {
+        IPartitioner partitioner = cfs.getPartitioner();
+        Optional<Splitter> splitter = partitioner.splitter();
+        if (!splitter.isPresent() || sstables.isEmpty())
+            return Collections.singletonList(partitioner.getMaximumToken());
+
+        long size = 0;
+        Token first = null;
+        Token last = null;
+        for (SSTableReader sstable : sstables)
+        {
+            size += sstable.onDiskLength();
+            if (first == null || sstable.first.getToken().compareTo(first) < 0)
+                first = sstable.first.getToken();
+            if (last == null || sstable.last.getToken().compareTo(last) > 0)
+                last = sstable.last.getToken();
+        }
+
+        int shards = shardCount(unifiedOptions, size / tokenSpan(first, last));
+        return shardBoundaries.computeIfAbsent(shards, count -> splitter.get().splitOwnedRanges(count,
+                                                                                                Collections.singletonList(new Range<>(partitioner.getMinimumToken(),
+                                                                                                                                      partitioner.getMaximumToken())),
+                                                                                                false));
+    }
+
+    @VisibleForTesting
+    static int shardCount(UnifiedCompactionStrategyOptions options, double density)
+    {
+        int base = options.baseShardCount;
+        long multiplier = Math.max(1, Long.highestOneBit((long) (density / ((double) options.targetSSTableSize * base))));
+        return (int) Math.min(UnifiedCompactionStrategyOptions.MAX_SHARD_COUNT, base * Math.min(multiplier, UnifiedCompactionStrategyOptions.MAX_SHARD_COUNT));
+    }
+
+    /**
+     * Groups the shards spanned by [first, last] into at most {@code groups} runs of contiguous shards of about the same
+     * length, and returns the upper bound of each run, the last one being the partitioner maximum token.
+     */
+    @VisibleForTesting
+    static List<Token> groupShards(List<Token> shardBoundaries, Token first, Token last, int groups)
+    {
+        int firstShard = shardIndexOf(shardBoundaries, first);
+        int spannedShards = shardIndexOf(shardBoundaries, last) - firstShard + 1;
+        int count = Math.min(groups, spannedShards);
+
+        List<Token> boundaries = new ArrayList<>(count);
+        for (int i = 1; i < count; i++)
+            boundaries.add(shardBoundaries.get(firstShard + i * spannedShards / count - 1));
+        boundaries.add(shardBoundaries.get(shardBoundaries.size() - 1));
+        return boundaries;
+    }
+
+    private static int shardIndexOf(List<Token> shardBoundaries, Token token)
+    {
+        int index = Collections.binarySearch(shardBoundaries, token);
+        return index >= 0 ? index : Math.min(-index - 1, shardBoundaries.size() - 1);
+    }
+
+    @SuppressWarnings("resource")
+    public AbstractCompactionTask getNextBackgroundTask(int gcBefore)
+    {
+        while (true)
+        {
+            List<SSTableReader> selected = getNextBackgroundSSTables(gcBefore);
+
+            if (selected.isEmpty())
+                return null;
+
+            LifecycleTransaction transaction = cfs.getTracker().tryModify(selected, OperationType.COMPACTION);
+            if (transaction != null)
+                return new UnifiedCompactionTask(cfs, transaction, gcBefore, getShardBoundaries(transaction.originals()));
+        }
+    }
+
+    @SuppressWarnings("resource")
+    public Collection<AbstractCompactionTask> getMaximalTask(final int gcBefore, boolean splitOutput)
+    {
+        Iterable<SSTableReader> filteredSSTables = filterSuspectSSTables(sstables);
+        if (Iterables.isEmpty(filteredSSTables))
+            return null;
+        LifecycleTransaction txn = cfs.getTracker().tryModify(filteredSSTables, OperationType.COMPACTION);
+        if (txn == null)
+            return null;
+        // the output is always split in shards, splitOutput doesn't change anything
+        return Collections.singletonList(new UnifiedCompactionTask(cfs, txn, gcBefore, getShardBoundaries(txn.originals())));
+    }
+
+    @SuppressWarnings("resource")
+    public AbstractCompactionTask getUserDefinedTask(Collection<SSTableReader> sstables, final int gcBefore)
+    {
+        assert !sstables.isEmpty(); // checked for by CM.submitUserDefined
+
+        LifecycleTransaction transaction = cfs.getTracker().tryModify(sstables, OperationType.COMPACTION);
+        if (transaction == null)
+        {
+            logger.trace("Unable to mark {} for compaction; probably a background compaction got to it first.  You can disable background compactions temporarily if this is a problem", sstables);
+            return null;
+        }
+
+        return new UnifiedCompactionTask(cfs, transaction, gcBefore, getShardBoundaries(transaction.originals())).setUserDefined(true);
+    }
+
+    public int getEstimatedRemainingTasks()
+    {
+        return estimatedRemainingTasks;
+    }
+
+    public long getMaxSSTableBytes()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Compactions of different shards, or of different levels of a shard, never pick the same sstables.
+     */
+    @Override
+    public boolean supportsConcurrentBackgroundTasks()
+    {
+        return true;
+    }
+
+    public static Map<String, String> validateOptions(Map<String, String> options) throws ConfigurationException
+    {
+        Map<String, String> uncheckedOptions = AbstractCompactionStrategy.validateOptions(options);
+        uncheckedOptions = UnifiedCompactionStrategyOptions.validateOptions(options, uncheckedOptions);
+
+        uncheckedOptions.remove(CompactionParams.Option.MIN_THRESHOLD.toString());
+        uncheckedOptions.remove(CompactionParams.Option.MAX_THRESHOLD.toString());
+
+        return uncheckedOptions;
+    }
+
+    @Override
+    public void addSSTable(SSTableReader added)
+    {
+        sstables.add(added);
+    }
+
+    @Override
+    public void removeSSTable(SSTableReader sstable)
+    {
+        sstables.remove(sstable);
+    }
+
+    @Override
+    protected Set<SSTableReader> getSSTables()
+    {
+        return ImmutableSet.copyOf(sstables);
+    }
+
+    public String toString()
+    {
+        return String.format("UnifiedCompactionStrategy[%s/%s]",
+                             Arrays.toString(unifiedOptions.scalingParameters),
+                             unifiedOptions.baseShardCount);
+    }
+
+    private static class UnifiedCompactionTask extends CompactionTask
+    {
+        private final List<Token> shardBoundaries;
+
+        public UnifiedCompactionTask(ColumnFamilyStore cfs, LifecycleTransaction txn, int gcBefore, List<Token> shardBoundaries)
+        {
+            super(cfs, txn, gcBefore);
+            this.shardBoundaries = shardBoundaries;
+        }
+
+        @Override
+        public CompactionAwareWriter getCompactionAwareWriter(ColumnFamilyStore cfs,
+                                                              Directories directories,
+                                                              LifecycleTransaction txn,
+                                                              Set<SSTableReader> nonExpiredSSTables)
+        {
+            return new ShardedCompactionWriter(cfs, directories, txn, nonExpiredSSTables, shardBoundaries);
+        }
+
+        /**
+         * Only splits at shard boundaries, so that the output is the same as that of a sequential compaction.
+         */
+        @Override
+        protected List<Range<Token>> getParallelSubRanges(Set<SSTableReader> sstables, int parallelism)
+        {
+            Bounds<Token> bounds = tokenBounds(sstables);
+            return rangesFromBoundaries(cfs.getPartitioner(), groupShards(shardBoundaries, bounds.left, bounds.right, parallelism));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.cassandra.exceptions.ConfigurationException;
+
+public final class UnifiedCompactionStrategyOptions
+{
+    protected static final String DEFAULT_SCALING_PARAMETERS = "T4";
+    protected static final long DEFAULT_MIN_SSTABLE_SIZE_IN_MB = 100;
+    protected static final long DEFAULT_TARGET_SSTABLE_SIZE_IN_MB = 1024;
+    protected static final int DEFAULT_BASE_SHARD_COUNT = 4;
+    protected static final int MAX_SHARD_COUNT = 1 << 16;
+
+    protected static final String SCALING_PARAMETERS_KEY = "scaling_parameters";
+    protected static final String MIN_SSTABLE_SIZE_KEY = "min_sstable_size_in_mb";
+    protected static final String TARGET_SSTABLE_SIZE_KEY = "target_sstable_size_in_mb";
+    protected static final String BASE_SHARD_COUNT_KEY = "base_shard_count";
+
+    /** the scaling parameter (W) of each level, the last one applying to all the levels above it */
+    protected final int[] scalingParameters;
+    protected final long minSSTableSize;
+    protected final long targetSSTableSize;
+    protected final int baseShardCount;
+
+    public UnifiedCompactionStrategyOptions(Map<String, String> options)
+    {
+        String optionValue = options.get(SCALING_PARAMETERS_KEY);
+        scalingParameters = parseScalingParameters(optionValue == null ? DEFAULT_SCALING_PARAMETERS : optionValue);
+
+        optionValue = options.get(MIN_SSTABLE_SIZE_KEY);
+        minSSTableSize = (optionValue == null ? DEFAULT_MIN_SSTABLE_SIZE_IN_MB : Long.parseLong(optionValue)) << 20;
+
+        optionValue = options.get(TARGET_SSTABLE_SIZE_KEY);
+        targetSSTableSize = (optionValue == null ? DEFAULT_TARGET_SSTABLE_SIZE_IN_MB : Long.parseLong(optionValue)) << 20;
+
+        optionValue = options.get(BASE_SHARD_COUNT_KEY);
+        baseShardCount = optionValue == null ? DEFAULT_BASE_SHARD_COUNT : Integer.parseInt(optionValue);
+    }
+
+    public UnifiedCompactionStrategyOptions()
+    {
+        scalingParameters = parseScalingParameters(DEFAULT_SCALING_PARAMETERS);
+        minSSTableSize = DEFAULT_MIN_SSTABLE_SIZE_IN_MB << 20;
+        targetSSTableSize = DEFAULT_TARGET_SSTABLE_SIZE_IN_MB << 20;
+        baseShardCount = DEFAULT_BASE_SHARD_COUNT;
+    }
+
+    /**
+     * Parses a comma separated list of scaling parameters. Each of them is either an integer W, or one of:
+     * <ul>
+     *     <li>{@code Tn}: tiered with a threshold of n sstables, i.e. W = n - 2</li>
+     *     <li>{@code Ln}: leveled with a fanout of n, i.e. W = 2 - n</li>
+     *     <li>{@code N}: the middle ground between the two, i.e. W = 0</li>
+     * </ul>
+     */
+    static int[] parseScalingParameters(String value)
+    {
+        return Arrays.stream(value.split(",")).mapToInt(s -> parseScalingParameter(s.trim())).toArray();
+    }
+
+    static int parseScalingParameter(String value)
+    {
+        if (value.equals("N"))
+            return 0;
+
+        char type = value.isEmpty() ? ' ' : value.charAt(0);
+        if (type == 'T' || type == 'L')
+        {
+            int n = Integer.parseInt(value.substring(1));
+            if (n < 2)
+                throw new IllegalArgumentException(String.format("%s must be at least 2 in %s", type == 'T' ? "Threshold" : "Fanout", value));
+            return type == 'T' ? n - 2 : 2 - n;
+        }
+        return Integer.parseInt(value);
+    }
+
+    public int scalingParameter(int level)
+    {
+        return scalingParameters[Math.min(level, scalingParameters.length - 1)];
+    }
+
+    /**
+     * @return the ratio between the densities of {@code level} and the next level.
+     */
+    public int fanout(int level)
+    {
+        return 2 + Math.abs(scalingParameter(level));
+    }
+
+    /**
+     * @return the number of overlapping sstables in {@code level} that triggers a compaction.
+     */
+    public int threshold(int level)
+    {
+        int w = scalingParameter(level);
+        return w >= 0 ? 2 + w : 2;
+    }
+
+    public static Map<String, String> validateOptions(Map<String, String> options, Map<String, String> uncheckedOptions) throws ConfigurationException
+    {
+        String optionValue = options.get(SCALING_PARAMETERS_KEY);
+        try
+        {
+            if (optionValue != null)
+                parseScalingParameters(optionValue);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ConfigurationException(String.format("%s is not valid for %s: %s", optionValue, SCALING_PARAMETERS_KEY, e.getMessage()), e);
+        }
+
+        validatePositiveLong(options, MIN_SSTABLE_SIZE_KEY);
+        validatePositiveLong(options, TARGET_SSTABLE_SIZE_KEY);
+
+        optionValue = options.get(BASE_SHARD_COUNT_KEY);
+        try
+        {
+            int shards = optionValue == null ? DEFAULT_BASE_SHARD_COUNT : Integer.parseInt(optionValue);
+            if (shards < 1 || shards > MAX_SHARD_COUNT)
+                throw new ConfigurationException(String.format("%s must be between 1 and %d, but was %d", BASE_SHARD_COUNT_KEY, MAX_SHARD_COUNT, shards));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigurationException(String.format("%s is not a parsable int (base10) for %s", optionValue, BASE_SHARD_COUNT_KEY), e);
+        }
+
+        uncheckedOptions.remove(SCALING_PARAMETERS_KEY);
+        uncheckedOptions.remove(MIN_SSTABLE_SIZE_KEY);
+        uncheckedOptions.remove(TARGET_SSTABLE_SIZE_KEY);
+        uncheckedOptions.remove(BASE_SHARD_COUNT_KEY);
+
+        return uncheckedOptions;
+    }
+
+    private static void validatePositiveLong(Map<String, String> options, String key) throws ConfigurationException
+    {
+        String optionValue = options.get(key);
+        try
+        {
+            if (optionValue != null && Long.parseLong(optionValue) <= 0)
+                throw new ConfigurationException(String.format("%s must be positive, but was %s", key, optionValue));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigurationException(String.format("%s is not a parsable int (base10) for %s", optionValue, key), e);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Scaling parameters: %s, min sstable size: %d, target sstable size: %d, base shard count: %d",
+                             Arrays.toString(scalingParameters), minSSTableSize, targetSSTableSize, baseShardCount);
+    }
+}
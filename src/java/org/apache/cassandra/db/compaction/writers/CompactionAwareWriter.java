@@ -125,6 +125,25 @@ public abstract class CompactionAwareWriter extends Transactional.AbstractTransa
         return sstableWriter.finished();
     }
 
+    /**
+     * Makes this writer one of several writing disjoint parts of the output of the same transaction concurrently, see
+     * {@link SSTableRewriter#sharingTransaction()}. The caller is then in charge of adding the {@link #finished()}
+     * sstables to the transaction and of preparing and committing it between our own prepare and commit.
+     */
+    public CompactionAwareWriter sharingTransaction()
+    {
+        sstableWriter.sharingTransaction();
+        return this;
+    }
+
+    /**
+     * @return the sstables written, once prepared
+     */
+    public Collection<SSTableReader> finished()
+    {
+        return sstableWriter.finished();
+    }
+
     /**
      * estimated number of keys we should write
      */
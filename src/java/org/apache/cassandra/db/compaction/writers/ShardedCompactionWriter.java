@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction.writers;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.db.SerializationHeader;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.format.SSTableWriter;
+import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
+
+/**
+ * CompactionAwareWriter that starts a new sstable at each of the given token boundaries (shards), so that no output
+ * sstable spans more than one shard. Shards that don't get any data don't produce any sstable.
+ */
+public class ShardedCompactionWriter extends CompactionAwareWriter
+{
+    // the (inclusive) upper bound of each shard, the last one being the partitioner maximum token
+    private final List<Token> shardBoundaries;
+    private final Set<SSTableReader> allSSTables;
+    private final long estimatedKeysPerShard;
+    private Directories.DataDirectory location;
+    private int shardIndex = 0;
+
+    public ShardedCompactionWriter(ColumnFamilyStore cfs,
+                                   Directories directories,
+                                   LifecycleTransaction txn,
+                                   Set<SSTableReader> nonExpiredSSTables,
+                                   List<Token> shardBoundaries)
+    {
+        super(cfs, directories, txn, nonExpiredSSTables, false);
+        this.allSSTables = txn.originals();
+        this.shardBoundaries = shardBoundaries;
+
+        // only count the shards the input actually spans so that we don't underestimate the keys of each output
+        Token first = null;
+        Token last = null;
+        for (SSTableReader sstable : nonExpiredSSTables)
+        {
+            if (first == null || sstable.first.getToken().compareTo(first) < 0)
+                first = sstable.first.getToken();
+            if (last == null || sstable.last.getToken().compareTo(last) > 0)
+                last = sstable.last.getToken();
+        }
+        int spannedShards = first == null ? 1 : shardIndexOf(last) - shardIndexOf(first) + 1;
+        estimatedKeysPerShard = Math.max(1, estimatedTotalKeys / spannedShards);
+    }
+
+    private int shardIndexOf(Token token)
+    {
+        int index = 0;
+        while (index < shardBoundaries.size() - 1 && token.compareTo(shardBoundaries.get(index)) > 0)
+            index++;
+        return index;
+    }
+
+    @Override
+    protected boolean realAppend(UnfilteredRowIterator partition)
+    {
+        Token token = partition.partitionKey().getToken();
+        if (token.compareTo(shardBoundaries.get(shardIndex)) > 0)
+        {
+            shardIndex = shardIndexOf(token);
+            logger.trace("Switching writer for shard {} ending at {}", shardIndex, shardBoundaries.get(shardIndex));
+            switchCompactionLocation(location);
+        }
+        return sstableWriter.append(partition) != null;
+    }
+
+    @Override
+    public void switchCompactionLocation(Directories.DataDirectory location)
+    {
+        this.location = location;
+        @SuppressWarnings("resource")
+        SSTableWriter writer = SSTableWriter.create(cfs.newSSTableDescriptor(getDirectories().getLocationForDisk(location)),
+                                                    estimatedKeysPerShard,
+                                                    minRepairedAt,
+                                                    pendingRepair,
+                                                    cfs.metadata,
+                                                    new MetadataCollector(allSSTables, cfs.metadata().comparator, 0),
+                                                    SerializationHeader.make(cfs.metadata(), nonExpiredSSTables),
+                                                    cfs.indexManager.listIndexes(),
+                                                    txn);
+        sstableWriter.switchWriter(writer);
+    }
+}
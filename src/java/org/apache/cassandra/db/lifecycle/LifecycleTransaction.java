@@ -524,12 +524,13 @@ public class LifecycleTransaction extends Transactional.AbstractTransactional
         return getFirst(originals, null);
     }
 
-    public void trackNew(SSTable table)
+    // synchronized as writers sharing the transaction (see SSTableRewriter#sharingTransaction) may create sstables concurrently
+    public synchronized void trackNew(SSTable table)
     {
         log.trackNew(table);
     }
 
-    public void untrackNew(SSTable table)
+    public synchronized void untrackNew(SSTable table)
     {
         log.untrackNew(table);
     }
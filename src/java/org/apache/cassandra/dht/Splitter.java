@@ -118,6 +118,42 @@ public abstract class Splitter
         return boundaries;
     }
 
+    /**
+     * @return the {@code index}-th of {@code count} segments of (roughly) equal width covering the whole ring
+     */
+    public Range<Token> segment(int index, int count)
+    {
+        assert index >= 0 && index < count : index + " not in [0, " + count + ")";
+        return new Range<>(segmentBound(index, count), segmentBound(index + 1, count));
+    }
+
+    /**
+     * @return the index of the segment containing {@code token} among {@code count} segments of (roughly) equal width
+     * covering the whole ring (see {@link #segment(int, int)})
+     */
+    public int segmentOf(Token token, int count)
+    {
+        BigInteger min = valueForToken(partitioner.getMinimumToken());
+        BigInteger width = valueForToken(partitioner.getMaximumToken()).subtract(min);
+        BigInteger offset = valueForToken(token).subtract(min);
+        int index = offset.multiply(BigInteger.valueOf(count)).divide(width).min(BigInteger.valueOf(count - 1)).intValue();
+        // segments include their upper bound, which the division attributes to the next one
+        while (index > 0 && token.compareTo(segmentBound(index, count)) <= 0)
+            index--;
+        while (index < count - 1 && token.compareTo(segmentBound(index + 1, count)) > 0)
+            index++;
+        return index;
+    }
+
+    private Token segmentBound(int index, int count)
+    {
+        if (index == count)
+            return partitioner.getMaximumToken();
+        BigInteger min = valueForToken(partitioner.getMinimumToken());
+        BigInteger width = valueForToken(partitioner.getMaximumToken()).subtract(min);
+        return tokenForValue(min.add(width.multiply(BigInteger.valueOf(index)).divide(BigInteger.valueOf(count))));
+    }
+
     /**
      * We avoid calculating for wrap around ranges, instead we use the actual max token, and then, when translating
      * to PartitionPositions, we include tokens from .minKeyBound to .maxKeyBound to make sure we include all tokens.
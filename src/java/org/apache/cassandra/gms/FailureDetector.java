@@ -28,6 +28,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeData;
@@ -59,6 +60,11 @@ public class FailureDetector implements IFailureDetector, FailureDetectorMBean
     private long lastInterpret = Clock.instance.nanoTime();
     private long lastPause = 0L;
 
+    // shorter local pauses barely change the inter-arrival times, and busy nodes have them all the time
+    private static final long MIN_REPORTED_LOCAL_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // total time the local JVM was paused, as reported by GCInspector
+    private static final AtomicLong localPauseNanos = new AtomicLong();
+
     private static long getMaxLocalPause()
     {
         if (System.getProperty("cassandra.max_local_pause_in_ms") != null)
@@ -110,6 +116,21 @@ public class FailureDetector implements IFailureDetector, FailureDetectorMBean
         }
     }
 
+    /**
+     * Reports that the local JVM was paused, so that the endpoints we didn't hear from meanwhile aren't convicted
+     * because of it.
+     */
+    public static void reportLocalPause(long pauseNanos)
+    {
+        if (pauseNanos >= MIN_REPORTED_LOCAL_PAUSE_NANOS)
+            localPauseNanos.addAndGet(pauseNanos);
+    }
+
+    static long getLocalPauseNanos()
+    {
+        return localPauseNanos.get();
+    }
+
     public String getAllEndpointStates()
     {
         StringBuilder sb = new StringBuilder();
@@ -307,7 +328,7 @@ public class FailureDetector implements IFailureDetector, FailureDetectorMBean
         if (PHI_FACTOR * phi > getPhiConvictThreshold())
         {
             if (logger.isTraceEnabled())
-                logger.trace("Node {} phi {} > {}; intervals: {} mean: {}ns", new Object[]{ep, PHI_FACTOR * phi, getPhiConvictThreshold(), hbWnd, hbWnd.mean()});
+                logger.trace("Node {} phi {} > {}; intervals {}", new Object[]{ep, PHI_FACTOR * phi, getPhiConvictThreshold(), hbWnd});
             for (IFailureDetectionEventListener listener : fdEvntListeners)
             {
                 listener.convict(ep, phi);
@@ -366,62 +387,21 @@ public class FailureDetector implements IFailureDetector, FailureDetectorMBean
     }
 }
 
-/*
- This class is not thread safe.
- */
-class ArrayBackedBoundedStats
-{
-    private final long[] arrivalIntervals;
-    private long sum = 0;
-    private int index = 0;
-    private boolean isFilled = false;
-    private volatile double mean = 0;
-
-    public ArrayBackedBoundedStats(final int size)
-    {
-        arrivalIntervals = new long[size];
-    }
-
-    public void add(long interval)
-    {
-        if(index == arrivalIntervals.length)
-        {
-            isFilled = true;
-            index = 0;
-        }
-
-        if(isFilled)
-            sum = sum - arrivalIntervals[index];
-
-        arrivalIntervals[index++] = interval;
-        sum += interval;
-        mean = (double)sum / size();
-    }
-
-    private int size()
-    {
-        return isFilled ? arrivalIntervals.length : index;
-    }
-
-    public double mean()
-    {
-        return mean;
-    }
-
-    public long[] getArrivalIntervals()
-    {
-        return arrivalIntervals;
-    }
-
-}
-
 class ArrivalWindow
 {
     private static final Logger logger = LoggerFactory.getLogger(ArrivalWindow.class);
     private long tLast = 0L;
-    private final ArrayBackedBoundedStats arrivalIntervals;
+    // local pause time reported when the last arrival was recorded
+    private long pauseAtLast = 0L;
     private double lastReportedPhi = Double.MIN_VALUE;
 
+    // the inter-arrival times are summarized by their exponentially weighted moving mean and variance, so that
+    // adding an arrival and computing phi take constant time and no memory, whatever the number of samples
+    private final double alpha;
+    private long count = 0;
+    private volatile double mean = 0;
+    private double variance = 0;
+
     // in the event of a long partition, never record an interval longer than the rpc timeout,
     // since if a host is regularly experiencing connectivity problems lasting this long we'd
     // rather mark it down quickly instead of adapting
@@ -430,7 +410,8 @@ class ArrivalWindow
 
     ArrivalWindow(int size)
     {
-        arrivalIntervals = new ArrayBackedBoundedStats(size);
+        // weigh the samples so that their average age is the same as in a window of the given size
+        alpha = 2.0 / (size + 1);
     }
 
     private static long getMaxInterval()
@@ -450,12 +431,14 @@ class ArrivalWindow
     synchronized void add(long value, InetAddress ep)
     {
         assert tLast >= 0;
+        long pause = FailureDetector.getLocalPauseNanos();
         if (tLast > 0L)
         {
-            long interArrivalTime = (value - tLast);
+            // the time we were paused ourselves is not held against the endpoint, as in phi()
+            long interArrivalTime = Math.max(0, value - tLast - (pause - pauseAtLast));
             if (interArrivalTime <= MAX_INTERVAL_IN_NANO)
             {
-                arrivalIntervals.add(interArrivalTime);
+                addInterval(interArrivalTime);
                 logger.trace("Reporting interval time of {}ns for {}", interArrivalTime, ep);
             }
             else
@@ -468,22 +451,34 @@ class ArrivalWindow
             // We use a very large initial interval since the "right" average depends on the cluster size
             // and it's better to err high (false negatives, which will be corrected by waiting a bit longer)
             // than low (false positives, which cause "flapping").
-            arrivalIntervals.add(FailureDetector.INITIAL_VALUE_NANOS);
+            addInterval(FailureDetector.INITIAL_VALUE_NANOS);
         }
         tLast = value;
+        pauseAtLast = pause;
+    }
+
+    private void addInterval(long interval)
+    {
+        // until there are enough samples for the weights to make sense, this is the plain average of the samples
+        double weight = Math.max(alpha, 1.0 / ++count);
+        double diff = interval - mean;
+        double increment = weight * diff;
+        mean += increment;
+        variance = (1 - weight) * (variance + diff * increment);
     }
 
     double mean()
     {
-        return arrivalIntervals.mean();
+        return mean;
     }
 
     // see CASSANDRA-2597 for an explanation of the math at work here.
     double phi(long tnow)
     {
-        assert arrivalIntervals.mean() > 0 && tLast > 0; // should not be called before any samples arrive
-        long t = tnow - tLast;
-        lastReportedPhi = t / mean();
+        assert mean > 0 && tLast > 0; // should not be called before any samples arrive
+        // the time we were paused ourselves is not held against the endpoint
+        long t = Math.max(0, tnow - tLast - (FailureDetector.getLocalPauseNanos() - pauseAtLast));
+        lastReportedPhi = t / mean;
         return lastReportedPhi;
     }
 
@@ -492,9 +487,9 @@ class ArrivalWindow
         return lastReportedPhi;
     }
 
-    public String toString()
+    public synchronized String toString()
     {
-        return Arrays.toString(arrivalIntervals.getArrivalIntervals());
+        return String.format("mean: %.0fns, stddev: %.0fns", mean, Math.sqrt(variance));
     }
 }
 
@@ -44,6 +44,7 @@ import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.metrics.GossipMetrics;
 import org.apache.cassandra.net.IAsyncCallback;
 import org.apache.cassandra.net.MessageIn;
 import org.apache.cassandra.net.MessageOut;
@@ -148,6 +149,7 @@ public class Gossiper implements IFailureDetectionEventListener, GossiperMBean
                 MessagingService.instance().waitUntilListening();
 
                 taskLock.lock();
+                long start = System.nanoTime();
 
                 /* Update the local heartbeat counter. */
                 endpointStateMap.get(FBUtilities.getBroadcastAddress()).getHeartBeatState().updateHeartBeat();
@@ -158,6 +160,7 @@ public class Gossiper implements IFailureDetectionEventListener, GossiperMBean
 
                 if (gDigests.size() > 0)
                 {
+                    GossipMetrics.digestsPerRound.update(gDigests.size());
                     GossipDigestSyn digestSynMessage = new GossipDigestSyn(DatabaseDescriptor.getClusterName(),
                                                                            DatabaseDescriptor.getPartitionerName(),
                                                                            gDigests);
@@ -191,6 +194,7 @@ public class Gossiper implements IFailureDetectionEventListener, GossiperMBean
 
                     doStatusCheck();
                 }
+                GossipMetrics.roundTime.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             }
             catch (Exception e)
             {
@@ -1120,6 +1124,19 @@ public class Gossiper implements IFailureDetectionEventListener, GossiperMBean
     }
 
     void applyStateLocally(Map<InetAddress, EndpointState> epStateMap)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doApplyStateLocally(epStateMap);
+        }
+        finally
+        {
+            GossipMetrics.stateApplicationTime.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void doApplyStateLocally(Map<InetAddress, EndpointState> epStateMap)
     {
         for (Entry<InetAddress, EndpointState> entry : epStateMap.entrySet())
         {
@@ -1203,10 +1220,24 @@ public class Gossiper implements IFailureDetectionEventListener, GossiperMBean
 
         Set<Entry<ApplicationState, VersionedValue>> remoteStates = remoteState.states();
         assert remoteState.getHeartBeatState().getGeneration() == localState.getHeartBeatState().getGeneration();
-        localState.addApplicationStates(remoteStates);
 
+        // the same states usually reach us from several nodes, only apply and notify the ones we don't have yet
+        Map<ApplicationState, VersionedValue> newStates = new EnumMap<>(ApplicationState.class);
         for (Entry<ApplicationState, VersionedValue> remoteEntry : remoteStates)
-            doOnChangeNotifications(addr, remoteEntry.getKey(), remoteEntry.getValue());
+        {
+            VersionedValue localValue = localState.getApplicationState(remoteEntry.getKey());
+            if (localValue == null || localValue.version < remoteEntry.getValue().version)
+                newStates.put(remoteEntry.getKey(), remoteEntry.getValue());
+        }
+        GossipMetrics.statesApplied.mark(newStates.size());
+        GossipMetrics.staleStatesIgnored.mark(remoteStates.size() - newStates.size());
+        if (newStates.isEmpty())
+            return;
+
+        localState.addApplicationStates(newStates);
+
+        for (Entry<ApplicationState, VersionedValue> newEntry : newStates.entrySet())
+            doOnChangeNotifications(addr, newEntry.getKey(), newEntry.getValue());
     }
 
     // notify that a local application state is going to change (doesn't get triggered for remote changes)
@@ -62,6 +62,9 @@ public class CompressedSequentialWriter extends SequentialWriter
 
     private final int maxCompressedLength;
 
+    private final CompressionParams parameters;
+    private PrecompressedChunks precompressedChunks;
+
     /**
      * Create CompressedSequentialWriter without digest file.
      *
@@ -87,6 +90,7 @@ public class CompressedSequentialWriter extends SequentialWriter
                             .finishOnClose(option.finishOnClose())
                             .build());
         this.compressor = parameters.getSstableCompressor();
+        this.parameters = parameters;
         this.digestFile = Optional.ofNullable(digestFile);
 
         // buffer for compression should be the same size as buffer itself
@@ -101,6 +105,32 @@ public class CompressedSequentialWriter extends SequentialWriter
         crcMetadata = new ChecksumWriter(new DataOutputStream(Channels.newOutputStream(channel)));
     }
 
+    /**
+     * Provides chunks already compressed with the same parameters as this file, such as the ones received by streaming,
+     * to write instead of compressing the same data again.
+     */
+    public interface PrecompressedChunks
+    {
+        CompressionParams parameters();
+
+        /**
+         * @param uncompressed the data of the chunk to write, between its position and limit, which must not change
+         * @return the chunk compressed, between its position and limit, or null if it isn't known
+         */
+        ByteBuffer compressed(ByteBuffer uncompressed);
+    }
+
+    /**
+     * Writes the chunks known by {@code precompressedChunks} as they are from now on, unless they were compressed with
+     * other parameters.
+     */
+    public void usePrecompressedChunks(PrecompressedChunks precompressedChunks)
+    {
+        CompressionParams chunksParameters = precompressedChunks.parameters();
+        if (parameters.equals(chunksParameters) && parameters.maxCompressedLength() == chunksParameters.maxCompressedLength())
+            this.precompressedChunks = precompressedChunks;
+    }
+
     @Override
     public long getOnDiskFilePointer()
     {
@@ -136,25 +166,39 @@ public class CompressedSequentialWriter extends SequentialWriter
     {
         seekToChunkStart(); // why is this necessary? seems like it should always be at chunk start in normal operation
 
-        try
+        buffer.flip();
+        ByteBuffer toWrite = precompressedChunks == null ? null : precompressedChunks.compressed(buffer);
+        int compressedLength;
+        if (toWrite != null)
         {
-            // compressing data with buffer re-use
-            buffer.flip();
-            compressed.clear();
-            compressor.compress(buffer, compressed);
+            // stored as is, compressed or not, as we have the same parameters
+            toWrite = toWrite.slice();
+            compressedLength = toWrite.remaining();
+            uncompressedSize += buffer.remaining();
+            buffer.position(buffer.limit());
         }
-        catch (IOException e)
+        else
         {
-            throw new RuntimeException("Compression exception", e); // shouldn't happen
-        }
+            try
+            {
+                // compressing data with buffer re-use
+                compressed.clear();
+                compressor.compress(buffer, compressed);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Compression exception", e); // shouldn't happen
+            }
 
-        int compressedLength = compressed.position();
-        uncompressedSize += buffer.position();
-        ByteBuffer toWrite = compressed;
-        if (compressedLength > maxCompressedLength)
-        {
-            toWrite = buffer;
-            compressedLength = buffer.position();
+            compressedLength = compressed.position();
+            uncompressedSize += buffer.position();
+            toWrite = compressed;
+            if (compressedLength > maxCompressedLength)
+            {
+                toWrite = buffer;
+                compressedLength = buffer.position();
+            }
+            toWrite.flip();
         }
         compressedSize += compressedLength;
 
@@ -165,7 +209,6 @@ public class CompressedSequentialWriter extends SequentialWriter
             chunkCount++;
 
             // write out the compressed data
-            toWrite.flip();
             channel.write(toWrite);
 
             // write corresponding checksum
@@ -54,6 +54,8 @@ public class Component
         SUMMARY("Summary.db"),
         // table of contents, stores the list of all components for the sstable
         TOC("TOC.txt"),
+        // digests of the partitions, by token segment, used by repair validations (optional, written after the others)
+        RANGE_DIGESTS("RangeDigests.db"),
         // built-in secondary index (may be multiple per sstable)
         SECONDARY_INDEX("SI_.*.db"),
         // custom component, used by e.g. custom compaction strategy
@@ -86,6 +88,7 @@ public class Component
     public final static Component CRC = new Component(Type.CRC);
     public final static Component SUMMARY = new Component(Type.SUMMARY);
     public final static Component TOC = new Component(Type.TOC);
+    public final static Component RANGE_DIGESTS = new Component(Type.RANGE_DIGESTS);
 
     public final Type type;
     public final String name;
@@ -136,6 +139,7 @@ public class Component
             case CRC:              return Component.CRC;
             case SUMMARY:          return Component.SUMMARY;
             case TOC:              return Component.TOC;
+            case RANGE_DIGESTS:    return Component.RANGE_DIGESTS;
             case SECONDARY_INDEX:  return new Component(Type.SECONDARY_INDEX, name);
             case CUSTOM:           return new Component(Type.CUSTOM, name);
             default:               throw new AssertionError();
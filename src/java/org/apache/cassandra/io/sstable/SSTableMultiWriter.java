@@ -21,6 +21,7 @@ package org.apache.cassandra.io.sstable;
 import java.util.Collection;
 
 import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.io.compress.CompressedSequentialWriter;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.schema.TableId;
 import org.apache.cassandra.utils.Throwables;
@@ -42,6 +43,11 @@ public interface SSTableMultiWriter extends Transactional
 
     SSTableMultiWriter setOpenResult(boolean openResult);
 
+    /**
+     * @see org.apache.cassandra.io.sstable.format.SSTableWriter#usePrecompressedChunks
+     */
+    void usePrecompressedChunks(CompressedSequentialWriter.PrecompressedChunks chunks);
+
     String getFilename();
     long getFilePointer();
     TableId getTableId();
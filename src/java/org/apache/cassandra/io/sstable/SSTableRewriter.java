@@ -66,6 +66,9 @@ public class SSTableRewriter extends Transactional.AbstractTransactional impleme
 
     private final List<SSTableWriter> writers = new ArrayList<>();
     private final boolean keepOriginals; // true if we do not want to obsolete the originals
+    // true if other rewriters are writing other (disjoint) parts of the output of the transaction concurrently,
+    // in which case we never open early and leave updating and committing the transaction to its owner
+    private boolean sharedTransaction;
 
     private SSTableWriter writer;
     private Map<DecoratedKey, RowIndexEntry> cachedKeys = new HashMap<>();
@@ -122,6 +125,18 @@ public class SSTableRewriter extends Transactional.AbstractTransactional impleme
         return interval;
     }
 
+    /**
+     * Makes this rewriter one of several writing the output of the same transaction concurrently. Only our own writers
+     * are then prepared and committed, and it is up to the owner of the transaction to add the {@link #finished()}
+     * sstables to it and to commit it. Must be called before any writer is added.
+     */
+    public SSTableRewriter sharingTransaction()
+    {
+        assert writers.isEmpty();
+        sharedTransaction = true;
+        return this;
+    }
+
     public SSTableWriter currentWriter()
     {
         return writer;
@@ -164,7 +179,7 @@ public class SSTableRewriter extends Transactional.AbstractTransactional impleme
 
     private void maybeReopenEarly(DecoratedKey key)
     {
-        if (writer.getFilePointer() - currentlyOpenedEarlyAt > preemptiveOpenInterval)
+        if (!sharedTransaction && writer.getFilePointer() - currentlyOpenedEarlyAt > preemptiveOpenInterval)
         {
             if (transaction.isOffline())
             {
@@ -194,7 +209,8 @@ public class SSTableRewriter extends Transactional.AbstractTransactional impleme
         for (SSTableWriter writer : writers)
             accumulate = writer.abort(accumulate);
         // abort the lifecycle transaction
-        accumulate = transaction.abort(accumulate);
+        if (!sharedTransaction)
+            accumulate = transaction.abort(accumulate);
         return accumulate;
     }
 
@@ -203,7 +219,8 @@ public class SSTableRewriter extends Transactional.AbstractTransactional impleme
         for (SSTableWriter writer : writers)
             accumulate = writer.commit(accumulate);
 
-        accumulate = transaction.commit(accumulate);
+        if (!sharedTransaction)
+            accumulate = transaction.commit(accumulate);
         return accumulate;
     }
 
@@ -271,6 +288,30 @@ public class SSTableRewriter extends Transactional.AbstractTransactional impleme
         }
     }
 
+    /**
+     * Shared rewriters never open early, so the keys cached for the originals are moved to our final readers
+     * once they are all written, and invalidated for the originals once these are released.
+     */
+    private void moveCachedKeys()
+    {
+        if (transaction.isOffline() || cachedKeys.isEmpty())
+            return;
+
+        for (SSTableReader reader : preparedForCommit)
+        {
+            reader.setupOnline();
+            for (Map.Entry<DecoratedKey, RowIndexEntry> cacheKey : cachedKeys.entrySet())
+            {
+                if (cacheKey.getKey().compareTo(reader.first) >= 0 && cacheKey.getKey().compareTo(reader.last) <= 0)
+                    reader.cacheKey(cacheKey.getKey(), cacheKey.getValue());
+            }
+        }
+
+        for (SSTableReader sstable : transaction.originals())
+            sstable.runOnClose(new InvalidateKeys(sstable, cachedKeys.keySet()));
+        cachedKeys.clear();
+    }
+
     private static final class InvalidateKeys implements Runnable
     {
         final List<KeyCacheKey> cacheKeys = new ArrayList<>();
@@ -316,7 +357,7 @@ public class SSTableRewriter extends Transactional.AbstractTransactional impleme
             return;
         }
 
-        if (preemptiveOpenInterval != Long.MAX_VALUE)
+        if (preemptiveOpenInterval != Long.MAX_VALUE && !sharedTransaction)
         {
             // we leave it as a tmp file, but we open it and add it to the Tracker
             SSTableReader reader = writer.setMaxDataAge(maxAge).openFinalEarly();
@@ -378,9 +419,16 @@ public class SSTableRewriter extends Transactional.AbstractTransactional impleme
             assert writer.getFilePointer() > 0;
             writer.setRepairedAt(repairedAt).setOpenResult(true).prepareToCommit();
             SSTableReader reader = writer.finished();
-            transaction.update(reader, false);
+            if (!sharedTransaction)
+                transaction.update(reader, false);
             preparedForCommit.add(reader);
         }
+        if (sharedTransaction)
+        {
+            moveCachedKeys();
+            return;
+        }
+
         transaction.checkpoint();
 
         if (throwLate)
@@ -26,6 +26,7 @@ import org.apache.cassandra.db.SerializationHeader;
 import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
 import org.apache.cassandra.db.rows.UnfilteredRowIterator;
 import org.apache.cassandra.index.Index;
+import org.apache.cassandra.io.compress.CompressedSequentialWriter;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.sstable.format.SSTableWriter;
 import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
@@ -70,6 +71,11 @@ public class SimpleSSTableMultiWriter implements SSTableMultiWriter
         return this;
     }
 
+    public void usePrecompressedChunks(CompressedSequentialWriter.PrecompressedChunks chunks)
+    {
+        writer.usePrecompressedChunks(chunks);
+    }
+
     public String getFilename()
     {
         return writer.getFilename();
@@ -30,6 +30,7 @@ import org.apache.cassandra.db.PartitionPosition;
 import org.apache.cassandra.db.SerializationHeader;
 import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
 import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.io.compress.CompressedSequentialWriter;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTableMultiWriter;
 import org.apache.cassandra.schema.TableId;
@@ -52,6 +53,7 @@ public class RangeAwareSSTableWriter implements SSTableMultiWriter
     private final List<SSTableMultiWriter> finishedWriters = new ArrayList<>();
     private final List<SSTableReader> finishedReaders = new ArrayList<>();
     private SSTableMultiWriter currentWriter = null;
+    private CompressedSequentialWriter.PrecompressedChunks precompressedChunks = null;
 
     public RangeAwareSSTableWriter(ColumnFamilyStore cfs, long estimatedKeys, long repairedAt, UUID pendingRepair, SSTableFormat.Type format, int sstableLevel, long totalSize, LifecycleTransaction txn, SerializationHeader header) throws IOException
     {
@@ -95,6 +97,8 @@ public class RangeAwareSSTableWriter implements SSTableMultiWriter
 
             Descriptor desc = cfs.newSSTableDescriptor(cfs.getDirectories().getLocationForDisk(directories[currentIndex]), format);
             currentWriter = cfs.createSSTableMultiWriter(desc, estimatedKeys, repairedAt, pendingRepair, sstableLevel, header, txn);
+            if (precompressedChunks != null)
+                currentWriter.usePrecompressedChunks(precompressedChunks);
         }
     }
 
@@ -150,6 +154,14 @@ public class RangeAwareSSTableWriter implements SSTableMultiWriter
         return this;
     }
 
+    @Override
+    public void usePrecompressedChunks(CompressedSequentialWriter.PrecompressedChunks chunks)
+    {
+        precompressedChunks = chunks;
+        if (currentWriter != null)
+            currentWriter.usePrecompressedChunks(chunks);
+    }
+
     public String getFilename()
     {
         return String.join("/", cfs.keyspace.getName(), cfs.getTableName());
@@ -18,6 +18,7 @@
 package org.apache.cassandra.io.sstable.format;
 
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.DeletionTime;
 import org.apache.cassandra.db.rows.Unfiltered;
 
 /**
@@ -39,6 +40,16 @@ public interface SSTableFlushObserver
      */
     void startPartition(DecoratedKey key, long indexPosition);
 
+    /**
+     * Called after {@code startPartition(DecoratedKey, long)} with the deletion of the whole partition, before any of
+     * its cells are processed.
+     *
+     * @param deletionTime The partition level deletion of the partition being written.
+     */
+    default void partitionLevelDeletion(DeletionTime deletionTime)
+    {
+    }
+
     /**
      * Called after the unfiltered cluster is written to the sstable.
      * Will be preceded by a call to {@code startPartition(DecoratedKey, long)},
@@ -1512,7 +1512,7 @@ public abstract class SSTableReader extends SSTable implements SelfRefCounted<SS
         return null;
     }
 
-    private boolean keyCacheEnabled()
+    public boolean keyCacheEnabled()
     {
         return keyCache != null && keyCache.getCapacity() > 0 && metadata().params.caching.cacheKeys();
     }
@@ -32,6 +32,7 @@ import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
 import org.apache.cassandra.db.rows.UnfilteredRowIterator;
 import org.apache.cassandra.index.Index;
 import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.compress.CompressedSequentialWriter;
 import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTable;
@@ -40,6 +41,7 @@ import org.apache.cassandra.io.sstable.metadata.MetadataComponent;
 import org.apache.cassandra.io.sstable.metadata.MetadataType;
 import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
 import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.repair.SSTableRangeDigests;
 import org.apache.cassandra.schema.Schema;
 import org.apache.cassandra.schema.TableMetadata;
 import org.apache.cassandra.schema.TableMetadataRef;
@@ -103,7 +105,7 @@ public abstract class SSTableWriter extends SSTable implements Transactional
                                        LifecycleTransaction txn)
     {
         Factory writerFactory = descriptor.getFormat().getWriterFactory();
-        return writerFactory.open(descriptor, keyCount, repairedAt, pendingRepair, metadata, metadataCollector, header, observers(descriptor, indexes, txn.opType()), txn);
+        return writerFactory.open(descriptor, keyCount, repairedAt, pendingRepair, metadata, metadataCollector, header, observers(descriptor, metadata.get(), indexes, txn.opType()), txn);
     }
 
     public static SSTableWriter create(Descriptor descriptor,
@@ -171,28 +173,42 @@ public abstract class SSTableWriter extends SSTable implements Transactional
     }
 
     private static Collection<SSTableFlushObserver> observers(Descriptor descriptor,
+                                                              TableMetadata metadata,
                                                               Collection<Index> indexes,
                                                               OperationType operationType)
     {
-        if (indexes == null)
-            return Collections.emptyList();
-
-        List<SSTableFlushObserver> observers = new ArrayList<>(indexes.size());
-        for (Index index : indexes)
+        List<SSTableFlushObserver> observers = new ArrayList<>(indexes == null ? 1 : indexes.size() + 1);
+        if (indexes != null)
         {
-            SSTableFlushObserver observer = index.getFlushObserver(descriptor, operationType);
-            if (observer != null)
+            for (Index index : indexes)
             {
-                observer.begin();
-                observers.add(observer);
+                SSTableFlushObserver observer = index.getFlushObserver(descriptor, operationType);
+                if (observer != null)
+                {
+                    observer.begin();
+                    observers.add(observer);
+                }
             }
         }
 
+        SSTableFlushObserver rangeDigests = SSTableRangeDigests.observer(descriptor, metadata, operationType);
+        if (rangeDigests != null)
+        {
+            rangeDigests.begin();
+            observers.add(rangeDigests);
+        }
+
         return ImmutableList.copyOf(observers);
     }
 
     public abstract void mark();
 
+    /**
+     * Writes the chunks already compressed known by {@code chunks} instead of compressing the same data again, if the
+     * data file is compressed with the same parameters.
+     */
+    public abstract void usePrecompressedChunks(CompressedSequentialWriter.PrecompressedChunks chunks);
+
     /**
      * Appends partition data to this writer.
      *
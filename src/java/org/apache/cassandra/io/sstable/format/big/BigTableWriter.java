@@ -42,6 +42,7 @@ import org.apache.cassandra.io.sstable.metadata.MetadataComponent;
 import org.apache.cassandra.io.sstable.metadata.MetadataType;
 import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
 import org.apache.cassandra.io.util.*;
+import org.apache.cassandra.schema.Schema;
 import org.apache.cassandra.schema.TableMetadataRef;
 import org.apache.cassandra.utils.*;
 import org.apache.cassandra.utils.concurrent.Transactional;
@@ -58,6 +59,8 @@ public class BigTableWriter extends SSTableWriter
     private DataPosition dataMark;
     private long lastEarlyOpenLength = 0;
     private final Optional<ChunkCache> chunkCache = Optional.ofNullable(ChunkCache.instance);
+    // null if the table isn't live on this node, like when writing sstables offline
+    private final HeavyHitters largestPartitions;
 
     private final SequentialWriterOption writerOption = SequentialWriterOption.newBuilder()
                                                         .trickleFsync(DatabaseDescriptor.getTrickleFsync())
@@ -99,6 +102,9 @@ public class BigTableWriter extends SSTableWriter
         iwriter = new IndexWriter(keyCount);
 
         columnIndexWriter = new ColumnIndex(this.header, dataFile, descriptor.version, this.observers, getRowIndexEntrySerializer().indexInfoSerializer());
+
+        ColumnFamilyStore cfs = Schema.instance.getColumnFamilyStoreInstance(metadata.id);
+        largestPartitions = cfs == null ? null : cfs.metric.largestPartitions;
     }
 
     public void mark()
@@ -107,6 +113,12 @@ public class BigTableWriter extends SSTableWriter
         iwriter.mark();
     }
 
+    public void usePrecompressedChunks(CompressedSequentialWriter.PrecompressedChunks chunks)
+    {
+        if (dataFile instanceof CompressedSequentialWriter)
+            ((CompressedSequentialWriter) dataFile).usePrecompressedChunks(chunks);
+    }
+
     public void resetAndTruncate()
     {
         dataFile.resetAndTruncate(dataMark);
@@ -185,6 +197,8 @@ public class BigTableWriter extends SSTableWriter
             long endPosition = dataFile.position();
             long rowSize = endPosition - startPosition;
             maybeLogLargePartitionWarning(key, rowSize);
+            if (largestPartitions != null)
+                largestPartitions.add(key.getKey(), rowSize);
             metadataCollector.addPartitionSizeInBytes(rowSize);
             afterAppend(key, endPosition, entry, columnIndexWriter.buffer());
             return entry;
@@ -21,6 +21,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.HashMultimap;
@@ -42,8 +43,6 @@ import org.apache.cassandra.service.DatacenterWriteResponseHandler;
 import org.apache.cassandra.service.WriteResponseHandler;
 import org.apache.cassandra.utils.FBUtilities;
 
-import org.cliffc.high_scale_lib.NonBlockingHashMap;
-
 /**
  * A abstract parent for all replication strategies.
 */
@@ -57,8 +56,8 @@ public abstract class AbstractReplicationStrategy
     public final Map<String, String> configOptions;
     private final TokenMetadata tokenMetadata;
 
-    // track when the token range changes, signaling we need to invalidate our endpoint cache
-    private volatile long lastInvalidatedVersion = 0;
+    // the natural endpoints of the tokens of the ring, replaced when the ring changes
+    private volatile ReplicaPlacement placement = ReplicaPlacement.EMPTY;
 
     public IEndpointSnitch snitch;
 
@@ -74,30 +73,24 @@ public abstract class AbstractReplicationStrategy
         // lazy-initialize keyspace itself since we don't create them until after the replication strategies
     }
 
-    private final Map<Token, ArrayList<InetAddress>> cachedEndpoints = new NonBlockingHashMap<Token, ArrayList<InetAddress>>();
-
-    public ArrayList<InetAddress> getCachedEndpoints(Token t)
+    private ReplicaPlacement getPlacement()
     {
-        long lastVersion = tokenMetadata.getRingVersion();
-
-        if (lastVersion > lastInvalidatedVersion)
-        {
-            synchronized (this)
-            {
-                if (lastVersion > lastInvalidatedVersion)
-                {
-                    logger.trace("clearing cached endpoints");
-                    cachedEndpoints.clear();
-                    lastInvalidatedVersion = lastVersion;
-                }
-            }
-        }
-
-        return cachedEndpoints.get(t);
+        // read the version first: if the ring changes after that, the next call will see a newer version
+        long ringVersion = tokenMetadata.getRingVersion();
+        ReplicaPlacement current = placement;
+        if (current.ringVersion == ringVersion)
+            return current;
+
+        // only takes the ring tokens, the endpoints of each are calculated by its first lookup, so that a ring change
+        // never holds up the reads; racing readers may each publish a placement, which are all equivalent
+        logger.trace("taking the ring tokens for ring version {}", ringVersion);
+        current = new ReplicaPlacement(ringVersion, tokenMetadata.cachedOnlyTokenMap(), this);
+        placement = current;
+        return current;
     }
 
     /**
-     * get the (possibly cached) endpoints that should store the given Token.
+     * get the (cached) endpoints that should store the given Token.
      * Note that while the endpoints are conceptually a Set (no duplicates will be included),
      * we return a List to avoid an extra allocation when sorting by proximity later
      * @param searchPosition the position the natural endpoints are requested for
@@ -105,19 +98,7 @@ public abstract class AbstractReplicationStrategy
      */
     public ArrayList<InetAddress> getNaturalEndpoints(RingPosition searchPosition)
     {
-        Token searchToken = searchPosition.getToken();
-        Token keyToken = TokenMetadata.firstToken(tokenMetadata.sortedTokens(), searchToken);
-        ArrayList<InetAddress> endpoints = getCachedEndpoints(keyToken);
-        if (endpoints == null)
-        {
-            TokenMetadata tm = tokenMetadata.cachedOnlyTokenMap();
-            // if our cache got invalidated, it's possible there is a new token to account for too
-            keyToken = TokenMetadata.firstToken(tm.sortedTokens(), searchToken);
-            endpoints = new ArrayList<InetAddress>(calculateNaturalEndpoints(searchToken, tm));
-            cachedEndpoints.put(keyToken, endpoints);
-        }
-
-        return new ArrayList<InetAddress>(endpoints);
+        return new ArrayList<InetAddress>(getPlacement().getNaturalEndpoints(searchPosition.getToken()));
     }
 
     /**
@@ -190,6 +171,63 @@ public abstract class AbstractReplicationStrategy
         return resultResponseHandler;
     }
 
+    /**
+     * The natural endpoints of each token of a version of the ring, which are those of all the tokens of the range it
+     * ends. They are calculated by the first lookup of the token, so any token is found with a binary search on the
+     * ring and without locking.
+     */
+    private static final class ReplicaPlacement
+    {
+        // invalidated by any ring version
+        static final ReplicaPlacement EMPTY = new ReplicaPlacement();
+
+        final long ringVersion;
+        private final TokenMetadata tokenMetadata;
+        private final AbstractReplicationStrategy strategy;
+        private final List<Token> tokens;
+        private final AtomicReferenceArray<List<InetAddress>> endpoints;
+
+        private ReplicaPlacement()
+        {
+            ringVersion = -1;
+            tokenMetadata = null;
+            strategy = null;
+            tokens = Collections.emptyList();
+            endpoints = new AtomicReferenceArray<>(0);
+        }
+
+        ReplicaPlacement(long ringVersion, TokenMetadata tm, AbstractReplicationStrategy strategy)
+        {
+            this.ringVersion = ringVersion;
+            this.tokenMetadata = tm;
+            this.strategy = strategy;
+            // the cached token map is never modified, so its tokens can be shared
+            tokens = tm.sortedTokens();
+            endpoints = new AtomicReferenceArray<>(tokens.size());
+        }
+
+        List<InetAddress> getNaturalEndpoints(Token searchToken)
+        {
+            assert !tokens.isEmpty() : "Empty ring";
+            int i = Collections.binarySearch(tokens, searchToken);
+            if (i < 0)
+            {
+                i = -i - 1;
+                if (i == tokens.size())
+                    i = 0;
+            }
+
+            List<InetAddress> natural = endpoints.get(i);
+            if (natural == null)
+            {
+                // concurrent lookups of the same token may both calculate it, with the same result
+                natural = new ArrayList<>(strategy.calculateNaturalEndpoints(tokens.get(i), tokenMetadata));
+                endpoints.set(i, natural);
+            }
+            return natural;
+        }
+    }
+
     private Keyspace getKeyspace()
     {
         if (keyspace == null)
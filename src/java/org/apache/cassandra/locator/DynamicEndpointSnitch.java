@@ -25,19 +25,28 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
-import com.codahale.metrics.ExponentiallyDecayingReservoir;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
+import com.google.common.annotations.VisibleForTesting;
+
 import org.apache.cassandra.concurrent.ScheduledExecutors;
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.exceptions.RequestFailureReason;
 import org.apache.cassandra.gms.ApplicationState;
+import org.apache.cassandra.gms.EchoMessage;
 import org.apache.cassandra.gms.EndpointState;
 import org.apache.cassandra.gms.Gossiper;
 import org.apache.cassandra.gms.VersionedValue;
+import org.apache.cassandra.net.IAsyncCallbackWithFailure;
+import org.apache.cassandra.net.MessageIn;
+import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.EstimatedHistogram;
 import org.apache.cassandra.utils.FBUtilities;
 
 
@@ -48,11 +57,18 @@ public class DynamicEndpointSnitch extends AbstractEndpointSnitch implements ILa
 {
     private static final boolean USE_SEVERITY = !Boolean.getBoolean("cassandra.ignore_dynamic_snitch_severity");
 
-    private static final double ALPHA = 0.75; // set to 0.75 to make EDS more biased to towards the newer values
-    private static final int WINDOW_SIZE = 100;
+    // the weight of each new latency in the average latency of a host
+    private static final double ALPHA = 0.25;
+    // how long the latencies are kept for their quantiles
+    private static final long LATENCY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // the number of latency buckets; their offsets grow by 1.2x (by 1 for the smallest), so the last is about 106 seconds
+    private static final int LATENCY_BUCKETS = 60;
+    // the probes of a host that only replies to them are sent less and less often, up to this many probe intervals apart
+    private static final int MAX_PROBE_BACKOFF = 64;
 
     private volatile int dynamicUpdateInterval = DatabaseDescriptor.getDynamicUpdateInterval();
     private volatile int dynamicResetInterval = DatabaseDescriptor.getDynamicResetInterval();
+    private volatile int dynamicProbeInterval = DatabaseDescriptor.getDynamicProbeInterval();
     private volatile double dynamicBadnessThreshold = DatabaseDescriptor.getDynamicBadnessThreshold();
 
     // the score for a merged set of endpoints must be this much worse than the score for separate endpoints to
@@ -63,7 +79,7 @@ public class DynamicEndpointSnitch extends AbstractEndpointSnitch implements ILa
     private boolean registered = false;
 
     private volatile HashMap<InetAddress, Double> scores = new HashMap<>();
-    private final ConcurrentHashMap<InetAddress, ExponentiallyDecayingReservoir> samples = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetAddress, Latencies> samples = new ConcurrentHashMap<>();
 
     public final IEndpointSnitch subsnitch;
 
@@ -136,6 +152,7 @@ public class DynamicEndpointSnitch extends AbstractEndpointSnitch implements ILa
         }
 
         dynamicBadnessThreshold = DatabaseDescriptor.getDynamicBadnessThreshold();
+        dynamicProbeInterval = DatabaseDescriptor.getDynamicProbeInterval();
     }
 
     private void registerMBean()
@@ -288,15 +305,30 @@ public class DynamicEndpointSnitch extends AbstractEndpointSnitch implements ILa
 
     public void receiveTiming(InetAddress host, long latency) // this is cheap
     {
-        ExponentiallyDecayingReservoir sample = samples.get(host);
+        getSample(host).add(latency);
+    }
+
+    /**
+     * Records the latency of the reply to a probe, which counts for the score of the host but not for the quantiles of
+     * its latency: these predict the latency of actual requests, that an echo message says little about.
+     */
+    @VisibleForTesting
+    void receiveProbeTiming(InetAddress host, long latency)
+    {
+        getSample(host).addProbe(latency);
+    }
+
+    private Latencies getSample(InetAddress host)
+    {
+        Latencies sample = samples.get(host);
         if (sample == null)
         {
-            ExponentiallyDecayingReservoir maybeNewSample = new ExponentiallyDecayingReservoir(WINDOW_SIZE, ALPHA);
+            Latencies maybeNewSample = new Latencies();
             sample = samples.putIfAbsent(host, maybeNewSample);
             if (sample == null)
                 sample = maybeNewSample;
         }
-        sample.update(latency);
+        return sample;
     }
 
     private void updateScores() // this is expensive
@@ -312,20 +344,30 @@ public class DynamicEndpointSnitch extends AbstractEndpointSnitch implements ILa
             }
 
         }
+        long now = System.nanoTime();
         double maxLatency = 1;
         // We're going to weight the latency for each host against the worst one we see, to
         // arrive at sort of a 'badness percentage' for them. First, find the worst for each:
         HashMap<InetAddress, Double> newScores = new HashMap<>();
-        for (Map.Entry<InetAddress, ExponentiallyDecayingReservoir> entry : samples.entrySet())
+        HashMap<InetAddress, Double> averages = new HashMap<>();
+        for (Map.Entry<InetAddress, Latencies> entry : samples.entrySet())
         {
-            double mean = entry.getValue().getSnapshot().getMedian();
-            if (mean > maxLatency)
-                maxLatency = mean;
+            Latencies sample = entry.getValue();
+            double average = sample.update(now);
+            if (Double.isNaN(average))
+                continue;
+
+            averages.put(entry.getKey(), average);
+            if (average > maxLatency)
+                maxLatency = average;
+
+            if (dynamicProbeInterval > 0 && sample.needsProbe(now, TimeUnit.MILLISECONDS.toNanos(dynamicProbeInterval)))
+                probe(entry.getKey(), sample, now);
         }
         // now make another pass to do the weighting based on the maximums we found before
-        for (Map.Entry<InetAddress, ExponentiallyDecayingReservoir> entry: samples.entrySet())
+        for (Map.Entry<InetAddress, Double> entry: averages.entrySet())
         {
-            double score = entry.getValue().getSnapshot().getMedian() / maxLatency;
+            double score = entry.getValue() / maxLatency;
             // finally, add the severity without any weighting, since hosts scale this relative to their own load and the size of the task causing the severity.
             // "Severity" is basically a measure of compaction activity (CASSANDRA-3722).
             if (USE_SEVERITY)
@@ -336,11 +378,72 @@ public class DynamicEndpointSnitch extends AbstractEndpointSnitch implements ILa
         scores = newScores;
     }
 
+    /**
+     * Sends an echo message to a live host we haven't had a reply from for a while, so that its score is kept current
+     * even if we stopped reading from it because it was slow. The probes back off while the host only replies to them.
+     */
+    private void probe(InetAddress endpoint, Latencies sample, long now)
+    {
+        if (endpoint.equals(FBUtilities.getBroadcastAddress()))
+            return;
+
+        EndpointState state = Gossiper.instance.getEndpointStateForEndpoint(endpoint);
+        if (state == null || !state.isAlive())
+            return;
+
+        sample.lastProbe = now;
+        sample.probesSinceReply++;
+        MessageOut<EchoMessage> echoMessage = new MessageOut<>(MessagingService.Verb.ECHO, EchoMessage.instance, EchoMessage.serializer);
+        MessagingService.instance().sendRRWithFailure(echoMessage, endpoint, new ProbeCallback(endpoint, echoMessage.getTimeout()));
+    }
+
+    /**
+     * Records the latency of the reply to a probe, or its timeout if there is none.
+     */
+    private final class ProbeCallback implements IAsyncCallbackWithFailure<EchoMessage>
+    {
+        private final InetAddress endpoint;
+        private final long timeout;
+        private final long start = System.nanoTime();
+
+        private ProbeCallback(InetAddress endpoint, long timeout)
+        {
+            this.endpoint = endpoint;
+            this.timeout = timeout;
+        }
+
+        public boolean isLatencyForSnitch()
+        {
+            // reported by us instead, as a probe
+            return false;
+        }
+
+        public void response(MessageIn<EchoMessage> msg)
+        {
+            receiveProbeTiming(endpoint, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        public void onFailure(InetAddress from, RequestFailureReason failureReason)
+        {
+            receiveProbeTiming(endpoint, timeout);
+        }
+    }
+
     private void reset()
     {
        samples.clear();
     }
 
+    /**
+     * @return the given quantile of the recent latencies of the replies of {@code endpoint} in milliseconds, or NaN if
+     * we have none
+     */
+    public double getLatency(InetAddress endpoint, double quantile)
+    {
+        Latencies sample = samples.get(endpoint);
+        return sample == null ? Double.NaN : sample.quantile(quantile);
+    }
+
     public Map<InetAddress, Double> getScores()
     {
         return scores;
@@ -368,11 +471,17 @@ public class DynamicEndpointSnitch extends AbstractEndpointSnitch implements ILa
     {
         InetAddress host = InetAddress.getByName(hostname);
         ArrayList<Double> timings = new ArrayList<Double>();
-        ExponentiallyDecayingReservoir sample = samples.get(host);
+        Latencies sample = samples.get(host);
         if (sample != null)
         {
-            for (double time: sample.getSnapshot().getValues())
+            // the recent latencies are summarized by a histogram, so dump 100 values spread across them
+            for (int i = 0; i < 100; i++)
+            {
+                double time = sample.quantile((i + 0.5) / 100);
+                if (Double.isNaN(time))
+                    break;
                 timings.add(time);
+            }
         }
         return timings;
     }
@@ -434,4 +543,111 @@ public class DynamicEndpointSnitch extends AbstractEndpointSnitch implements ILa
         }
         return maxScore;
     }
+
+    /**
+     * The latencies of the replies of a host. They are recorded without locking, and summarized as a moving average
+     * by each update of the scores, and as a histogram of the recent ones for their quantiles.
+     */
+    private static final class Latencies
+    {
+        private static final long[] BUCKET_OFFSETS = EstimatedHistogram.newOffsets(LATENCY_BUCKETS, true);
+
+        private final LongAdder sum = new LongAdder();
+        private final LongAdder count = new LongAdder();
+        // how many of the latencies counted are those of probes
+        private final LongAdder probes = new LongAdder();
+
+        // the latencies of the current window and of the previous one, bucketed as in EstimatedHistogram
+        private volatile AtomicLongArray recent = new AtomicLongArray(BUCKET_OFFSETS.length + 1);
+        private volatile AtomicLongArray previous;
+
+        // only used by the updates of the scores
+        private double average = Double.NaN;
+        private long windowStart = System.nanoTime();
+        private long lastReply = System.nanoTime();
+        private long lastProbe;
+        private int probesSinceReply;
+
+        void add(long latency)
+        {
+            sum.add(latency);
+            count.increment();
+
+            int index = Arrays.binarySearch(BUCKET_OFFSETS, latency);
+            recent.incrementAndGet(index < 0 ? -index - 1 : index);
+        }
+
+        void addProbe(long latency)
+        {
+            sum.add(latency);
+            count.increment();
+            probes.increment();
+        }
+
+        /**
+         * Adds the latencies recorded since the last update to the average, which weighs each of them by ALPHA
+         *
+         * @return the average latency, or NaN if we have none yet
+         */
+        double update(long now)
+        {
+            long newCount = count.sumThenReset();
+            long newSum = sum.sumThenReset();
+            long newProbes = probes.sumThenReset();
+            if (newCount > 0)
+            {
+                double newAverage = (double) newSum / newCount;
+                average = Double.isNaN(average)
+                          ? newAverage
+                          : average + (newAverage - average) * (1 - Math.pow(1 - ALPHA, newCount));
+            }
+            if (newCount > newProbes)
+            {
+                lastReply = now;
+                probesSinceReply = 0;
+            }
+
+            if (now - windowStart >= LATENCY_WINDOW_NANOS)
+            {
+                previous = recent;
+                recent = new AtomicLongArray(BUCKET_OFFSETS.length + 1);
+                windowStart = now;
+            }
+            return average;
+        }
+
+        boolean needsProbe(long now, long probeInterval)
+        {
+            long backoff = Math.min(MAX_PROBE_BACKOFF, 1L << Math.min(probesSinceReply, 30));
+            return now - lastReply >= probeInterval && now - lastProbe >= probeInterval * backoff;
+        }
+
+        /**
+         * @return the given quantile of the latencies of the current and previous windows, or NaN if there are none
+         */
+        double quantile(double quantile)
+        {
+            AtomicLongArray recent = this.recent, previous = this.previous;
+            long[] counts = new long[recent.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                counts[i] = recent.get(i) + (previous == null ? 0 : previous.get(i));
+                total += counts[i];
+            }
+            if (total == 0)
+                return Double.NaN;
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_OFFSETS.length; i++)
+            {
+                seen += counts[i];
+                if (seen >= rank)
+                    return BUCKET_OFFSETS[i];
+            }
+            // the latency is past the last bucket
+            return BUCKET_OFFSETS[BUCKET_OFFSETS.length - 1];
+        }
+    }
 }
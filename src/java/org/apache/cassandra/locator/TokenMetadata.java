@@ -23,8 +23,8 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.*;
@@ -38,7 +38,6 @@ import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.gms.FailureDetector;
-import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.BiMultiValMap;
 import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.utils.SortedBiMultiValMap;
@@ -48,56 +47,20 @@ public class TokenMetadata
     private static final Logger logger = LoggerFactory.getLogger(TokenMetadata.class);
 
     /**
-     * Maintains token to endpoint map of every node in the cluster.
-     * Each Token is associated with exactly one Address, but each Address may have
-     * multiple tokens.  Hence, the BiMultiValMap collection.
+     * The current state of the token metadata. States are never modified once published: readers only dereference
+     * this, so they never wait on an update and see either all or none of its changes, while mutators copy the parts
+     * they change into a new state and publish it here.
      */
-    private final BiMultiValMap<Token, InetAddress> tokenToEndpointMap;
-
-    /** Maintains endpoint to host ID map of every node in the cluster */
-    private final BiMap<InetAddress, UUID> endpointToHostIdMap;
-
-    // Prior to CASSANDRA-603, we just had <tt>Map<Range, InetAddress> pendingRanges<tt>,
-    // which was added to when a node began bootstrap and removed from when it finished.
-    //
-    // This is inadequate when multiple changes are allowed simultaneously.  For example,
-    // suppose that there is a ring of nodes A, C and E, with replication factor 3.
-    // Node D bootstraps between C and E, so its pending ranges will be E-A, A-C and C-D.
-    // Now suppose node B bootstraps between A and C at the same time. Its pending ranges
-    // would be C-E, E-A and A-B. Now both nodes need to be assigned pending range E-A,
-    // which we would be unable to represent with the old Map.  The same thing happens
-    // even more obviously for any nodes that boot simultaneously between same two nodes.
-    //
-    // So, we made two changes:
-    //
-    // First, we changed pendingRanges to a <tt>Multimap<Range, InetAddress></tt> (now
-    // <tt>Map<String, Multimap<Range, InetAddress>></tt>, because replication strategy
-    // and options are per-KeySpace).
-    //
-    // Second, we added the bootstrapTokens and leavingEndpoints collections, so we can
-    // rebuild pendingRanges from the complete information of what is going on, when
-    // additional changes are made mid-operation.
-    //
-    // Finally, note that recording the tokens of joining nodes in bootstrapTokens also
-    // means we can detect and reject the addition of multiple nodes at the same token
-    // before one becomes part of the ring.
-    private final BiMultiValMap<Token, InetAddress> bootstrapTokens = new BiMultiValMap<>();
-
-    private final BiMap<InetAddress, InetAddress> replacementToOriginal = HashBiMap.create();
-
-    // (don't need to record Token here since it's still part of tokenToEndpointMap until it's done leaving)
-    private final Set<InetAddress> leavingEndpoints = new HashSet<>();
+    private volatile State state;
+
     // this is a cache of the calculation from {tokenToEndpointMap, bootstrapTokens, leavingEndpoints}
     private final ConcurrentMap<String, PendingRangeMaps> pendingRanges = new ConcurrentHashMap<String, PendingRangeMaps>();
+    // the last pending range calculation of each replication strategy class and options, guarded by pendingRanges
+    private final Map<Pair<Class<? extends AbstractReplicationStrategy>, Map<String, String>>, PendingRangeCalculation> pendingRangeCalculations = new HashMap<>();
 
-    // nodes which are migrating to the new tokens in the ring
-    private final Set<Pair<Token, InetAddress>> movingEndpoints = new HashSet<>();
-
-    /* Use this lock for manipulating the token map */
-    private final ReadWriteLock lock = new ReentrantReadWriteLock(true);
-    private volatile ArrayList<Token> sortedTokens;
+    /* Serializes the updates of the state, readers never take it */
+    private final Lock lock = new ReentrantLock();
 
-    private final Topology topology;
     public final IPartitioner partitioner;
 
     private static final Comparator<InetAddress> inetaddressCmp = new Comparator<InetAddress>()
@@ -113,19 +76,13 @@ public class TokenMetadata
 
     public TokenMetadata()
     {
-        this(SortedBiMultiValMap.<Token, InetAddress>create(null, inetaddressCmp),
-             HashBiMap.<InetAddress, UUID>create(),
-             new Topology(),
-             DatabaseDescriptor.getPartitioner());
+        this(State.empty(), DatabaseDescriptor.getPartitioner());
     }
 
-    private TokenMetadata(BiMultiValMap<Token, InetAddress> tokenToEndpointMap, BiMap<InetAddress, UUID> endpointsMap, Topology topology, IPartitioner partitioner)
+    private TokenMetadata(State state, IPartitioner partitioner)
     {
-        this.tokenToEndpointMap = tokenToEndpointMap;
-        this.topology = topology;
+        this.state = state;
         this.partitioner = partitioner;
-        endpointToHostIdMap = endpointsMap;
-        sortedTokens = sortTokens();
     }
 
     /**
@@ -134,12 +91,7 @@ public class TokenMetadata
     @VisibleForTesting
     public TokenMetadata cloneWithNewPartitioner(IPartitioner newPartitioner)
     {
-        return new TokenMetadata(tokenToEndpointMap, endpointToHostIdMap, topology, newPartitioner);
-    }
-
-    private ArrayList<Token> sortTokens()
-    {
-        return new ArrayList<>(tokenToEndpointMap.keySet());
+        return new TokenMetadata(state, newPartitioner);
     }
 
     /** @return the number of nodes bootstrapping into source's primary range */
@@ -147,18 +99,10 @@ public class TokenMetadata
     {
         int n = 0;
         Collection<Range<Token>> sourceRanges = getPrimaryRangesFor(getTokens(source));
-        lock.readLock().lock();
-        try
-        {
-            for (Token token : bootstrapTokens.keySet())
-                for (Range<Token> range : sourceRanges)
-                    if (range.contains(token))
-                        n++;
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        for (Token token : state.bootstrapTokens.keySet())
+            for (Range<Token> range : sourceRanges)
+                if (range.contains(token))
+                    n++;
         return n;
     }
 
@@ -189,41 +133,46 @@ public class TokenMetadata
         if (endpointTokens.isEmpty())
             return;
 
-        lock.writeLock().lock();
+        lock.lock();
         try
         {
-            boolean shouldSortTokens = false;
+            State.Builder update = state.update();
+            boolean changed = false;
             for (InetAddress endpoint : endpointTokens.keySet())
             {
                 Collection<Token> tokens = endpointTokens.get(endpoint);
 
                 assert tokens != null && !tokens.isEmpty();
 
-                bootstrapTokens.removeValue(endpoint);
-                tokenToEndpointMap.removeValue(endpoint);
-                topology.addEndpoint(endpoint);
-                leavingEndpoints.remove(endpoint);
-                replacementToOriginal.remove(endpoint);
-                removeFromMoving(endpoint); // also removing this endpoint from moving
+                // gossip keeps telling us about the normal endpoints we already know of
+                if (update.isNormal(endpoint, tokens))
+                    continue;
+                changed = true;
+
+                update.bootstrapTokens().removeValue(endpoint);
+                update.tokenToEndpointMap().removeValue(endpoint);
+                update.topology().addEndpoint(endpoint);
+                update.leavingEndpoints().remove(endpoint);
+                update.replacementToOriginal().remove(endpoint);
+                update.movingEndpoints().removeIf(pair -> pair.right.equals(endpoint)); // also removing this endpoint from moving
 
                 for (Token token : tokens)
                 {
-                    InetAddress prev = tokenToEndpointMap.put(token, endpoint);
-                    if (!endpoint.equals(prev))
-                    {
-                        if (prev != null)
-                            logger.warn("Token {} changing ownership from {} to {}", token, prev, endpoint);
-                        shouldSortTokens = true;
-                    }
+                    InetAddress prev = update.tokenToEndpointMap().put(token, endpoint);
+                    if (prev != null && !endpoint.equals(prev))
+                        logger.warn("Token {} changing ownership from {} to {}", token, prev, endpoint);
                 }
             }
 
-            if (shouldSortTokens)
-                sortedTokens = sortTokens();
+            if (!changed)
+                return;
+
+            state = update.build();
+            invalidateCachedRings();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -236,10 +185,11 @@ public class TokenMetadata
         assert hostId != null;
         assert endpoint != null;
 
-        lock.writeLock().lock();
+        lock.lock();
         try
         {
-            InetAddress storedEp = endpointToHostIdMap.inverse().get(hostId);
+            State.Builder update = state.update();
+            InetAddress storedEp = update.current.endpointToHostIdMap.inverse().get(hostId);
             if (storedEp != null)
             {
                 if (!storedEp.equals(endpoint) && (FailureDetector.instance.isAlive(storedEp)))
@@ -251,15 +201,18 @@ public class TokenMetadata
                 }
             }
 
-            UUID storedId = endpointToHostIdMap.get(endpoint);
+            UUID storedId = update.current.endpointToHostIdMap.get(endpoint);
+            if (hostId.equals(storedId))
+                return;
             if ((storedId != null) && (!storedId.equals(hostId)))
                 logger.warn("Changing {}'s host ID from {} to {}", endpoint, storedId, hostId);
 
-            endpointToHostIdMap.forcePut(endpoint, hostId);
+            update.endpointToHostIdMap().forcePut(endpoint, hostId);
+            state = update.build();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
 
     }
@@ -267,45 +220,19 @@ public class TokenMetadata
     /** Return the unique host ID for an end-point. */
     public UUID getHostId(InetAddress endpoint)
     {
-        lock.readLock().lock();
-        try
-        {
-            return endpointToHostIdMap.get(endpoint);
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return state.endpointToHostIdMap.get(endpoint);
     }
 
     /** Return the end-point for a unique host ID */
     public InetAddress getEndpointForHostId(UUID hostId)
     {
-        lock.readLock().lock();
-        try
-        {
-            return endpointToHostIdMap.inverse().get(hostId);
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return state.endpointToHostIdMap.inverse().get(hostId);
     }
 
-    /** @return a copy of the endpoint-to-id map for read-only operations */
+    /** @return the endpoint-to-id map for read-only operations, it is never modified */
     public Map<InetAddress, UUID> getEndpointToHostIdMapForReading()
     {
-        lock.readLock().lock();
-        try
-        {
-            Map<InetAddress, UUID> readMap = new HashMap<>();
-            readMap.putAll(endpointToHostIdMap);
-            return readMap;
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return state.endpointToHostIdMap;
     }
 
     @Deprecated
@@ -321,35 +248,41 @@ public class TokenMetadata
 
     private void addBootstrapTokens(Collection<Token> tokens, InetAddress endpoint, InetAddress original)
     {
-        assert tokens != null && !tokens.isEmpty();
-        assert endpoint != null;
-
-        lock.writeLock().lock();
+        lock.lock();
         try
         {
+            State.Builder update = state.update();
+            addBootstrapTokens(update, tokens, endpoint, original);
+            state = update.build();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
 
-            InetAddress oldEndpoint;
-
-            for (Token token : tokens)
-            {
-                oldEndpoint = bootstrapTokens.get(token);
-                if (oldEndpoint != null && !oldEndpoint.equals(endpoint))
-                    throw new RuntimeException("Bootstrap Token collision between " + oldEndpoint + " and " + endpoint + " (token " + token);
-
-                oldEndpoint = tokenToEndpointMap.get(token);
-                if (oldEndpoint != null && !oldEndpoint.equals(endpoint) && !oldEndpoint.equals(original))
-                    throw new RuntimeException("Bootstrap Token collision between " + oldEndpoint + " and " + endpoint + " (token " + token);
-            }
+    private static void addBootstrapTokens(State.Builder update, Collection<Token> tokens, InetAddress endpoint, InetAddress original)
+    {
+        assert tokens != null && !tokens.isEmpty();
+        assert endpoint != null;
 
-            bootstrapTokens.removeValue(endpoint);
+        InetAddress oldEndpoint;
 
-            for (Token token : tokens)
-                bootstrapTokens.put(token, endpoint);
-        }
-        finally
+        for (Token token : tokens)
         {
-            lock.writeLock().unlock();
+            oldEndpoint = update.current.bootstrapTokens.get(token);
+            if (oldEndpoint != null && !oldEndpoint.equals(endpoint))
+                throw new RuntimeException("Bootstrap Token collision between " + oldEndpoint + " and " + endpoint + " (token " + token);
+
+            oldEndpoint = update.current.tokenToEndpointMap.get(token);
+            if (oldEndpoint != null && !oldEndpoint.equals(endpoint) && !oldEndpoint.equals(original))
+                throw new RuntimeException("Bootstrap Token collision between " + oldEndpoint + " and " + endpoint + " (token " + token);
         }
+
+        update.bootstrapTokens().removeValue(endpoint);
+
+        for (Token token : tokens)
+            update.bootstrapTokens().put(token, endpoint);
     }
 
     public void addReplaceTokens(Collection<Token> replacingTokens, InetAddress newNode, InetAddress oldNode)
@@ -357,10 +290,11 @@ public class TokenMetadata
         assert replacingTokens != null && !replacingTokens.isEmpty();
         assert newNode != null && oldNode != null;
 
-        lock.writeLock().lock();
+        lock.lock();
         try
         {
-            Collection<Token> oldNodeTokens = tokenToEndpointMap.inverse().get(oldNode);
+            State.Builder update = state.update();
+            Collection<Token> oldNodeTokens = update.current.tokenToEndpointMap.inverse().get(oldNode);
             if (!replacingTokens.containsAll(oldNodeTokens) || !oldNodeTokens.containsAll(replacingTokens))
             {
                 throw new RuntimeException(String.format("Node %s is trying to replace node %s with tokens %s with a " +
@@ -369,39 +303,42 @@ public class TokenMetadata
             }
 
             logger.debug("Replacing {} with {}", newNode, oldNode);
-            replacementToOriginal.put(newNode, oldNode);
+            update.replacementToOriginal().put(newNode, oldNode);
 
-            addBootstrapTokens(replacingTokens, newNode, oldNode);
+            addBootstrapTokens(update, replacingTokens, newNode, oldNode);
+            state = update.build();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
     public Optional<InetAddress> getReplacementNode(InetAddress endpoint)
     {
-        return Optional.ofNullable(replacementToOriginal.inverse().get(endpoint));
+        return Optional.ofNullable(state.replacementToOriginal.inverse().get(endpoint));
     }
 
     public Optional<InetAddress> getReplacingNode(InetAddress endpoint)
     {
-        return Optional.ofNullable((replacementToOriginal.get(endpoint)));
+        return Optional.ofNullable((state.replacementToOriginal.get(endpoint)));
     }
 
     public void removeBootstrapTokens(Collection<Token> tokens)
     {
         assert tokens != null && !tokens.isEmpty();
 
-        lock.writeLock().lock();
+        lock.lock();
         try
         {
+            State.Builder update = state.update();
             for (Token token : tokens)
-                bootstrapTokens.remove(token);
+                update.bootstrapTokens().remove(token);
+            state = update.build();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -409,14 +346,16 @@ public class TokenMetadata
     {
         assert endpoint != null;
 
-        lock.writeLock().lock();
+        lock.lock();
         try
         {
-            leavingEndpoints.add(endpoint);
+            State.Builder update = state.update();
+            update.leavingEndpoints().add(endpoint);
+            state = update.build();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -429,40 +368,51 @@ public class TokenMetadata
     {
         assert endpoint != null;
 
-        lock.writeLock().lock();
-
+        lock.lock();
         try
         {
-            movingEndpoints.add(Pair.create(token, endpoint));
+            State.Builder update = state.update();
+            update.movingEndpoints().add(Pair.create(token, endpoint));
+            state = update.build();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
     public void removeEndpoint(InetAddress endpoint)
     {
-        assert endpoint != null;
+        removeEndpoints(Collections.singleton(endpoint));
+    }
 
-        lock.writeLock().lock();
+    private void removeEndpoints(Collection<InetAddress> endpoints)
+    {
+        lock.lock();
         try
         {
-            bootstrapTokens.removeValue(endpoint);
-            tokenToEndpointMap.removeValue(endpoint);
-            topology.removeEndpoint(endpoint);
-            leavingEndpoints.remove(endpoint);
-            if (replacementToOriginal.remove(endpoint) != null)
+            State.Builder update = state.update();
+            for (InetAddress endpoint : endpoints)
             {
-                logger.debug("Node {} failed during replace.", endpoint);
+                assert endpoint != null;
+
+                update.bootstrapTokens().removeValue(endpoint);
+                if (update.current.tokenToEndpointMap.containsValue(endpoint))
+                    update.tokenToEndpointMap().removeValue(endpoint);
+                update.topology().removeEndpoint(endpoint);
+                update.leavingEndpoints().remove(endpoint);
+                if (update.replacementToOriginal().remove(endpoint) != null)
+                {
+                    logger.debug("Node {} failed during replace.", endpoint);
+                }
+                update.endpointToHostIdMap().remove(endpoint);
             }
-            endpointToHostIdMap.remove(endpoint);
-            sortedTokens = sortTokens();
+            state = update.build();
             invalidateCachedRings();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -473,16 +423,18 @@ public class TokenMetadata
     {
         assert endpoint != null;
 
-        lock.writeLock().lock();
+        lock.lock();
         try
         {
             logger.info("Updating topology for {}", endpoint);
-            topology.updateEndpoint(endpoint);
+            State.Builder update = state.update();
+            update.topology().updateEndpoint(endpoint);
+            state = update.build();
             invalidateCachedRings();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -492,16 +444,18 @@ public class TokenMetadata
      */
     public void updateTopology()
     {
-        lock.writeLock().lock();
+        lock.lock();
         try
         {
             logger.info("Updating topology for all endpoints that have changed");
-            topology.updateEndpoints();
+            State.Builder update = state.update();
+            update.topology().updateEndpoints();
+            state = update.build();
             invalidateCachedRings();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -513,40 +467,34 @@ public class TokenMetadata
     {
         assert endpoint != null;
 
-        lock.writeLock().lock();
+        lock.lock();
         try
         {
-            for (Pair<Token, InetAddress> pair : movingEndpoints)
+            State.Builder update = state.update();
+            for (Pair<Token, InetAddress> pair : update.current.movingEndpoints)
             {
                 if (pair.right.equals(endpoint))
                 {
-                    movingEndpoints.remove(pair);
+                    update.movingEndpoints().remove(pair);
                     break;
                 }
             }
-
+            state = update.build();
             invalidateCachedRings();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
     public Collection<Token> getTokens(InetAddress endpoint)
     {
         assert endpoint != null;
-        assert isMember(endpoint); // don't want to return nulls
 
-        lock.readLock().lock();
-        try
-        {
-            return new ArrayList<>(tokenToEndpointMap.inverse().get(endpoint));
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        State current = state;
+        assert current.tokenToEndpointMap.containsValue(endpoint); // don't want to return nulls
+        return new ArrayList<>(current.tokenToEndpointMap.inverse().get(endpoint));
     }
 
     @Deprecated
@@ -559,52 +507,27 @@ public class TokenMetadata
     {
         assert endpoint != null;
 
-        lock.readLock().lock();
-        try
-        {
-            return tokenToEndpointMap.inverse().containsKey(endpoint);
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return state.tokenToEndpointMap.containsValue(endpoint);
     }
 
     public boolean isLeaving(InetAddress endpoint)
     {
         assert endpoint != null;
 
-        lock.readLock().lock();
-        try
-        {
-            return leavingEndpoints.contains(endpoint);
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return state.leavingEndpoints.contains(endpoint);
     }
 
     public boolean isMoving(InetAddress endpoint)
     {
         assert endpoint != null;
 
-        lock.readLock().lock();
-
-        try
+        for (Pair<Token, InetAddress> pair : state.movingEndpoints)
         {
-            for (Pair<Token, InetAddress> pair : movingEndpoints)
-            {
-                if (pair.right.equals(endpoint))
-                    return true;
-            }
-
-            return false;
-        }
-        finally
-        {
-            lock.readLock().unlock();
+            if (pair.right.equals(endpoint))
+                return true;
         }
+
+        return false;
     }
 
     private final AtomicReference<TokenMetadata> cachedTokenMap = new AtomicReference<>();
@@ -612,27 +535,18 @@ public class TokenMetadata
     /**
      * Create a copy of TokenMetadata with only tokenToEndpointMap. That is, pending ranges,
      * bootstrap tokens and leaving endpoints are not included in the copy.
+     *
+     * The copy shares the current state with this metadata, so it is cheap to make: its own updates don't copy
+     * more than those of this one.
      */
     public TokenMetadata cloneOnlyTokenMap()
     {
-        lock.readLock().lock();
-        try
-        {
-            return new TokenMetadata(SortedBiMultiValMap.create(tokenToEndpointMap, null, inetaddressCmp),
-                                     HashBiMap.create(endpointToHostIdMap),
-                                     new Topology(topology),
-                                     partitioner);
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return new TokenMetadata(state.onlyTokenMap(), partitioner);
     }
 
     /**
      * Return a cached TokenMetadata with only tokenToEndpointMap, i.e., the same as cloneOnlyTokenMap but
-     * uses a cached copy that is invalided when the ring changes, so in the common case
-     * no extra locking is required.
+     * uses a cached copy that is invalided when the ring changes.
      *
      * Callers must *NOT* mutate the returned metadata object.
      */
@@ -642,16 +556,9 @@ public class TokenMetadata
         if (tm != null)
             return tm;
 
-        // synchronize to prevent thundering herd (CASSANDRA-6345)
-        synchronized (this)
-        {
-            if ((tm = cachedTokenMap.get()) != null)
-                return tm;
-
-            tm = cloneOnlyTokenMap();
-            cachedTokenMap.set(tm);
-            return tm;
-        }
+        // copies are cheap, so there is no thundering herd (CASSANDRA-6345) to prevent by synchronizing
+        tm = cloneOnlyTokenMap();
+        return cachedTokenMap.compareAndSet(null, tm) ? tm : cachedOnlyTokenMap();
     }
 
     /**
@@ -662,21 +569,14 @@ public class TokenMetadata
      */
     public TokenMetadata cloneAfterAllLeft()
     {
-        lock.readLock().lock();
-        try
-        {
-            return removeEndpoints(cloneOnlyTokenMap(), leavingEndpoints);
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        State current = state;
+        return removeEndpoints(new TokenMetadata(current.onlyTokenMap(), partitioner), current.leavingEndpoints);
     }
 
     private static TokenMetadata removeEndpoints(TokenMetadata allLeftMetadata, Set<InetAddress> leavingEndpoints)
     {
-        for (InetAddress endpoint : leavingEndpoints)
-            allLeftMetadata.removeEndpoint(endpoint);
+        if (!leavingEndpoints.isEmpty())
+            allLeftMetadata.removeEndpoints(leavingEndpoints);
 
         return allLeftMetadata;
     }
@@ -689,45 +589,26 @@ public class TokenMetadata
      */
     public TokenMetadata cloneAfterAllSettled()
     {
-        lock.readLock().lock();
+        State current = state;
+        TokenMetadata metadata = removeEndpoints(new TokenMetadata(current.onlyTokenMap(), partitioner), current.leavingEndpoints);
 
-        try
-        {
-            TokenMetadata metadata = cloneOnlyTokenMap();
-
-            for (InetAddress endpoint : leavingEndpoints)
-                metadata.removeEndpoint(endpoint);
+        for (Pair<Token, InetAddress> pair : current.movingEndpoints)
+            metadata.updateNormalToken(pair.left, pair.right);
 
-
-            for (Pair<Token, InetAddress> pair : movingEndpoints)
-                metadata.updateNormalToken(pair.left, pair.right);
-
-            return metadata;
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return metadata;
     }
 
     public InetAddress getEndpoint(Token token)
     {
-        lock.readLock().lock();
-        try
-        {
-            return tokenToEndpointMap.get(token);
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return state.tokenToEndpointMap.get(token);
     }
 
     public Collection<Range<Token>> getPrimaryRangesFor(Collection<Token> tokens)
     {
+        ArrayList<Token> sortedTokens = sortedTokens();
         Collection<Range<Token>> ranges = new ArrayList<>(tokens.size());
         for (Token right : tokens)
-            ranges.add(new Range<>(getPredecessor(right), right));
+            ranges.add(new Range<>(getPredecessor(sortedTokens, right), right));
         return ranges;
     }
 
@@ -739,7 +620,7 @@ public class TokenMetadata
 
     public ArrayList<Token> sortedTokens()
     {
-        return sortedTokens;
+        return state.sortedTokens;
     }
 
     public Multimap<Range<Token>, InetAddress> getPendingRangesMM(String keyspaceName)
@@ -801,20 +682,24 @@ public class TokenMetadata
      * node could have. It might be that other bootstraps make our actual final ranges smaller,
      * but it does not matter as we can clean up the data afterwards.
      *
-     * NOTE: This is heavy and ineffective operation. This will be done only once when a node
-     * changes state in the cluster, so it should be manageable.
+     * NOTE: This is a heavy operation, done when a node changes state in the cluster. To keep it manageable on large
+     * clusters, the results are kept per replication (strategy and options) and only what changed is computed again:
+     * keyspaces replicated the same way share their pending ranges, and while the normal tokens and leaving endpoints
+     * don't change, the ranges of each bootstrapping endpoint are only computed when it starts bootstrapping.
      */
     public void calculatePendingRanges(AbstractReplicationStrategy strategy, String keyspaceName)
     {
         // avoid race between both branches - do not use a lock here as this will block any other unrelated operations!
         synchronized (pendingRanges)
         {
-            if (bootstrapTokens.isEmpty() && leavingEndpoints.isEmpty() && movingEndpoints.isEmpty())
+            State current = state;
+            if (current.bootstrapTokens.isEmpty() && current.leavingEndpoints.isEmpty() && current.movingEndpoints.isEmpty())
             {
                 if (logger.isTraceEnabled())
                     logger.trace("No bootstrapping, leaving or moving nodes -> empty pending ranges for {}", keyspaceName);
 
                 pendingRanges.put(keyspaceName, new PendingRangeMaps());
+                pendingRangeCalculations.clear();
             }
             else
             {
@@ -823,27 +708,18 @@ public class TokenMetadata
 
                 long startedAt = System.currentTimeMillis();
 
-                // create clone of current state
-                BiMultiValMap<Token, InetAddress> bootstrapTokens = new BiMultiValMap<>();
-                Set<InetAddress> leavingEndpoints = new HashSet<>();
-                Set<Pair<Token, InetAddress>> movingEndpoints = new HashSet<>();
-                TokenMetadata metadata;
+                // the current state is never modified, so it is used as is
+                TokenMetadata metadata = new TokenMetadata(current.onlyTokenMap(), partitioner);
 
-                lock.readLock().lock();
-                try
+                Pair<Class<? extends AbstractReplicationStrategy>, Map<String, String>> replication = Pair.create(strategy.getClass(), strategy.configOptions);
+                PendingRangeCalculation calculation = pendingRangeCalculations.get(replication);
+                if (calculation == null || !calculation.isFor(metadata, current.leavingEndpoints))
                 {
-                    bootstrapTokens.putAll(this.bootstrapTokens);
-                    leavingEndpoints.addAll(this.leavingEndpoints);
-                    movingEndpoints.addAll(this.movingEndpoints);
-                    metadata = this.cloneOnlyTokenMap();
-                }
-                finally
-                {
-                    lock.readLock().unlock();
+                    calculation = new PendingRangeCalculation(strategy, metadata, current.leavingEndpoints);
+                    pendingRangeCalculations.put(replication, calculation);
                 }
 
-                pendingRanges.put(keyspaceName, calculatePendingRanges(strategy, metadata, bootstrapTokens,
-                                                                       leavingEndpoints, movingEndpoints));
+                pendingRanges.put(keyspaceName, calculation.pendingRanges(strategy, current.bootstrapTokens, current.movingEndpoints));
                 long took = System.currentTimeMillis() - startedAt;
 
                 if (logger.isDebugEnabled())
@@ -855,112 +731,174 @@ public class TokenMetadata
     }
 
     /**
+     * The pending ranges of a replication for given normal tokens and leaving endpoints, with what is needed to
+     * compute them again when the bootstrapping and moving endpoints change.
+     *
      * @see TokenMetadata#calculatePendingRanges(AbstractReplicationStrategy, String)
      */
-    private static PendingRangeMaps calculatePendingRanges(AbstractReplicationStrategy strategy,
-                                                           TokenMetadata metadata,
-                                                           BiMultiValMap<Token, InetAddress> bootstrapTokens,
-                                                           Set<InetAddress> leavingEndpoints,
-                                                           Set<Pair<Token, InetAddress>> movingEndpoints)
+    private static class PendingRangeCalculation
     {
-        PendingRangeMaps newPendingRanges = new PendingRangeMaps();
-
-        Multimap<InetAddress, Range<Token>> addressRanges = strategy.getAddressRanges(metadata);
+        private final TokenMetadata metadata;
+        private final Set<InetAddress> leavingEndpoints;
+        private final Multimap<InetAddress, Range<Token>> addressRanges;
 
         // Copy of metadata reflecting the situation after all leave operations are finished.
-        TokenMetadata allLeftMetadata = removeEndpoints(metadata.cloneOnlyTokenMap(), leavingEndpoints);
+        private final TokenMetadata allLeftMetadata;
 
-        // get all ranges that will be affected by leaving nodes
-        Set<Range<Token>> affectedRanges = new HashSet<Range<Token>>();
-        for (InetAddress endpoint : leavingEndpoints)
-            affectedRanges.addAll(addressRanges.get(endpoint));
+        private final Multimap<Range<Token>, InetAddress> leavingPendingRanges = HashMultimap.create();
 
-        // for each of those ranges, find what new nodes will be responsible for the range when
-        // all leaving nodes are gone.
-        for (Range<Token> range : affectedRanges)
+        // the tokens of each bootstrapping endpoint, with the ranges it would get with them
+        private final Map<InetAddress, Pair<Set<Token>, Collection<Range<Token>>>> bootstrapRanges = new HashMap<>();
+
+        // the last pending ranges computed, with the bootstrapping and moving endpoints they were computed for
+        private Multimap<InetAddress, Token> lastBootstrapAddresses;
+        private Set<Pair<Token, InetAddress>> lastMovingEndpoints;
+        private PendingRangeMaps lastPendingRanges;
+
+        PendingRangeCalculation(AbstractReplicationStrategy strategy, TokenMetadata metadata, Set<InetAddress> leavingEndpoints)
         {
-            Set<InetAddress> currentEndpoints = ImmutableSet.copyOf(strategy.calculateNaturalEndpoints(range.right, metadata));
-            Set<InetAddress> newEndpoints = ImmutableSet.copyOf(strategy.calculateNaturalEndpoints(range.right, allLeftMetadata));
-            for (InetAddress address : Sets.difference(newEndpoints, currentEndpoints))
+            this.metadata = metadata;
+            this.leavingEndpoints = leavingEndpoints;
+            addressRanges = strategy.getAddressRanges(metadata);
+            allLeftMetadata = removeEndpoints(metadata.cloneOnlyTokenMap(), leavingEndpoints);
+
+            // get all ranges that will be affected by leaving nodes
+            Set<Range<Token>> affectedRanges = new HashSet<Range<Token>>();
+            for (InetAddress endpoint : leavingEndpoints)
+                affectedRanges.addAll(addressRanges.get(endpoint));
+
+            // for each of those ranges, find what new nodes will be responsible for the range when
+            // all leaving nodes are gone.
+            for (Range<Token> range : affectedRanges)
             {
-                newPendingRanges.addPendingRange(range, address);
+                Set<InetAddress> currentEndpoints = ImmutableSet.copyOf(strategy.calculateNaturalEndpoints(range.right, metadata));
+                Set<InetAddress> newEndpoints = ImmutableSet.copyOf(strategy.calculateNaturalEndpoints(range.right, allLeftMetadata));
+                for (InetAddress address : Sets.difference(newEndpoints, currentEndpoints))
+                    leavingPendingRanges.put(range, address);
             }
         }
 
-        // At this stage newPendingRanges has been updated according to leave operations. We can
-        // now continue the calculation by checking bootstrapping nodes.
-
-        // For each of the bootstrapping nodes, simply add and remove them one by one to
-        // allLeftMetadata and check in between what their ranges would be.
-        Multimap<InetAddress, Token> bootstrapAddresses = bootstrapTokens.inverse();
-        for (InetAddress endpoint : bootstrapAddresses.keySet())
+        /**
+         * @return whether these are the pending ranges of the given normal tokens and leaving endpoints
+         */
+        boolean isFor(TokenMetadata metadata, Set<InetAddress> leavingEndpoints)
         {
-            Collection<Token> tokens = bootstrapAddresses.get(endpoint);
+            if (!this.leavingEndpoints.equals(leavingEndpoints))
+                return false;
+
+            State state = metadata.state, last = this.metadata.state;
+            if (state.tokenToEndpointMap == last.tokenToEndpointMap && state.topology == last.topology)
+                return true;
 
-            allLeftMetadata.updateNormalTokens(tokens, endpoint);
-            for (Range<Token> range : strategy.getAddressRanges(allLeftMetadata).get(endpoint))
+            if (!last.sortedTokens.equals(state.sortedTokens))
+                return false;
+
+            for (Token token : state.sortedTokens)
             {
-                newPendingRanges.addPendingRange(range, endpoint);
+                InetAddress endpoint = state.tokenToEndpointMap.get(token);
+                if (!endpoint.equals(last.tokenToEndpointMap.get(token))
+                    || !Objects.equals(state.topology.currentLocations.get(endpoint), last.topology.currentLocations.get(endpoint)))
+                    return false;
             }
-            allLeftMetadata.removeEndpoint(endpoint);
+            return true;
         }
 
-        // At this stage newPendingRanges has been updated according to leaving and bootstrapping nodes.
-        // We can now finish the calculation by checking moving nodes.
-
-        // For each of the moving nodes, we do the same thing we did for bootstrapping:
-        // simply add and remove them one by one to allLeftMetadata and check in between what their ranges would be.
-        for (Pair<Token, InetAddress> moving : movingEndpoints)
+        PendingRangeMaps pendingRanges(AbstractReplicationStrategy strategy,
+                                       BiMultiValMap<Token, InetAddress> bootstrapTokens,
+                                       Set<Pair<Token, InetAddress>> movingEndpoints)
         {
-            //Calculate all the ranges which will could be affected. This will include the ranges before and after the move.
-            Set<Range<Token>> moveAffectedRanges = new HashSet<>();
-            InetAddress endpoint = moving.right; // address of the moving node
-            //Add ranges before the move
-            for (Range<Token> range : strategy.getAddressRanges(allLeftMetadata).get(endpoint))
-            {
-                moveAffectedRanges.add(range);
-            }
+            Multimap<InetAddress, Token> bootstrapAddresses = bootstrapTokens.inverse();
+            if (lastPendingRanges != null && bootstrapAddresses.equals(lastBootstrapAddresses) && movingEndpoints.equals(lastMovingEndpoints))
+                return lastPendingRanges;
+
+            PendingRangeMaps newPendingRanges = new PendingRangeMaps();
+            for (Map.Entry<Range<Token>, InetAddress> entry : leavingPendingRanges.entries())
+                newPendingRanges.addPendingRange(entry.getKey(), entry.getValue());
 
-            allLeftMetadata.updateNormalToken(moving.left, endpoint);
-            //Add ranges after the move
-            for (Range<Token> range : strategy.getAddressRanges(allLeftMetadata).get(endpoint))
+            // At this stage newPendingRanges has been updated according to leave operations. We can
+            // now continue the calculation by checking bootstrapping nodes.
+
+            // For each of the bootstrapping nodes, simply add and remove them one by one to
+            // allLeftMetadata and check in between what their ranges would be. As this only depends on
+            // allLeftMetadata, only the nodes which started bootstrapping since the last time are computed.
+            bootstrapRanges.keySet().retainAll(bootstrapAddresses.keySet());
+            for (InetAddress endpoint : bootstrapAddresses.keySet())
             {
-                moveAffectedRanges.add(range);
+                Set<Token> tokens = new HashSet<>(bootstrapAddresses.get(endpoint));
+                Pair<Set<Token>, Collection<Range<Token>>> ranges = bootstrapRanges.get(endpoint);
+                if (ranges == null || !ranges.left.equals(tokens))
+                {
+                    // copies are cheap, and leave allLeftMetadata as is even if the node replaces another one with the same address
+                    TokenMetadata bootstrapMetadata = allLeftMetadata.cloneOnlyTokenMap();
+                    bootstrapMetadata.updateNormalTokens(tokens, endpoint);
+                    ranges = Pair.create(tokens, new ArrayList<>(strategy.getAddressRanges(bootstrapMetadata).get(endpoint)));
+                    bootstrapRanges.put(endpoint, ranges);
+                }
+
+                for (Range<Token> range : ranges.right)
+                    newPendingRanges.addPendingRange(range, endpoint);
             }
 
-            for(Range<Token> range : moveAffectedRanges)
+            // At this stage newPendingRanges has been updated according to leaving and bootstrapping nodes.
+            // We can now finish the calculation by checking moving nodes.
+
+            // For each of the moving nodes, we do the same thing we did for bootstrapping:
+            // simply add and remove them one by one to a copy of allLeftMetadata and check in between what their ranges would be.
+            TokenMetadata movedMetadata = movingEndpoints.isEmpty() ? null : allLeftMetadata.cloneOnlyTokenMap();
+            for (Pair<Token, InetAddress> moving : movingEndpoints)
             {
-                Set<InetAddress> currentEndpoints = ImmutableSet.copyOf(strategy.calculateNaturalEndpoints(range.right, metadata));
-                Set<InetAddress> newEndpoints = ImmutableSet.copyOf(strategy.calculateNaturalEndpoints(range.right, allLeftMetadata));
-                Set<InetAddress> difference = Sets.difference(newEndpoints, currentEndpoints);
-                for(final InetAddress address : difference)
+                //Calculate all the ranges which will could be affected. This will include the ranges before and after the move.
+                Set<Range<Token>> moveAffectedRanges = new HashSet<>();
+                InetAddress endpoint = moving.right; // address of the moving node
+                //Add ranges before the move
+                moveAffectedRanges.addAll(strategy.getAddressRanges(movedMetadata).get(endpoint));
+
+                movedMetadata.updateNormalToken(moving.left, endpoint);
+                //Add ranges after the move
+                Multimap<InetAddress, Range<Token>> movedAddressRanges = strategy.getAddressRanges(movedMetadata);
+                moveAffectedRanges.addAll(movedAddressRanges.get(endpoint));
+
+                for(Range<Token> range : moveAffectedRanges)
                 {
-                    Collection<Range<Token>> newRanges = strategy.getAddressRanges(allLeftMetadata).get(address);
-                    Collection<Range<Token>> oldRanges = strategy.getAddressRanges(metadata).get(address);
-                    //We want to get rid of any ranges which the node is currently getting.
-                    newRanges.removeAll(oldRanges);
-
-                    for(Range<Token> newRange : newRanges)
+                    Set<InetAddress> currentEndpoints = ImmutableSet.copyOf(strategy.calculateNaturalEndpoints(range.right, metadata));
+                    Set<InetAddress> newEndpoints = ImmutableSet.copyOf(strategy.calculateNaturalEndpoints(range.right, movedMetadata));
+                    Set<InetAddress> difference = Sets.difference(newEndpoints, currentEndpoints);
+                    for(final InetAddress address : difference)
                     {
-                        for(Range<Token> pendingRange : newRange.subtractAll(oldRanges))
+                        Collection<Range<Token>> newRanges = new ArrayList<>(movedAddressRanges.get(address));
+                        Collection<Range<Token>> oldRanges = addressRanges.get(address);
+                        //We want to get rid of any ranges which the node is currently getting.
+                        newRanges.removeAll(oldRanges);
+
+                        for(Range<Token> newRange : newRanges)
                         {
-                            newPendingRanges.addPendingRange(pendingRange, address);
+                            for(Range<Token> pendingRange : newRange.subtractAll(oldRanges))
+                            {
+                                newPendingRanges.addPendingRange(pendingRange, address);
+                            }
                         }
                     }
                 }
+
+                movedMetadata.removeEndpoint(endpoint);
             }
 
-            allLeftMetadata.removeEndpoint(endpoint);
+            lastBootstrapAddresses = bootstrapAddresses;
+            lastMovingEndpoints = movingEndpoints;
+            lastPendingRanges = newPendingRanges;
+            return newPendingRanges;
         }
-
-        return newPendingRanges;
     }
 
     public Token getPredecessor(Token token)
     {
-        List<Token> tokens = sortedTokens();
+        return getPredecessor(sortedTokens(), token);
+    }
+
+    private static Token getPredecessor(List<Token> tokens, Token token)
+    {
         int index = Collections.binarySearch(tokens, token);
-        assert index >= 0 : token + " not found in " + StringUtils.join(tokenToEndpointMap.keySet(), ", ");
+        assert index >= 0 : token + " not found in " + StringUtils.join(tokens, ", ");
         return index == 0 ? tokens.get(tokens.size() - 1) : tokens.get(index - 1);
     }
 
@@ -968,69 +906,35 @@ public class TokenMetadata
     {
         List<Token> tokens = sortedTokens();
         int index = Collections.binarySearch(tokens, token);
-        assert index >= 0 : token + " not found in " + StringUtils.join(tokenToEndpointMap.keySet(), ", ");
+        assert index >= 0 : token + " not found in " + StringUtils.join(tokens, ", ");
         return (index == (tokens.size() - 1)) ? tokens.get(0) : tokens.get(index + 1);
     }
 
     /** @return a copy of the bootstrapping tokens map */
     public BiMultiValMap<Token, InetAddress> getBootstrapTokens()
     {
-        lock.readLock().lock();
-        try
-        {
-            return new BiMultiValMap<Token, InetAddress>(bootstrapTokens);
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return new BiMultiValMap<Token, InetAddress>(state.bootstrapTokens);
     }
 
     public Set<InetAddress> getAllEndpoints()
     {
-        lock.readLock().lock();
-        try
-        {
-            return ImmutableSet.copyOf(endpointToHostIdMap.keySet());
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return state.endpointToHostIdMap.keySet();
     }
 
-    /**
-     * We think the size() operation is safe enough, so we call it without the read lock on purpose.
-     *
-     * see CASSANDRA-12999
-     */
     public int getSizeOfAllEndpoints()
     {
-        return endpointToHostIdMap.size();
+        return state.endpointToHostIdMap.size();
     }
 
     /** caller should not modify leavingEndpoints */
     public Set<InetAddress> getLeavingEndpoints()
     {
-        lock.readLock().lock();
-        try
-        {
-            return ImmutableSet.copyOf(leavingEndpoints);
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return state.leavingEndpoints;
     }
 
-    /**
-     * We think the size() operation is safe enough, so we call it without the read lock on purpose.
-     *
-     * see CASSANDRA-12999
-     */
     public int getSizeOfLeavingEndpoints()
     {
-        return leavingEndpoints.size();
+        return state.leavingEndpoints.size();
     }
 
     /**
@@ -1039,25 +943,12 @@ public class TokenMetadata
      */
     public Set<Pair<Token, InetAddress>> getMovingEndpoints()
     {
-        lock.readLock().lock();
-        try
-        {
-            return ImmutableSet.copyOf(movingEndpoints);
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        return state.movingEndpoints;
     }
 
-    /**
-     * We think the size() operation is safe enough, so we call it without the read lock on purpose.
-     *
-     * see CASSANDRA-12999
-     */
     public int getSizeOfMovingEndpoints()
     {
-        return movingEndpoints.size();
+        return state.movingEndpoints.size();
     }
 
     public static int firstTokenIndex(final ArrayList<Token> ring, Token start, boolean insertMin)
@@ -1123,79 +1014,66 @@ public class TokenMetadata
     /** used by tests */
     public void clearUnsafe()
     {
-        lock.writeLock().lock();
+        lock.lock();
         try
         {
-            tokenToEndpointMap.clear();
-            endpointToHostIdMap.clear();
-            bootstrapTokens.clear();
-            leavingEndpoints.clear();
+            state = State.empty();
             pendingRanges.clear();
-            movingEndpoints.clear();
-            sortedTokens.clear();
-            topology.clear();
             invalidateCachedRings();
         }
         finally
         {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
-        lock.readLock().lock();
-        try
-        {
-            Multimap<InetAddress, Token> endpointToTokenMap = tokenToEndpointMap.inverse();
-            Set<InetAddress> eps = endpointToTokenMap.keySet();
-
-            if (!eps.isEmpty())
-            {
-                sb.append("Normal Tokens:");
-                sb.append(System.getProperty("line.separator"));
-                for (InetAddress ep : eps)
-                {
-                    sb.append(ep);
-                    sb.append(':');
-                    sb.append(endpointToTokenMap.get(ep));
-                    sb.append(System.getProperty("line.separator"));
-                }
-            }
+        State current = state;
+        Multimap<InetAddress, Token> endpointToTokenMap = current.tokenToEndpointMap.inverse();
+        Set<InetAddress> eps = endpointToTokenMap.keySet();
 
-            if (!bootstrapTokens.isEmpty())
+        if (!eps.isEmpty())
+        {
+            sb.append("Normal Tokens:");
+            sb.append(System.getProperty("line.separator"));
+            for (InetAddress ep : eps)
             {
-                sb.append("Bootstrapping Tokens:" );
+                sb.append(ep);
+                sb.append(':');
+                sb.append(endpointToTokenMap.get(ep));
                 sb.append(System.getProperty("line.separator"));
-                for (Map.Entry<Token, InetAddress> entry : bootstrapTokens.entrySet())
-                {
-                    sb.append(entry.getValue()).append(':').append(entry.getKey());
-                    sb.append(System.getProperty("line.separator"));
-                }
             }
+        }
 
-            if (!leavingEndpoints.isEmpty())
+        if (!current.bootstrapTokens.isEmpty())
+        {
+            sb.append("Bootstrapping Tokens:" );
+            sb.append(System.getProperty("line.separator"));
+            for (Map.Entry<Token, InetAddress> entry : current.bootstrapTokens.entrySet())
             {
-                sb.append("Leaving Endpoints:");
+                sb.append(entry.getValue()).append(':').append(entry.getKey());
                 sb.append(System.getProperty("line.separator"));
-                for (InetAddress ep : leavingEndpoints)
-                {
-                    sb.append(ep);
-                    sb.append(System.getProperty("line.separator"));
-                }
             }
+        }
 
-            if (!pendingRanges.isEmpty())
+        if (!current.leavingEndpoints.isEmpty())
+        {
+            sb.append("Leaving Endpoints:");
+            sb.append(System.getProperty("line.separator"));
+            for (InetAddress ep : current.leavingEndpoints)
             {
-                sb.append("Pending Ranges:");
+                sb.append(ep);
                 sb.append(System.getProperty("line.separator"));
-                sb.append(printPendingRanges());
             }
         }
-        finally
+
+        if (!pendingRanges.isEmpty())
         {
-            lock.readLock().unlock();
+            sb.append("Pending Ranges:");
+            sb.append(System.getProperty("line.separator"));
+            sb.append(printPendingRanges());
         }
 
         return sb.toString();
@@ -1233,18 +1111,10 @@ public class TokenMetadata
     /** @return an endpoint to token multimap representation of tokenToEndpointMap (a copy) */
     public Multimap<InetAddress, Token> getEndpointToTokenMapForReading()
     {
-        lock.readLock().lock();
-        try
-        {
-            Multimap<InetAddress, Token> cloned = HashMultimap.create();
-            for (Map.Entry<Token, InetAddress> entry : tokenToEndpointMap.entrySet())
-                cloned.put(entry.getValue(), entry.getKey());
-            return cloned;
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        Multimap<InetAddress, Token> cloned = HashMultimap.create();
+        for (Map.Entry<Token, InetAddress> entry : state.tokenToEndpointMap.entrySet())
+            cloned.put(entry.getValue(), entry.getKey());
+        return cloned;
     }
 
     /**
@@ -1253,30 +1123,21 @@ public class TokenMetadata
      */
     public Map<Token, InetAddress> getNormalAndBootstrappingTokenToEndpointMap()
     {
-        lock.readLock().lock();
-        try
-        {
-            Map<Token, InetAddress> map = new HashMap<>(tokenToEndpointMap.size() + bootstrapTokens.size());
-            map.putAll(tokenToEndpointMap);
-            map.putAll(bootstrapTokens);
-            return map;
-        }
-        finally
-        {
-            lock.readLock().unlock();
-        }
+        State current = state;
+        Map<Token, InetAddress> map = new HashMap<>(current.tokenToEndpointMap.size() + current.bootstrapTokens.size());
+        map.putAll(current.tokenToEndpointMap);
+        map.putAll(current.bootstrapTokens);
+        return map;
     }
 
     /**
      * @return the Topology map of nodes to DCs + Racks
      *
-     * This is only allowed when a copy has been made of TokenMetadata, to avoid concurrent modifications
-     * when Topology methods are subsequently used by the caller.
+     * Updates don't modify the returned topology but replace it, so it is consistent, but callers must not modify it.
      */
     public Topology getTopology()
     {
-        assert this != StorageService.instance.getTokenMetadata();
-        return topology;
+        return state.topology;
     }
 
     public long getRingVersion()
@@ -1286,8 +1147,9 @@ public class TokenMetadata
 
     public void invalidateCachedRings()
     {
-        ringVersion++;
+        // drop the cached map first, so that a map taken after reading the new version is never the old one
         cachedTokenMap.set(null);
+        ringVersion++;
     }
 
     public DecoratedKey decorateKey(ByteBuffer key)
@@ -1295,6 +1157,215 @@ public class TokenMetadata
         return partitioner.decorateKey(key);
     }
 
+    /**
+     * The token metadata as of one update, never modified once published.
+     */
+    private static final class State
+    {
+        /**
+         * Maintains token to endpoint map of every node in the cluster.
+         * Each Token is associated with exactly one Address, but each Address may have
+         * multiple tokens.  Hence, the BiMultiValMap collection.
+         */
+        final BiMultiValMap<Token, InetAddress> tokenToEndpointMap;
+        final ArrayList<Token> sortedTokens;
+
+        /** Maintains endpoint to host ID map of every node in the cluster */
+        final ImmutableBiMap<InetAddress, UUID> endpointToHostIdMap;
+
+        // Prior to CASSANDRA-603, we just had <tt>Map<Range, InetAddress> pendingRanges<tt>,
+        // which was added to when a node began bootstrap and removed from when it finished.
+        //
+        // This is inadequate when multiple changes are allowed simultaneously.  For example,
+        // suppose that there is a ring of nodes A, C and E, with replication factor 3.
+        // Node D bootstraps between C and E, so its pending ranges will be E-A, A-C and C-D.
+        // Now suppose node B bootstraps between A and C at the same time. Its pending ranges
+        // would be C-E, E-A and A-B. Now both nodes need to be assigned pending range E-A,
+        // which we would be unable to represent with the old Map.  The same thing happens
+        // even more obviously for any nodes that boot simultaneously between same two nodes.
+        //
+        // So, we made two changes:
+        //
+        // First, we changed pendingRanges to a <tt>Multimap<Range, InetAddress></tt> (now
+        // <tt>Map<String, Multimap<Range, InetAddress>></tt>, because replication strategy
+        // and options are per-KeySpace).
+        //
+        // Second, we added the bootstrapTokens and leavingEndpoints collections, so we can
+        // rebuild pendingRanges from the complete information of what is going on, when
+        // additional changes are made mid-operation.
+        //
+        // Finally, note that recording the tokens of joining nodes in bootstrapTokens also
+        // means we can detect and reject the addition of multiple nodes at the same token
+        // before one becomes part of the ring.
+        final BiMultiValMap<Token, InetAddress> bootstrapTokens;
+
+        final ImmutableBiMap<InetAddress, InetAddress> replacementToOriginal;
+
+        // (don't need to record Token here since it's still part of tokenToEndpointMap until it's done leaving)
+        final ImmutableSet<InetAddress> leavingEndpoints;
+        // nodes which are migrating to the new tokens in the ring
+        final ImmutableSet<Pair<Token, InetAddress>> movingEndpoints;
+
+        final Topology topology;
+
+        private State(BiMultiValMap<Token, InetAddress> tokenToEndpointMap,
+                      ArrayList<Token> sortedTokens,
+                      ImmutableBiMap<InetAddress, UUID> endpointToHostIdMap,
+                      BiMultiValMap<Token, InetAddress> bootstrapTokens,
+                      ImmutableBiMap<InetAddress, InetAddress> replacementToOriginal,
+                      ImmutableSet<InetAddress> leavingEndpoints,
+                      ImmutableSet<Pair<Token, InetAddress>> movingEndpoints,
+                      Topology topology)
+        {
+            this.tokenToEndpointMap = tokenToEndpointMap;
+            this.sortedTokens = sortedTokens;
+            this.endpointToHostIdMap = endpointToHostIdMap;
+            this.bootstrapTokens = bootstrapTokens;
+            this.replacementToOriginal = replacementToOriginal;
+            this.leavingEndpoints = leavingEndpoints;
+            this.movingEndpoints = movingEndpoints;
+            this.topology = topology;
+        }
+
+        static State empty()
+        {
+            return new State(SortedBiMultiValMap.create(null, inetaddressCmp),
+                             new ArrayList<>(),
+                             ImmutableBiMap.of(),
+                             new BiMultiValMap<>(),
+                             ImmutableBiMap.of(),
+                             ImmutableSet.of(),
+                             ImmutableSet.of(),
+                             new Topology());
+        }
+
+        /**
+         * @return the state with only the normal tokens, host IDs and topology of this one
+         */
+        State onlyTokenMap()
+        {
+            return new State(tokenToEndpointMap,
+                             sortedTokens,
+                             endpointToHostIdMap,
+                             new BiMultiValMap<>(),
+                             ImmutableBiMap.of(),
+                             ImmutableSet.of(),
+                             ImmutableSet.of(),
+                             topology);
+        }
+
+        Builder update()
+        {
+            return new Builder(this);
+        }
+
+        /**
+         * Builds the state following an update of the current one, copying each part of it the first time it is
+         * accessed for modification.
+         */
+        static final class Builder
+        {
+            final State current;
+
+            private BiMultiValMap<Token, InetAddress> tokenToEndpointMap;
+            private BiMap<InetAddress, UUID> endpointToHostIdMap;
+            private BiMultiValMap<Token, InetAddress> bootstrapTokens;
+            private BiMap<InetAddress, InetAddress> replacementToOriginal;
+            private Set<InetAddress> leavingEndpoints;
+            private Set<Pair<Token, InetAddress>> movingEndpoints;
+            private Topology topology;
+
+            private Builder(State current)
+            {
+                this.current = current;
+            }
+
+            BiMultiValMap<Token, InetAddress> tokenToEndpointMap()
+            {
+                if (tokenToEndpointMap == null)
+                    tokenToEndpointMap = SortedBiMultiValMap.create(current.tokenToEndpointMap, null, inetaddressCmp);
+                return tokenToEndpointMap;
+            }
+
+            BiMap<InetAddress, UUID> endpointToHostIdMap()
+            {
+                if (endpointToHostIdMap == null)
+                    endpointToHostIdMap = HashBiMap.create(current.endpointToHostIdMap);
+                return endpointToHostIdMap;
+            }
+
+            BiMultiValMap<Token, InetAddress> bootstrapTokens()
+            {
+                if (bootstrapTokens == null)
+                    bootstrapTokens = new BiMultiValMap<>(current.bootstrapTokens);
+                return bootstrapTokens;
+            }
+
+            BiMap<InetAddress, InetAddress> replacementToOriginal()
+            {
+                if (replacementToOriginal == null)
+                    replacementToOriginal = HashBiMap.create(current.replacementToOriginal);
+                return replacementToOriginal;
+            }
+
+            Set<InetAddress> leavingEndpoints()
+            {
+                if (leavingEndpoints == null)
+                    leavingEndpoints = new HashSet<>(current.leavingEndpoints);
+                return leavingEndpoints;
+            }
+
+            Set<Pair<Token, InetAddress>> movingEndpoints()
+            {
+                if (movingEndpoints == null)
+                    movingEndpoints = new HashSet<>(current.movingEndpoints);
+                return movingEndpoints;
+            }
+
+            Topology topology()
+            {
+                if (topology == null)
+                    topology = new Topology(current.topology);
+                return topology;
+            }
+
+            /**
+             * @return true if the endpoint is a normal endpoint, which owns exactly the given tokens and is at the
+             * datacenter and rack given by the snitch, so that updating it to these tokens wouldn't change anything
+             */
+            boolean isNormal(InetAddress endpoint, Collection<Token> tokens)
+            {
+                BiMultiValMap<Token, InetAddress> normalTokens = tokenToEndpointMap == null ? current.tokenToEndpointMap : tokenToEndpointMap;
+                BiMultiValMap<Token, InetAddress> pendingTokens = bootstrapTokens == null ? current.bootstrapTokens : bootstrapTokens;
+                Collection<InetAddress> leaving = leavingEndpoints == null ? current.leavingEndpoints : leavingEndpoints;
+                Map<InetAddress, InetAddress> replacements = replacementToOriginal == null ? current.replacementToOriginal : replacementToOriginal;
+                Collection<Pair<Token, InetAddress>> moving = movingEndpoints == null ? current.movingEndpoints : movingEndpoints;
+                IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+
+                Collection<Token> owned = normalTokens.inverse().get(endpoint);
+                return owned.size() == tokens.size()
+                       && owned.containsAll(tokens)
+                       && !pendingTokens.containsValue(endpoint)
+                       && !leaving.contains(endpoint)
+                       && !replacements.containsKey(endpoint)
+                       && moving.stream().noneMatch(pair -> pair.right.equals(endpoint))
+                       && (topology == null ? current.topology : topology).isAt(endpoint, snitch.getDatacenter(endpoint), snitch.getRack(endpoint));
+            }
+
+            State build()
+            {
+                return new State(tokenToEndpointMap == null ? current.tokenToEndpointMap : tokenToEndpointMap,
+                                 tokenToEndpointMap == null ? current.sortedTokens : new ArrayList<>(tokenToEndpointMap.keySet()),
+                                 endpointToHostIdMap == null ? current.endpointToHostIdMap : ImmutableBiMap.copyOf(endpointToHostIdMap),
+                                 bootstrapTokens == null ? current.bootstrapTokens : bootstrapTokens,
+                                 replacementToOriginal == null ? current.replacementToOriginal : ImmutableBiMap.copyOf(replacementToOriginal),
+                                 leavingEndpoints == null ? current.leavingEndpoints : ImmutableSet.copyOf(leavingEndpoints),
+                                 movingEndpoints == null ? current.movingEndpoints : ImmutableSet.copyOf(movingEndpoints),
+                                 topology == null ? current.topology : topology);
+            }
+        }
+    }
+
     /**
      * Tracks the assignment of racks and endpoints in each datacenter for all the "normal" endpoints
      * in this TokenMetadata. This allows faster calculation of endpoints in NetworkTopologyStrategy.
@@ -1315,13 +1386,6 @@ public class TokenMetadata
             currentLocations = new HashMap<>();
         }
 
-        void clear()
-        {
-            dcEndpoints.clear();
-            dcRacks.clear();
-            currentLocations.clear();
-        }
-
         /**
          * construct deep-copy of other
          */
@@ -1353,6 +1417,15 @@ public class TokenMetadata
             doAddEndpoint(ep, dc, rack);
         }
 
+        /**
+         * @return true if ep is stored at the given datacenter and rack
+         */
+        boolean isAt(InetAddress ep, String dc, String rack)
+        {
+            Pair<String, String> current = currentLocations.get(ep);
+            return current != null && current.left.equals(dc) && current.right.equals(rack);
+        }
+
         private void doAddEndpoint(InetAddress ep, String dc, String rack)
         {
             dcEndpoints.put(dc, ep);
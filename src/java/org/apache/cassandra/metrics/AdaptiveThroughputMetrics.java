@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import org.apache.cassandra.db.compaction.AdaptiveThroughputController;
+
+import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
+
+/**
+ * Metrics for the decisions of the {@link AdaptiveThroughputController}.
+ */
+public class AdaptiveThroughputMetrics
+{
+    private static final MetricNameFactory factory = new DefaultNameFactory("AdaptiveThroughput");
+
+    /** Compaction throughput currently in use, in MB/s, 0 meaning unthrottled */
+    public final Gauge<Double> compactionThroughput;
+    /** Fraction of the configured streaming throughput currently in use */
+    public final Gauge<Double> streamThroughputRatio;
+    /** 99th percentile of the read latency, in milliseconds, at the last update */
+    public final Gauge<Double> readLatency;
+    /** Highest fraction of the space used on the data directories, at the last update */
+    public final Gauge<Double> diskUsage;
+    /** Number of times the compaction throughput was increased */
+    public final Counter increases;
+    /** Number of times the compaction throughput was decreased */
+    public final Counter decreases;
+
+    public AdaptiveThroughputMetrics(final AdaptiveThroughputController controller)
+    {
+        compactionThroughput = Metrics.register(factory.createMetricName("CompactionThroughput"), controller::getCompactionThroughputMbPerSec);
+        streamThroughputRatio = Metrics.register(factory.createMetricName("StreamThroughputRatio"), controller::getStreamThroughputRatio);
+        readLatency = Metrics.register(factory.createMetricName("ReadLatency"), controller::getLastReadLatencyMillis);
+        diskUsage = Metrics.register(factory.createMetricName("DiskUsage"), controller::getLastDiskUsage);
+        increases = Metrics.counter(factory.createMetricName("Increases"));
+        decreases = Metrics.counter(factory.createMetricName("Decreases"));
+    }
+}
@@ -19,8 +19,10 @@ package org.apache.cassandra.metrics;
 
 import java.net.InetAddress;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 
 import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
 
@@ -60,6 +62,15 @@ public class ConnectionMetrics
     /** Number of timeouts for specific IP */
     public final Meter timeouts;
 
+    /** Bytes sent to this IP over compressed connections, before compression */
+    public final Counter uncompressedBytes;
+    /** Bytes sent to this IP over compressed connections, after compression */
+    public final Counter compressedBytes;
+    /** Ratio of the compressed bytes to the uncompressed bytes sent to this IP */
+    public final Gauge<Double> compressionRatio;
+    /** Time spent compressing the messages sent to this IP */
+    public final Timer compressionTime;
+
     private final MetricNameFactory factory;
 
     /**
@@ -139,6 +150,17 @@ public class ConnectionMetrics
             }
         });
         timeouts = Metrics.meter(factory.createMetricName("Timeouts"));
+        uncompressedBytes = Metrics.counter(factory.createMetricName("UncompressedBytes"));
+        compressedBytes = Metrics.counter(factory.createMetricName("CompressedBytes"));
+        compressionRatio = Metrics.register(factory.createMetricName("CompressionRatio"), new Gauge<Double>()
+        {
+            public Double getValue()
+            {
+                long uncompressed = uncompressedBytes.getCount();
+                return uncompressed == 0 ? 1.0 : (double) compressedBytes.getCount() / uncompressed;
+            }
+        });
+        compressionTime = Metrics.timer(factory.createMetricName("CompressionTime"));
     }
 
     public void release()
@@ -153,5 +175,9 @@ public class ConnectionMetrics
         Metrics.remove(factory.createMetricName("GossipMessageCompletedTasks"));
         Metrics.remove(factory.createMetricName("GossipMessageDroppedTasks"));
         Metrics.remove(factory.createMetricName("Timeouts"));
+        Metrics.remove(factory.createMetricName("UncompressedBytes"));
+        Metrics.remove(factory.createMetricName("CompressedBytes"));
+        Metrics.remove(factory.createMetricName("CompressionRatio"));
+        Metrics.remove(factory.createMetricName("CompressionTime"));
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+import org.apache.cassandra.net.MessagingService;
+
+import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
+
+/**
+ * Metrics for {@link org.apache.cassandra.gms.Gossiper}.
+ */
+public final class GossipMetrics
+{
+    private static final MetricNameFactory factory = new DefaultNameFactory("Gossip");
+
+    /** Time taken by each gossip round */
+    public static final Timer roundTime = Metrics.timer(factory.createMetricName("RoundTime"));
+    /** Number of digests in the syn of each gossip round */
+    public static final Histogram digestsPerRound = Metrics.histogram(factory.createMetricName("DigestsPerRound"), false);
+    /** Bytes of the payloads of the syn, ack and ack2 messages sent */
+    public static final Meter bytesSent = Metrics.meter(factory.createMetricName("BytesSent"));
+    /** Time taken to apply the endpoint states received from other nodes */
+    public static final Timer stateApplicationTime = Metrics.timer(factory.createMetricName("StateApplicationTime"));
+    /** Application states received that were newer than ours, and applied */
+    public static final Meter statesApplied = Metrics.meter(factory.createMetricName("StatesApplied"));
+    /** Application states received that we already had, and ignored */
+    public static final Meter staleStatesIgnored = Metrics.meter(factory.createMetricName("StaleStatesIgnored"));
+
+    /**
+     * Called by the outbound connections for each message they write, with the size of its payload, which they know
+     * from serializing it: computing it again for every gossip message would be as costly as serializing it.
+     */
+    public static void markSent(MessagingService.Verb verb, int payloadSize)
+    {
+        switch (verb)
+        {
+            case GOSSIP_DIGEST_SYN:
+            case GOSSIP_DIGEST_ACK:
+            case GOSSIP_DIGEST_ACK2:
+                bytesSent.mark(payloadSize);
+        }
+    }
+}
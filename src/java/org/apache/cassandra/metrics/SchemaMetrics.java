@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+
+import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
+
+/**
+ * Metrics for {@link org.apache.cassandra.schema.Schema} versions and their exchange between nodes.
+ */
+public final class SchemaMetrics
+{
+    private static final MetricNameFactory factory = new DefaultNameFactory("Schema");
+
+    /** Time taken to calculate the schema version after a change */
+    public static final Timer versionCalculationTime = Metrics.timer(factory.createMetricName("VersionCalculationTime"));
+    /** Time taken by the schema pulls, from the request to the merge of the response */
+    public static final Timer pullTime = Metrics.timer(factory.createMetricName("PullTime"));
+    /** Number of keyspaces received by each schema pull */
+    public static final Histogram keyspacesPulled = Metrics.histogram(factory.createMetricName("KeyspacesPulled"), false);
+    /** Time between the schema versions of the live nodes starting to differ, and all of them agreeing again */
+    public static final Timer convergenceTime = Metrics.timer(factory.createMetricName("ConvergenceTime"));
+}
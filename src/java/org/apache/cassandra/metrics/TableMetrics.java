@@ -30,6 +30,7 @@ import com.codahale.metrics.Timer;
 import org.apache.cassandra.schema.Schema;
 import org.apache.cassandra.schema.SchemaConstants;
 import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.db.Memtable;
 import org.apache.cassandra.db.lifecycle.SSTableSet;
@@ -38,6 +39,7 @@ import org.apache.cassandra.io.compress.CompressionMetadata;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
 import org.apache.cassandra.utils.EstimatedHistogram;
+import org.apache.cassandra.utils.HeavyHitters;
 import org.apache.cassandra.utils.TopKSampler;
 
 import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
@@ -50,6 +52,11 @@ public class TableMetrics
 
     public static final long[] EMPTY = new long[0];
 
+    /** Number of partitions tracked by {@link #hotPartitions} and {@link #largestPartitions} */
+    private static final int HOT_PARTITIONS_TRACKED = 16;
+    /** Width of the count-min sketches of {@link #hotPartitions}, 8KB per sketch */
+    private static final int HOT_PARTITIONS_SKETCH_WIDTH = 256;
+
     /** Total amount of data stored in the memtable that resides on-heap, including column related overhead and partitions overwritten. */
     public final Gauge<Long> memtableOnHeapSize;
     /** Total amount of data stored in the memtable that resides off-heap, including column related overhead and partitions overwritten. */
@@ -138,6 +145,8 @@ public class TableMetrics
     public final Counter rowCacheHit;
     /** Number of row cache misses */
     public final Counter rowCacheMiss;
+    /** Number of reads answered by the negative lookup cache */
+    public final Counter negativeLookupCacheHit;
     /** CAS Prepare metrics */
     public final LatencyMetrics casPrepare;
     /** CAS Propose metrics */
@@ -180,6 +189,7 @@ public class TableMetrics
     public final Counter speculativeRetries;
     public final Counter speculativeFailedRetries;
     public final Counter speculativeInsufficientReplicas;
+    public final Counter speculativeRetriesOverBudget;
     public final Gauge<Long> speculativeSampleLatencyNanos;
 
     public final static LatencyMetrics globalReadLatency = new LatencyMetrics(globalFactory, globalAliasFactory, "Read");
@@ -221,6 +231,14 @@ public class TableMetrics
     });
 
     public final Map<Sampler, TopKSampler<ByteBuffer>> samplers;
+    /** Always-on tracking of the partitions with the most reads and writes over the last few minutes */
+    public final Map<Sampler, HeavyHitters> hotPartitions;
+    /** Always-on tracking of the largest partitions written to sstables over the last day or so */
+    public final HeavyHitters largestPartitions;
+    /** Estimated number of reads of the most read partition, exponentially decayed every minute */
+    public final Gauge<Long> hottestPartitionReads;
+    /** Estimated number of writes to the most written partition, exponentially decayed every minute */
+    public final Gauge<Long> hottestPartitionWrites;
     /**
      * stores metrics that will be rolled into a single global metric
      */
@@ -271,6 +289,21 @@ public class TableMetrics
         return values;
     }
 
+    /**
+     * Records an access to {@code key}, for both the on-demand {@link #samplers} and the always-on {@link #hotPartitions}.
+     */
+    public void samplePartition(Sampler sampler, DecoratedKey key)
+    {
+        samplers.get(sampler).addSample(key.getKey(), key.hashCode(), 1);
+        hotPartitions.get(sampler).add(key.getKey(), 1);
+    }
+
+    private long hottestPartitionCount(Sampler sampler)
+    {
+        List<HeavyHitters.Entry> hottest = hotPartitions.get(sampler).top(1);
+        return hottest.isEmpty() ? 0 : hottest.get(0).value;
+    }
+
     /**
      * Creates metrics for given {@link ColumnFamilyStore}.
      *
@@ -287,6 +320,19 @@ public class TableMetrics
             samplers.put(sampler, new TopKSampler<>());
         }
 
+        hotPartitions = new EnumMap<>(Sampler.class);
+        for (Sampler sampler : Sampler.values())
+        {
+            hotPartitions.put(sampler, HeavyHitters.frequencies(HOT_PARTITIONS_TRACKED, HOT_PARTITIONS_SKETCH_WIDTH, 1, TimeUnit.MINUTES));
+        }
+        largestPartitions = HeavyHitters.maxima(HOT_PARTITIONS_TRACKED, 1, TimeUnit.DAYS);
+        hottestPartitionReads = createTableGauge("HottestPartitionReads",
+                                                 () -> hottestPartitionCount(Sampler.READS),
+                                                 maxOfAllTables("HottestPartitionReads"));
+        hottestPartitionWrites = createTableGauge("HottestPartitionWrites",
+                                                  () -> hottestPartitionCount(Sampler.WRITES),
+                                                  maxOfAllTables("HottestPartitionWrites"));
+
         memtableColumnsCount = createTableGauge("MemtableColumnsCount", new Gauge<Long>()
         {
             public Long getValue()
@@ -654,6 +700,7 @@ public class TableMetrics
         speculativeRetries = createTableCounter("SpeculativeRetries");
         speculativeFailedRetries = createTableCounter("SpeculativeFailedRetries");
         speculativeInsufficientReplicas = createTableCounter("SpeculativeInsufficientReplicas");
+        speculativeRetriesOverBudget = createTableCounter("SpeculativeRetriesOverBudget");
         speculativeSampleLatencyNanos = createTableGauge("SpeculativeSampleLatencyNanos", new Gauge<Long>()
         {
             public Long getValue()
@@ -717,6 +764,7 @@ public class TableMetrics
         rowCacheHitOutOfRange = createTableCounter("RowCacheHitOutOfRange");
         rowCacheHit = createTableCounter("RowCacheHit");
         rowCacheMiss = createTableCounter("RowCacheMiss");
+        negativeLookupCacheHit = createTableCounter("NegativeLookupCacheHit");
         droppedMutations = createTableCounter("DroppedMutations");
 
         casPrepare = new LatencyMetrics(factory, "CasPrepare", cfs.keyspace.metric.casPrepare);
@@ -810,6 +858,19 @@ public class TableMetrics
         return cfGauge;
     }
 
+    /**
+     * @return a global gauge whose value is the maximum of the values of the {@code name} gauges of all tables
+     */
+    private static Gauge<Long> maxOfAllTables(final String name)
+    {
+        return () -> {
+            long max = 0;
+            for (Metric cfGauge : allTableMetrics.get(name))
+                max = Math.max(max, ((Number) ((Gauge<?>) cfGauge).getValue()).longValue());
+            return max;
+        };
+    }
+
     /**
      * Creates a counter that will also have a global counter thats the sum of all counters across
      * different column families
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * Writes the block format of {@link net.jpountz.lz4.LZ4BlockOutputStream}, so that it is read by
+ * {@link net.jpountz.lz4.LZ4BlockInputStream}, but only compresses the blocks that are worth it.
+ *
+ * Each flush writes the buffered data as one block, so the messages coalesced by {@link OutboundTcpConnection}
+ * between two flushes are compressed together. Blocks smaller than {@link #MIN_COMPRESSED_BLOCK_SIZE} are sent
+ * raw, and so are the blocks following one that didn't compress well, for a number of blocks that doubles every
+ * time compression fails again.
+ */
+public class AdaptiveLZ4BlockOutputStream extends OutputStream
+{
+    // LZ4 finds too little to compress in smaller blocks to be worth the CPU
+    static final int MIN_COMPRESSED_BLOCK_SIZE = 512;
+    // blocks that don't compress at least to this ratio of their size are sent raw
+    static final double MAX_COMPRESSION_RATIO = 0.9;
+    static final int MAX_SKIPPED_BLOCKS = 64;
+
+    private static final byte[] MAGIC = "LZ4Block".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + 4 + 4;
+    private static final int COMPRESSION_LEVEL_BASE = 10;
+    private static final int COMPRESSION_METHOD_RAW = 0x10;
+    private static final int COMPRESSION_METHOD_LZ4 = 0x20;
+
+    private final OutputStream out;
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final Checksum checksum = XXHashFactory.fastestInstance().newStreamingHash32(OutboundTcpConnection.LZ4_HASH_SEED).asChecksum();
+    private final int compressionLevel;
+    private final byte[] buffer;
+    private final byte[] compressedBuffer;
+    private int position;
+    private boolean finished;
+
+    // number of the next blocks to send raw without trying to compress them
+    private int skippedBlocks;
+    private int skippedBlocksOnFailure = 1;
+
+    private final Counter uncompressedBytes;
+    private final Counter compressedBytes;
+    private final Timer compressionTime;
+
+    /**
+     * @param blockSize the maximum size of the blocks, a power of two between 1KiB and 32MiB
+     * @param uncompressedBytes counts the bytes written to this stream
+     * @param compressedBytes counts the bytes written to the underlying stream
+     * @param compressionTime times the compression of the blocks
+     */
+    public AdaptiveLZ4BlockOutputStream(OutputStream out, int blockSize, Counter uncompressedBytes, Counter compressedBytes, Timer compressionTime)
+    {
+        assert Integer.bitCount(blockSize) == 1 && blockSize >= 1 << COMPRESSION_LEVEL_BASE && blockSize <= 1 << 25 : blockSize;
+        this.out = out;
+        this.compressionLevel = Integer.numberOfTrailingZeros(blockSize) - COMPRESSION_LEVEL_BASE;
+        this.buffer = new byte[blockSize];
+        this.compressedBuffer = new byte[HEADER_LENGTH + compressor.maxCompressedLength(blockSize)];
+        System.arraycopy(MAGIC, 0, compressedBuffer, 0, MAGIC.length);
+        this.uncompressedBytes = uncompressedBytes;
+        this.compressedBytes = compressedBytes;
+        this.compressionTime = compressionTime;
+    }
+
+    public void write(int b) throws IOException
+    {
+        if (position == buffer.length)
+            writeBlock();
+        buffer[position++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            if (position == buffer.length)
+                writeBlock();
+            int length = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, length);
+            position += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    public void flush() throws IOException
+    {
+        writeBlock();
+        out.flush();
+    }
+
+    public void close() throws IOException
+    {
+        if (!finished)
+        {
+            writeBlock();
+            // an empty block marks the end of the stream
+            writeHeader(COMPRESSION_METHOD_RAW, 0, 0, 0);
+            out.write(compressedBuffer, 0, HEADER_LENGTH);
+            finished = true;
+        }
+        out.close();
+    }
+
+    private void writeBlock() throws IOException
+    {
+        if (position == 0)
+            return;
+
+        checksum.reset();
+        checksum.update(buffer, 0, position);
+        int check = (int) checksum.getValue();
+
+        boolean compress = position >= MIN_COMPRESSED_BLOCK_SIZE;
+        if (compress && skippedBlocks > 0)
+        {
+            skippedBlocks--;
+            compress = false;
+        }
+
+        int length = position;
+        int method = COMPRESSION_METHOD_RAW;
+        if (compress)
+        {
+            long start = System.nanoTime();
+            int compressedLength = compressor.compress(buffer, 0, position, compressedBuffer, HEADER_LENGTH);
+            compressionTime.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            if (compressedLength <= position * MAX_COMPRESSION_RATIO)
+            {
+                length = compressedLength;
+                method = COMPRESSION_METHOD_LZ4;
+                skippedBlocksOnFailure = 1;
+            }
+            else
+            {
+                skippedBlocks = skippedBlocksOnFailure;
+                skippedBlocksOnFailure = Math.min(skippedBlocksOnFailure * 2, MAX_SKIPPED_BLOCKS);
+            }
+        }
+
+        if (method == COMPRESSION_METHOD_RAW)
+            System.arraycopy(buffer, 0, compressedBuffer, HEADER_LENGTH, position);
+
+        writeHeader(method, length, position, check);
+        out.write(compressedBuffer, 0, HEADER_LENGTH + length);
+
+        uncompressedBytes.inc(position);
+        compressedBytes.inc(HEADER_LENGTH + length);
+        position = 0;
+    }
+
+    private void writeHeader(int method, int compressedLength, int originalLength, int check)
+    {
+        compressedBuffer[MAGIC.length] = (byte) (method | compressionLevel);
+        writeIntLE(compressedLength, MAGIC.length + 1);
+        writeIntLE(originalLength, MAGIC.length + 5);
+        writeIntLE(check, MAGIC.length + 9);
+    }
+
+    private void writeIntLE(int value, int offset)
+    {
+        compressedBuffer[offset] = (byte) value;
+        compressedBuffer[offset + 1] = (byte) (value >>> 8);
+        compressedBuffer[offset + 2] = (byte) (value >>> 16);
+        compressedBuffer[offset + 3] = (byte) (value >>> 24);
+    }
+}
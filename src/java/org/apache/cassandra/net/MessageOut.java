@@ -100,7 +100,10 @@ public class MessageOut<T>
         return sbuf.toString();
     }
 
-    public void serialize(DataOutputPlus out, int version) throws IOException
+    /**
+     * @return the size of the serialized payload, in bytes
+     */
+    public int serialize(DataOutputPlus out, int version) throws IOException
     {
         CompactEndpointSerializationHelper.serialize(from, out);
 
@@ -122,11 +125,13 @@ public class MessageOut<T>
                 int size = dob.getLength();
                 out.writeInt(size);
                 out.write(dob.getData(), 0, size);
+                return size;
             }
         }
         else
         {
             out.writeInt(0);
+            return 0;
         }
     }
 
@@ -34,7 +34,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.zip.Checksum;
 
 import javax.net.ssl.SSLHandshakeException;
 
@@ -42,15 +41,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.util.concurrent.FastThreadLocalThread;
-import net.jpountz.lz4.LZ4BlockOutputStream;
-import net.jpountz.lz4.LZ4Compressor;
-import net.jpountz.lz4.LZ4Factory;
-import net.jpountz.xxhash.XXHashFactory;
 
 import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.io.util.DataOutputStreamPlus;
 import org.apache.cassandra.io.util.BufferedDataOutputStreamPlus;
 import org.apache.cassandra.io.util.WrappedDataOutputStreamPlus;
+import org.apache.cassandra.metrics.ConnectionMetrics;
+import org.apache.cassandra.metrics.GossipMetrics;
 import org.apache.cassandra.tracing.TraceState;
 import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.utils.CoalescingStrategies;
@@ -389,7 +386,8 @@ public class OutboundTcpConnection extends FastThreadLocalThread
         // int cast cuts off the high-order half of the timestamp, which we can assume remains
         // the same between now and when the recipient reconstructs it.
         out.writeInt((int) timestamp);
-        message.serialize(out, targetVersion);
+        int payloadSize = message.serialize(out, targetVersion);
+        GossipMetrics.markSent(message.verb, payloadSize);
     }
 
     private static void writeHeader(DataOutput out, int version, boolean compressionEnabled) throws IOException
@@ -525,14 +523,13 @@ public class OutboundTcpConnection extends FastThreadLocalThread
                     out.flush();
                     logger.trace("Upgrading OutputStream to {} to be compressed", endpoint);
 
-                    // TODO: custom LZ4 OS that supports BB write methods
-                    LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
-                    Checksum checksum = XXHashFactory.fastestInstance().newStreamingHash32(LZ4_HASH_SEED).asChecksum();
-                    out = new WrappedDataOutputStreamPlus(new LZ4BlockOutputStream(socket.getOutputStream(),
-                                                                        1 << 14,  // 16k block size
-                                                                        compressor,
-                                                                        checksum,
-                                                                        true)); // no async flushing
+                    // each coalesced batch of messages is a block, only compressed if that pays off
+                    ConnectionMetrics metrics = poolReference.getMetrics();
+                    out = new WrappedDataOutputStreamPlus(new AdaptiveLZ4BlockOutputStream(socket.getOutputStream(),
+                                                                                           1 << 14,  // 16k block size
+                                                                                           metrics.uncompressedBytes,
+                                                                                           metrics.compressedBytes,
+                                                                                           metrics.compressionTime));
                 }
                 logger.debug("Done connecting to {}", endpoint);
                 return true;
@@ -116,6 +116,11 @@ public class OutboundTcpConnectionPool
         metrics = new ConnectionMetrics(resetEndpoint, this);
     }
 
+    ConnectionMetrics getMetrics()
+    {
+        return metrics;
+    }
+
     public long getTimeouts()
     {
        return metrics.timeouts.getCount();
@@ -22,6 +22,8 @@ import java.util.List;
 import java.util.UUID;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -90,6 +92,32 @@ public class LocalSyncTask extends SyncTask implements StreamEventHandler
         InetAddress dst = r2.endpoint.equals(local) ? r1.endpoint : r2.endpoint;
         InetAddress preferred = SystemKeyspace.getPreferredIP(dst);
 
+        if (RowLevelSync.isApplicable(desc, differences, pendingRepair, previewKind))
+        {
+            String message = String.format("Performing row-level repair of %d ranges with %s", differences.size(), dst);
+            logger.info("{} {}", previewKind.logPrefix(desc.sessionId), message);
+            Tracing.traceRepair(message);
+
+            Futures.addCallback(new RowLevelSync(desc, dst, differences, pullRepair).start(), new FutureCallback<Integer>()
+            {
+                public void onSuccess(Integer partitions)
+                {
+                    String message = String.format("Sync complete using row-level repair of %d partitions between %s and %s on %s", partitions, r1.endpoint, r2.endpoint, desc.columnFamily);
+                    logger.info("{} {}", previewKind.logPrefix(desc.sessionId), message);
+                    Tracing.traceRepair(message);
+                    set(stat);
+                    finished();
+                }
+
+                public void onFailure(Throwable t)
+                {
+                    logger.warn("{} Row-level repair with {} failed, falling back to streaming", previewKind.logPrefix(desc.sessionId), dst, t);
+                    createStreamPlan(dst, preferred, differences).execute();
+                }
+            });
+            return;
+        }
+
         String message = String.format("Performing streaming repair of %d ranges with %s", differences.size(), dst);
         logger.info("{} {}", previewKind.logPrefix(desc.sessionId), message);
         Tracing.traceRepair(message);
@@ -144,6 +144,12 @@ public class RepairJob extends AbstractFuture<RepairResult> implements Runnable
                         taskExecutor.submit(task);
                     }
                 }
+                // the trees are only needed until all the differences have been computed, so free their off-heap
+                // memory once all the sync tasks are done, whether they succeeded or not
+                Futures.successfulAsList(syncTasks).addListener(() -> {
+                    for (TreeResponse response : trees)
+                        response.trees.release();
+                }, MoreExecutors.directExecutor());
                 return Futures.allAsList(syncTasks);
             }
         }, taskExecutor);
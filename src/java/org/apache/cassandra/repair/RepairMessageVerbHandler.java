@@ -148,6 +148,11 @@ public class RepairMessageVerbHandler implements IVerbHandler<RepairMessage>
                     task.run();
                     break;
 
+                case PARTITION_DIGESTS_REQUEST:
+                    logger.debug("Computing partition digests, {}", message.payload);
+                    RowLevelSync.handleDigestsRequest(message, id);
+                    break;
+
                 case CLEANUP:
                     logger.debug("cleaning up repair");
                     CleanupMessage cleanup = (CleanupMessage) message.payload;
@@ -0,0 +1,468 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.repair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.concurrent.ScheduledExecutors;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.Attributes;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.db.compaction.AdaptiveThroughputController;
+import org.apache.cassandra.db.compaction.CompactionManager;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.repair.messages.RepairOption;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.streaming.PreviewKind;
+import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.progress.ProgressEvent;
+import org.apache.cassandra.utils.progress.ProgressEventType;
+import org.apache.cassandra.utils.progress.ProgressListener;
+
+/**
+ * Repairs the local primary ranges continuously, when {@code repair_scheduler_enabled} is set.
+ *
+ * The primary ranges of each table are split in subranges of about {@code repair_scheduler_partitions_per_subrange}
+ * partitions, from the estimates of {@link org.apache.cassandra.db.SizeEstimatesRecorder}, and every minute, unless a
+ * scheduled repair is already running, we repair the subrange (of any table) that was successfully repaired the
+ * least recently, skipping the ones repaired in the last {@code repair_scheduler_interval_in_hours}. The progress is
+ * recorded in {@link SystemDistributedKeyspace#REPAIR_SCHEDULE}, so it survives restarts and can be looked at from
+ * any node.
+ *
+ * The subranges and their last repair times are only read at the start of a round, and kept up to date in memory as we
+ * repair them. A new round starts once the current one has nothing left to repair, but no more than once every
+ * {@code cassandra.repair_scheduler_min_round_seconds}, or when the current one is older than the repair interval.
+ *
+ * Repairs are paced so that they take about {@code repair_scheduler_intensity} of the time, and held back while the
+ * read latency or the compaction backlog are above the targets of the {@link AdaptiveThroughputController}. A repair
+ * that hasn't completed after {@code cassandra.repair_scheduler_timeout_seconds} (because a participant died or a
+ * response was lost, say) is considered failed, so that it doesn't hold back the next ones forever.
+ */
+public class RepairScheduler implements Runnable
+{
+    private static final Logger logger = LoggerFactory.getLogger(RepairScheduler.class);
+
+    public static final RepairScheduler instance = new RepairScheduler();
+
+    private static final long CHECK_INTERVAL_SECONDS = Long.getLong("cassandra.repair_scheduler_check_interval_seconds", 60);
+    // a subrange that failed to repair (because a replica is down, say) is not retried before that
+    private static final long FAILURE_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("cassandra.repair_scheduler_failure_retry_delay_seconds", 3600));
+    // how often the subranges and their last repair times may be reloaded when there is nothing left to repair
+    private static final long MIN_ROUND_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("cassandra.repair_scheduler_min_round_seconds", 3600));
+    // how long a repair may run before we give up on it and move on to the next subrange
+    @VisibleForTesting
+    static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("cassandra.repair_scheduler_timeout_seconds", 3 * 3600));
+    @VisibleForTesting
+    static final int MAX_SUBRANGES_PER_RANGE = 1 << 16;
+
+    @VisibleForTesting
+    static class Subrange
+    {
+        final String keyspace;
+        final String table;
+        final Range<Token> range;
+        final long estimatedPartitions;
+        final long lastSuccessMillis;
+
+        Subrange(String keyspace, String table, Range<Token> range, long estimatedPartitions, long lastSuccessMillis)
+        {
+            this.keyspace = keyspace;
+            this.table = table;
+            this.range = range;
+            this.estimatedPartitions = estimatedPartitions;
+            this.lastSuccessMillis = lastSuccessMillis;
+        }
+
+        public String toString()
+        {
+            return describe(keyspace, table, range);
+        }
+    }
+
+    /**
+     * A repair we started, which is finished at most once: by its completion, or by timing out.
+     */
+    private static class Repair
+    {
+        final Subrange subrange;
+        final long startedAt;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Repair(Subrange subrange, long startedAt)
+        {
+            this.subrange = subrange;
+            this.startedAt = startedAt;
+        }
+    }
+
+    /**
+     * The subranges of a table and the time they were last repaired successfully.
+     */
+    private static class TableSchedule
+    {
+        final String keyspace;
+        final String table;
+        final Map<Range<Token>, Long> subranges;
+        // updated by the repairs of the round
+        final Map<Pair<String, String>, Long> lastSuccesses;
+
+        TableSchedule(String keyspace, String table, Map<Range<Token>, Long> subranges, Map<Pair<String, String>, Long> lastSuccesses)
+        {
+            this.keyspace = keyspace;
+            this.table = table;
+            this.subranges = subranges;
+            this.lastSuccesses = new ConcurrentHashMap<>(lastSuccesses);
+        }
+    }
+
+    private volatile Repair running;
+    private volatile long notBeforeMillis;
+    private final Map<String, Long> lastFailureMillis = new ConcurrentHashMap<>();
+
+    // the schedule of each table, by keyspace and table name, as of the start of the current round
+    private volatile Map<Pair<String, String>, TableSchedule> round = Collections.emptyMap();
+    private volatile long roundStartMillis;
+
+    @VisibleForTesting
+    RepairScheduler()
+    {
+    }
+
+    public void start()
+    {
+        ScheduledExecutors.optionalTasks.scheduleWithFixedDelay(this, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void run()
+    {
+        try
+        {
+            maybeRepairNext();
+        }
+        catch (Throwable t)
+        {
+            logger.warn("Failed to schedule the next repair", t);
+        }
+    }
+
+    private void maybeRepairNext()
+    {
+        long now = System.currentTimeMillis();
+        checkTimeout(now);
+        if (!DatabaseDescriptor.isRepairSchedulerEnabled() || running != null || now < notBeforeMillis || !StorageService.instance.isJoined())
+            return;
+
+        double readLatencyMillis = AdaptiveThroughputController.readLatencyMillis();
+        int pendingCompactions = CompactionManager.instance.getPendingTasks();
+        if (readLatencyMillis > DatabaseDescriptor.getAdaptiveThroughputReadLatencyTargetMillis()
+            || pendingCompactions > DatabaseDescriptor.getAdaptiveThroughputPendingCompactionsTarget())
+        {
+            logger.debug("Holding back scheduled repairs (read latency p99: {} ms, pending compactions: {})", readLatencyMillis, pendingCompactions);
+            return;
+        }
+
+        long intervalMillis = TimeUnit.HOURS.toMillis(DatabaseDescriptor.getRepairSchedulerIntervalInHours());
+        long minLastSuccess = now - intervalMillis;
+        Subrange next = next(now, minLastSuccess);
+        long roundAge = now - roundStartMillis;
+        if (roundAge >= (next == null ? MIN_ROUND_MILLIS : intervalMillis))
+        {
+            startRound(now);
+            next = next(now, minLastSuccess);
+        }
+
+        if (next != null)
+            repair(next);
+    }
+
+    /**
+     * Loads the subranges of every table, and when they were last repaired.
+     */
+    private void startRound(long now)
+    {
+        Map<Pair<String, String>, TableSchedule> schedules = new HashMap<>();
+        for (Keyspace keyspace : Keyspace.nonLocalStrategy())
+        {
+            if (keyspace.getReplicationStrategy().getReplicationFactor() < 2)
+                continue;
+
+            for (ColumnFamilyStore cfs : keyspace.getColumnFamilyStores())
+            {
+                // tables that haven't been estimated yet are picked up by a later round
+                Map<Range<Token>, Long> subranges = plan(SystemKeyspace.getSizeEstimates(keyspace.getName(), cfs.name),
+                                                         DatabaseDescriptor.getRepairSchedulerPartitionsPerSubrange(),
+                                                         cfs.getPartitioner());
+                if (subranges.isEmpty())
+                    continue;
+
+                schedules.put(Pair.create(keyspace.getName(), cfs.name),
+                              new TableSchedule(keyspace.getName(), cfs.name, subranges,
+                                                SystemDistributedKeyspace.lastSuccessfulScheduledRepairs(keyspace.getName(), cfs.name)));
+            }
+        }
+        logger.debug("Starting a round of scheduled repairs over {} tables", schedules.size());
+        round = schedules;
+        roundStartMillis = now;
+    }
+
+    /**
+     * @return the subrange of the current round that was successfully repaired the least recently, if before
+     * {@code minLastSuccess} and it didn't fail recently
+     */
+    private Subrange next(long now, long minLastSuccess)
+    {
+        Subrange next = null;
+        for (TableSchedule schedule : round.values())
+        {
+            Map<Range<Token>, Long> subranges = schedule.subranges;
+            if (!lastFailureMillis.isEmpty())
+            {
+                subranges = new HashMap<>(subranges);
+                subranges.keySet().removeIf(range -> recentlyFailed(describe(schedule.keyspace, schedule.table, range), now));
+            }
+
+            Subrange candidate = oldest(schedule.keyspace, schedule.table, subranges, schedule.lastSuccesses, minLastSuccess);
+            if (candidate != null && (next == null || candidate.lastSuccessMillis < next.lastSuccessMillis))
+                next = candidate;
+        }
+        return next;
+    }
+
+    /**
+     * @return the subrange of {@code subranges} that was successfully repaired the least recently, if before
+     * {@code minLastSuccess}
+     */
+    @VisibleForTesting
+    static Subrange oldest(String keyspace, String table, Map<Range<Token>, Long> subranges, Map<Pair<String, String>, Long> lastSuccesses, long minLastSuccess)
+    {
+        Subrange oldest = null;
+        for (Map.Entry<Range<Token>, Long> entry : subranges.entrySet())
+        {
+            Range<Token> range = entry.getKey();
+            Long lastSuccess = lastSuccesses.get(bounds(range));
+            long lastSuccessMillis = lastSuccess == null ? 0 : lastSuccess;
+            if (lastSuccessMillis < minLastSuccess && (oldest == null || lastSuccessMillis < oldest.lastSuccessMillis))
+                oldest = new Subrange(keyspace, table, range, entry.getValue(), lastSuccessMillis);
+        }
+        return oldest;
+    }
+
+    /**
+     * Splits the estimated primary ranges in subranges of about {@code partitionsPerSubrange} partitions each.
+     *
+     * The number of subranges of each range is rounded up to a power of two: progress is recorded against the
+     * subrange bounds, and they must not change every time the estimates do.
+     *
+     * @return the estimated partition count of each subrange
+     */
+    @VisibleForTesting
+    static Map<Range<Token>, Long> plan(Map<Range<Token>, Pair<Long, Long>> estimates, long partitionsPerSubrange, IPartitioner partitioner)
+    {
+        Map<Range<Token>, Long> subranges = new HashMap<>();
+        for (Map.Entry<Range<Token>, Pair<Long, Long>> entry : estimates.entrySet())
+        {
+            long partitions = entry.getValue().left;
+            List<Range<Token>> split = partitioner.splitter().isPresent()
+                                       ? split(entry.getKey(), subrangeCount(partitions, partitionsPerSubrange), partitioner)
+                                       : Collections.singletonList(entry.getKey());
+            for (Range<Token> subrange : split)
+                subranges.put(subrange, partitions / split.size());
+        }
+        return subranges;
+    }
+
+    @VisibleForTesting
+    static int subrangeCount(long partitions, long partitionsPerSubrange)
+    {
+        long count = partitions / partitionsPerSubrange + (partitions % partitionsPerSubrange == 0 ? 0 : 1);
+        if (count <= 1)
+            return 1;
+        if (count >= MAX_SUBRANGES_PER_RANGE)
+            return MAX_SUBRANGES_PER_RANGE;
+        return (int) Long.highestOneBit(count - 1) << 1;
+    }
+
+    /**
+     * @return {@code range} split in (up to, if it is too narrow) {@code count} contiguous subranges of equal width
+     */
+    @VisibleForTesting
+    static List<Range<Token>> split(Range<Token> range, int count, IPartitioner partitioner)
+    {
+        List<Range<Token>> subranges = new ArrayList<>(count);
+        Token left = range.left;
+        for (int i = 1; i < count; i++)
+        {
+            Token right = partitioner.split(range.left, range.right, (double) i / count);
+            if (right.equals(left) || right.equals(range.right) || !new Range<>(left, range.right).contains(right))
+                continue;
+            subranges.add(new Range<>(left, right));
+            left = right;
+        }
+        subranges.add(new Range<>(left, range.right));
+        return subranges;
+    }
+
+    // the key of a subrange in the last successes
+    private static Pair<String, String> bounds(Range<Token> range)
+    {
+        return Pair.create(range.left.toString(), range.right.toString());
+    }
+
+    private static String describe(String keyspace, String table, Range<Token> range)
+    {
+        return String.format("%s.%s %s", keyspace, table, range);
+    }
+
+    private boolean recentlyFailed(String subrange, long now)
+    {
+        Long failedAt = lastFailureMillis.get(subrange);
+        return failedAt != null && now - failedAt < FAILURE_RETRY_DELAY_MILLIS;
+    }
+
+    /**
+     * Fails the running repair if it was started more than {@link #TIMEOUT_MILLIS} before {@code now}.
+     */
+    @VisibleForTesting
+    void checkTimeout(long now)
+    {
+        Repair repair = running;
+        if (repair != null && now - repair.startedAt > TIMEOUT_MILLIS)
+        {
+            logger.warn("Scheduled repair of {} didn't complete within {} ms, considering it failed", repair.subrange, TIMEOUT_MILLIS);
+            finish(repair, false);
+        }
+    }
+
+    @VisibleForTesting
+    boolean isRunning()
+    {
+        return running != null;
+    }
+
+    @VisibleForTesting
+    boolean recentlyFailed(Subrange subrange, long now)
+    {
+        return recentlyFailed(subrange.toString(), now);
+    }
+
+    @VisibleForTesting
+    void repair(Subrange subrange)
+    {
+        // subranges are small and we pace them ourselves, so there is no need for the snapshots of sequential repairs
+        RepairOption option = new RepairOption(RepairParallelism.PARALLEL, false, false, false, 1,
+                                               Collections.singleton(subrange.range), true, false, PreviewKind.NONE);
+        option.getColumnFamilies().add(subrange.table);
+
+        logger.info("Starting scheduled repair of {} (about {} partitions, last repaired {})",
+                    subrange, subrange.estimatedPartitions,
+                    subrange.lastSuccessMillis == 0 ? "never" : new Date(subrange.lastSuccessMillis));
+        Repair repair = new Repair(subrange, System.currentTimeMillis());
+        running = repair;
+        try
+        {
+            SystemDistributedKeyspace.startScheduledRepair(subrange.keyspace, subrange.table, subrange.range, subrange.estimatedPartitions, ttl());
+            startRepair(subrange.keyspace, option, new ProgressListener()
+            {
+                private volatile boolean failed;
+
+                public void progress(String tag, ProgressEvent event)
+                {
+                    if (event.getType() == ProgressEventType.ERROR)
+                        failed = true;
+                    else if (event.getType() == ProgressEventType.COMPLETE)
+                        finish(repair, !failed);
+                }
+            });
+        }
+        catch (Throwable t)
+        {
+            finish(repair, false);
+            throw t;
+        }
+    }
+
+    @VisibleForTesting
+    void startRepair(String keyspace, RepairOption option, ProgressListener listener)
+    {
+        StorageService.instance.repairAsync(keyspace, option, Collections.singletonList(listener));
+    }
+
+    private void finish(Repair repair, boolean success)
+    {
+        // a repair that timed out may still complete later on, after the next one started
+        if (!repair.finished.compareAndSet(false, true))
+            return;
+
+        Subrange subrange = repair.subrange;
+        long now = System.currentTimeMillis();
+        try
+        {
+            if (success)
+            {
+                lastFailureMillis.remove(subrange.toString());
+                TableSchedule schedule = round.get(Pair.create(subrange.keyspace, subrange.table));
+                if (schedule != null)
+                    schedule.lastSuccesses.put(bounds(subrange.range), now);
+            }
+            else
+                lastFailureMillis.put(subrange.toString(), now);
+
+            long pause = pauseMillis(now - repair.startedAt, DatabaseDescriptor.getRepairSchedulerIntensity());
+            logger.info("Scheduled repair of {} {} in {} ms, next one in {} ms at the earliest",
+                        subrange, success ? "succeeded" : "failed", now - repair.startedAt, pause);
+            notBeforeMillis = now + pause;
+            SystemDistributedKeyspace.finishScheduledRepair(subrange.keyspace, subrange.table, subrange.range, success, ttl());
+        }
+        finally
+        {
+            running = null;
+        }
+    }
+
+    /**
+     * @return how long to wait after a repair that took {@code durationMillis} for repairs to take {@code intensity}
+     * of the time
+     */
+    @VisibleForTesting
+    static long pauseMillis(long durationMillis, double intensity)
+    {
+        return (long) (durationMillis * (1 - intensity) / intensity);
+    }
+
+    // rows of subranges that are no longer planned (because the ring or the estimates changed) eventually go away
+    private static int ttl()
+    {
+        return (int) Math.min(TimeUnit.HOURS.toSeconds(4L * DatabaseDescriptor.getRepairSchedulerIntervalInHours()), Attributes.MAX_TTL);
+    }
+}
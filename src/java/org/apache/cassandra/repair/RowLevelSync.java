@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.repair;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterators;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.net.AsyncOneResponse;
+import org.apache.cassandra.net.MessageIn;
+import org.apache.cassandra.net.MessageOut;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.repair.messages.PartitionDigests;
+import org.apache.cassandra.repair.messages.PartitionDigestsRequest;
+import org.apache.cassandra.repair.messages.RepairMessage;
+import org.apache.cassandra.streaming.PreviewKind;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Synchronizes the ranges found out of sync by a repair with a peer, by comparing the digests of their partitions and
+ * only exchanging the partitions that differ, instead of streaming whole sstable sections.
+ *
+ * The partitions we miss or have a different version of are read from the peer, and the ones it misses or has a
+ * different version of are sent to it as read-repair mutations (unless pulling only), so that both replicas end up
+ * with the reconciliation of both versions.
+ *
+ * Since the partitions go through the regular write path, this is only used for full (non incremental and non
+ * preview) repairs of ranges holding at most {@code repair_row_level_max_partitions} partitions on both replicas, none of
+ * them larger than the maximum mutation size. Any failure, including finding out that the peer or a partition exceeds
+ * these limits, is reported to the caller, which is expected to fall back to streaming.
+ */
+public class RowLevelSync
+{
+    private static final Logger logger = LoggerFactory.getLogger(RowLevelSync.class);
+
+    // computing digests and exchanging partitions blocks, and we don't want to block the anti-entropy stage
+    private static final DebuggableThreadPoolExecutor executor = DebuggableThreadPoolExecutor.createWithMaximumPoolSize("RepairRowLevelSync",
+                                                                                                                        FBUtilities.getAvailableProcessors(),
+                                                                                                                        60,
+                                                                                                                        TimeUnit.SECONDS);
+    // number of partitions read from or sent to the peer at once
+    private static final int BATCH_SIZE = 128;
+
+    private final RepairJobDesc desc;
+    private final InetAddress peer;
+    private final Collection<Range<Token>> ranges;
+    private final boolean pull;
+
+    public RowLevelSync(RepairJobDesc desc, InetAddress peer, Collection<Range<Token>> ranges, boolean pull)
+    {
+        this.desc = desc;
+        this.peer = peer;
+        this.ranges = ranges;
+        this.pull = pull;
+    }
+
+    /**
+     * @return whether the given ranges are small enough to be synchronized partition by partition, rather than streamed
+     */
+    public static boolean isApplicable(RepairJobDesc desc, Collection<Range<Token>> ranges, UUID pendingRepair, PreviewKind previewKind)
+    {
+        int maxPartitions = DatabaseDescriptor.getRepairRowLevelMaxPartitions();
+        if (maxPartitions <= 0 || pendingRepair != null || previewKind.isPreview())
+            return false;
+
+        return fitsInMemory(Keyspace.open(desc.keyspace).getColumnFamilyStore(desc.columnFamily), ranges, maxPartitions);
+    }
+
+    /**
+     * @return whether the sstables of the ranges are estimated to hold at most {@code maxPartitions} partitions, all of
+     * which can be exchanged as a single mutation
+     */
+    private static boolean fitsInMemory(ColumnFamilyStore cfs, Collection<Range<Token>> ranges, int maxPartitions)
+    {
+        long partitions = 0;
+        for (SSTableReader sstable : cfs.getLiveSSTables())
+        {
+            long keys = sstable.estimatedKeysForRanges(ranges);
+            if (keys == 0)
+                continue;
+
+            partitions += keys;
+            if (partitions > maxPartitions || sstable.getEstimatedPartitionSize().max() > DatabaseDescriptor.getMaxMutationSize())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Starts the synchronization in the background.
+     *
+     * @return the future number of partitions exchanged with the peer
+     */
+    public ListenableFuture<Integer> start()
+    {
+        ListenableFutureTask<Integer> task = ListenableFutureTask.create(this::sync);
+        executor.execute(task);
+        return task;
+    }
+
+    private int sync() throws Exception
+    {
+        ColumnFamilyStore cfs = Keyspace.open(desc.keyspace).getColumnFamilyStore(desc.columnFamily);
+        int nowInSec = FBUtilities.nowInSeconds();
+
+        // the peer computes its digests while we compute ours
+        MessageOut<RepairMessage> request = new PartitionDigestsRequest(desc, ranges).createMessage();
+        AsyncOneResponse<PartitionDigests> response = MessagingService.instance().sendRR(request, peer);
+        int maxPartitions = DatabaseDescriptor.getRepairRowLevelMaxPartitions();
+        Map<ByteBuffer, byte[]> localDigests = partitionDigests(cfs, ranges, nowInSec, maxPartitions);
+        if (localDigests == null)
+            throw new IllegalStateException(String.format("More than %d partitions to compare with %s", maxPartitions, peer));
+        Map<ByteBuffer, byte[]> peerDigests = response.get(request.getTimeout(), TimeUnit.MILLISECONDS).digests;
+        if (peerDigests == null)
+            throw new IllegalStateException(String.format("%s has too many or too large partitions to compare", peer));
+
+        List<ByteBuffer> toFetch = differing(peerDigests, localDigests);
+        List<ByteBuffer> toSend = pull ? Collections.emptyList() : differing(localDigests, peerDigests);
+        logger.debug("{} Compared {} local and {} remote partitions with {}, fetching {} and sending {}",
+                     desc.sessionId, localDigests.size(), peerDigests.size(), peer, toFetch.size(), toSend.size());
+
+        fetch(cfs, toFetch, nowInSec);
+        send(cfs, toSend, nowInSec);
+        return toFetch.size() + toSend.size();
+    }
+
+    /**
+     * @return the keys of the partitions of {@code from} that {@code to} doesn't have, or has a different version of
+     */
+    @VisibleForTesting
+    static List<ByteBuffer> differing(Map<ByteBuffer, byte[]> from, Map<ByteBuffer, byte[]> to)
+    {
+        List<ByteBuffer> keys = new ArrayList<>();
+        for (Map.Entry<ByteBuffer, byte[]> entry : from.entrySet())
+        {
+            if (!Arrays.equals(entry.getValue(), to.get(entry.getKey())))
+                keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Reads the given partitions from the peer, and applies them locally.
+     */
+    private void fetch(ColumnFamilyStore cfs, List<ByteBuffer> keys, int nowInSec) throws Exception
+    {
+        for (List<ByteBuffer> batch : Iterables.partition(keys, BATCH_SIZE))
+        {
+            List<SinglePartitionReadCommand> commands = new ArrayList<>(batch.size());
+            List<AsyncOneResponse<ReadResponse>> responses = new ArrayList<>(batch.size());
+            for (ByteBuffer key : batch)
+            {
+                SinglePartitionReadCommand command = SinglePartitionReadCommand.fullPartitionRead(cfs.metadata(), nowInSec, key);
+                commands.add(command);
+                responses.add(MessagingService.instance().sendRR(command.createMessage(), peer));
+            }
+
+            for (int i = 0; i < commands.size(); i++)
+            {
+                SinglePartitionReadCommand command = commands.get(i);
+                ReadResponse response = responses.get(i).get(DatabaseDescriptor.getReadRpcTimeout(), TimeUnit.MILLISECONDS);
+                try (UnfilteredPartitionIterator partitions = response.makeIterator(command))
+                {
+                    while (partitions.hasNext())
+                    {
+                        try (UnfilteredRowIterator partition = partitions.next())
+                        {
+                            PartitionUpdate update = PartitionUpdate.fromIterator(partition, command.columnFilter());
+                            if (!update.isEmpty())
+                                checkSize(new Mutation(update)).apply();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the given partitions locally, and sends them to the peer.
+     */
+    private void send(ColumnFamilyStore cfs, List<ByteBuffer> keys, int nowInSec) throws Exception
+    {
+        for (List<ByteBuffer> batch : Iterables.partition(keys, BATCH_SIZE))
+        {
+            List<AsyncOneResponse<WriteResponse>> responses = new ArrayList<>(batch.size());
+            for (ByteBuffer key : batch)
+            {
+                SinglePartitionReadCommand command = SinglePartitionReadCommand.fullPartitionRead(cfs.metadata(), nowInSec, key);
+                try (ReadExecutionController controller = command.executionController();
+                     UnfilteredPartitionIterator partitions = command.executeLocally(controller))
+                {
+                    while (partitions.hasNext())
+                    {
+                        try (UnfilteredRowIterator partition = partitions.next())
+                        {
+                            PartitionUpdate update = PartitionUpdate.fromIterator(partition, command.columnFilter());
+                            if (update.isEmpty())
+                                continue;
+                            // use the read-repair verb, as we don't want hints if the peer doesn't answer in time
+                            MessageOut<Mutation> message = checkSize(new Mutation(update)).createMessage(MessagingService.Verb.READ_REPAIR);
+                            responses.add(MessagingService.instance().sendRR(message, peer));
+                        }
+                    }
+                }
+            }
+
+            for (AsyncOneResponse<WriteResponse> response : responses)
+                response.get(DatabaseDescriptor.getWriteRpcTimeout(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Partitions are estimated small enough by {@link #fitsInMemory}, but the estimates may be off, and the partitions
+     * of the peer weren't checked, so this makes sure we don't build a mutation that can't be applied.
+     */
+    private Mutation checkSize(Mutation mutation)
+    {
+        long size = Mutation.serializer.serializedSize(mutation, MessagingService.current_version);
+        if (size > DatabaseDescriptor.getMaxMutationSize())
+            throw new IllegalStateException(String.format("Partition %s of %s is too large (%s) to be synchronized with %s as a single mutation",
+                                                          ByteBufferUtil.bytesToHex(mutation.key().getKey()), desc.columnFamily,
+                                                          FBUtilities.prettyPrintMemory(size), peer));
+        return mutation;
+    }
+
+    /**
+     * @return the digest of every partition of the given ranges, by partition key, or null if there are more than
+     * {@code maxPartitions} of them
+     */
+    @VisibleForTesting
+    static Map<ByteBuffer, byte[]> partitionDigests(ColumnFamilyStore cfs, Collection<Range<Token>> ranges, int nowInSec, int maxPartitions)
+    {
+        Map<ByteBuffer, byte[]> digests = new HashMap<>();
+        PartitionRangeReadCommand allData = PartitionRangeReadCommand.allDataRead(cfs.metadata(), nowInSec);
+        for (Range<Token> range : Range.normalize(ranges))
+        {
+            PartitionRangeReadCommand command = allData.forSubRange(Range.makeRowRange(range), false);
+            try (ReadExecutionController controller = command.executionController();
+                 UnfilteredPartitionIterator partitions = command.executeLocally(controller))
+            {
+                while (partitions.hasNext())
+                {
+                    try (UnfilteredRowIterator partition = partitions.next())
+                    {
+                        MessageDigest digest = FBUtilities.newMessageDigest("MD5");
+                        UnfilteredRowIterators.digest(partition, digest, MessagingService.current_version);
+                        digests.put(ByteBufferUtil.clone(partition.partitionKey().getKey()), digest.digest());
+                        if (digests.size() > maxPartitions)
+                            return null;
+                    }
+                }
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Answers a {@link PartitionDigestsRequest} from the given peer in the background, without any digest if the
+     * ranges hold too many or too large partitions on this node.
+     */
+    public static void handleDigestsRequest(MessageIn<RepairMessage> message, int id)
+    {
+        PartitionDigestsRequest request = (PartitionDigestsRequest) message.payload;
+        executor.execute(() -> {
+            ColumnFamilyStore cfs = Keyspace.open(request.desc.keyspace).getColumnFamilyStore(request.desc.columnFamily);
+            int maxPartitions = DatabaseDescriptor.getRepairRowLevelMaxPartitions();
+            Map<ByteBuffer, byte[]> digests = fitsInMemory(cfs, request.ranges, maxPartitions)
+                                              ? partitionDigests(cfs, request.ranges, FBUtilities.nowInSeconds(), maxPartitions)
+                                              : null;
+            PartitionDigests reply = new PartitionDigests(request.desc, digests);
+            MessagingService.instance().sendReply(new MessageOut<>(MessagingService.Verb.INTERNAL_RESPONSE, reply, RepairMessage.serializer), id, message.from);
+        });
+    }
+}
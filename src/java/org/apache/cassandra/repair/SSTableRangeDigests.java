@@ -0,0 +1,638 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.repair;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Columns;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.compaction.OperationType;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.ColumnData;
+import org.apache.cassandra.db.rows.ComplexColumnData;
+import org.apache.cassandra.db.rows.RangeTombstoneMarker;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.Rows;
+import org.apache.cassandra.db.rows.Unfiltered;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Splitter;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableFlushObserver;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.util.BufferedDataOutputStreamPlus;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.schema.SchemaConstants;
+import org.apache.cassandra.schema.TableMetadata;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.SyncUtil;
+
+/**
+ * Digests of the partitions of an sstable, grouped by token segment, that validations use instead of reading and
+ * hashing those partitions again when {@code repair_range_digests_enabled} is set.
+ *
+ * The ring is split in {@link #SEGMENTS} segments of equal width (see {@link Splitter#segment(int, int)}), and the
+ * {@link Component#RANGE_DIGESTS} component holds, for each segment the sstable has partitions in, the hash of each
+ * of those partitions (as computed by the {@link Validator}) and all of them XORed together. It is written by an
+ * {@link SSTableFlushObserver} as the sstable is, and moved into place once complete, so it may be missing.
+ *
+ * A validation uses the digests of a segment if no other validated sstable may have partitions in it (they would need
+ * to be merged), if the segment lies within the validated ranges, and if the validation wouldn't change the partitions,
+ * that is if they hold no purgeable tombstone and no expired cell. The table columns, which are part of the hashes,
+ * mustn't have changed since the sstable was written either. All the other segments are read as usual.
+ *
+ * Tables with static columns aren't supported.
+ */
+public final class SSTableRangeDigests
+{
+    private static final Logger logger = LoggerFactory.getLogger(SSTableRangeDigests.class);
+
+    public static final int SEGMENTS = Integer.getInteger("cassandra.repair_range_digest_segments", 1 << 14);
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int HASH_SIZE = 32;
+
+    private SSTableRangeDigests()
+    {
+    }
+
+    public static boolean isEnabled(TableMetadata metadata)
+    {
+        return DatabaseDescriptor.isRepairRangeDigestsEnabled()
+               && !SchemaConstants.isSystemKeyspace(metadata.keyspace)
+               && !metadata.hasStaticColumns()
+               && metadata.partitioner.splitter().isPresent();
+    }
+
+    /**
+     * @return an observer writing the digests of the sstable being written, or null if the table doesn't have them
+     */
+    public static SSTableFlushObserver observer(Descriptor descriptor, TableMetadata metadata, OperationType operationType)
+    {
+        // scrub may drop partitions it already passed to the observers
+        if (!isEnabled(metadata) || operationType == OperationType.SCRUB)
+            return null;
+        return new Writer(descriptor, metadata);
+    }
+
+    /**
+     * Adds the partitions of the segments whose digests can be used to the validator's trees.
+     *
+     * @return the (sorted) ranges of those segments, that don't need to be read
+     */
+    public static List<Range<Token>> addPrecomputed(ColumnFamilyStore cfs,
+                                                    Collection<SSTableReader> sstables,
+                                                    Validator validator,
+                                                    int gcBefore,
+                                                    int nowInSec,
+                                                    AtomicLong partitionCount)
+    {
+        TableMetadata metadata = cfs.metadata();
+        if (!isEnabled(metadata))
+            return new ArrayList<>();
+
+        Splitter splitter = metadata.partitioner.splitter().get();
+        byte[] columnsDigest = columnsDigest(metadata);
+        List<Range<Token>> validated = Range.normalize(validator.desc.ranges);
+
+        List<SegmentIndex> indexes = new ArrayList<>();
+        List<SSTableReader> others = new ArrayList<>();
+        for (SSTableReader sstable : sstables)
+        {
+            SegmentIndex index = SegmentIndex.load(sstable, columnsDigest);
+            if (index != null)
+                indexes.add(index);
+            else
+                others.add(sstable);
+        }
+
+        // the only sstable with partitions in each segment, or null if there are several
+        Map<Integer, SegmentIndex> owners = new TreeMap<>();
+        for (SegmentIndex index : indexes)
+        {
+            for (Integer segment : index.segments.keySet())
+                owners.put(segment, owners.containsKey(segment) ? null : index);
+        }
+
+        List<Range<Token>> precomputed = new ArrayList<>();
+        Map<SegmentIndex, List<Segment>> toRead = new LinkedHashMap<>();
+        long partitions = 0;
+        for (Map.Entry<Integer, SegmentIndex> entry : owners.entrySet())
+        {
+            SegmentIndex owner = entry.getValue();
+            if (owner == null)
+                continue;
+
+            Segment segment = owner.segments.get(entry.getKey());
+            Range<Token> range = splitter.segment(segment.index, SEGMENTS);
+            if (!segment.isUnchangedByValidation(gcBefore, nowInSec) || !isContained(range, validated) || overlapsAny(range, others))
+                continue;
+
+            precomputed.add(range);
+            partitions += segment.partitions;
+            // segments are usually larger than the leaves, so we need the digests of their partitions
+            if (!validator.addPrecomputed(range, segment.hash, segment.size, segment.partitions))
+                toRead.computeIfAbsent(owner, k -> new ArrayList<>()).add(segment);
+        }
+
+        for (Map.Entry<SegmentIndex, List<Segment>> entry : toRead.entrySet())
+            entry.getKey().addPartitions(entry.getValue(), validator);
+
+        partitionCount.addAndGet(partitions);
+        if (!precomputed.isEmpty())
+            logger.debug("Using the precomputed digests of {} partitions in {} segments for {}", partitions, precomputed.size(), validator.desc);
+        return precomputed;
+    }
+
+    /**
+     * @return {@code ranges} without the given (sorted) segments, which must each be contained in one of them
+     */
+    public static List<Range<Token>> subtract(Collection<Range<Token>> ranges, List<Range<Token>> segments)
+    {
+        if (segments.isEmpty())
+            return new ArrayList<>(ranges);
+
+        List<Range<Token>> remaining = new ArrayList<>();
+        for (Range<Token> range : Range.normalize(ranges))
+        {
+            Token start = range.left;
+            for (Range<Token> segment : segments)
+            {
+                if (!range.contains(segment))
+                    continue;
+                if (start.compareTo(segment.left) < 0)
+                    remaining.add(new Range<>(start, segment.left));
+                start = segment.right;
+            }
+            IPartitioner partitioner = start.getPartitioner();
+            // a normalized range ending with the minimum token goes up to the maximum one
+            boolean covered = start.equals(range.right)
+                              || (range.right.isMinimum() && start.equals(partitioner.getMaximumToken()));
+            if (!covered)
+                remaining.add(new Range<>(start, range.right));
+        }
+        return remaining;
+    }
+
+    private static boolean isContained(Range<Token> segment, List<Range<Token>> ranges)
+    {
+        for (Range<Token> range : ranges)
+        {
+            if (range.contains(segment))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean overlapsAny(Range<Token> segment, List<SSTableReader> sstables)
+    {
+        for (SSTableReader sstable : sstables)
+        {
+            if (sstable.first.getToken().compareTo(segment.right) <= 0 && sstable.last.getToken().compareTo(segment.left) > 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The partition hashes also cover the columns of the table, which we don't want to recompute on every partition.
+     */
+    private static byte[] columnsDigest(TableMetadata metadata)
+    {
+        MessageDigest digest = FBUtilities.newMessageDigest("MD5");
+        metadata.regularAndStaticColumns().regulars.digest(digest);
+        metadata.regularAndStaticColumns().statics.digest(digest);
+        return digest.digest();
+    }
+
+    private static void xorInto(byte[] target, byte[] hash)
+    {
+        for (int i = 0; i < target.length; i++)
+            target[i] ^= hash[i];
+    }
+
+    private static class Segment
+    {
+        final int index;
+        final long partitions;
+        final long size;
+        // of the tombstones and of the expiring cells, Integer.MAX_VALUE if there are none
+        final int minDeletionTime;
+        final int minExpirationTime;
+        final byte[] hash;
+        final long position;
+
+        Segment(int index, long partitions, long size, int minDeletionTime, int minExpirationTime, byte[] hash, long position)
+        {
+            this.index = index;
+            this.partitions = partitions;
+            this.size = size;
+            this.minDeletionTime = minDeletionTime;
+            this.minExpirationTime = minExpirationTime;
+            this.hash = hash;
+            this.position = position;
+        }
+
+        /**
+         * Validation purges the tombstones that are gcable, and turns expired cells into tombstones, changing the hashes.
+         */
+        boolean isUnchangedByValidation(int gcBefore, int nowInSec)
+        {
+            return minDeletionTime >= gcBefore && minExpirationTime > nowInSec;
+        }
+    }
+
+    /**
+     * The segments of the digests of an sstable, without the digests of their partitions.
+     */
+    private static class SegmentIndex
+    {
+        final SSTableReader sstable;
+        final Map<Integer, Segment> segments;
+
+        private SegmentIndex(SSTableReader sstable, Map<Integer, Segment> segments)
+        {
+            this.sstable = sstable;
+            this.segments = segments;
+        }
+
+        /**
+         * @return the index, or null if the digests are missing or can't be used
+         */
+        static SegmentIndex load(SSTableReader sstable, byte[] columnsDigest)
+        {
+            File file = new File(sstable.descriptor.filenameFor(Component.RANGE_DIGESTS));
+            if (!file.exists())
+                return null;
+
+            try (RandomAccessReader in = RandomAccessReader.open(file))
+            {
+                if (in.readInt() != FORMAT_VERSION || in.readInt() != MessagingService.current_version || in.readInt() != SEGMENTS)
+                    return null;
+                byte[] digest = new byte[in.readUnsignedShort()];
+                in.readFully(digest);
+                if (!Arrays.equals(digest, columnsDigest))
+                    return null;
+
+                Map<Integer, Segment> segments = new TreeMap<>();
+                while (!in.isEOF())
+                {
+                    int index = in.readInt();
+                    long partitions = in.readUnsignedVInt();
+                    long size = in.readUnsignedVInt();
+                    int minDeletionTime = in.readInt();
+                    int minExpirationTime = in.readInt();
+                    byte[] hash = new byte[HASH_SIZE];
+                    in.readFully(hash);
+                    long length = in.readUnsignedVInt();
+                    segments.put(index, new Segment(index, partitions, size, minDeletionTime, minExpirationTime, hash, in.getFilePointer()));
+                    in.seek(in.getFilePointer() + length);
+                }
+                return new SegmentIndex(sstable, segments);
+            }
+            catch (Throwable t)
+            {
+                logger.warn("Failed to read the range digests of {}, its partitions will be read instead", sstable, t);
+                return null;
+            }
+        }
+
+        /**
+         * Adds the partitions of the given segments to the validator, one by one.
+         */
+        void addPartitions(List<Segment> toAdd, Validator validator)
+        {
+            IPartitioner partitioner = sstable.getPartitioner();
+            try (RandomAccessReader in = RandomAccessReader.open(new File(sstable.descriptor.filenameFor(Component.RANGE_DIGESTS))))
+            {
+                for (Segment segment : toAdd)
+                {
+                    in.seek(segment.position);
+                    for (long i = 0; i < segment.partitions; i++)
+                    {
+                        Token token = Token.serializer.deserialize(in, partitioner, MessagingService.current_version);
+                        byte[] hash = new byte[HASH_SIZE];
+                        in.readFully(hash);
+                        validator.addPrecomputed(token, hash, in.readUnsignedVInt());
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                // we already told the caller not to read those segments
+                throw new RuntimeException("Failed to read the range digests of " + sstable, e);
+            }
+        }
+    }
+
+    /**
+     * Computes the digests of the partitions of an sstable as they are written, the same way {@link Validator} does
+     * from the partitions read back, and writes them out once the sstable is complete.
+     */
+    @VisibleForTesting
+    static class Writer implements SSTableFlushObserver
+    {
+        private final Descriptor descriptor;
+        private final Splitter splitter;
+        private final byte[] columnsDigest;
+        private final Columns regulars;
+        private final File file;
+
+        private FileOutputStream stream;
+        private BufferedDataOutputStreamPlus out;
+        private boolean failed;
+        private boolean completed;
+
+        // the partitions of the current segment
+        private final DataOutputBuffer partitions = new DataOutputBuffer();
+        private int segment = -1;
+        private Range<Token> segmentRange;
+        private long segmentPartitions;
+        private long segmentSize;
+        private byte[] segmentHash;
+        private int minDeletionTime = Integer.MAX_VALUE;
+        private int minExpirationTime = Integer.MAX_VALUE;
+
+        // the current partition
+        private Token token;
+        private Validator.CountingDigest digest;
+        private boolean headerDigested;
+        private int partitionMinDeletionTime;
+        private int partitionMinExpirationTime;
+
+        Writer(Descriptor descriptor, TableMetadata metadata)
+        {
+            this.descriptor = descriptor;
+            this.splitter = metadata.partitioner.splitter().get();
+            this.columnsDigest = columnsDigest(metadata);
+            this.regulars = metadata.regularAndStaticColumns().regulars;
+            this.file = new File(descriptor.tmpFilenameFor(Component.RANGE_DIGESTS));
+        }
+
+        public void begin()
+        {
+            try
+            {
+                stream = new FileOutputStream(file);
+                out = new BufferedDataOutputStreamPlus(stream);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(MessagingService.current_version);
+                out.writeInt(SEGMENTS);
+                out.writeShort(columnsDigest.length);
+                out.write(columnsDigest);
+            }
+            catch (IOException e)
+            {
+                fail(e);
+            }
+        }
+
+        public void startPartition(DecoratedKey key, long indexPosition)
+        {
+            if (failed)
+                return;
+
+            try
+            {
+                finishPartition();
+            }
+            catch (IOException e)
+            {
+                fail(e);
+                return;
+            }
+
+            token = key.getToken();
+            digest = new Validator.CountingDigest(FBUtilities.newMessageDigest(HASH_ALGORITHM));
+            digest.update(key.getKey().duplicate());
+            headerDigested = false;
+            partitionMinDeletionTime = Integer.MAX_VALUE;
+            partitionMinExpirationTime = Integer.MAX_VALUE;
+        }
+
+        public void partitionLevelDeletion(DeletionTime deletionTime)
+        {
+            if (failed)
+                return;
+
+            digestHeader(deletionTime);
+        }
+
+        public void nextUnfilteredCluster(Unfiltered unfiltered)
+        {
+            if (failed)
+                return;
+
+            if (!headerDigested)
+                digestHeader(DeletionTime.LIVE);
+
+            if (unfiltered.isRow() && ((Row) unfiltered).isStatic())
+            {
+                // an empty static row digests the same as the absent one we already took into account
+                if (!((Row) unfiltered).isEmpty())
+                    partitionMinDeletionTime = Integer.MIN_VALUE;
+                return;
+            }
+
+            unfiltered.digest(digest);
+            track(unfiltered);
+        }
+
+        public void complete()
+        {
+            if (completed)
+                return;
+            completed = true;
+
+            if (failed)
+                return;
+
+            try
+            {
+                finishPartition();
+                finishSegment();
+                out.flush();
+                SyncUtil.sync(stream);
+                out.close();
+                // the sstable may be gone already, if it was compacted away in the meantime
+                if (new File(descriptor.filenameFor(Component.DATA)).exists())
+                    FileUtils.renameWithConfirm(file, new File(descriptor.filenameFor(Component.RANGE_DIGESTS)));
+                else
+                    FileUtils.deleteWithConfirm(file);
+            }
+            catch (Throwable t)
+            {
+                fail(t);
+            }
+        }
+
+        /**
+         * Mirrors {@link org.apache.cassandra.db.rows.UnfilteredRowIterators#digest}, for partitions without
+         * static row.
+         */
+        private void digestHeader(DeletionTime partitionLevelDeletion)
+        {
+            partitionLevelDeletion.digest(digest);
+            regulars.digest(digest);
+            FBUtilities.updateWithBoolean(digest, false);
+            Rows.EMPTY_STATIC_ROW.digest(digest);
+            trackDeletion(partitionLevelDeletion);
+            headerDigested = true;
+        }
+
+        private void finishPartition() throws IOException
+        {
+            if (digest == null)
+                return;
+
+            if (!headerDigested)
+                digestHeader(DeletionTime.LIVE);
+
+            if (segmentRange == null || !segmentRange.contains(token))
+            {
+                finishSegment();
+                segment = splitter.segmentOf(token, SEGMENTS);
+                segmentRange = splitter.segment(segment, SEGMENTS);
+            }
+
+            long size = digest.count();
+            byte[] hash = digest.digest();
+            Token.serializer.serialize(token, partitions, MessagingService.current_version);
+            partitions.write(hash);
+            partitions.writeUnsignedVInt(size);
+
+            if (segmentHash == null)
+                segmentHash = hash.clone();
+            else
+                xorInto(segmentHash, hash);
+            segmentPartitions++;
+            segmentSize += size;
+            minDeletionTime = Math.min(minDeletionTime, partitionMinDeletionTime);
+            minExpirationTime = Math.min(minExpirationTime, partitionMinExpirationTime);
+            digest = null;
+        }
+
+        private void finishSegment() throws IOException
+        {
+            if (segmentPartitions > 0)
+            {
+                out.writeInt(segment);
+                out.writeUnsignedVInt(segmentPartitions);
+                out.writeUnsignedVInt(segmentSize);
+                out.writeInt(minDeletionTime);
+                out.writeInt(minExpirationTime);
+                out.write(segmentHash);
+                out.writeUnsignedVInt(partitions.getLength());
+                out.write(partitions.getData(), 0, partitions.getLength());
+            }
+
+            partitions.clear();
+            segmentPartitions = 0;
+            segmentSize = 0;
+            segmentHash = null;
+            minDeletionTime = Integer.MAX_VALUE;
+            minExpirationTime = Integer.MAX_VALUE;
+        }
+
+        private void track(Unfiltered unfiltered)
+        {
+            if (unfiltered.isRow())
+            {
+                Row row = (Row) unfiltered;
+                trackLiveness(row.primaryKeyLivenessInfo());
+                trackDeletion(row.deletion().time());
+                for (ColumnData data : row)
+                {
+                    if (data.column().isSimple())
+                    {
+                        trackCell((Cell) data);
+                    }
+                    else
+                    {
+                        ComplexColumnData complexData = (ComplexColumnData) data;
+                        trackDeletion(complexData.complexDeletion());
+                        for (Cell cell : complexData)
+                            trackCell(cell);
+                    }
+                }
+            }
+            else
+            {
+                RangeTombstoneMarker marker = (RangeTombstoneMarker) unfiltered;
+                if (marker.isOpen(false))
+                    trackDeletion(marker.openDeletionTime(false));
+                if (marker.isClose(false))
+                    trackDeletion(marker.closeDeletionTime(false));
+            }
+        }
+
+        private void trackDeletion(DeletionTime deletion)
+        {
+            if (!deletion.isLive())
+                partitionMinDeletionTime = Math.min(partitionMinDeletionTime, deletion.localDeletionTime());
+        }
+
+        private void trackLiveness(LivenessInfo info)
+        {
+            if (info.isExpiring())
+                partitionMinExpirationTime = Math.min(partitionMinExpirationTime, info.localExpirationTime());
+        }
+
+        private void trackCell(Cell cell)
+        {
+            if (cell.isExpiring())
+                partitionMinExpirationTime = Math.min(partitionMinExpirationTime, cell.localDeletionTime());
+            else if (cell.isTombstone())
+                partitionMinDeletionTime = Math.min(partitionMinDeletionTime, cell.localDeletionTime());
+        }
+
+        private void fail(Throwable t)
+        {
+            // validations will read the partitions instead
+            logger.warn("Failed to write the range digests of {}", descriptor, t);
+            failed = true;
+            FileUtils.closeQuietly(out);
+            FileUtils.delete(file);
+        }
+    }
+}
@@ -22,6 +22,8 @@ import java.util.UUID;
 import java.util.Collections;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,6 +63,26 @@ public class StreamingRepairTask implements Runnable, StreamEventHandler
     {
         InetAddress dest = request.dst;
         InetAddress preferred = SystemKeyspace.getPreferredIP(dest);
+        if (RowLevelSync.isApplicable(desc, request.ranges, pendingRepair, previewKind))
+        {
+            logger.info("[streaming task #{}] Performing row-level repair of {} ranges with {}", desc.sessionId, request.ranges.size(), request.dst);
+            Futures.addCallback(new RowLevelSync(desc, dest, request.ranges, false).start(), new FutureCallback<Integer>()
+            {
+                public void onSuccess(Integer partitions)
+                {
+                    logger.info("{} row-level repair of {} partitions succeed, returning response to {}", previewKind.logPrefix(desc.sessionId), partitions, request.initiator);
+                    MessagingService.instance().sendOneWay(new SyncComplete(desc, request.src, request.dst, true, Collections.emptyList()).createMessage(), request.initiator);
+                }
+
+                public void onFailure(Throwable t)
+                {
+                    logger.warn("{} Row-level repair with {} failed, falling back to streaming", previewKind.logPrefix(desc.sessionId), dest, t);
+                    createStreamPlan(dest, preferred).execute();
+                }
+            });
+            return;
+        }
+
         logger.info("[streaming task #{}] Performing streaming repair of {} ranges with {}", desc.sessionId, request.ranges.size(), request.dst);
         createStreamPlan(dest, preferred).execute();
     }
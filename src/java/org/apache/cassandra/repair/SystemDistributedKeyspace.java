@@ -53,6 +53,7 @@ import org.apache.cassandra.schema.TableId;
 import org.apache.cassandra.schema.TableMetadata;
 import org.apache.cassandra.schema.Tables;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
 
 import static java.lang.String.format;
 
@@ -72,6 +73,8 @@ public final class SystemDistributedKeyspace
 
     public static final String VIEW_BUILD_STATUS = "view_build_status";
 
+    public static final String REPAIR_SCHEDULE = "repair_schedule";
+
     private static final TableMetadata RepairHistory =
         parse(REPAIR_HISTORY,
               "Repair history",
@@ -117,6 +120,22 @@ public final class SystemDistributedKeyspace
               + "status text,"
               + "PRIMARY KEY ((keyspace_name, view_name), host_id))");
 
+    private static final TableMetadata RepairSchedule =
+        parse(REPAIR_SCHEDULE,
+              "Progress of the built-in repair scheduler",
+              "CREATE TABLE %s ("
+              + "keyspace_name text,"
+              + "columnfamily_name text,"
+              + "range_begin text,"
+              + "range_end text,"
+              + "coordinator inet,"
+              + "estimated_partitions bigint,"
+              + "status text,"
+              + "started_at timestamp,"
+              + "finished_at timestamp,"
+              + "last_success_at timestamp,"
+              + "PRIMARY KEY ((keyspace_name, columnfamily_name), range_begin, range_end))");
+
     private static TableMetadata parse(String table, String description, String cql)
     {
         return CreateTableStatement.parse(format(cql, table), SchemaConstants.DISTRIBUTED_KEYSPACE_NAME)
@@ -128,7 +147,7 @@ public final class SystemDistributedKeyspace
 
     public static KeyspaceMetadata metadata()
     {
-        return KeyspaceMetadata.create(SchemaConstants.DISTRIBUTED_KEYSPACE_NAME, KeyspaceParams.simple(3), Tables.of(RepairHistory, ParentRepairHistory, ViewBuildStatus));
+        return KeyspaceMetadata.create(SchemaConstants.DISTRIBUTED_KEYSPACE_NAME, KeyspaceParams.simple(3), Tables.of(RepairHistory, ParentRepairHistory, ViewBuildStatus, RepairSchedule));
     }
 
     public static void startParentRepair(UUID parent_id, String keyspaceName, String[] cfnames, RepairOption options)
@@ -300,6 +319,58 @@ public final class SystemDistributedKeyspace
         forceBlockingFlush(VIEW_BUILD_STATUS);
     }
 
+    public static void startScheduledRepair(String keyspaceName, String cfname, Range<Token> range, long estimatedPartitions, int ttl)
+    {
+        String query = "INSERT INTO %s.%s (keyspace_name, columnfamily_name, range_begin, range_end, coordinator, estimated_partitions, status, started_at) " +
+                       "VALUES ('%s', '%s', '%s', '%s', '%s', %d, '%s', toTimestamp(now())) USING TTL %d";
+        String fmtQry = format(query, SchemaConstants.DISTRIBUTED_KEYSPACE_NAME, REPAIR_SCHEDULE,
+                                      keyspaceName,
+                                      cfname,
+                                      range.left.toString(),
+                                      range.right.toString(),
+                                      FBUtilities.getBroadcastAddress().getHostAddress(),
+                                      estimatedPartitions,
+                                      RepairState.STARTED.toString(),
+                                      ttl);
+        processSilent(fmtQry);
+    }
+
+    public static void finishScheduledRepair(String keyspaceName, String cfname, Range<Token> range, boolean success, int ttl)
+    {
+        String query = success
+                       ? "UPDATE %s.%s USING TTL %d SET status = '%s', finished_at = toTimestamp(now()), last_success_at = toTimestamp(now()) WHERE keyspace_name = '%s' AND columnfamily_name = '%s' AND range_begin = '%s' AND range_end = '%s'"
+                       : "UPDATE %s.%s USING TTL %d SET status = '%s', finished_at = toTimestamp(now()) WHERE keyspace_name = '%s' AND columnfamily_name = '%s' AND range_begin = '%s' AND range_end = '%s'";
+        String fmtQry = format(query, SchemaConstants.DISTRIBUTED_KEYSPACE_NAME, REPAIR_SCHEDULE,
+                                      ttl,
+                                      (success ? RepairState.SUCCESS : RepairState.FAILED).toString(),
+                                      keyspaceName,
+                                      cfname,
+                                      range.left.toString(),
+                                      range.right.toString());
+        processSilent(fmtQry);
+    }
+
+    /**
+     * @return the time (in milliseconds since the epoch) of the last successful scheduled repair of each subrange of
+     * the table, keyed by the string form of the subrange bounds
+     */
+    public static Map<Pair<String, String>, Long> lastSuccessfulScheduledRepairs(String keyspaceName, String cfname)
+    {
+        String query = "SELECT range_begin, range_end, last_success_at FROM %s.%s WHERE keyspace_name = ? AND columnfamily_name = ?";
+        UntypedResultSet results = QueryProcessor.execute(format(query, SchemaConstants.DISTRIBUTED_KEYSPACE_NAME, REPAIR_SCHEDULE),
+                                                          ConsistencyLevel.ONE,
+                                                          keyspaceName,
+                                                          cfname);
+        Map<Pair<String, String>, Long> lastSuccesses = new HashMap<>();
+        for (UntypedResultSet.Row row : results)
+        {
+            if (row.has("last_success_at"))
+                lastSuccesses.put(Pair.create(row.getString("range_begin"), row.getString("range_end")),
+                                  row.getTimestamp("last_success_at").getTime());
+        }
+        return lastSuccesses;
+    }
+
     private static void processSilent(String fmtQry, String... values)
     {
         try
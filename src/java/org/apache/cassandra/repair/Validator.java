@@ -22,6 +22,7 @@ import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -63,7 +64,7 @@ public class Validator implements Runnable
     public final boolean isConsistent;
 
     // null when all rows with the min token have been consumed
-    private long validated;
+    private final AtomicLong validated = new AtomicLong();
     private MerkleTrees trees;
     // current range being updated
     private MerkleTree.TreeRange range;
@@ -91,7 +92,6 @@ public class Validator implements Runnable
         this.gcBefore = gcBefore;
         this.isConsistent = isConsistent;
         this.previewKind = previewKind;
-        validated = 0;
         range = null;
         ranges = null;
         this.evenTreeDistribution = evenTreeDistribution;
@@ -175,6 +175,47 @@ public class Validator implements Runnable
         }
     }
 
+    /**
+     * @return a builder adding the partitions of a token sub-range of the validated ranges to the trees, which can be
+     * used concurrently with the builders of other sub-ranges as long as those don't share any leaf of the trees
+     * (see {@link MerkleTrees#splitByLeaves(int)}). Must be called after {@link #prepare}.
+     */
+    public SubRangeBuilder subRangeBuilder()
+    {
+        assert trees != null : "Validator was not prepared()";
+        return new SubRangeBuilder();
+    }
+
+    /**
+     * Mixes the partitions of {@code range}, hashed beforehand (see {@link SSTableRangeDigests}), into the trees, if the
+     * range is contained in a single leaf. Must be called after {@link #prepare}, and not concurrently with the other
+     * ways of adding partitions.
+     *
+     * @return whether the partitions were added, which they aren't if {@code range} spans several leaves
+     */
+    boolean addPrecomputed(Range<Token> range, byte[] hash, long size, long partitions)
+    {
+        assert trees != null : "Validator was not prepared()";
+        MerkleTree.TreeRange leaf = trees.getMerkleTree(range.right).get(range.right);
+        if (!leaf.contains(range))
+            return false;
+
+        leaf.addHashes(hash, size, partitions);
+        validated.addAndGet(partitions);
+        return true;
+    }
+
+    /**
+     * Mixes a partition hashed beforehand (see {@link SSTableRangeDigests}) into the trees. Must be called after
+     * {@link #prepare}, and not concurrently with the other ways of adding partitions.
+     */
+    void addPrecomputed(Token token, byte[] hash, long size)
+    {
+        assert trees != null : "Validator was not prepared()";
+        trees.getMerkleTree(token).get(token).addHash(new RowHash(token, hash, size));
+        validated.incrementAndGet();
+    }
+
     public boolean findCorrectRange(Token t)
     {
         while (!range.contains(t) && ranges.hasNext())
@@ -196,6 +237,11 @@ public class Validator implements Runnable
             this.underlying = underlying;
         }
 
+        long count()
+        {
+            return count;
+        }
+
         @Override
         protected void engineUpdate(byte input)
         {
@@ -226,7 +272,7 @@ public class Validator implements Runnable
 
     private MerkleTree.RowHash rowHash(UnfilteredRowIterator partition)
     {
-        validated++;
+        validated.incrementAndGet();
         // MerkleTree uses XOR internally, so we want lots of output bits here
         CountingDigest digest = new CountingDigest(FBUtilities.newMessageDigest("SHA-256"));
         UnfilteredRowIterators.digest(partition, digest, MessagingService.current_version);
@@ -236,12 +282,52 @@ public class Validator implements Runnable
              : null;
     }
 
+    /**
+     * Adds the partitions of a token sub-range to the trees. Rows are mixed into the leaves with XOR, so the leaves end
+     * up with the same hashes whatever the order in which the sub-ranges are validated.
+     */
+    public class SubRangeBuilder
+    {
+        private MerkleTree tree;
+        // current leaf being updated
+        private MerkleTree.TreeRange range;
+        private DecoratedKey lastKey;
+
+        private SubRangeBuilder()
+        {
+        }
+
+        /**
+         * Called (in order) for every row of the sub-range.
+         */
+        public void add(UnfilteredRowIterator partition)
+        {
+            Token token = partition.partitionKey().getToken();
+            assert Range.isInRanges(token, desc.ranges) : token + " is not contained in " + desc.ranges;
+            assert lastKey == null || lastKey.compareTo(partition.partitionKey()) < 0
+                   : "partition " + partition.partitionKey() + " received out of order wrt " + lastKey;
+            lastKey = partition.partitionKey();
+
+            if (range == null || !range.contains(token))
+            {
+                if (tree == null || !tree.fullRange.contains(token))
+                    tree = trees.getMerkleTree(token);
+                range = tree.get(token);
+            }
+
+            RowHash rowHash = rowHash(partition);
+            if (rowHash != null)
+                range.addHash(rowHash);
+        }
+    }
+
     /**
      * Registers the newly created tree for rendezvous in Stage.ANTIENTROPY.
      */
     public void complete()
     {
         completeTree();
+        trees.moveOffHeap();
 
         StageManager.getStage(Stage.ANTI_ENTROPY).execute(this);
 
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.repair.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.io.util.DataInputPlus;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.repair.RepairJobDesc;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * Body part of PARTITION_DIGESTS repair message, the reply to a {@link PartitionDigestsRequest}.
+ * Holds the digest of every partition of the requested ranges, by partition key, or no digests at all if the ranges
+ * hold too many or too large partitions to be synchronized row by row.
+ */
+public class PartitionDigests extends RepairMessage
+{
+    public static final MessageSerializer<PartitionDigests> serializer = new PartitionDigestsSerializer();
+
+    // null if the ranges can't be synchronized row by row
+    public final Map<ByteBuffer, byte[]> digests;
+
+    public PartitionDigests(RepairJobDesc desc, Map<ByteBuffer, byte[]> digests)
+    {
+        super(Type.PARTITION_DIGESTS, desc);
+        this.digests = digests;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof PartitionDigests))
+            return false;
+        PartitionDigests that = (PartitionDigests) o;
+        if (!desc.equals(that.desc) || (digests == null) != (that.digests == null))
+            return false;
+        if (digests == null)
+            return true;
+        if (!digests.keySet().equals(that.digests.keySet()))
+            return false;
+        for (Map.Entry<ByteBuffer, byte[]> entry : digests.entrySet())
+        {
+            if (!Arrays.equals(entry.getValue(), that.digests.get(entry.getKey())))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(desc, digests == null ? null : digests.keySet());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PartitionDigests{" +
+                "partitions=" + (digests == null ? "too many" : digests.size()) +
+                "} " + super.toString();
+    }
+
+    public static class PartitionDigestsSerializer implements MessageSerializer<PartitionDigests>
+    {
+        public void serialize(PartitionDigests message, DataOutputPlus out, int version) throws IOException
+        {
+            RepairJobDesc.serializer.serialize(message.desc, out, version);
+            if (message.digests == null)
+            {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(message.digests.size());
+            for (Map.Entry<ByteBuffer, byte[]> entry : message.digests.entrySet())
+            {
+                ByteBufferUtil.writeWithShortLength(entry.getKey(), out);
+                out.writeByte(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+
+        public PartitionDigests deserialize(DataInputPlus in, int version) throws IOException
+        {
+            RepairJobDesc desc = RepairJobDesc.serializer.deserialize(in, version);
+            int count = in.readInt();
+            if (count < 0)
+                return new PartitionDigests(desc, null);
+            Map<ByteBuffer, byte[]> digests = new HashMap<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                ByteBuffer key = ByteBufferUtil.readWithShortLength(in);
+                byte[] digest = new byte[in.readUnsignedByte()];
+                in.readFully(digest);
+                digests.put(key, digest);
+            }
+            return new PartitionDigests(desc, digests);
+        }
+
+        public long serializedSize(PartitionDigests message, int version)
+        {
+            long size = RepairJobDesc.serializer.serializedSize(message.desc, version);
+            if (message.digests == null)
+                return size + TypeSizes.sizeof(-1);
+            size += TypeSizes.sizeof(message.digests.size());
+            for (Map.Entry<ByteBuffer, byte[]> entry : message.digests.entrySet())
+            {
+                size += ByteBufferUtil.serializedSizeWithShortLength(entry.getKey());
+                size += 1 + entry.getValue().length;
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.repair.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.util.DataInputPlus;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.repair.RepairJobDesc;
+
+/**
+ * Body part of PARTITION_DIGESTS_REQUEST repair message.
+ * Requests the digest of every partition of {@code ranges}, answered by a {@link PartitionDigests}.
+ */
+public class PartitionDigestsRequest extends RepairMessage
+{
+    public static final MessageSerializer<PartitionDigestsRequest> serializer = new PartitionDigestsRequestSerializer();
+
+    public final Collection<Range<Token>> ranges;
+
+    public PartitionDigestsRequest(RepairJobDesc desc, Collection<Range<Token>> ranges)
+    {
+        super(Type.PARTITION_DIGESTS_REQUEST, desc);
+        this.ranges = ranges;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof PartitionDigestsRequest))
+            return false;
+        PartitionDigestsRequest that = (PartitionDigestsRequest) o;
+        return desc.equals(that.desc) && ranges.equals(that.ranges);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(desc, ranges);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PartitionDigestsRequest{" +
+                "ranges=" + ranges +
+                "} " + super.toString();
+    }
+
+    public static class PartitionDigestsRequestSerializer implements MessageSerializer<PartitionDigestsRequest>
+    {
+        public void serialize(PartitionDigestsRequest message, DataOutputPlus out, int version) throws IOException
+        {
+            RepairJobDesc.serializer.serialize(message.desc, out, version);
+            out.writeInt(message.ranges.size());
+            for (Range<Token> range : message.ranges)
+            {
+                MessagingService.validatePartitioner(range);
+                AbstractBounds.tokenSerializer.serialize(range, out, version);
+            }
+        }
+
+        public PartitionDigestsRequest deserialize(DataInputPlus in, int version) throws IOException
+        {
+            RepairJobDesc desc = RepairJobDesc.serializer.deserialize(in, version);
+            int rangesCount = in.readInt();
+            List<Range<Token>> ranges = new ArrayList<>(rangesCount);
+            for (int i = 0; i < rangesCount; ++i)
+                ranges.add((Range<Token>) AbstractBounds.tokenSerializer.deserialize(in, MessagingService.globalPartitioner(), version));
+            return new PartitionDigestsRequest(desc, ranges);
+        }
+
+        public long serializedSize(PartitionDigestsRequest message, int version)
+        {
+            long size = RepairJobDesc.serializer.serializedSize(message.desc, version);
+            size += TypeSizes.sizeof(message.ranges.size());
+            for (Range<Token> range : message.ranges)
+                size += AbstractBounds.tokenSerializer.serializedSize(range, version);
+            return size;
+        }
+    }
+}
@@ -54,15 +54,19 @@ public abstract class RepairMessage
         FINALIZE_COMMIT(12, FinalizeCommit.serializer),
         FAILED_SESSION(13, FailSession.serializer),
         STATUS_REQUEST(14, StatusRequest.serializer),
-        STATUS_RESPONSE(15, StatusResponse.serializer);
+        STATUS_RESPONSE(15, StatusResponse.serializer),
+        PARTITION_DIGESTS_REQUEST(16, PartitionDigestsRequest.serializer),
+        PARTITION_DIGESTS(17, PartitionDigests.serializer);
 
         private final byte type;
         private final MessageSerializer<RepairMessage> serializer;
 
-        private Type(int type, MessageSerializer<RepairMessage> serializer)
+        @SuppressWarnings("unchecked")
+        private Type(int type, MessageSerializer<? extends RepairMessage> serializer)
         {
             this.type = (byte) type;
-            this.serializer = serializer;
+            // each type is only used for messages of its own class
+            this.serializer = (MessageSerializer<RepairMessage>) serializer;
         }
 
         public static Type fromByte(byte b)
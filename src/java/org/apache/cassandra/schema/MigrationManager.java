@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 
@@ -39,10 +40,12 @@ import org.apache.cassandra.gms.*;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataInputPlus;
 import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.metrics.SchemaMetrics;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.UUIDSerializer;
 import org.apache.cassandra.utils.WrappedRunnable;
 
 public class MigrationManager
@@ -57,6 +60,13 @@ public class MigrationManager
 
     private static final int MIGRATION_TASK_WAIT_IN_SECONDS = Integer.parseInt(System.getProperty("cassandra.migration_task_wait_in_seconds", "1"));
 
+    // message parameter with the versions of the schema of each keyspace of the node pulling the schema, so that
+    // only the keyspaces that differ are sent back
+    static final String KEYSPACE_DIGESTS = "KEYSPACE_DIGESTS";
+
+    // when the schema versions of the live nodes started to differ, or 0 if they agree
+    private static final AtomicLong disagreementStart = new AtomicLong();
+
     private MigrationManager() {}
 
     public static void scheduleSchemaPull(InetAddress endpoint, EndpointState state)
@@ -64,7 +74,47 @@ public class MigrationManager
         VersionedValue value = state.getApplicationState(ApplicationState.SCHEMA);
 
         if (!endpoint.equals(FBUtilities.getBroadcastAddress()) && value != null)
+        {
+            updateSchemaAgreement();
             maybeScheduleSchemaPull(UUID.fromString(value.value), endpoint);
+        }
+    }
+
+    /**
+     * Tracks how long the live nodes we would pull schema from take to agree on a schema version again,
+     * after their versions started to differ.
+     */
+    private static void updateSchemaAgreement()
+    {
+        UUID ourVersion = Schema.instance.getVersion();
+        if (ourVersion == null)
+            return;
+
+        boolean agreement = true;
+        for (InetAddress endpoint : Gossiper.instance.getLiveMembers())
+        {
+            if (endpoint.equals(FBUtilities.getBroadcastAddress()) || !shouldPullSchemaFrom(endpoint))
+                continue;
+
+            EndpointState state = Gossiper.instance.getEndpointStateForEndpoint(endpoint);
+            VersionedValue value = state == null ? null : state.getApplicationState(ApplicationState.SCHEMA);
+            if (value != null && !ourVersion.equals(UUID.fromString(value.value)))
+            {
+                agreement = false;
+                break;
+            }
+        }
+
+        long start = disagreementStart.get();
+        if (!agreement)
+        {
+            if (start == 0)
+                disagreementStart.compareAndSet(0, System.nanoTime());
+        }
+        else if (start != 0 && disagreementStart.compareAndSet(start, 0))
+        {
+            SchemaMetrics.convergenceTime.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
     /**
@@ -430,6 +480,7 @@ public class MigrationManager
     {
         Gossiper.instance.addLocalApplicationState(ApplicationState.SCHEMA, StorageService.instance.valueFactory.schema(version));
         logger.debug("Gossiping my schema version {}", version);
+        updateSchemaAgreement();
     }
 
     /**
@@ -495,4 +546,38 @@ public class MigrationManager
             return size;
         }
     }
+
+    public static class KeyspaceDigestsSerializer implements IVersionedSerializer<Map<String, UUID>>
+    {
+        public static KeyspaceDigestsSerializer instance = new KeyspaceDigestsSerializer();
+
+        public void serialize(Map<String, UUID> digests, DataOutputPlus out, int version) throws IOException
+        {
+            out.writeInt(digests.size());
+            for (Map.Entry<String, UUID> entry : digests.entrySet())
+            {
+                out.writeUTF(entry.getKey());
+                UUIDSerializer.serializer.serialize(entry.getValue(), out, version);
+            }
+        }
+
+        public Map<String, UUID> deserialize(DataInputPlus in, int version) throws IOException
+        {
+            int count = in.readInt();
+            Map<String, UUID> digests = new HashMap<>(count);
+
+            for (int i = 0; i < count; i++)
+                digests.put(in.readUTF(), UUIDSerializer.serializer.deserialize(in, version));
+
+            return digests;
+        }
+
+        public long serializedSize(Map<String, UUID> digests, int version)
+        {
+            long size = TypeSizes.sizeof(digests.size());
+            for (Map.Entry<String, UUID> entry : digests.entrySet())
+                size += TypeSizes.sizeof(entry.getKey()) + UUIDSerializer.serializer.serializedSize(entry.getValue(), version);
+            return size;
+        }
+    }
 }
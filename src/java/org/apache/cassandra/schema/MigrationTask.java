@@ -20,9 +20,12 @@ package org.apache.cassandra.schema;
 import java.net.InetAddress;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +35,8 @@ import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.db.SystemKeyspace.BootstrapState;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.gms.FailureDetector;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.metrics.SchemaMetrics;
 import org.apache.cassandra.net.IAsyncCallback;
 import org.apache.cassandra.net.MessageIn;
 import org.apache.cassandra.net.MessageOut;
@@ -77,6 +82,19 @@ final class MigrationTask extends WrappedRunnable
 
         MessageOut message = new MessageOut<>(MessagingService.Verb.MIGRATION_REQUEST, null, MigrationManager.MigrationsSerializer.instance);
 
+        // let the endpoint only send the keyspaces whose schema differs from ours
+        Map<String, UUID> digests = Schema.instance.getKeyspaceDigests();
+        if (digests != null)
+        {
+            try (DataOutputBuffer out = new DataOutputBuffer())
+            {
+                MigrationManager.KeyspaceDigestsSerializer.instance.serialize(digests, out, MessagingService.current_version);
+                message = message.withParameter(MigrationManager.KEYSPACE_DIGESTS, out.toByteArray());
+            }
+        }
+
+        long start = System.nanoTime();
+
         final CountDownLatch completionLatch = new CountDownLatch(1);
 
         IAsyncCallback<Collection<Mutation>> cb = new IAsyncCallback<Collection<Mutation>>()
@@ -87,6 +105,8 @@ final class MigrationTask extends WrappedRunnable
                 try
                 {
                     Schema.instance.mergeAndAnnounceVersion(message.payload);
+                    SchemaMetrics.pullTime.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    SchemaMetrics.keyspacesPulled.update(message.payload.size());
                 }
                 catch (ConfigurationException e)
                 {
@@ -20,6 +20,7 @@ package org.apache.cassandra.schema;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.ImmutableList;
@@ -42,6 +43,7 @@ import org.apache.cassandra.exceptions.InvalidRequestException;
 import org.apache.cassandra.exceptions.UnknownTableException;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.locator.LocalStrategy;
+import org.apache.cassandra.metrics.SchemaMetrics;
 import org.apache.cassandra.utils.Pair;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 
@@ -66,6 +68,13 @@ public final class Schema
 
     private volatile UUID version;
 
+    // content-based versions of the schema of each non-system keyspace, combined into the schema version,
+    // or null if they need to be calculated from scratch
+    private Map<String, UUID> keyspaceDigests;
+
+    // keyspaces changed since their digest was calculated
+    private final Set<String> staleDigests = new HashSet<>();
+
     private final List<SchemaChangeListener> changeListeners = new CopyOnWriteArrayList<>();
 
     /**
@@ -112,7 +121,10 @@ public final class Schema
     {
         load(SchemaKeyspace.fetchNonSystemKeyspaces());
         if (updateVersion)
+        {
+            invalidateDigests();
             updateVersion();
+        }
     }
 
     /**
@@ -524,15 +536,57 @@ public final class Schema
     }
 
     /**
-     * Read schema from system keyspace and calculate MD5 digest of every row, resulting digest
-     * will be converted into UUID which would act as content-based version of the schema.
+     * Read schema from system keyspace and calculate MD5 digest of every row of each keyspace, resulting digests
+     * will be combined into UUID which would act as content-based version of the schema.
+     *
+     * Only the keyspaces that changed since the last update are read again.
      */
-    public void updateVersion()
+    public synchronized void updateVersion()
     {
-        version = SchemaKeyspace.calculateSchemaDigest();
+        long start = System.nanoTime();
+
+        if (keyspaceDigests == null)
+        {
+            keyspaceDigests = SchemaKeyspace.calculateSchemaDigests();
+        }
+        else
+        {
+            for (String keyspaceName : staleDigests)
+            {
+                UUID digest = SchemaKeyspace.calculateSchemaDigest(keyspaceName);
+                if (digest == null)
+                    keyspaceDigests.remove(keyspaceName);
+                else
+                    keyspaceDigests.put(keyspaceName, digest);
+            }
+        }
+        staleDigests.clear();
+
+        version = SchemaKeyspace.calculateSchemaDigest(keyspaceDigests);
+        SchemaMetrics.versionCalculationTime.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         SystemKeyspace.updateSchemaVersion(version);
     }
 
+    /**
+     * @return the content-based versions of the schema of each keyspace that are up to date, or null if they
+     * haven't been calculated yet
+     */
+    synchronized Map<String, UUID> getKeyspaceDigests()
+    {
+        if (keyspaceDigests == null)
+            return null;
+
+        Map<String, UUID> digests = new HashMap<>(keyspaceDigests);
+        digests.keySet().removeAll(staleDigests);
+        return digests;
+    }
+
+    private synchronized void invalidateDigests()
+    {
+        keyspaceDigests = null;
+        staleDigests.clear();
+    }
+
     /*
      * Like updateVersion, but also announces via gossip
      */
@@ -548,6 +602,7 @@ public final class Schema
     public synchronized void clear()
     {
         getNonSystemKeyspaces().forEach(k -> unload(getKeyspaceMetadata(k)));
+        invalidateDigests();
         updateVersionAndAnnounce();
     }
 
@@ -575,6 +630,7 @@ public final class Schema
 
         // apply the schema mutations
         SchemaKeyspace.applyChanges(mutations);
+        staleDigests.addAll(affectedKeyspaces);
 
         // apply the schema mutations and fetch the new versions of the altered keyspaces
         Keyspaces after = SchemaKeyspace.fetchKeyspaces(affectedKeyspaces);
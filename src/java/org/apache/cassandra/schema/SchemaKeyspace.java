@@ -19,8 +19,8 @@ package org.apache.cassandra.schema;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -45,6 +45,7 @@ import org.apache.cassandra.exceptions.InvalidRequestException;
 import org.apache.cassandra.transport.ProtocolVersion;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.UUIDGen;
 
 import static java.lang.String.format;
 
@@ -303,42 +304,73 @@ public final class SchemaKeyspace
     }
 
     /**
-     * Read schema from system keyspace and calculate MD5 digest of every row, resulting digest
-     * will be converted into UUID which would act as content-based version of the schema.
+     * Read schema from system keyspace and calculate MD5 digest of every row of each keyspace, resulting digests
+     * will be converted into UUIDs which would act as content-based versions of the schema of each keyspace.
      */
-    static UUID calculateSchemaDigest()
+    static Map<String, UUID> calculateSchemaDigests()
     {
-        MessageDigest digest;
-        try
-        {
-            digest = MessageDigest.getInstance("MD5");
-        }
-        catch (NoSuchAlgorithmException e)
+        Map<String, MessageDigest> digests = new HashMap<>();
+        for (String table : ALL)
         {
-            throw new RuntimeException(e);
+            // Due to CASSANDRA-11050 we want to exclude DROPPED_COLUMNS for schema digest computation. We can and
+            // should remove that in the next major release (so C* 4.0).
+            if (!table.equals(DROPPED_COLUMNS))
+                updateSchemaDigests(digests, getReadCommandForTableSchema(table));
         }
 
+        Map<String, UUID> versions = new HashMap<>();
+        digests.forEach((keyspaceName, digest) -> versions.put(keyspaceName, UUID.nameUUIDFromBytes(digest.digest())));
+        return versions;
+    }
+
+    /**
+     * Like {@link #calculateSchemaDigests()}, but only reads the schema of a single keyspace.
+     *
+     * @return the content-based version of the keyspace schema, or null if the keyspace has no schema
+     */
+    static UUID calculateSchemaDigest(String keyspaceName)
+    {
+        Map<String, MessageDigest> digests = new HashMap<>();
         for (String table : ALL)
         {
-            // Due to CASSANDRA-11050 we want to exclude DROPPED_COLUMNS for schema digest computation. We can and
-            // should remove that in the next major release (so C* 4.0).
-            if (table.equals(DROPPED_COLUMNS))
-                continue;
+            if (!table.equals(DROPPED_COLUMNS))
+                updateSchemaDigests(digests, getReadCommandForKeyspaceSchema(table, keyspaceName));
+        }
 
-            ReadCommand cmd = getReadCommandForTableSchema(table);
-            try (ReadExecutionController executionController = cmd.executionController();
-                 PartitionIterator schema = cmd.executeInternal(executionController))
+        MessageDigest digest = digests.get(keyspaceName);
+        return digest == null ? null : UUID.nameUUIDFromBytes(digest.digest());
+    }
+
+    private static void updateSchemaDigests(Map<String, MessageDigest> digests, ReadCommand cmd)
+    {
+        try (ReadExecutionController executionController = cmd.executionController();
+             PartitionIterator schema = cmd.executeInternal(executionController))
+        {
+            while (schema.hasNext())
             {
-                while (schema.hasNext())
+                try (RowIterator partition = schema.next())
                 {
-                    try (RowIterator partition = schema.next())
-                    {
-                        if (!isSystemKeyspaceSchemaPartition(partition.partitionKey()))
-                            RowIterators.digest(partition, digest);
-                    }
+                    if (partition.isEmpty() || isSystemKeyspaceSchemaPartition(partition.partitionKey()))
+                        continue;
+
+                    String keyspaceName = UTF8Type.instance.compose(partition.partitionKey().getKey());
+                    RowIterators.digest(partition, digests.computeIfAbsent(keyspaceName, k -> FBUtilities.newMessageDigest("MD5")));
                 }
             }
         }
+    }
+
+    /**
+     * Combines the versions of the schema of every keyspace into the content-based version of the whole schema.
+     */
+    static UUID calculateSchemaDigest(Map<String, UUID> keyspaceDigests)
+    {
+        MessageDigest digest = FBUtilities.newMessageDigest("MD5");
+        for (Map.Entry<String, UUID> entry : new TreeMap<>(keyspaceDigests).entrySet())
+        {
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update(UUIDGen.decompose(entry.getValue()));
+        }
         return UUID.nameUUIDFromBytes(digest.digest());
     }
 
@@ -361,19 +393,54 @@ public final class SchemaKeyspace
         return PartitionRangeReadCommand.allDataRead(cfs.metadata(), FBUtilities.nowInSeconds());
     }
 
+    /**
+     * @param schemaTableName The name of the table responsible for part of the schema.
+     * @param keyspaceName The name of the keyspace whose schema to read.
+     * @return low-level schema representation of the keyspace
+     */
+    private static ReadCommand getReadCommandForKeyspaceSchema(String schemaTableName, String keyspaceName)
+    {
+        ColumnFamilyStore cfs = getSchemaCFS(schemaTableName);
+        return SinglePartitionReadCommand.fullPartitionRead(cfs.metadata(), FBUtilities.nowInSeconds(), decorate(cfs.metadata(), keyspaceName));
+    }
+
     static Collection<Mutation> convertSchemaToMutations()
     {
         Map<DecoratedKey, Mutation> mutationMap = new HashMap<>();
 
         for (String table : ALL)
-            convertSchemaToMutations(mutationMap, table);
+            convertSchemaToMutations(mutationMap, getReadCommandForTableSchema(table));
+
+        return mutationMap.values();
+    }
+
+    /**
+     * Converts the schema of the keyspaces whose digest differs from the provided ones to mutations, including
+     * the keyspaces that only one of the sides knows of.
+     *
+     * @param theirDigests the content-based versions of the schema of each keyspace on the requesting node
+     */
+    static Collection<Mutation> convertSchemaDiffToMutations(Map<String, UUID> theirDigests)
+    {
+        Map<String, UUID> ourDigests = Schema.instance.getKeyspaceDigests();
+        if (ourDigests == null)
+            return convertSchemaToMutations();
+
+        Set<String> differing = new HashSet<>(ourDigests.keySet());
+        differing.addAll(theirDigests.keySet());
+        differing.removeIf(keyspaceName -> Objects.equals(ourDigests.get(keyspaceName), theirDigests.get(keyspaceName)));
+
+        Map<DecoratedKey, Mutation> mutationMap = new HashMap<>();
+
+        for (String table : ALL)
+            for (String keyspaceName : differing)
+                convertSchemaToMutations(mutationMap, getReadCommandForKeyspaceSchema(table, keyspaceName));
 
         return mutationMap.values();
     }
 
-    private static void convertSchemaToMutations(Map<DecoratedKey, Mutation> mutationMap, String schemaTableName)
+    private static void convertSchemaToMutations(Map<DecoratedKey, Mutation> mutationMap, ReadCommand cmd)
     {
-        ReadCommand cmd = getReadCommandForTableSchema(schemaTableName);
         try (ReadExecutionController executionController = cmd.executionController();
              UnfilteredPartitionIterator iter = cmd.executeLocally(executionController))
         {
@@ -381,7 +448,7 @@ public final class SchemaKeyspace
             {
                 try (UnfilteredRowIterator partition = iter.next())
                 {
-                    if (isSystemKeyspaceSchemaPartition(partition.partitionKey()))
+                    if (partition.isEmpty() || isSystemKeyspaceSchemaPartition(partition.partitionKey()))
                         continue;
 
                     DecoratedKey key = partition.partitionKey();
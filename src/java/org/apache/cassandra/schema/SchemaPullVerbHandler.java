@@ -17,12 +17,14 @@
  */
 package org.apache.cassandra.schema;
 
+import java.io.IOException;
 import java.util.Collection;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.io.util.DataInputBuffer;
 import org.apache.cassandra.net.IVerbHandler;
 import org.apache.cassandra.net.MessageIn;
 import org.apache.cassandra.net.MessageOut;
@@ -31,18 +33,34 @@ import org.apache.cassandra.net.MessagingService;
 /**
  * Sends it's current schema state in form of mutations in reply to the remote node's request.
  * Such a request is made when one of the nodes, by means of Gossip, detects schema disagreement in the ring.
+ * If the request has the versions of the schema of each keyspace of the remote node, only the keyspaces
+ * that differ are sent.
  */
 public final class SchemaPullVerbHandler implements IVerbHandler
 {
     private static final Logger logger = LoggerFactory.getLogger(SchemaPullVerbHandler.class);
 
-    public void doVerb(MessageIn message, int id)
+    public void doVerb(MessageIn message, int id) throws IOException
     {
         logger.trace("Received schema pull request from {}", message.from);
 
+        Collection<Mutation> schema;
+        byte[] digests = (byte[]) message.parameters.get(MigrationManager.KEYSPACE_DIGESTS);
+        if (digests == null)
+        {
+            schema = SchemaKeyspace.convertSchemaToMutations();
+        }
+        else
+        {
+            try (DataInputBuffer in = new DataInputBuffer(digests))
+            {
+                schema = SchemaKeyspace.convertSchemaDiffToMutations(MigrationManager.KeyspaceDigestsSerializer.instance.deserialize(in, MessagingService.current_version));
+            }
+        }
+
         MessageOut<Collection<Mutation>> response =
             new MessageOut<>(MessagingService.Verb.INTERNAL_RESPONSE,
-                             SchemaKeyspace.convertSchemaToMutations(),
+                             schema,
                              MigrationManager.MigrationsSerializer.instance);
 
         MessagingService.instance().sendReply(response, id, message.from);
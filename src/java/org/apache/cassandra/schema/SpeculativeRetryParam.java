@@ -31,7 +31,13 @@ public final class SpeculativeRetryParam
 {
     public enum Kind
     {
-        NONE, CUSTOM, PERCENTILE, ALWAYS
+        NONE, CUSTOM, PERCENTILE, ALWAYS,
+
+        /**
+         * Speculates when the replicas read are late compared to the given percentile of their own latencies, on the
+         * replica expected to be the fastest, within the speculative retry budget.
+         */
+        PREDICTIVE
     }
 
     public static final SpeculativeRetryParam NONE = none();
@@ -41,7 +47,7 @@ public final class SpeculativeRetryParam
     private final Kind kind;
     private final double value;
 
-    // pre-processed (divided by 100 for PERCENTILE), multiplied by 1M for CUSTOM (to nanos)
+    // pre-processed (divided by 100 for PERCENTILE and PREDICTIVE), multiplied by 1M for CUSTOM (to nanos)
     private final double threshold;
 
     private SpeculativeRetryParam(Kind kind, double value)
@@ -49,7 +55,7 @@ public final class SpeculativeRetryParam
         this.kind = kind;
         this.value = value;
 
-        if (kind == Kind.PERCENTILE)
+        if (kind == Kind.PERCENTILE || kind == Kind.PREDICTIVE)
             threshold = value / 100;
         else if (kind == Kind.CUSTOM)
             threshold = TimeUnit.MILLISECONDS.toNanos((long) value);
@@ -87,6 +93,11 @@ public final class SpeculativeRetryParam
         return new SpeculativeRetryParam(Kind.PERCENTILE, value);
     }
 
+    public static SpeculativeRetryParam predictive(double value)
+    {
+        return new SpeculativeRetryParam(Kind.PREDICTIVE, value);
+    }
+
     public static SpeculativeRetryParam fromString(String value)
     {
         if (value.toLowerCase(Locale.ENGLISH).endsWith("ms"))
@@ -102,24 +113,10 @@ public final class SpeculativeRetryParam
         }
 
         if (value.toUpperCase(Locale.ENGLISH).endsWith(Kind.PERCENTILE.toString()))
-        {
-            double threshold;
-            try
-            {
-                threshold = Double.parseDouble(value.substring(0, value.length() - Kind.PERCENTILE.toString().length()));
-            }
-            catch (IllegalArgumentException e)
-            {
-                throw new ConfigurationException(format("Invalid value %s for option '%s'", value, TableParams.Option.SPECULATIVE_RETRY));
-            }
+            return percentile(parsePercentile(value, Kind.PERCENTILE));
 
-            if (threshold >= 0.0 && threshold <= 100.0)
-                return percentile(threshold);
-
-            throw new ConfigurationException(format("Invalid value %s for PERCENTILE option '%s': must be between 0.0 and 100.0",
-                                                    value,
-                                                    TableParams.Option.SPECULATIVE_RETRY));
-        }
+        if (value.toUpperCase(Locale.ENGLISH).endsWith(Kind.PREDICTIVE.toString()))
+            return predictive(parsePercentile(value, Kind.PREDICTIVE));
 
         if (value.equals(Kind.NONE.toString()))
             return NONE;
@@ -130,6 +127,27 @@ public final class SpeculativeRetryParam
         throw new ConfigurationException(format("Invalid value %s for option '%s'", value, TableParams.Option.SPECULATIVE_RETRY));
     }
 
+    private static double parsePercentile(String value, Kind kind)
+    {
+        double threshold;
+        try
+        {
+            threshold = Double.parseDouble(value.substring(0, value.length() - kind.toString().length()));
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ConfigurationException(format("Invalid value %s for option '%s'", value, TableParams.Option.SPECULATIVE_RETRY));
+        }
+
+        if (threshold >= 0.0 && threshold <= 100.0)
+            return threshold;
+
+        throw new ConfigurationException(format("Invalid value %s for %s option '%s': must be between 0.0 and 100.0",
+                                                value,
+                                                kind,
+                                                TableParams.Option.SPECULATIVE_RETRY));
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -153,7 +171,8 @@ public final class SpeculativeRetryParam
             case CUSTOM:
                 return format("%sms", value);
             case PERCENTILE:
-                return format("%sPERCENTILE", new DecimalFormat("#.#####").format(value));
+            case PREDICTIVE:
+                return format("%s%s", new DecimalFormat("#.#####").format(value), kind);
             default: // NONE and ALWAYS
                 return kind.toString();
         }
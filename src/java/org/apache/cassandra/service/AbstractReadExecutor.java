@@ -18,17 +18,20 @@
 package org.apache.cassandra.service;
 
 import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Iterables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.db.ReadCommand;
@@ -38,6 +41,8 @@ import org.apache.cassandra.db.partitions.PartitionIterator;
 import org.apache.cassandra.exceptions.ReadFailureException;
 import org.apache.cassandra.exceptions.ReadTimeoutException;
 import org.apache.cassandra.exceptions.UnavailableException;
+import org.apache.cassandra.locator.DynamicEndpointSnitch;
+import org.apache.cassandra.locator.IEndpointSnitch;
 import org.apache.cassandra.metrics.ReadRepairMetrics;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
@@ -53,7 +58,8 @@ import org.apache.cassandra.tracing.Tracing;
  * Optionally, may perform additional requests to provide redundancy against replica failure:
  * AlwaysSpeculatingReadExecutor will always send a request to one extra replica, while
  * SpeculatingReadExecutor will wait until it looks like the original request is in danger
- * of timing out before performing extra reads.
+ * of timing out before performing extra reads, and PredictiveSpeculatingReadExecutor until
+ * the replicas read are late compared to their own latencies.
  */
 public abstract class AbstractReadExecutor
 {
@@ -223,17 +229,29 @@ public abstract class AbstractReadExecutor
         }
 
         // RRD.NONE or RRD.DC_LOCAL w/ multiple DCs.
-        InetAddress extraReplica = allReplicas.get(targetReplicas.size());
-        // With repair decision DC_LOCAL all replicas/target replicas may be in different order, so
-        // we might have to find a replacement that's not already in targetReplicas.
-        if (repairDecision == ReadRepairDecision.DC_LOCAL && targetReplicas.contains(extraReplica))
+        InetAddress extraReplica;
+        if (retry.kind() == SpeculativeRetryParam.Kind.PREDICTIVE)
         {
-            for (InetAddress address : allReplicas)
+            // the snitch sorts on median latencies, but what matters here is how fast the replica is when we're late
+            extraReplica = fastestReplica(allReplicas, targetReplicas, consistencyLevel, retry.threshold());
+            // the replicas left are in other DCs, and their replies wouldn't count for a DC-local consistency level
+            if (extraReplica == null)
+                return new NeverSpeculatingReadExecutor(keyspace, cfs, command, consistencyLevel, targetReplicas, queryStartNanoTime, true);
+        }
+        else
+        {
+            extraReplica = allReplicas.get(targetReplicas.size());
+            // With repair decision DC_LOCAL all replicas/target replicas may be in different order, so
+            // we might have to find a replacement that's not already in targetReplicas.
+            if (repairDecision == ReadRepairDecision.DC_LOCAL && targetReplicas.contains(extraReplica))
             {
-                if (!targetReplicas.contains(address))
+                for (InetAddress address : allReplicas)
                 {
-                    extraReplica = address;
-                    break;
+                    if (!targetReplicas.contains(address))
+                    {
+                        extraReplica = address;
+                        break;
+                    }
                 }
             }
         }
@@ -241,21 +259,92 @@ public abstract class AbstractReadExecutor
 
         if (retry.equals(SpeculativeRetryParam.ALWAYS))
             return new AlwaysSpeculatingReadExecutor(keyspace, cfs, command, consistencyLevel, targetReplicas, queryStartNanoTime);
+        else if (retry.kind() == SpeculativeRetryParam.Kind.PREDICTIVE)
+            return new PredictiveSpeculatingReadExecutor(keyspace, cfs, command, consistencyLevel, targetReplicas, queryStartNanoTime, retry.threshold());
         else // PERCENTILE or CUSTOM.
             return new SpeculatingReadExecutor(keyspace, cfs, command, consistencyLevel, targetReplicas, queryStartNanoTime);
     }
 
+    /**
+     * @return the replica of {@code allReplicas} not in {@code targetReplicas} whose reply counts for
+     * {@code consistencyLevel} with the lowest known latency, the first one in snitch order on ties or if none has
+     * known latencies, or null if there is no such replica
+     */
+    @VisibleForTesting
+    static InetAddress fastestReplica(List<InetAddress> allReplicas, List<InetAddress> targetReplicas, ConsistencyLevel consistencyLevel, double quantile)
+    {
+        InetAddress first = null;
+        InetAddress fastest = null;
+        long fastestLatency = Long.MAX_VALUE;
+        for (InetAddress replica : allReplicas)
+        {
+            if (targetReplicas.contains(replica) || (consistencyLevel.isDatacenterLocal() && !consistencyLevel.isLocal(replica)))
+                continue;
+
+            if (first == null)
+                first = replica;
+            // no default latency compares to the tail latency of a replica, so the ones we know nothing about only
+            // get picked if we know nothing about any
+            long latency = predictedLatencyNanos(replica, quantile, -1);
+            if (latency >= 0 && latency < fastestLatency)
+            {
+                fastest = replica;
+                fastestLatency = latency;
+            }
+        }
+        return fastest == null ? first : fastest;
+    }
+
+    /**
+     * @return the given quantile of the latencies of {@code replica} known by the dynamic snitch, or
+     * {@code defaultLatencyNanos} if there is no such snitch or it doesn't know the replica
+     */
+    static long predictedLatencyNanos(InetAddress replica, double quantile, long defaultLatencyNanos)
+    {
+        IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+        if (!(snitch instanceof DynamicEndpointSnitch))
+            return defaultLatencyNanos;
+
+        double latencyMillis = ((DynamicEndpointSnitch) snitch).getLatency(replica, quantile);
+        if (Double.isNaN(latencyMillis))
+            return defaultLatencyNanos;
+
+        // the latencies are truncated to the millisecond, so the replies may have taken up to one more
+        return TimeUnit.MILLISECONDS.toNanos((long) latencyMillis + 1);
+    }
+
+    /**
+     * @param latenciesNanos the predicted latencies of the replicas read, the one the data is read from first
+     * @param blockFor the number of replies needed
+     * @return when we expect to have enough replies, including the data
+     */
+    static long predictedResponseNanos(long[] latenciesNanos, int blockFor)
+    {
+        long[] sorted = Arrays.copyOf(latenciesNanos, latenciesNanos.length);
+        Arrays.sort(sorted);
+        return Math.max(sorted[Math.min(blockFor, sorted.length) - 1], latenciesNanos[0]);
+    }
+
     /**
      *  Returns true if speculation should occur and if it should then block until it is time to
      *  send the speculative reads
      */
     boolean shouldSpeculateAndMaybeWait()
     {
+        long speculationDelayNanos = speculationDelayNanos();
         // no latency information, or we're overloaded
-        if (cfs.sampleLatencyNanos > TimeUnit.MILLISECONDS.toNanos(command.getTimeout()))
+        if (speculationDelayNanos > TimeUnit.MILLISECONDS.toNanos(command.getTimeout()))
             return false;
 
-        return !handler.await(cfs.sampleLatencyNanos, TimeUnit.NANOSECONDS);
+        return !handler.await(speculationDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return how long to wait for the replies before speculating
+     */
+    long speculationDelayNanos()
+    {
+        return cfs.sampleLatencyNanos;
     }
 
     void onReadTimeout() {}
@@ -298,7 +387,7 @@ public abstract class AbstractReadExecutor
 
     static class SpeculatingReadExecutor extends AbstractReadExecutor
     {
-        private volatile boolean speculated = false;
+        volatile boolean speculated = false;
 
         public SpeculatingReadExecutor(Keyspace keyspace,
                                        ColumnFamilyStore cfs,
@@ -337,7 +426,7 @@ public abstract class AbstractReadExecutor
 
         public void maybeTryAdditionalReplicas()
         {
-            if (shouldSpeculateAndMaybeWait())
+            if (shouldSpeculateAndMaybeWait() && withinBudget())
             {
                 //Handle speculation stats first in case the callback fires immediately
                 speculated = true;
@@ -355,6 +444,14 @@ public abstract class AbstractReadExecutor
             }
         }
 
+        /**
+         * @return whether the speculative retry is allowed, as it was found needed
+         */
+        boolean withinBudget()
+        {
+            return true;
+        }
+
         public Collection<InetAddress> getContactedReplicas()
         {
             return speculated
@@ -372,6 +469,52 @@ public abstract class AbstractReadExecutor
         }
     }
 
+    static class PredictiveSpeculatingReadExecutor extends SpeculatingReadExecutor
+    {
+        private final double quantile;
+
+        public PredictiveSpeculatingReadExecutor(Keyspace keyspace,
+                                                 ColumnFamilyStore cfs,
+                                                 ReadCommand command,
+                                                 ConsistencyLevel consistencyLevel,
+                                                 List<InetAddress> targetReplicas,
+                                                 long queryStartNanoTime,
+                                                 double quantile)
+        {
+            super(keyspace, cfs, command, consistencyLevel, targetReplicas, queryStartNanoTime);
+            this.quantile = quantile;
+            SpeculativeRetryBudget.instance.onRead();
+        }
+
+        @Override
+        long speculationDelayNanos()
+        {
+            // the last replica is the extra one
+            long[] latencies = new long[targetReplicas.size() - 1];
+            for (int i = 0; i < latencies.length; i++)
+                latencies[i] = predictedLatencyNanos(targetReplicas.get(i), quantile, cfs.sampleLatencyNanos);
+            return predictedResponseNanos(latencies, handler.blockfor);
+        }
+
+        @Override
+        boolean withinBudget()
+        {
+            if (SpeculativeRetryBudget.instance.tryAcquire())
+                return true;
+
+            cfs.metric.speculativeRetriesOverBudget.inc();
+            return false;
+        }
+
+        @Override
+        void onReadTimeout()
+        {
+            // we might not have speculated because of the budget
+            if (speculated)
+                super.onReadTimeout();
+        }
+    }
+
     private static class AlwaysSpeculatingReadExecutor extends AbstractReadExecutor
     {
         public AlwaysSpeculatingReadExecutor(Keyspace keyspace,
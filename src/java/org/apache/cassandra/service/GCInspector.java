@@ -47,6 +47,7 @@ import org.slf4j.LoggerFactory;
 import org.apache.cassandra.config.DatabaseDescriptor;
 
 import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.gms.FailureDetector;
 import org.apache.cassandra.utils.StatusLogger;
 
 public class GCInspector implements NotificationListener, GCInspectorMXBean
@@ -257,6 +258,8 @@ public class GCInspector implements NotificationListener, GCInspectorMXBean
                 duration = total - previousTotal; // may be zero for a really fast collection
             }
 
+            FailureDetector.reportLocalPause(TimeUnit.MILLISECONDS.toNanos(duration));
+
             StringBuilder sb = new StringBuilder();
             sb.append(info.getGcName()).append(" GC in ").append(duration).append("ms.  ");
             long bytes = 0;
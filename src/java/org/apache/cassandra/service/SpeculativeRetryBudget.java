@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+
+/**
+ * Limits the speculative read retries to a ratio of the reads, so that they don't add much load when the replicas are
+ * slow because they are overloaded.
+ *
+ * Every read earns the ratio of a retry, and up to {@link #MAX_SAVED_RETRIES} retries can be saved for the times
+ * several reads are slow together.
+ */
+public class SpeculativeRetryBudget
+{
+    public static final SpeculativeRetryBudget instance = new SpeculativeRetryBudget(DatabaseDescriptor::getSpeculativeRetryBudget);
+
+    static final int MAX_SAVED_RETRIES = 100;
+
+    // the balance is kept in millionths of retry
+    private static final long RETRY = 1000000;
+    private static final long MAX_BALANCE = MAX_SAVED_RETRIES * RETRY;
+
+    private final DoubleSupplier ratio;
+    private final AtomicLong balance = new AtomicLong(MAX_BALANCE);
+
+    SpeculativeRetryBudget(DoubleSupplier ratio)
+    {
+        this.ratio = ratio;
+    }
+
+    public void onRead()
+    {
+        long earned = (long) (ratio.getAsDouble() * RETRY);
+        if (balance.get() < MAX_BALANCE)
+            balance.accumulateAndGet(earned, (current, added) -> Math.min(MAX_BALANCE, current + added));
+    }
+
+    /**
+     * @return whether a speculative retry can be made, in which case it is taken from the budget
+     */
+    public boolean tryAcquire()
+    {
+        while (true)
+        {
+            long current = balance.get();
+            if (current < RETRY)
+                return false;
+            if (balance.compareAndSet(current, current - RETRY))
+                return true;
+        }
+    }
+}
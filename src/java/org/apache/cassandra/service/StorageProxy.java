@@ -29,6 +29,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
+import com.codahale.metrics.Snapshot;
 import com.google.common.base.Predicate;
 import com.google.common.cache.CacheLoader;
 import com.google.common.collect.*;
@@ -111,6 +112,14 @@ public class StorageProxy implements StorageProxyMBean
     {
     }
 
+    /**
+     * @return the recent distribution of the coordinator read latencies, in nanoseconds
+     */
+    public static Snapshot getReadLatencySnapshot()
+    {
+        return readMetrics.latency.getSnapshot();
+    }
+
     static
     {
         MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
@@ -1282,6 +1291,13 @@ public class StorageProxy implements StorageProxyMBean
         if (endpointsToHint != null)
             submitHint(mutation, endpointsToHint, responseHandler);
 
+        // serialize the mutation once for all the replica messages and the local commit log entry
+        int serializations = (insertLocal ? 1 : 0)
+                             + (localDc != null ? localDc.size() : 0)
+                             + (dcGroups != null ? dcGroups.size() : 0);
+        if (serializations > 1)
+            mutation.serialize(MessagingService.current_version);
+
         if (insertLocal)
             performLocally(stage, Optional.of(mutation), mutation::apply, responseHandler);
 
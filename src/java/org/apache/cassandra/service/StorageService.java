@@ -63,6 +63,7 @@ import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.compaction.AdaptiveThroughputController;
 import org.apache.cassandra.db.compaction.CompactionManager;
 import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
 import org.apache.cassandra.dht.*;
@@ -99,6 +100,7 @@ import org.apache.cassandra.transport.ProtocolVersion;
 import org.apache.cassandra.utils.*;
 import org.apache.cassandra.utils.progress.ProgressEvent;
 import org.apache.cassandra.utils.progress.ProgressEventType;
+import org.apache.cassandra.utils.progress.ProgressListener;
 import org.apache.cassandra.utils.progress.jmx.JMXProgressSupport;
 
 import static java.util.Arrays.asList;
@@ -556,8 +558,7 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
             Multimap<InetAddress, Token> loadedTokens = SystemKeyspace.loadTokens();
             if (!shouldBootstrap()) // if we have not completed bootstrapping, we should not add ourselves as a normal token
                 loadedTokens.putAll(FBUtilities.getBroadcastAddress(), SystemKeyspace.getSavedTokens());
-            for (InetAddress ep : loadedTokens.keySet())
-                tokenMetadata.updateNormalTokens(loadedTokens.get(ep), ep);
+            tokenMetadata.updateNormalTokens(loadedTokens);
 
             logger.info("Token metadata: {}", tokenMetadata);
         }
@@ -1350,6 +1351,18 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         CompactionManager.instance.setRate(value);
     }
 
+    public boolean isAdaptiveThroughputEnabled()
+    {
+        return DatabaseDescriptor.isAdaptiveThroughputEnabled();
+    }
+
+    public void setAdaptiveThroughputEnabled(boolean enabled)
+    {
+        DatabaseDescriptor.setAdaptiveThroughputEnabled(enabled);
+        // when disabled, go back to the configured throughput right away rather than on the next compaction
+        CompactionManager.instance.setRate(AdaptiveThroughputController.instance.getCompactionThroughputMbPerSec());
+    }
+
     public int getConcurrentCompactors()
     {
         return DatabaseDescriptor.getConcurrentCompactors();
@@ -1438,6 +1451,7 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         {
             logger.info("Resetting bootstrap progress to start fresh");
             SystemKeyspace.resetAvailableRanges();
+            SystemKeyspace.resetStreamCheckpoints();
         }
 
         setMode(Mode.JOINING, "Starting to bootstrap...", true);
@@ -1487,6 +1501,8 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
      */
     private void bootstrapFinished() {
         markViewsAsBuilt();
+        // the files received are only skipped when resuming a bootstrap, which won't happen anymore
+        SystemKeyspace.resetStreamCheckpoints();
         isBootstrapMode = false;
     }
 
@@ -3279,8 +3295,19 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         if (option.getRanges().isEmpty() || Keyspace.open(keyspace).getReplicationStrategy().getReplicationFactor() < 2)
             return 0;
 
+        return repairAsync(keyspace, option, Collections.emptyList());
+    }
+
+    /**
+     * Starts a repair with the given (complete) options, notifying {@code listeners} of its progress in addition to
+     * the JMX listeners.
+     *
+     * @return the repair command number
+     */
+    public int repairAsync(String keyspace, RepairOption option, List<ProgressListener> listeners)
+    {
         int cmd = nextRepairCommand.incrementAndGet();
-        NamedThreadFactory.createThread(createRepairTask(cmd, keyspace, option), "Repair-Task-" + threadCounter.incrementAndGet()).start();
+        NamedThreadFactory.createThread(createRepairTask(cmd, keyspace, option, listeners), "Repair-Task-" + threadCounter.incrementAndGet()).start();
         return cmd;
     }
 
@@ -3327,7 +3354,7 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         return tokenMetadata.partitioner.getTokenFactory();
     }
 
-    private FutureTask<Object> createRepairTask(final int cmd, final String keyspace, final RepairOption options)
+    private FutureTask<Object> createRepairTask(final int cmd, final String keyspace, final RepairOption options, List<ProgressListener> listeners)
     {
         if (!options.getDataCenters().isEmpty() && !options.getDataCenters().contains(DatabaseDescriptor.getLocalDataCenter()))
         {
@@ -3336,6 +3363,8 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
 
         RepairRunnable task = new RepairRunnable(this, cmd, options, keyspace);
         task.addProgressListener(progressSupport);
+        for (ProgressListener listener : listeners)
+            task.addProgressListener(listener);
         return new FutureTask<>(task, null);
     }
 
@@ -505,6 +505,13 @@ public interface StorageServiceMBean extends NotificationEmitter
     public int getCompactionThroughputMbPerSec();
     public void setCompactionThroughputMbPerSec(int value);
 
+    /**
+     * Whether the compaction and streaming throughput are adjusted to the read latency and compaction backlog,
+     * within the adaptive_compaction_throughput_min/max_mb_per_sec bounds.
+     */
+    public boolean isAdaptiveThroughputEnabled();
+    public void setAdaptiveThroughputEnabled(boolean enabled);
+
     public int getConcurrentCompactors();
     public void setConcurrentCompactors(int value);
 
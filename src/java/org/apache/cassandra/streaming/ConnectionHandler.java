@@ -25,12 +25,20 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
@@ -39,10 +47,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.util.concurrent.FastThreadLocalThread;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.io.util.DataOutputStreamPlus;
 import org.apache.cassandra.io.util.BufferedDataOutputStreamPlus;
 import org.apache.cassandra.io.util.WrappedDataOutputStreamPlus;
 import org.apache.cassandra.net.IncomingStreamingConnection;
+import org.apache.cassandra.schema.TableId;
+import org.apache.cassandra.streaming.messages.OutgoingFileMessage;
 import org.apache.cassandra.streaming.messages.StreamInitMessage;
 import org.apache.cassandra.streaming.messages.StreamMessage;
 import org.apache.cassandra.utils.FBUtilities;
@@ -55,6 +66,11 @@ import org.apache.cassandra.utils.JVMStabilityInspector;
  * Internally, ConnectionHandler manages thread to receive incoming {@link StreamMessage} and thread to
  * send outgoing message. Messages are encoded/decoded on those thread and handed to
  * {@link StreamSession#messageReceived(org.apache.cassandra.streaming.messages.StreamMessage)}.
+ *
+ * <p>
+ * With {@code streaming_channels_per_session} greater than 1, the initiator also makes additional connections
+ * (channels), in each direction it expects files in, that only carry files. Each outgoing channel, the main one
+ * included, sends the next file of the {@link OutgoingMessageQueue} as soon as it is done with the previous one.
  */
 public class ConnectionHandler
 {
@@ -64,14 +80,17 @@ public class ConnectionHandler
 
     private IncomingMessageHandler incoming;
     private OutgoingMessageHandler outgoing;
+    private final List<IncomingMessageHandler> incomingFileChannels = new CopyOnWriteArrayList<>();
+    private final List<OutgoingMessageHandler> outgoingFileChannels = new CopyOnWriteArrayList<>();
+    private final OutgoingMessageQueue messageQueue = new OutgoingMessageQueue();
     private final boolean isPreview;
 
     ConnectionHandler(StreamSession session, int incomingSocketTimeout, boolean isPreview)
     {
         this.session = session;
         this.isPreview = isPreview;
-        this.incoming = new IncomingMessageHandler(session, incomingSocketTimeout);
-        this.outgoing = new OutgoingMessageHandler(session);
+        this.incoming = new IncomingMessageHandler(session, incomingSocketTimeout, 0);
+        this.outgoing = new OutgoingMessageHandler(session, messageQueue, 0);
     }
 
     /**
@@ -91,18 +110,56 @@ public class ConnectionHandler
         logger.debug("[Stream #{}] Sending stream init for outgoing stream", session.planId());
         Socket outgoingSocket = session.createConnection();
         outgoing.start(outgoingSocket, StreamMessage.CURRENT_VERSION, true);
+
+        if (isPreview)
+            return;
+
+        // the follower only sends files we requested, and only receives the ones we have to transfer
+        for (int channel = 1; channel < DatabaseDescriptor.getStreamingChannelsPerSession(); channel++)
+        {
+            if (!session.requests.isEmpty())
+            {
+                logger.debug("[Stream #{}] Sending stream init for incoming file channel {}", session.planId(), channel);
+                IncomingMessageHandler handler = new IncomingMessageHandler(session, 0, channel);
+                incomingFileChannels.add(handler);
+                handler.start(session.createConnection(), StreamMessage.CURRENT_VERSION, true);
+            }
+            if (!session.transfers.isEmpty())
+            {
+                logger.debug("[Stream #{}] Sending stream init for outgoing file channel {}", session.planId(), channel);
+                OutgoingMessageHandler handler = new OutgoingMessageHandler(session, messageQueue, channel);
+                outgoingFileChannels.add(handler);
+                handler.start(session.createConnection(), StreamMessage.CURRENT_VERSION, true);
+            }
+        }
     }
 
     /**
      * Set up outgoing message handler on receiving side.
      *
      * @param connection Incoming connection to use for {@link OutgoingMessageHandler}.
+     * @param channel 0 for the main connection in that direction, or the index of an additional file channel
      * @param version Streaming message version
      * @throws IOException
      */
-    public void initiateOnReceivingSide(IncomingStreamingConnection connection, boolean isForOutgoing, int version) throws IOException
+    public void initiateOnReceivingSide(IncomingStreamingConnection connection, boolean isForOutgoing, int channel, int version) throws IOException
     {
-        if (isForOutgoing)
+        if (channel > 0)
+        {
+            if (isForOutgoing)
+            {
+                OutgoingMessageHandler handler = new OutgoingMessageHandler(session, messageQueue, channel);
+                outgoingFileChannels.add(handler);
+                handler.start(connection, version);
+            }
+            else
+            {
+                IncomingMessageHandler handler = new IncomingMessageHandler(session, 0, channel);
+                incomingFileChannels.add(handler);
+                handler.start(connection, version);
+            }
+        }
+        else if (isForOutgoing)
             outgoing.start(connection, version);
         else
             incoming.start(connection, version);
@@ -120,12 +177,22 @@ public class ConnectionHandler
 
     public ListenableFuture<?> closeOutgoing()
     {
-        return outgoing == null ? Futures.immediateFuture(null) : outgoing.close();
+        List<ListenableFuture<?>> closed = new ArrayList<>();
+        if (outgoing != null)
+            closed.add(outgoing.close());
+        for (OutgoingMessageHandler channel : outgoingFileChannels)
+            closed.add(channel.close());
+        return Futures.allAsList(closed);
     }
 
     public ListenableFuture<?> closeIncoming()
     {
-        return incoming == null ? Futures.immediateFuture(null) : incoming.close();
+        List<ListenableFuture<?>> closed = new ArrayList<>();
+        if (incoming != null)
+            closed.add(incoming.close());
+        for (IncomingMessageHandler channel : incomingFileChannels)
+            closed.add(channel.close());
+        return Futures.allAsList(closed);
     }
 
     /**
@@ -147,7 +214,7 @@ public class ConnectionHandler
         if (message.type == StreamMessage.Type.FILE && isPreview)
             throw new RuntimeException("Cannot send file messages for preview streaming sessions");
 
-        outgoing.enqueue(message);
+        messageQueue.put(message);
     }
 
     /**
@@ -164,15 +231,23 @@ public class ConnectionHandler
 
         protected int protocolVersion;
         private final boolean isOutgoingHandler;
-        protected Socket socket;
+        // 0 for the main connection, which carries all messages, or the index of a connection that only carries files
+        protected final int channel;
+        protected volatile Socket socket;
 
         private final AtomicReference<SettableFuture<?>> closeFuture = new AtomicReference<>();
         private IncomingStreamingConnection incomingConnection;
 
-        protected MessageHandler(StreamSession session, boolean isOutgoingHandler)
+        protected MessageHandler(StreamSession session, boolean isOutgoingHandler, int channel)
         {
             this.session = session;
             this.isOutgoingHandler = isOutgoingHandler;
+            this.channel = channel;
+        }
+
+        protected boolean isFileChannel()
+        {
+            return channel > 0;
         }
 
         protected abstract String name();
@@ -203,7 +278,8 @@ public class ConnectionHandler
                                                               !isOutgoingHandler,
                                                               session.keepSSTableLevel(),
                                                               session.getPendingRepair(),
-                                                              session.getPreviewKind());
+                                                              session.getPreviewKind(),
+                                                              channel);
             ByteBuffer messageBuf = message.createMessage(false, protocolVersion);
             DataOutputStreamPlus out = getWriteChannel(socket);
             out.write(messageBuf);
@@ -223,16 +299,32 @@ public class ConnectionHandler
             if (initiator)
                 sendInitMessage();
 
-            new FastThreadLocalThread(this, name() + "-" + socket.getRemoteSocketAddress()).start();
+            String name = isFileChannel() ? name() + "-" + channel : name();
+            new FastThreadLocalThread(this, name + "-" + socket.getRemoteSocketAddress()).start();
         }
 
         public ListenableFuture<?> close()
         {
             // Assume it wasn't closed. Not a huge deal if we create a future on a race
             SettableFuture<?> future = SettableFuture.create();
-            return closeFuture.compareAndSet(null, future)
-                 ? future
-                 : closeFuture.get();
+            if (!closeFuture.compareAndSet(null, future))
+                return closeFuture.get();
+
+            // file channels are only closed once all files went through or the session failed, so there is nothing
+            // left to read or write on them, but they may be blocked doing so
+            Socket socket = this.socket;
+            if (isFileChannel() && socket != null)
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch (IOException e)
+                {
+                    logger.debug("Unexpected error while closing streaming file channel", e);
+                }
+            }
+            return future;
         }
 
         public boolean isClosed()
@@ -240,6 +332,18 @@ public class ConnectionHandler
             return closeFuture.get() != null;
         }
 
+        /**
+         * @return true if the session is complete or failed, or if either side is done and waiting for the other to
+         * complete, in which case no more files go through the file channels and the peer may close them
+         */
+        protected boolean isSessionEnding()
+        {
+            StreamSession.State state = session.state();
+            return state == StreamSession.State.WAIT_COMPLETE
+                   || state == StreamSession.State.COMPLETE
+                   || state == StreamSession.State.FAILED;
+        }
+
         protected void signalCloseDone()
         {
             if (!isClosed())
@@ -279,9 +383,13 @@ public class ConnectionHandler
     {
         private final int socketTimeout;
 
-        IncomingMessageHandler(StreamSession session, int socketTimeout)
+        /**
+         * @param socketTimeout the read timeout, or 0 for none: keep-alives only go through the main connection, so
+         * file channels rely on it to detect a dead peer, and get closed if so
+         */
+        IncomingMessageHandler(StreamSession session, int socketTimeout, int channel)
         {
-            super(session, false);
+            super(session, false, channel);
             this.socketTimeout = socketTimeout;
         }
 
@@ -310,6 +418,16 @@ public class ConnectionHandler
             try
             {
                 ReadableByteChannel in = getReadChannel(socket);
+                // we may get files before the peer's prepare message, which goes through the main connection
+                if (isFileChannel())
+                {
+                    while (!session.awaitPrepared(1, TimeUnit.SECONDS))
+                    {
+                        if (isClosed())
+                            return;
+                    }
+                }
+
                 while (!isClosed())
                 {
                     // receive message
@@ -326,7 +444,10 @@ public class ConnectionHandler
             catch (Throwable t)
             {
                 JVMStabilityInspector.inspectThrowable(t);
-                session.onError(t);
+                // file channels get closed (by us, or by the peer once its side of the session is done) while
+                // waiting for the next message, which is only an error if we still expect files
+                if (!isFileChannel() || !(isClosed() || isSessionEnding()))
+                    session.onError(t);
             }
             finally
             {
@@ -341,22 +462,15 @@ public class ConnectionHandler
     static class OutgoingMessageHandler extends MessageHandler
     {
         /*
-         * All out going messages are queued up into messageQueue.
+         * All out going messages are queued up into messageQueue, which is shared by the channels of the session.
          * The size will grow when received streaming request.
-         *
-         * Queue is also PriorityQueue so that prior messages can go out fast.
          */
-        private final PriorityBlockingQueue<StreamMessage> messageQueue = new PriorityBlockingQueue<>(64, new Comparator<StreamMessage>()
-        {
-            public int compare(StreamMessage o1, StreamMessage o2)
-            {
-                return o2.getPriority() - o1.getPriority();
-            }
-        });
+        private final OutgoingMessageQueue messageQueue;
 
-        OutgoingMessageHandler(StreamSession session)
+        OutgoingMessageHandler(StreamSession session, OutgoingMessageQueue messageQueue, int channel)
         {
-            super(session, true);
+            super(session, true, channel);
+            this.messageQueue = messageQueue;
         }
 
         protected String name()
@@ -364,11 +478,6 @@ public class ConnectionHandler
             return "STREAM-OUT";
         }
 
-        public void enqueue(StreamMessage message)
-        {
-            messageQueue.put(message);
-        }
-
         @SuppressWarnings("resource")
         public void run()
         {
@@ -379,7 +488,7 @@ public class ConnectionHandler
                 StreamMessage next;
                 while (!isClosed())
                 {
-                    if ((next = messageQueue.poll(1, TimeUnit.SECONDS)) != null)
+                    if ((next = messageQueue.poll(isFileChannel(), 1, TimeUnit.SECONDS)) != null)
                     {
                         logger.debug("[Stream #{}] Sending {}", session.planId(), next);
                         sendMessage(out, next);
@@ -389,8 +498,11 @@ public class ConnectionHandler
                 }
 
                 // Sends the last messages on the queue
-                while ((next = messageQueue.poll()) != null)
-                    sendMessage(out, next);
+                if (!isFileChannel())
+                {
+                    while ((next = messageQueue.poll(false, 0, TimeUnit.SECONDS)) != null)
+                        sendMessage(out, next);
+                }
             }
             catch (InterruptedException e)
             {
@@ -416,7 +528,9 @@ public class ConnectionHandler
             }
             catch (SocketException e)
             {
-                session.onError(e);
+                // see IncomingMessageHandler#run()
+                if (!isFileChannel() || !isClosed())
+                    session.onError(e);
                 close();
             }
             catch (IOException e)
@@ -425,4 +539,80 @@ public class ConnectionHandler
             }
         }
     }
+
+    /**
+     * The messages to send for a session.
+     *
+     * Other messages go first, by priority, through the main connection, and files are taken by whichever connection
+     * is available, from each table in turn so that all of them make progress.
+     */
+    @VisibleForTesting
+    static class OutgoingMessageQueue
+    {
+        private final PriorityQueue<StreamMessage> messages = new PriorityQueue<>(64, new Comparator<StreamMessage>()
+        {
+            public int compare(StreamMessage o1, StreamMessage o2)
+            {
+                return o2.getPriority() - o1.getPriority();
+            }
+        });
+        private final Map<TableId, Queue<StreamMessage>> files = new HashMap<>();
+        // the tables with files to send, the next one to take a file from first
+        private final Queue<TableId> tables = new ArrayDeque<>();
+
+        synchronized void put(StreamMessage message)
+        {
+            if (message instanceof OutgoingFileMessage)
+            {
+                TableId tableId = ((OutgoingFileMessage) message).header.tableId;
+                Queue<StreamMessage> queue = files.get(tableId);
+                if (queue == null)
+                {
+                    queue = new ArrayDeque<>();
+                    files.put(tableId, queue);
+                    tables.add(tableId);
+                }
+                queue.add(message);
+            }
+            else
+            {
+                messages.add(message);
+            }
+            notifyAll();
+        }
+
+        /**
+         * @param filesOnly whether to only take files, for the additional channels
+         * @return the next message to send, or null if there was none for {@code timeout}
+         */
+        synchronized StreamMessage poll(boolean filesOnly, long timeout, TimeUnit unit) throws InterruptedException
+        {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (true)
+            {
+                StreamMessage next = filesOnly ? null : messages.poll();
+                if (next == null)
+                    next = pollFile();
+                long remaining = deadline - System.nanoTime();
+                if (next != null || remaining <= 0)
+                    return next;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+
+        private StreamMessage pollFile()
+        {
+            TableId tableId = tables.poll();
+            if (tableId == null)
+                return null;
+
+            Queue<StreamMessage> queue = files.get(tableId);
+            StreamMessage next = queue.poll();
+            if (queue.isEmpty())
+                files.remove(tableId);
+            else
+                tables.add(tableId);
+            return next;
+        }
+    }
 }
@@ -66,4 +66,13 @@ public enum StreamOperation
     {
         return this.requiresViewBuild;
     }
+
+    /**
+     * Whether the files received by the sessions of this operation are kept even if they fail, and not requested
+     * again when the operation is resumed
+     */
+    public boolean isResumable()
+    {
+        return this == BOOTSTRAP;
+    }
 }
@@ -19,7 +19,10 @@ package org.apache.cassandra.streaming;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -33,6 +36,7 @@ import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.compaction.OperationType;
 import org.apache.cassandra.db.filter.ColumnFilter;
@@ -41,17 +45,23 @@ import org.apache.cassandra.db.partitions.PartitionUpdate;
 import org.apache.cassandra.db.rows.UnfilteredRowIterator;
 import org.apache.cassandra.db.view.View;
 import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.ISSTableScanner;
 import org.apache.cassandra.io.sstable.SSTableMultiWriter;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.schema.TableId;
+import org.apache.cassandra.streaming.messages.FileMessageHeader;
 import org.apache.cassandra.utils.JVMStabilityInspector;
 import org.apache.cassandra.utils.Throwables;
 import org.apache.cassandra.utils.concurrent.Refs;
 
 /**
  * Task that manages receiving files for the session for certain ColumnFamily.
+ *
+ * For {@link StreamOperation#isResumable() resumable} operations, each file is committed and recorded in
+ * {@link SystemKeyspace#STREAM_CHECKPOINTS} as soon as it is received, and the files received are added to the table
+ * even if the session fails, so that resuming the operation doesn't request them again.
  */
 public class StreamReceiveTask extends StreamTask
 {
@@ -75,6 +85,11 @@ public class StreamReceiveTask extends StreamTask
 
     private int remoteSSTablesReceived = 0;
 
+    // the ranges requested for the table if its files are checkpointed, null otherwise
+    private final Collection<Range<Token>> checkpointedRanges;
+    // the transaction of each checkpointed file being received, by sequence number
+    private final Map<Integer, LifecycleTransaction> fileTransactions = new HashMap<>();
+
     public StreamReceiveTask(StreamSession session, TableId tableId, int totalFiles, long totalSize)
     {
         super(session, tableId);
@@ -84,14 +99,22 @@ public class StreamReceiveTask extends StreamTask
         // this should be revisited at a later date, so that LifecycleTransaction manages all sstable state changes
         this.txn = LifecycleTransaction.offline(OperationType.STREAM);
         this.sstables = new ArrayList<>(totalFiles);
+
+        ColumnFamilyStore cfs = ColumnFamilyStore.getIfExists(tableId);
+        StreamOperation operation = session.streamOperation();
+        Collection<Range<Token>> ranges = cfs == null || operation == null || !operation.isResumable() || OnCompletionRunnable.requiresWritePath(session, cfs)
+                                          ? Collections.emptySet()
+                                          : session.requestedRanges(cfs.keyspace.getName(), cfs.getTableName());
+        this.checkpointedRanges = ranges.isEmpty() ? null : ranges;
     }
 
     /**
      * Process received file.
      *
      * @param sstable SSTable file received.
+     * @param header the header of the file
      */
-    public synchronized void received(SSTableMultiWriter sstable)
+    public synchronized void received(SSTableMultiWriter sstable, FileMessageHeader header)
     {
         Preconditions.checkState(!session.isPreview(), "we should never receive sstables when previewing");
 
@@ -115,7 +138,20 @@ public class StreamReceiveTask extends StreamTask
         {
             Throwables.maybeFail(sstable.abort(t));
         }
-        txn.update(finished, false);
+        LifecycleTransaction fileTxn = fileTransactions.remove(header.sequenceNumber);
+        if (fileTxn == null)
+        {
+            txn.update(finished, false);
+        }
+        else
+        {
+            fileTxn.update(finished, false);
+            fileTxn.finish();
+            ColumnFamilyStore cfs = ColumnFamilyStore.getIfExists(tableId);
+            if (cfs != null)
+                SystemKeyspace.updateStreamCheckpoint(session.streamOperation(), session.peer, cfs.keyspace.getName(), cfs.getTableName(),
+                                                      checkpointedRanges, header.sstableGeneration, header.size());
+        }
         sstables.addAll(finished);
 
         if (remoteSSTablesReceived == totalFiles)
@@ -135,11 +171,19 @@ public class StreamReceiveTask extends StreamTask
         return totalSize;
     }
 
-    public synchronized LifecycleTransaction getTransaction()
+    /**
+     * @param sequenceNumber the sequence number of the file to write with the transaction
+     */
+    public synchronized LifecycleTransaction getTransaction(int sequenceNumber)
     {
         if (done)
             throw new RuntimeException(String.format("Stream receive task %s of cf %s already finished.", session.planId(), tableId));
-        return txn;
+        if (checkpointedRanges == null)
+            return txn;
+
+        LifecycleTransaction fileTxn = LifecycleTransaction.offline(OperationType.STREAM);
+        fileTransactions.put(sequenceNumber, fileTxn);
+        return fileTxn;
     }
 
     private static class OnCompletionRunnable implements Runnable
@@ -160,16 +204,16 @@ public class StreamReceiveTask extends StreamTask
          * For CDC-enabled tables, we want to ensure that the mutations are run through the CommitLog so they
          * can be archived by the CDC process on discard.
          */
-        private boolean requiresWritePath(ColumnFamilyStore cfs) {
-            return hasCDC(cfs) || (task.session.streamOperation().requiresViewBuild() && hasViews(cfs));
+        private static boolean requiresWritePath(StreamSession session, ColumnFamilyStore cfs) {
+            return hasCDC(cfs) || (session.streamOperation().requiresViewBuild() && hasViews(cfs));
         }
 
-        private boolean hasViews(ColumnFamilyStore cfs)
+        private static boolean hasViews(ColumnFamilyStore cfs)
         {
             return !Iterables.isEmpty(View.findAll(cfs.metadata.keyspace, cfs.getTableName()));
         }
 
-        private boolean hasCDC(ColumnFamilyStore cfs)
+        private static boolean hasCDC(ColumnFamilyStore cfs)
         {
             return cfs.metadata().params.cdc;
         }
@@ -218,7 +262,7 @@ public class StreamReceiveTask extends StreamTask
                     return;
                 }
 
-                requiresWritePath = requiresWritePath(cfs);
+                requiresWritePath = requiresWritePath(task.session, cfs);
                 Collection<SSTableReader> readers = task.sstables;
 
                 try (Refs<SSTableReader> refs = Refs.ref(readers))
@@ -230,36 +274,7 @@ public class StreamReceiveTask extends StreamTask
                     else
                     {
                         task.finishTransaction();
-
-                        // add sstables and build secondary indexes
-                        cfs.addSSTables(readers);
-                        cfs.indexManager.buildAllIndexesBlocking(readers);
-
-                        //invalidate row and counter cache
-                        if (cfs.isRowCacheEnabled() || cfs.metadata().isCounter())
-                        {
-                            List<Bounds<Token>> boundsToInvalidate = new ArrayList<>(readers.size());
-                            readers.forEach(sstable -> boundsToInvalidate.add(new Bounds<Token>(sstable.first.getToken(), sstable.last.getToken())));
-                            Set<Bounds<Token>> nonOverlappingBounds = Bounds.getNonOverlappingBounds(boundsToInvalidate);
-
-                            if (cfs.isRowCacheEnabled())
-                            {
-                                int invalidatedKeys = cfs.invalidateRowCache(nonOverlappingBounds);
-                                if (invalidatedKeys > 0)
-                                    logger.debug("[Stream #{}] Invalidated {} row cache entries on table {}.{} after stream " +
-                                                 "receive task completed.", task.session.planId(), invalidatedKeys,
-                                                 cfs.keyspace.getName(), cfs.getTableName());
-                            }
-
-                            if (cfs.metadata().isCounter())
-                            {
-                                int invalidatedKeys = cfs.invalidateCounterCache(nonOverlappingBounds);
-                                if (invalidatedKeys > 0)
-                                    logger.debug("[Stream #{}] Invalidated {} counter cache entries on table {}.{} after stream " +
-                                                 "receive task completed.", task.session.planId(), invalidatedKeys,
-                                                 cfs.keyspace.getName(), cfs.getTableName());
-                            }
-                        }
+                        addSSTables(task.session, cfs, readers);
                     }
                 }
                 task.session.taskCompleted(task);
@@ -283,11 +298,46 @@ public class StreamReceiveTask extends StreamTask
         }
     }
 
+    private static void addSSTables(StreamSession session, ColumnFamilyStore cfs, Collection<SSTableReader> readers)
+    {
+        // add sstables and build secondary indexes
+        cfs.addSSTables(readers);
+        cfs.indexManager.buildAllIndexesBlocking(readers);
+
+        //invalidate row and counter cache
+        if (cfs.isRowCacheEnabled() || cfs.metadata().isCounter())
+        {
+            List<Bounds<Token>> boundsToInvalidate = new ArrayList<>(readers.size());
+            readers.forEach(sstable -> boundsToInvalidate.add(new Bounds<Token>(sstable.first.getToken(), sstable.last.getToken())));
+            Set<Bounds<Token>> nonOverlappingBounds = Bounds.getNonOverlappingBounds(boundsToInvalidate);
+
+            if (cfs.isRowCacheEnabled())
+            {
+                int invalidatedKeys = cfs.invalidateRowCache(nonOverlappingBounds);
+                if (invalidatedKeys > 0)
+                    logger.debug("[Stream #{}] Invalidated {} row cache entries on table {}.{} after stream " +
+                                 "receive task completed.", session.planId(), invalidatedKeys,
+                                 cfs.keyspace.getName(), cfs.getTableName());
+            }
+
+            if (cfs.metadata().isCounter())
+            {
+                int invalidatedKeys = cfs.invalidateCounterCache(nonOverlappingBounds);
+                if (invalidatedKeys > 0)
+                    logger.debug("[Stream #{}] Invalidated {} counter cache entries on table {}.{} after stream " +
+                                 "receive task completed.", session.planId(), invalidatedKeys,
+                                 cfs.keyspace.getName(), cfs.getTableName());
+            }
+        }
+    }
+
     /**
      * Abort this task.
      * If the task already received all files and
      * {@link org.apache.cassandra.streaming.StreamReceiveTask.OnCompletionRunnable} task is submitted,
      * then task cannot be aborted.
+     *
+     * The files already received are kept if they are checkpointed.
      */
     public synchronized void abort()
     {
@@ -296,9 +346,41 @@ public class StreamReceiveTask extends StreamTask
 
         done = true;
         abortTransaction();
+        for (LifecycleTransaction fileTxn : fileTransactions.values())
+            fileTxn.abort();
+        fileTransactions.clear();
+        if (checkpointedRanges != null && !sstables.isEmpty())
+        {
+            Collection<SSTableReader> received = new ArrayList<>(sstables);
+            executor.submit(() -> keepCheckpointed(received));
+        }
         sstables.clear();
     }
 
+    private void keepCheckpointed(Collection<SSTableReader> readers)
+    {
+        ColumnFamilyStore cfs = ColumnFamilyStore.getIfExists(tableId);
+        if (cfs == null)
+        {
+            // schema was dropped during streaming
+            readers.forEach(sstable -> sstable.selfRef().release());
+            return;
+        }
+
+        logger.info("[Stream #{}] Keeping the {} sstables received from {} for table {}.{} before the session failed",
+                    session.planId(), readers.size(), session.peer, cfs.keyspace.getName(), cfs.getTableName());
+        try (Refs<SSTableReader> refs = Refs.ref(readers))
+        {
+            addSSTables(session, cfs, readers);
+        }
+        catch (Throwable t)
+        {
+            JVMStabilityInspector.inspectThrowable(t);
+            logger.warn("[Stream #{}] Failed to add the sstables received for table {}.{}; they will be loaded on restart",
+                        session.planId(), cfs.keyspace.getName(), cfs.getTableName(), t);
+        }
+    }
+
     private synchronized void abortTransaction()
     {
         txn.abort();
@@ -20,8 +20,11 @@ package org.apache.cassandra.streaming;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.cassandra.db.TypeSizes;
 import org.apache.cassandra.dht.Range;
@@ -38,11 +41,23 @@ public class StreamRequest
     public final String keyspace;
     public final Collection<Range<Token>> ranges;
     public final Collection<String> columnFamilies = new HashSet<>();
+    /**
+     * For each table, the sstables of the peer that were already received for these same ranges, by a previous attempt
+     * of a resumed operation, with the number of bytes streamed by their generation. They are not sent again.
+     */
+    public final Map<String, Map<Integer, Long>> receivedFiles;
+
     public StreamRequest(String keyspace, Collection<Range<Token>> ranges, Collection<String> columnFamilies)
+    {
+        this(keyspace, ranges, columnFamilies, Collections.emptyMap());
+    }
+
+    public StreamRequest(String keyspace, Collection<Range<Token>> ranges, Collection<String> columnFamilies, Map<String, Map<Integer, Long>> receivedFiles)
     {
         this.keyspace = keyspace;
         this.ranges = ranges;
         this.columnFamilies.addAll(columnFamilies);
+        this.receivedFiles = receivedFiles;
     }
 
     public static class StreamRequestSerializer implements IVersionedSerializer<StreamRequest>
@@ -60,6 +75,17 @@ public class StreamRequest
             out.writeInt(request.columnFamilies.size());
             for (String cf : request.columnFamilies)
                 out.writeUTF(cf);
+            out.writeInt(request.receivedFiles.size());
+            for (Map.Entry<String, Map<Integer, Long>> entry : request.receivedFiles.entrySet())
+            {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<Integer, Long> file : entry.getValue().entrySet())
+                {
+                    out.writeInt(file.getKey());
+                    out.writeLong(file.getValue());
+                }
+            }
         }
 
         public StreamRequest deserialize(DataInputPlus in, int version) throws IOException
@@ -77,7 +103,18 @@ public class StreamRequest
             List<String> columnFamilies = new ArrayList<>(cfCount);
             for (int i = 0; i < cfCount; i++)
                 columnFamilies.add(in.readUTF());
-            return new StreamRequest(keyspace, ranges, columnFamilies);
+            int tableCount = in.readInt();
+            Map<String, Map<Integer, Long>> receivedFiles = new HashMap<>(tableCount);
+            for (int i = 0; i < tableCount; i++)
+            {
+                String table = in.readUTF();
+                int fileCount = in.readInt();
+                Map<Integer, Long> files = new HashMap<>(fileCount);
+                for (int j = 0; j < fileCount; j++)
+                    files.put(in.readInt(), in.readLong());
+                receivedFiles.put(table, files);
+            }
+            return new StreamRequest(keyspace, ranges, columnFamilies, receivedFiles);
         }
 
         public long serializedSize(StreamRequest request, int version)
@@ -92,6 +129,13 @@ public class StreamRequest
             size += TypeSizes.sizeof(request.columnFamilies.size());
             for (String cf : request.columnFamilies)
                 size += TypeSizes.sizeof(cf);
+            size += TypeSizes.sizeof(request.receivedFiles.size());
+            for (Map.Entry<String, Map<Integer, Long>> entry : request.receivedFiles.entrySet())
+            {
+                size += TypeSizes.sizeof(entry.getKey());
+                size += TypeSizes.sizeof(entry.getValue().size());
+                size += entry.getValue().size() * (TypeSizes.sizeof(0) + TypeSizes.sizeof(0L));
+            }
             return size;
         }
     }
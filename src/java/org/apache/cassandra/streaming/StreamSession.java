@@ -43,6 +43,7 @@ import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.gms.*;
@@ -179,6 +180,8 @@ public class StreamSession implements IEndpointStateChangeSubscriber
 
     private volatile State state = State.INITIALIZED;
     private volatile boolean completeSent = false;
+    // released once we know what we'll receive, which files can't be received before
+    private final CountDownLatch prepared = new CountDownLatch(1);
 
     /**
      * Create new streaming session with the peer.
@@ -236,10 +239,10 @@ public class StreamSession implements IEndpointStateChangeSubscriber
         return previewKind;
     }
 
-    public LifecycleTransaction getTransaction(TableId tableId)
+    public LifecycleTransaction getTransaction(TableId tableId, int sequenceNumber)
     {
         assert receivers.containsKey(tableId);
-        return receivers.get(tableId).getTransaction();
+        return receivers.get(tableId).getTransaction(sequenceNumber);
     }
 
     private boolean isKeepAliveSupported()
@@ -307,6 +310,44 @@ public class StreamSession implements IEndpointStateChangeSubscriber
         requests.add(new StreamRequest(keyspace, ranges, columnFamilies));
     }
 
+    /**
+     * @return the ranges of the table requested to the peer, empty if none were
+     */
+    Collection<Range<Token>> requestedRanges(String keyspace, String table)
+    {
+        Set<Range<Token>> ranges = new HashSet<>();
+        for (StreamRequest request : requests)
+        {
+            if (request.keyspace.equals(keyspace) && (request.columnFamilies.isEmpty() || request.columnFamilies.contains(table)))
+                ranges.addAll(request.ranges);
+        }
+        return ranges;
+    }
+
+    /**
+     * Adds to a request of a resumable operation the files of the peer received by its previous attempts.
+     */
+    private StreamRequest withReceivedFiles(StreamRequest request)
+    {
+        if (!streamOperation().isResumable())
+            return request;
+
+        Set<Range<Token>> ranges = new HashSet<>(request.ranges);
+        Map<String, Map<Integer, Long>> receivedFiles = new HashMap<>();
+        for (Map.Entry<String, Pair<Set<Range<Token>>, Map<Integer, Long>>> entry : SystemKeyspace.getStreamCheckpoints(streamOperation(), peer, request.keyspace, DatabaseDescriptor.getPartitioner()).entrySet())
+        {
+            // the same file streamed for other ranges has other sections
+            if (entry.getValue().left.equals(ranges) && !entry.getValue().right.isEmpty())
+                receivedFiles.put(entry.getKey(), entry.getValue().right);
+        }
+        if (receivedFiles.isEmpty())
+            return request;
+
+        logger.info("[Stream #{}] Resuming the streaming of {} from {}, skipping the files already received for tables {}",
+                    planId(), request.keyspace, peer, receivedFiles.keySet());
+        return new StreamRequest(request.keyspace, request.ranges, request.columnFamilies, receivedFiles);
+    }
+
     /**
      * Set up transfer for specific keyspace/ranges/CFs
      *
@@ -318,6 +359,15 @@ public class StreamSession implements IEndpointStateChangeSubscriber
      * @param flushTables flush tables?
      */
     public synchronized void addTransferRanges(String keyspace, Collection<Range<Token>> ranges, Collection<String> columnFamilies, boolean flushTables)
+    {
+        addTransferRanges(keyspace, ranges, columnFamilies, flushTables, Collections.emptyMap());
+    }
+
+    /**
+     * @param receivedFiles for each table, the size of the sstables the peer already received for these ranges by
+     * generation, which are not sent again
+     */
+    public synchronized void addTransferRanges(String keyspace, Collection<Range<Token>> ranges, Collection<String> columnFamilies, boolean flushTables, Map<String, Map<Integer, Long>> receivedFiles)
     {
         failIfFinished();
         Collection<ColumnFamilyStore> stores = getColumnFamilyStores(keyspace, columnFamilies);
@@ -328,6 +378,8 @@ public class StreamSession implements IEndpointStateChangeSubscriber
         List<SSTableStreamingSections> sections = getSSTableSectionsForRanges(normalizedRanges, stores, pendingRepair, previewKind);
         try
         {
+            if (!receivedFiles.isEmpty())
+                skipReceivedFiles(sections, receivedFiles);
             addTransferFiles(sections);
             Set<Range<Token>> toBeUpdated = transferredRangesPerKeyspace.get(keyspace);
             if (toBeUpdated == null)
@@ -344,6 +396,37 @@ public class StreamSession implements IEndpointStateChangeSubscriber
         }
     }
 
+    private void skipReceivedFiles(List<SSTableStreamingSections> sections, Map<String, Map<Integer, Long>> receivedFiles)
+    {
+        Iterator<SSTableStreamingSections> iter = sections.iterator();
+        while (iter.hasNext())
+        {
+            SSTableStreamingSections details = iter.next();
+            SSTableReader sstable = details.ref.get();
+            Map<Integer, Long> received = receivedFiles.get(sstable.metadata().name);
+            Long size = received == null ? null : received.get(sstable.descriptor.generation);
+            // generations may be reused by a restarted node, the same one with the same size is the same file
+            if (size != null && size == transferSize(sstable, details.sections))
+            {
+                logger.debug("[Stream #{}] Not sending {}, already received by {}", planId(), sstable.getFilename(), peer);
+                details.ref.release();
+                iter.remove();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static long transferSize(SSTableReader sstable, List<Pair<Long, Long>> sections)
+    {
+        if (sstable.compression)
+            return sstable.getCompressionMetadata().getTotalSizeForSections(sections);
+
+        long size = 0;
+        for (Pair<Long, Long> section : sections)
+            size += section.right - section.left;
+        return size;
+    }
+
     private void failIfFinished()
     {
         if (state() == State.COMPLETE || state() == State.FAILED)
@@ -563,7 +646,8 @@ public class StreamSession implements IEndpointStateChangeSubscriber
         // send prepare message
         state(State.PREPARING);
         PrepareMessage prepare = new PrepareMessage();
-        prepare.requests.addAll(requests);
+        for (StreamRequest request : requests)
+            prepare.requests.add(withReceivedFiles(request));
         for (StreamTransferTask task : transfers.values())
             prepare.summaries.add(task.getSummary());
         handler.sendMessage(prepare);
@@ -622,9 +706,10 @@ public class StreamSession implements IEndpointStateChangeSubscriber
         // prepare tasks
         state(State.PREPARING);
         for (StreamRequest request : requests)
-            addTransferRanges(request.keyspace, request.ranges, request.columnFamilies, true); // always flush on stream request
+            addTransferRanges(request.keyspace, request.ranges, request.columnFamilies, true, request.receivedFiles); // always flush on stream request
         for (StreamSummary summary : summaries)
             prepareReceiving(summary);
+        prepared.countDown();
 
         // send back prepare message if prepare message contains stream request
         if (!requests.isEmpty())
@@ -646,6 +731,17 @@ public class StreamSession implements IEndpointStateChangeSubscriber
             startStreamingFiles();
     }
 
+    /**
+     * Waits for this session to be ready to receive files, which they may be sent over another connection than
+     * the {@link PrepareMessage} announcing them.
+     *
+     * @return true if the session is ready, false if the timeout elapsed first
+     */
+    public boolean awaitPrepared(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return prepared.await(timeout, unit);
+    }
+
     /**
      * Call back after sending FileMessageHeader.
      *
@@ -681,7 +777,7 @@ public class StreamSession implements IEndpointStateChangeSubscriber
         metrics.incomingBytes.inc(headerSize);
         // send back file received message
         handler.sendMessage(new ReceivedMessage(message.header.tableId, message.header.sequenceNumber));
-        receivers.get(message.header.tableId).received(message.sstable);
+        receivers.get(message.header.tableId).received(message.sstable, message.header);
     }
 
     public void progress(String filename, ProgressInfo.Direction direction, long bytes, long total)
@@ -20,6 +20,10 @@ package org.apache.cassandra.streaming.compress;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -32,15 +36,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.util.concurrent.FastThreadLocalThread;
+import org.apache.cassandra.io.compress.CompressedSequentialWriter;
 import org.apache.cassandra.io.compress.CompressionMetadata;
+import org.apache.cassandra.schema.CompressionParams;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.ChecksumType;
 import org.apache.cassandra.utils.WrappedRunnable;
 
 /**
  * InputStream which reads data from underlining source with given {@link CompressionInfo}.
+ *
+ * If asked to, it keeps the last chunks it read, so that the writer of the data read can write them as they are if it
+ * writes the same data at the same place in its chunks.
  */
-public class CompressedInputStream extends InputStream
+public class CompressedInputStream extends InputStream implements CompressedSequentialWriter.PrecompressedChunks
 {
+    // a row is written after it was entirely read, so this is enough to write rows up to 8 chunks as they are
+    private static final int MAX_RETAINED_CHUNKS = 8;
 
     private static final Logger logger = LoggerFactory.getLogger(CompressedInputStream.class);
 
@@ -77,6 +89,9 @@ public class CompressedInputStream extends InputStream
 
     private long totalCompressedBytesRead;
 
+    // the last chunks read, oldest first, as pairs of compressed and uncompressed data; null if they aren't retained
+    private Deque<RetainedChunk> retainedChunks;
+
     /**
      * @param source Input source to read compressed data from
      * @param info Compression info
@@ -93,6 +108,36 @@ public class CompressedInputStream extends InputStream
         new FastThreadLocalThread(new Reader(source, info, dataBuffer)).start();
     }
 
+    /**
+     * Keeps the chunks read from now on for {@link #compressed(ByteBuffer)}.
+     */
+    public void retainChunks()
+    {
+        retainedChunks = new ArrayDeque<>(MAX_RETAINED_CHUNKS);
+    }
+
+    public CompressionParams parameters()
+    {
+        return info.parameters;
+    }
+
+    public ByteBuffer compressed(ByteBuffer uncompressed)
+    {
+        if (retainedChunks == null)
+            return null;
+
+        for (RetainedChunk chunk : retainedChunks)
+        {
+            if (ByteBufferUtil.compareUnsigned(chunk.uncompressed, uncompressed) == 0)
+            {
+                // the chunks are written in order, so neither this one nor the previous ones will be asked for again
+                while (retainedChunks.removeFirst() != chunk);
+                return chunk.compressed;
+            }
+        }
+        return null;
+    }
+
     private void decompressNextChunk() throws IOException
     {
         if (readException != null)
@@ -180,6 +225,14 @@ public class CompressedInputStream extends InputStream
                 throw new IOException("CRC unmatched");
         }
 
+        if (retainedChunks != null)
+        {
+            if (retainedChunks.size() == MAX_RETAINED_CHUNKS)
+                retainedChunks.removeFirst();
+            retainedChunks.addLast(new RetainedChunk(ByteBuffer.wrap(compressed, 0, compressed.length - checksumBytes.length),
+                                                     ByteBuffer.wrap(Arrays.copyOf(buffer, validBufferBytes))));
+        }
+
         // buffer offset is always aligned
         bufferOffset = current & ~(buffer.length - 1);
     }
@@ -189,6 +242,18 @@ public class CompressedInputStream extends InputStream
         return totalCompressedBytesRead;
     }
 
+    private static class RetainedChunk
+    {
+        final ByteBuffer compressed;
+        final ByteBuffer uncompressed;
+
+        RetainedChunk(ByteBuffer compressed, ByteBuffer uncompressed)
+        {
+            this.compressed = compressed;
+            this.uncompressed = uncompressed;
+        }
+    }
+
     class Reader extends WrappedRunnable
     {
         private final InputStream source;
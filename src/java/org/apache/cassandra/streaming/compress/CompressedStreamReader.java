@@ -78,6 +78,10 @@ public class CompressedStreamReader extends StreamReader
 
         CompressedInputStream cis = new CompressedInputStream(Channels.newInputStream(channel), compressionInfo,
                                                               ChecksumType.CRC32, cfs::getCrcCheckChance);
+        // chunks compressed like ours can be written as they are if they end up at the same place in our file
+        boolean sameCompression = compressionInfo.parameters.equals(cfs.metadata().params.compression);
+        if (sameCompression)
+            cis.retainChunks();
         TrackedInputStream in = new TrackedInputStream(cis);
 
         StreamDeserializer deserializer = new StreamDeserializer(cfs.metadata(), in, inputVersion, getHeader(cfs.metadata()));
@@ -85,6 +89,8 @@ public class CompressedStreamReader extends StreamReader
         try
         {
             writer = createWriter(cfs, totalSize, repairedAt, pendingRepair, format);
+            if (sameCompression)
+                writer.usePrecompressedChunks(cis);
             String filename = writer.getFilename();
             int sectionIdx = 0;
             for (Pair<Long, Long> section : sections)
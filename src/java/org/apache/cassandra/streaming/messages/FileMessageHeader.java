@@ -61,6 +61,8 @@ public class FileMessageHeader
     public final UUID pendingRepair;
     public final int sstableLevel;
     public final SerializationHeader.Component header;
+    /** Generation of the SSTable on the sending node, to recognize it if the stream is resumed */
+    public final int sstableGeneration;
 
     /* cached size value */
     private transient final long size;
@@ -75,7 +77,8 @@ public class FileMessageHeader
                              long repairedAt,
                              UUID pendingRepair,
                              int sstableLevel,
-                             SerializationHeader.Component header)
+                             SerializationHeader.Component header,
+                             int sstableGeneration)
     {
         this.tableId = tableId;
         this.sequenceNumber = sequenceNumber;
@@ -89,6 +92,7 @@ public class FileMessageHeader
         this.pendingRepair = pendingRepair;
         this.sstableLevel = sstableLevel;
         this.header = header;
+        this.sstableGeneration = sstableGeneration;
         this.size = calculateSize();
     }
 
@@ -102,7 +106,8 @@ public class FileMessageHeader
                              long repairedAt,
                              UUID pendingRepair,
                              int sstableLevel,
-                             SerializationHeader.Component header)
+                             SerializationHeader.Component header,
+                             int sstableGeneration)
     {
         this.tableId = tableId;
         this.sequenceNumber = sequenceNumber;
@@ -116,6 +121,7 @@ public class FileMessageHeader
         this.pendingRepair = pendingRepair;
         this.sstableLevel = sstableLevel;
         this.header = header;
+        this.sstableGeneration = sstableGeneration;
         this.size = calculateSize();
     }
 
@@ -167,6 +173,7 @@ public class FileMessageHeader
         sb.append(", repairedAt: ").append(repairedAt);
         sb.append(", pendingRepair: ").append(pendingRepair);
         sb.append(", level: ").append(sstableLevel);
+        sb.append(", generation: ").append(sstableGeneration);
         sb.append(')');
         return sb.toString();
     }
@@ -218,6 +225,7 @@ public class FileMessageHeader
             out.writeInt(header.sstableLevel);
 
             SerializationHeader.serializer.serialize(header.version, header.header, out);
+            out.writeInt(header.sstableGeneration);
             return compressionInfo;
         }
 
@@ -238,8 +246,9 @@ public class FileMessageHeader
             UUID pendingRepair = in.readBoolean() ? UUIDSerializer.serializer.deserialize(in, version) : null;
             int sstableLevel = in.readInt();
             SerializationHeader.Component header =  SerializationHeader.serializer.deserialize(sstableVersion, in);
+            int sstableGeneration = in.readInt();
 
-            return new FileMessageHeader(tableId, sequenceNumber, sstableVersion, format, estimatedKeys, sections, compressionInfo, repairedAt, pendingRepair, sstableLevel, header);
+            return new FileMessageHeader(tableId, sequenceNumber, sstableVersion, format, estimatedKeys, sections, compressionInfo, repairedAt, pendingRepair, sstableLevel, header, sstableGeneration);
         }
 
         public long serializedSize(FileMessageHeader header, int version)
@@ -263,6 +272,7 @@ public class FileMessageHeader
             size += TypeSizes.sizeof(header.sstableLevel);
 
             size += SerializationHeader.serializer.serializedSize(header.version, header.header);
+            size += TypeSizes.sizeof(header.sstableGeneration);
 
             return size;
         }
@@ -82,7 +82,8 @@ public class OutgoingFileMessage extends StreamMessage
                                             sstable.getRepairedAt(),
                                             sstable.getPendingRepair(),
                                             keepSSTableLevel ? sstable.getSSTableLevel() : 0,
-                                            sstable.header.toComponent());
+                                            sstable.header.toComponent(),
+                                            sstable.descriptor.generation);
     }
 
     public synchronized void serialize(DataOutputStreamPlus out, int version, StreamSession session) throws IOException
@@ -52,8 +52,10 @@ public class StreamInitMessage
     public final boolean keepSSTableLevel;
     public final UUID pendingRepair;
     public final PreviewKind previewKind;
+    // 0 for the connection carrying all messages, or the index of an additional connection that only carries files
+    public final int channel;
 
-    public StreamInitMessage(InetAddress from, int sessionIndex, UUID planId, StreamOperation streamOperation, boolean isForOutgoing, boolean keepSSTableLevel, UUID pendingRepair, PreviewKind previewKind)
+    public StreamInitMessage(InetAddress from, int sessionIndex, UUID planId, StreamOperation streamOperation, boolean isForOutgoing, boolean keepSSTableLevel, UUID pendingRepair, PreviewKind previewKind, int channel)
     {
         this.from = from;
         this.sessionIndex = sessionIndex;
@@ -63,6 +65,7 @@ public class StreamInitMessage
         this.keepSSTableLevel = keepSSTableLevel;
         this.pendingRepair = pendingRepair;
         this.previewKind = previewKind;
+        this.channel = channel;
     }
 
     /**
@@ -124,6 +127,7 @@ public class StreamInitMessage
                 UUIDSerializer.serializer.serialize(message.pendingRepair, out, MessagingService.current_version);
             }
             out.writeInt(message.previewKind.getSerializationVal());
+            out.writeInt(message.channel);
         }
 
         public StreamInitMessage deserialize(DataInputPlus in, int version) throws IOException
@@ -137,7 +141,8 @@ public class StreamInitMessage
 
             UUID pendingRepair = in.readBoolean() ? UUIDSerializer.serializer.deserialize(in, version) : null;
             PreviewKind previewKind = PreviewKind.deserialize(in.readInt());
-            return new StreamInitMessage(from, sessionIndex, planId, StreamOperation.fromString(description), sentByInitiator, keepSSTableLevel, pendingRepair, previewKind);
+            int channel = in.readInt();
+            return new StreamInitMessage(from, sessionIndex, planId, StreamOperation.fromString(description), sentByInitiator, keepSSTableLevel, pendingRepair, previewKind, channel);
         }
 
         public long serializedSize(StreamInitMessage message, int version)
@@ -154,6 +159,7 @@ public class StreamInitMessage
                 size += UUIDSerializer.serializer.serializedSize(message.pendingRepair, MessagingService.current_version);
             }
             size += TypeSizes.sizeof(message.previewKind.getSerializationVal());
+            size += TypeSizes.sizeof(message.channel);
             return size;
         }
     }
@@ -700,6 +700,16 @@ public class NodeProbe implements AutoCloseable
         ssProxy.setIncrementalBackupsEnabled(enabled);
     }
 
+    public void setAdaptiveThroughputEnabled(boolean enabled)
+    {
+        ssProxy.setAdaptiveThroughputEnabled(enabled);
+    }
+
+    public boolean isAdaptiveThroughputEnabled()
+    {
+        return ssProxy.isAdaptiveThroughputEnabled();
+    }
+
     public boolean isIncrementalBackupsEnabled()
     {
         return ssProxy.isIncrementalBackupsEnabled();
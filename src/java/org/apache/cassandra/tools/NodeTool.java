@@ -128,6 +128,8 @@ public class NodeTool
                 RangeKeySample.class,
                 EnableBackup.class,
                 DisableBackup.class,
+                EnableAdaptiveThroughput.class,
+                DisableAdaptiveThroughput.class,
                 ResetLocalSchema.class,
                 ReloadTriggers.class,
                 SetCacheKeysToSave.class,
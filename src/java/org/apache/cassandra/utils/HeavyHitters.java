@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A lock-free, always-on tracker of the heaviest keys of a stream, cheap enough to be fed on the read and
+ * write paths (contrarily to {@link TopKSampler} which is only enabled on demand).
+ * <p>
+ * In {@link #frequencies frequency} mode, each key's weight is accumulated in a count-min sketch, and the keys
+ * whose estimated count is among the highest are kept as candidates. Counts are exponentially decayed (halved)
+ * every decay interval, so that candidates reflect recent activity and a key that stopped being hot eventually
+ * gets replaced. In {@link #maxima maxima} mode, there is no sketch: candidates are simply the keys with the highest
+ * values offered, and a candidate that wasn't offered again for a whole decay interval is dropped.
+ * <p>
+ * Adding a key that isn't hot costs a hash, {@code DEPTH} atomic increments and a volatile read; adding one that is
+ * updates its candidate slot in place. Only a new candidate allocates. Results are approximate: the sketch may
+ * overestimate counts, and concurrent updates may be lost or, while a slot changes key, counted for the new key.
+ */
+public class HeavyHitters
+{
+    private static final int DEPTH = 4;
+
+    private final int width;
+    private final AtomicLongArray sketch;
+
+    // the candidate key, value and last decay interval it was added in, of each slot
+    private final AtomicReferenceArray<ByteBuffer> keys;
+    private final AtomicLongArray values;
+    private final AtomicLongArray intervals;
+    // the lowest value tracked once all candidate slots are taken, or 0; values below it are ignored
+    private volatile long threshold;
+
+    private final long decayIntervalNanos;
+    private final AtomicLong nextDecayAt;
+    // the number of decay intervals elapsed
+    private volatile long interval;
+
+    private HeavyHitters(int capacity, int width, long decayIntervalNanos)
+    {
+        this.width = width;
+        this.sketch = width > 0 ? new AtomicLongArray(DEPTH * width) : null;
+        this.keys = new AtomicReferenceArray<>(capacity);
+        this.values = new AtomicLongArray(capacity);
+        this.intervals = new AtomicLongArray(capacity);
+        this.decayIntervalNanos = decayIntervalNanos;
+        this.nextDecayAt = new AtomicLong(System.nanoTime() + decayIntervalNanos);
+    }
+
+    /**
+     * Creates a tracker of the most frequent keys.
+     *
+     * @param capacity the number of keys to track.
+     * @param width the width of the count-min sketch, rounded up to a power of 2. The error on estimated counts is
+     * in the order of the total count divided by the width.
+     * @param decayInterval the interval after which counts are halved.
+     */
+    public static HeavyHitters frequencies(int capacity, int width, long decayInterval, TimeUnit unit)
+    {
+        assert capacity > 0 && width > 0 && decayInterval > 0;
+        int powerOfTwoWidth = Integer.bitCount(width) == 1 ? width : Integer.highestOneBit(width) << 1;
+        return new HeavyHitters(capacity, powerOfTwoWidth, unit.toNanos(decayInterval));
+    }
+
+    /**
+     * Creates a tracker of the keys with the highest values.
+     *
+     * @param capacity the number of keys to track.
+     * @param decayInterval the interval after which keys that weren't added again since the previous one are dropped.
+     */
+    public static HeavyHitters maxima(int capacity, long decayInterval, TimeUnit unit)
+    {
+        assert capacity > 0 && decayInterval > 0;
+        return new HeavyHitters(capacity, 0, unit.toNanos(decayInterval));
+    }
+
+    /**
+     * Records {@code weight} occurrences of {@code key} in frequency mode, or a value of {@code weight} for
+     * {@code key} in maxima mode.
+     */
+    public void add(ByteBuffer key, long weight)
+    {
+        maybeDecay();
+        if (sketch == null)
+        {
+            offer(key, weight);
+            return;
+        }
+
+        long hash = MurmurHash.hash2_64(key, key.position(), key.remaining(), 0);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++)
+        {
+            int index = i * width + ((h1 + i * h2) & (width - 1));
+            estimate = Math.min(estimate, sketch.addAndGet(index, weight));
+        }
+        offer(key, estimate);
+    }
+
+    private void offer(ByteBuffer key, long value)
+    {
+        if (value < threshold)
+            return;
+
+        // the slot to replace if the key isn't tracked yet: an empty one, or the one with the lowest value
+        int victim = -1;
+        ByteBuffer victimKey = null;
+        long victimValue = Long.MAX_VALUE;
+        for (int i = 0; i < keys.length(); i++)
+        {
+            ByteBuffer candidate = keys.get(i);
+            if (candidate == null)
+            {
+                if (victimKey != null || victim < 0)
+                {
+                    victim = i;
+                    victimKey = null;
+                    victimValue = 0;
+                }
+                continue;
+            }
+
+            if (candidate.equals(key))
+            {
+                long current;
+                do
+                {
+                    current = values.get(i);
+                }
+                while (current < value && !values.compareAndSet(i, current, value));
+                intervals.set(i, interval);
+                return;
+            }
+
+            long candidateValue = values.get(i);
+            if (victimKey != null && candidateValue < victimValue || victim < 0)
+            {
+                victim = i;
+                victimKey = candidate;
+                victimValue = candidateValue;
+            }
+        }
+
+        if (victimValue < value && keys.compareAndSet(victim, victimKey, ByteBufferUtil.clone(key)))
+        {
+            values.set(victim, value);
+            intervals.set(victim, interval);
+            updateThreshold();
+        }
+    }
+
+    private void updateThreshold()
+    {
+        long lowest = Long.MAX_VALUE;
+        for (int i = 0; i < keys.length(); i++)
+        {
+            if (keys.get(i) == null)
+            {
+                threshold = 0;
+                return;
+            }
+            lowest = Math.min(lowest, values.get(i));
+        }
+        threshold = lowest;
+    }
+
+    private void maybeDecay()
+    {
+        long now = System.nanoTime();
+        long next = nextDecayAt.get();
+        if (now - next < 0)
+            return;
+
+        long elapsed = 1 + (now - next) / decayIntervalNanos;
+        if (!nextDecayAt.compareAndSet(next, next + elapsed * decayIntervalNanos))
+            return;
+
+        decay((int) Math.min(elapsed, 63));
+    }
+
+    /**
+     * Halves the counts {@code halvings} times in frequency mode, or drops the keys that weren't added in the last
+     * interval in maxima mode, and starts a new interval.
+     */
+    @VisibleForTesting
+    void decay(int halvings)
+    {
+        if (sketch != null)
+        {
+            for (int i = 0; i < sketch.length(); i++)
+            {
+                long count;
+                do
+                {
+                    count = sketch.get(i);
+                }
+                while (count != 0 && !sketch.compareAndSet(i, count, count >>> halvings));
+            }
+        }
+
+        long current = interval;
+        for (int i = 0; i < keys.length(); i++)
+        {
+            ByteBuffer key = keys.get(i);
+            if (key == null)
+                continue;
+
+            boolean drop;
+            if (sketch != null)
+            {
+                long value;
+                do
+                {
+                    value = values.get(i);
+                }
+                while (!values.compareAndSet(i, value, value >>> halvings));
+                drop = value >>> halvings == 0;
+            }
+            else
+            {
+                drop = intervals.get(i) < current;
+            }
+
+            if (drop)
+                keys.compareAndSet(i, key, null);
+        }
+        interval = current + 1;
+        updateThreshold();
+    }
+
+    /**
+     * @return the (at most) {@code count} heaviest keys, heaviest first.
+     */
+    public List<Entry> top(int count)
+    {
+        maybeDecay();
+
+        // concurrent insertions may have tracked the same key twice, only keep the highest
+        Map<ByteBuffer, Entry> byKey = new HashMap<>();
+        for (int i = 0; i < keys.length(); i++)
+        {
+            ByteBuffer key = keys.get(i);
+            if (key != null)
+                byKey.merge(key, new Entry(key, values.get(i)), (e1, e2) -> e1.value >= e2.value ? e1 : e2);
+        }
+
+        List<Entry> entries = new ArrayList<>(byKey.values());
+        entries.sort((e1, e2) -> Long.compare(e2.value, e1.value));
+        return entries.size() <= count ? entries : entries.subList(0, count);
+    }
+
+    public static class Entry
+    {
+        public final ByteBuffer key;
+        /** the estimated (decayed) count of the key in frequency mode, its highest recent value in maxima mode */
+        public final long value;
+
+        private Entry(ByteBuffer key, long value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String toString()
+        {
+            return ByteBufferUtil.bytesToHex(key) + '=' + value;
+        }
+    }
+}
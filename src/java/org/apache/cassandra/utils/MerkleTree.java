@@ -19,7 +19,7 @@ package org.apache.cassandra.utils;
 
 import java.io.DataInput;
 import java.io.IOException;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import com.google.common.base.Preconditions;
@@ -37,6 +37,8 @@ import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataInputPlus;
 import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.net.MessagingService;
 
 /**
  * A MerkleTree implemented as a binary tree.
@@ -57,13 +59,16 @@ import org.apache.cassandra.io.util.DataOutputPlus;
  *
  * If two MerkleTrees have the same hashdepth, they represent a perfect tree
  * of the same depth, and can always be compared, regardless of size or splits.
+ *
+ * Once complete, a tree can be moved off-heap (see {@link #moveOffHeap()}), where it is stored as a {@link FlatTree},
+ * after which it can't be modified anymore. Trees received from other nodes are deserialized straight into that
+ * representation, and differences are always computed on it.
  */
-public class MerkleTree implements Serializable
+public class MerkleTree
 {
     private static Logger logger = LoggerFactory.getLogger(MerkleTree.class);
 
     public static final MerkleTreeSerializer serializer = new MerkleTreeSerializer();
-    private static final long serialVersionUID = 2L;
 
     public static final byte RECOMMENDED_DEPTH = Byte.MAX_VALUE - 1;
 
@@ -80,7 +85,11 @@ public class MerkleTree implements Serializable
 
     private long maxsize;
     private long size;
+    // null once the tree has been moved off-heap
     private Hashable root;
+    // the nodes of the tree once moved off-heap, null before that
+    private FlatTree flat;
+    private boolean released;
 
     public static class MerkleTreeSerializer implements IVersionedSerializer<MerkleTree>
     {
@@ -93,7 +102,18 @@ public class MerkleTree implements Serializable
             // full range
             Token.serializer.serialize(mt.fullRange.left, out, version);
             Token.serializer.serialize(mt.fullRange.right, out, version);
-            Hashable.serializer.serialize(mt.root, out, version);
+            if (version < MessagingService.VERSION_40)
+            {
+                Hashable.serializer.serialize(mt.pointerRoot(), out, version);
+                return;
+            }
+
+            out.writeByte(FlatTree.IDENT);
+            FlatTree flat = mt.flat();
+            out.writeInt(flat.hashSize);
+            out.writeInt(flat.nodeCount);
+            // the flat layout is also the serialized one, so we write it as is
+            out.write(flat.buffer.duplicate());
         }
 
         public MerkleTree deserialize(DataInputPlus in, int version) throws IOException
@@ -118,7 +138,16 @@ public class MerkleTree implements Serializable
 
             MerkleTree mt = new MerkleTree(partitioner, fullRange, hashdepth, maxsize);
             mt.size = size;
-            mt.root = Hashable.serializer.deserialize(in, partitioner, version);
+            byte ident = in.readByte();
+            if (ident == FlatTree.IDENT)
+            {
+                mt.flat = FlatTree.deserialize(in, hashdepth, maxsize);
+                mt.root = null;
+            }
+            else
+            {
+                mt.root = Hashable.serializer.deserialize(ident, in, partitioner, version);
+            }
             return mt;
         }
 
@@ -133,8 +162,14 @@ public class MerkleTree implements Serializable
             size += Token.serializer.serializedSize(mt.fullRange.left, version);
             size += Token.serializer.serializedSize(mt.fullRange.right, version);
 
-            size += Hashable.serializer.serializedSize(mt.root, version);
-            return size;
+            if (version < MessagingService.VERSION_40)
+                return size + Hashable.serializer.serializedSize(mt.pointerRoot(), version);
+
+            if (mt.flat != null)
+                return size + 1 + 4 + 4 + mt.flat.buffer.capacity();
+
+            int[] counts = FlatTree.measure(mt.root);
+            return size + 1 + 4 + 4 + (long) FlatTree.recordSize(counts[1]) * counts[0];
         }
     }
 
@@ -172,6 +207,7 @@ public class MerkleTree implements Serializable
      */
     public void init()
     {
+        checkOnHeap();
         // determine the depth to which we can safely split the tree
         byte sizedepth = (byte)(Math.log10(maxsize) / Math.log10(2));
         byte depth = (byte)Math.min(sizedepth, hashdepth);
@@ -200,6 +236,60 @@ public class MerkleTree implements Serializable
         return root;
     }
 
+    private void checkOnHeap()
+    {
+        if (root == null)
+            throw new IllegalStateException(released ? "Merkle tree has been released" : "Merkle tree has been moved off-heap and can't be modified anymore");
+    }
+
+    /**
+     * @return the root of this tree as pointer nodes, rebuilt from its flat nodes if it has been moved off-heap, for
+     * the nodes and the serialization that only know that format
+     */
+    private Hashable pointerRoot()
+    {
+        if (root != null)
+            return root;
+        return flat().toHashable(0, fullRange.left, fullRange.right, partitioner);
+    }
+
+    private FlatTree flat()
+    {
+        if (released)
+            throw new IllegalStateException("Merkle tree has been released");
+        // an on-heap tree is only flattened to be compared or serialized, so it doesn't need to be off-heap
+        return flat != null ? flat : FlatTree.of(root, false);
+    }
+
+    /**
+     * Moves this (complete) tree off-heap, after which it can't be modified anymore. Its memory is freed by
+     * {@link #release()} or, failing that, once it gets garbage collected.
+     */
+    public void moveOffHeap()
+    {
+        if (flat != null || released)
+            return;
+        flat = FlatTree.of(root, true);
+        root = null;
+    }
+
+    /**
+     * Frees the memory used by this tree if it has been moved off-heap. The tree can't be used anymore afterwards.
+     */
+    public void release()
+    {
+        if (flat != null)
+            flat.release();
+        flat = null;
+        root = null;
+        released = true;
+    }
+
+    boolean isOffHeap()
+    {
+        return flat != null;
+    }
+
     public IPartitioner partitioner()
     {
         return partitioner;
@@ -234,42 +324,40 @@ public class MerkleTree implements Serializable
         if (!ltree.fullRange.equals(rtree.fullRange))
             throw new IllegalArgumentException("Difference only make sense on tree covering the same range (but " + ltree.fullRange + " != " + rtree.fullRange + ")");
 
+        FlatTree lflat = ltree.flat();
+        FlatTree rflat = rtree.flat();
+
         List<TreeRange> diff = new ArrayList<>();
         TreeDifference active = new TreeDifference(ltree.fullRange.left, ltree.fullRange.right, (byte)0);
+        active.setSize(lflat.sizeOfRange(0), rflat.sizeOfRange(0));
 
-        Hashable lnode = ltree.find(active);
-        Hashable rnode = rtree.find(active);
-        byte[] lhash = lnode.hash();
-        byte[] rhash = rnode.hash();
-        active.setSize(lnode.sizeOfRange(), rnode.sizeOfRange());
-
-        if (lhash != null && rhash != null && !Arrays.equals(lhash, rhash))
+        if (lflat.hasHash(0) && rflat.hasHash(0) && !FlatTree.hashesEqual(lflat, 0, rflat, 0))
         {
             logger.debug("Digest mismatch detected, traversing trees [{}, {}]", ltree, rtree);
-            if (FULLY_INCONSISTENT == differenceHelper(ltree, rtree, diff, active))
+            if (FULLY_INCONSISTENT == differenceHelper(ltree.partitioner, lflat, 0, rflat, 0, diff, active))
             {
                 logger.debug("Range {} fully inconsistent", active);
                 diff.add(active);
             }
         }
-        else if (lhash == null || rhash == null)
+        else if (!lflat.hasHash(0) || !rflat.hasHash(0))
             diff.add(active);
         return diff;
     }
 
     /**
-     * TODO: This function could be optimized into a depth first traversal of
-     * the two trees in parallel.
+     * Takes two trees and the index in each of them of a node for the given range, for which they have hashes, but
+     * are inconsistent, and traverses both trees in parallel depth first. A tree having a leaf where the other has an
+     * inner node doesn't have hashes for the sub-ranges of that leaf, which are thus inconsistent.
      *
-     * Takes two trees and a range for which they have hashes, but are inconsistent.
      * @return FULLY_INCONSISTENT if active is inconsistent, PARTIALLY_INCONSISTENT if only a subrange is inconsistent.
      */
-    static int differenceHelper(MerkleTree ltree, MerkleTree rtree, List<TreeRange> diff, TreeRange active)
+    static int differenceHelper(IPartitioner partitioner, FlatTree ltree, int lnode, FlatTree rtree, int rnode, List<TreeRange> diff, TreeRange active)
     {
         if (active.depth == Byte.MAX_VALUE)
             return CONSISTENT;
 
-        Token midpoint = ltree.partitioner().midpoint(active.left, active.right);
+        Token midpoint = partitioner.midpoint(active.left, active.right);
         // sanity check for midpoint calculation, see CASSANDRA-13052
         if (midpoint.equals(active.left) || midpoint.equals(active.right))
         {
@@ -283,52 +371,11 @@ public class MerkleTree implements Serializable
         TreeDifference left = new TreeDifference(active.left, midpoint, inc(active.depth));
         TreeDifference right = new TreeDifference(midpoint, active.right, inc(active.depth));
         logger.debug("({}) Hashing sub-ranges [{}, {}] for {} divided by midpoint {}", active.depth, left, right, active, midpoint);
-        byte[] lhash, rhash;
-        Hashable lnode, rnode;
 
         // see if we should recurse left
-        lnode = ltree.find(left);
-        rnode = rtree.find(left);
-        lhash = lnode.hash();
-        rhash = rnode.hash();
-        left.setSize(lnode.sizeOfRange(), rnode.sizeOfRange());
-        left.setRows(lnode.rowsInRange(), rnode.rowsInRange());
-
-        int ldiff = CONSISTENT;
-        boolean lreso = lhash != null && rhash != null;
-        if (lreso && !Arrays.equals(lhash, rhash))
-        {
-            logger.debug("({}) Inconsistent digest on left sub-range {}: [{}, {}]", active.depth, left, lnode, rnode);
-            if (lnode instanceof Leaf) ldiff = FULLY_INCONSISTENT;
-            else ldiff = differenceHelper(ltree, rtree, diff, left);
-        }
-        else if (!lreso)
-        {
-            logger.debug("({}) Left sub-range fully inconsistent {}", active.depth, right);
-            ldiff = FULLY_INCONSISTENT;
-        }
-
+        int ldiff = subRangeDifference(partitioner, ltree, ltree.leftChild(lnode), rtree, rtree.leftChild(rnode), diff, left);
         // see if we should recurse right
-        lnode = ltree.find(right);
-        rnode = rtree.find(right);
-        lhash = lnode.hash();
-        rhash = rnode.hash();
-        right.setSize(lnode.sizeOfRange(), rnode.sizeOfRange());
-        right.setRows(lnode.rowsInRange(), rnode.rowsInRange());
-
-        int rdiff = CONSISTENT;
-        boolean rreso = lhash != null && rhash != null;
-        if (rreso && !Arrays.equals(lhash, rhash))
-        {
-            logger.debug("({}) Inconsistent digest on right sub-range {}: [{}, {}]", active.depth, right, lnode, rnode);
-            if (rnode instanceof Leaf) rdiff = FULLY_INCONSISTENT;
-            else rdiff = differenceHelper(ltree, rtree, diff, right);
-        }
-        else if (!rreso)
-        {
-            logger.debug("({}) Right sub-range fully inconsistent {}", active.depth, right);
-            rdiff = FULLY_INCONSISTENT;
-        }
+        int rdiff = subRangeDifference(partitioner, ltree, ltree.rightChild(lnode), rtree, rtree.rightChild(rnode), diff, right);
 
         if (ldiff == FULLY_INCONSISTENT && rdiff == FULLY_INCONSISTENT)
         {
@@ -352,12 +399,36 @@ public class MerkleTree implements Serializable
         return PARTIALLY_INCONSISTENT;
     }
 
+    /**
+     * @param lnode the index of the node for {@code range} in {@code ltree}, or -1 if it doesn't have one
+     * @param rnode the index of the node for {@code range} in {@code rtree}, or -1 if it doesn't have one
+     */
+    private static int subRangeDifference(IPartitioner partitioner, FlatTree ltree, int lnode, FlatTree rtree, int rnode, List<TreeRange> diff, TreeDifference range)
+    {
+        range.setSize(ltree.sizeOfRange(lnode), rtree.sizeOfRange(rnode));
+        range.setRows(ltree.rowsInRange(lnode), rtree.rowsInRange(rnode));
+
+        if (!ltree.hasHash(lnode) || !rtree.hasHash(rnode))
+        {
+            logger.debug("({}) Sub-range fully inconsistent {}", range.depth, range);
+            return FULLY_INCONSISTENT;
+        }
+        if (FlatTree.hashesEqual(ltree, lnode, rtree, rnode))
+            return CONSISTENT;
+
+        logger.debug("({}) Inconsistent digest on sub-range {}", range.depth, range);
+        if (ltree.isLeaf(lnode) || rtree.isLeaf(rnode))
+            return FULLY_INCONSISTENT;
+        return differenceHelper(partitioner, ltree, lnode, rtree, rnode, diff, range);
+    }
+
     /**
      * For testing purposes.
      * Gets the smallest range containing the token.
      */
     public TreeRange get(Token t)
     {
+        checkOnHeap();
         return getHelper(root, fullRange.left, fullRange.right, (byte)0, t);
     }
 
@@ -387,12 +458,44 @@ public class MerkleTree implements Serializable
         }
     }
 
+    /**
+     * Collects the ranges of the nodes at the given depth, or of the leaves above that depth, along with their number
+     * of leaves. Those ranges cover the whole tree and don't share any leaf, so their rows can be added concurrently.
+     */
+    void subRanges(int depth, List<Pair<Range<Token>, Long>> ranges)
+    {
+        checkOnHeap();
+        subRangesHelper(root, fullRange.left, fullRange.right, 0, depth, ranges);
+    }
+
+    private static void subRangesHelper(Hashable hashable, Token pleft, Token pright, int depth, int maxDepth, List<Pair<Range<Token>, Long>> ranges)
+    {
+        if (hashable instanceof Leaf || depth == maxDepth)
+        {
+            ranges.add(Pair.create(new Range<>(pleft, pright), leaves(hashable)));
+            return;
+        }
+
+        Inner node = (Inner) hashable;
+        subRangesHelper(node.lchild, pleft, node.token, depth + 1, maxDepth, ranges);
+        subRangesHelper(node.rchild, node.token, pright, depth + 1, maxDepth, ranges);
+    }
+
+    private static long leaves(Hashable hashable)
+    {
+        if (hashable instanceof Leaf)
+            return 1;
+        Inner node = (Inner) hashable;
+        return leaves(node.lchild) + leaves(node.rchild);
+    }
+
     /**
      * Invalidates the ranges containing the given token.
      * Useful for testing.
      */
     public void invalidate(Token t)
     {
+        checkOnHeap();
         invalidateHelper(root, fullRange.left, t);
     }
 
@@ -424,9 +527,51 @@ public class MerkleTree implements Serializable
      */
     public byte[] hash(Range<Token> range)
     {
+        if (root == null)
+            return flat().hash(findFlat(range));
         return find(range).hash();
     }
 
+    /**
+     * Off-heap counterpart of {@link #find(Range)}.
+     *
+     * @return the index of the node that matches the given {@code range}, or -1 if there is none
+     */
+    private int findFlat(Range<Token> find)
+    {
+        FlatTree tree = flat();
+        int node = 0;
+        Token left = fullRange.left;
+        Token right = fullRange.right;
+        while (true)
+        {
+            Range<Token> activeRange = new Range<>(left, right);
+            if (find.contains(activeRange))
+                // this node is fully contained in the range
+                return node;
+            if (tree.isLeaf(node))
+                // we are not fully contained in this range!
+                return -1;
+
+            // else: one of our children contains the range
+            Token midpoint = partitioner.midpoint(left, right);
+            if (new Range<>(left, midpoint).contains(find))
+            { // left child contains/matches the range
+                node = tree.leftChild(node);
+                right = midpoint;
+            }
+            else if (new Range<>(midpoint, right).contains(find))
+            { // right child contains/matches the range
+                node = tree.rightChild(node);
+                left = midpoint;
+            }
+            else
+            {
+                return -1;
+            }
+        }
+    }
+
     /**
      * Find the {@link Hashable} node that matches the given {@code range}.
      *
@@ -497,6 +642,7 @@ public class MerkleTree implements Serializable
      */
     public boolean split(Token t)
     {
+        checkOnHeap();
         if (!(size < maxsize))
             return false;
 
@@ -549,12 +695,21 @@ public class MerkleTree implements Serializable
      */
     public TreeRangeIterator invalids()
     {
+        checkOnHeap();
         return new TreeRangeIterator(this);
     }
 
     public EstimatedHistogram histogramOfRowSizePerLeaf()
     {
         HistogramBuilder histbuild = new HistogramBuilder();
+        if (root == null)
+        {
+            FlatTree tree = flat();
+            for (int node = 0; node < tree.nodeCount; node++)
+                if (tree.isLeaf(node))
+                    histbuild.add(tree.sizeOfRange(node));
+            return histbuild.buildWithStdevRangesAroundMean();
+        }
         for (TreeRange range : new TreeRangeIterator(this))
         {
             histbuild.add(range.hashable.sizeOfRange);
@@ -565,6 +720,14 @@ public class MerkleTree implements Serializable
     public EstimatedHistogram histogramOfRowCountPerLeaf()
     {
         HistogramBuilder histbuild = new HistogramBuilder();
+        if (root == null)
+        {
+            FlatTree tree = flat();
+            for (int node = 0; node < tree.nodeCount; node++)
+                if (tree.isLeaf(node))
+                    histbuild.add(tree.rowsInRange(node));
+            return histbuild.buildWithStdevRangesAroundMean();
+        }
         for (TreeRange range : new TreeRangeIterator(this))
         {
             histbuild.add(range.hashable.rowsInRange);
@@ -575,6 +738,15 @@ public class MerkleTree implements Serializable
     public long rowCount()
     {
         long count = 0;
+        if (root == null)
+        {
+            FlatTree tree = flat();
+            for (int node = 0; node < tree.nodeCount; node++)
+                if (tree.isLeaf(node))
+                    count += tree.rowsInRange(node);
+            return count;
+        }
+
         for (TreeRange range : new TreeRangeIterator(this))
         {
             count += range.hashable.rowsInRange;
@@ -587,7 +759,12 @@ public class MerkleTree implements Serializable
     {
         StringBuilder buff = new StringBuilder();
         buff.append("#<MerkleTree root=");
-        root.toString(buff, 8);
+        if (root != null)
+            root.toString(buff, 8);
+        else if (flat != null)
+            buff.append("#<FlatTree nodes=").append(flat.nodeCount).append(" hash=").append(Hashable.toString(flat.hash(0))).append(">");
+        else
+            buff.append("released");
         buff.append(">");
         return buff.toString();
     }
@@ -690,6 +867,19 @@ public class MerkleTree implements Serializable
             hashable.addHash(entry.hash, entry.size);
         }
 
+        /**
+         * @param hash the hashes of several rows of this range, already mixed together.
+         * @param size the total size of those rows.
+         * @param rows the number of those rows.
+         */
+        public void addHashes(byte[] hash, long size, long rows)
+        {
+            assert tree != null : "Not intended for modification!";
+            assert hashable instanceof Leaf;
+
+            hashable.addHash(hash, size, rows);
+        }
+
         public void ensureHashInitialised()
         {
             assert tree != null : "Not intended for modification!";
@@ -788,7 +978,6 @@ public class MerkleTree implements Serializable
      */
     static class Inner extends Hashable
     {
-        public static final long serialVersionUID = 1L;
         static final byte IDENT = 2;
         public final Token token;
         private Hashable lchild;
@@ -915,7 +1104,6 @@ public class MerkleTree implements Serializable
      */
     static class Leaf extends Hashable
     {
-        public static final long serialVersionUID = 1L;
         static final byte IDENT = 1;
         private static final LeafSerializer serializer = new LeafSerializer();
 
@@ -1004,10 +1192,9 @@ public class MerkleTree implements Serializable
     /**
      * Abstract class containing hashing logic, and containing a single hash field.
      */
-    static abstract class Hashable implements Serializable
+    static abstract class Hashable
     {
-        private static final long serialVersionUID = 1L;
-        private static final IPartitionerDependentSerializer<Hashable> serializer = new HashableSerializer();
+        private static final HashableSerializer serializer = new HashableSerializer();
 
         protected byte[] hash;
         protected long sizeOfRange;
@@ -1058,13 +1245,18 @@ public class MerkleTree implements Serializable
          * our hash will become the given value.
          */
         void addHash(byte[] righthash, long sizeOfRow)
+        {
+            addHash(righthash, sizeOfRow, 1);
+        }
+
+        void addHash(byte[] righthash, long sizeOfRows, long rows)
         {
             if (hash == null)
                 hash = righthash;
             else
                 hash = binaryHash(hash, righthash);
-            this.sizeOfRange += sizeOfRow;
-            this.rowsInRange += 1;
+            this.sizeOfRange += sizeOfRows;
+            this.rowsInRange += rows;
         }
 
         /**
@@ -1105,7 +1297,11 @@ public class MerkleTree implements Serializable
 
             public Hashable deserialize(DataInput in, IPartitioner p, int version) throws IOException
             {
-                byte ident = in.readByte();
+                return deserialize(in.readByte(), in, p, version);
+            }
+
+            Hashable deserialize(byte ident, DataInput in, IPartitioner p, int version) throws IOException
+            {
                 if (Inner.IDENT == ident)
                     return Inner.serializer.deserialize(in, p, version);
                 else if (Leaf.IDENT == ident)
@@ -1125,6 +1321,262 @@ public class MerkleTree implements Serializable
         }
     }
 
+    /**
+     * A complete tree stored as an array of fixed size records in a single buffer, possibly off-heap.
+     *
+     * The nodes are laid out in pre-order, so the root is the first node and the left child of an inner node is the
+     * node that follows it. Each record holds the hash inline, along with the size and row count of the range, and the
+     * index of the right child of the node (or -1 for a leaf):
+     * <pre>
+     * | hash length (int, -1 if null) | hash (padded to hashSize) | sizeOfRange (long) | rowsInRange (long) | right child (int) |
+     * </pre>
+     * The tokens of the inner nodes aren't stored, as they are always the midpoint of the range of the node, so they
+     * are recomputed while traversing the tree.
+     *
+     * The buffer is also the serialized form of the tree.
+     */
+    static final class FlatTree
+    {
+        static final byte IDENT = 3;
+
+        private static final int HASH_LENGTH_OFFSET = 0;
+        private static final int HASH_OFFSET = 4;
+        // the other offsets are relative to the end of the hash
+        private static final int SIZE_OFFSET = 0;
+        private static final int ROWS_OFFSET = 8;
+        private static final int RIGHT_CHILD_OFFSET = 16;
+        private static final int FIXED_SIZE = 4 + 8 + 8 + 4;
+        // the length of the longest digest we may use (SHA-512)
+        private static final int MAX_HASH_SIZE = 64;
+
+        final int hashSize;
+        final int nodeCount;
+        final ByteBuffer buffer;
+        private final int recordSize;
+
+        private FlatTree(int hashSize, int nodeCount, ByteBuffer buffer)
+        {
+            this.hashSize = hashSize;
+            this.nodeCount = nodeCount;
+            this.buffer = buffer;
+            this.recordSize = recordSize(hashSize);
+        }
+
+        static int recordSize(int hashSize)
+        {
+            return FIXED_SIZE + hashSize;
+        }
+
+        /**
+         * @return the number of nodes under {@code root} (included) and the length of their longest hash
+         */
+        static int[] measure(Hashable root)
+        {
+            int[] counts = new int[2];
+            measure(root.calc(), counts);
+            return counts;
+        }
+
+        private static void measure(Hashable node, int[] counts)
+        {
+            counts[0]++;
+            if (node.hash != null)
+                counts[1] = Math.max(counts[1], node.hash.length);
+            if (node instanceof Inner)
+            {
+                measure(((Inner) node).lchild, counts);
+                measure(((Inner) node).rchild, counts);
+            }
+        }
+
+        static FlatTree of(Hashable root, boolean offHeap)
+        {
+            int[] counts = measure(root);
+            int capacity = Math.multiplyExact(recordSize(counts[1]), counts[0]);
+            ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            FlatTree tree = new FlatTree(counts[1], counts[0], buffer);
+            int written = tree.write(root, 0);
+            assert written == tree.nodeCount : written + " != " + tree.nodeCount;
+            return tree;
+        }
+
+        /**
+         * Writes {@code node} and its children starting at index {@code index}.
+         *
+         * @return the index following the last written node
+         */
+        private int write(Hashable node, int index)
+        {
+            int position = index * recordSize;
+            if (node.hash == null)
+            {
+                buffer.putInt(position + HASH_LENGTH_OFFSET, -1);
+            }
+            else
+            {
+                buffer.putInt(position + HASH_LENGTH_OFFSET, node.hash.length);
+                for (int i = 0; i < node.hash.length; i++)
+                    buffer.put(position + HASH_OFFSET + i, node.hash[i]);
+            }
+            int end = position + HASH_OFFSET + hashSize;
+            buffer.putLong(end + SIZE_OFFSET, node.sizeOfRange);
+            buffer.putLong(end + ROWS_OFFSET, node.rowsInRange);
+
+            if (!(node instanceof Inner))
+            {
+                buffer.putInt(end + RIGHT_CHILD_OFFSET, -1);
+                return index + 1;
+            }
+
+            Inner inner = (Inner) node;
+            int right = write(inner.lchild, index + 1);
+            buffer.putInt(end + RIGHT_CHILD_OFFSET, right);
+            return write(inner.rchild, right);
+        }
+
+        /**
+         * Rebuilds the pointer nodes of {@code node} and its children, which cover the range from {@code left} to
+         * {@code right}. The tokens of the inner nodes are the midpoints of their ranges, as they were when built.
+         */
+        Hashable toHashable(int node, Token left, Token right, IPartitioner partitioner)
+        {
+            Hashable hashable;
+            if (isLeaf(node))
+            {
+                hashable = new Leaf(hash(node));
+            }
+            else
+            {
+                Token midpoint = partitioner.midpoint(left, right);
+                hashable = new Inner(midpoint,
+                                     toHashable(leftChild(node), left, midpoint, partitioner),
+                                     toHashable(rightChild(node), midpoint, right, partitioner));
+                hashable.hash(hash(node));
+            }
+            hashable.sizeOfRange = sizeOfRange(node);
+            hashable.rowsInRange = rowsInRange(node);
+            return hashable;
+        }
+
+        /**
+         * Reads a tree of depth at most {@code hashdepth}, and with at most {@code maxsize} leaves.
+         *
+         * The whole tree is allocated before reading it, so its size is checked against those first: otherwise a
+         * corrupted header of a few bytes could have us allocate gigabytes.
+         */
+        static FlatTree deserialize(DataInputPlus in, byte hashdepth, long maxsize) throws IOException
+        {
+            int hashSize = in.readInt();
+            int nodeCount = in.readInt();
+            // a complete binary tree of n leaves has 2n - 1 nodes
+            long maxNodeCount = 2 * Math.min(maxsize, hashdepth < 62 ? 1L << hashdepth : Long.MAX_VALUE / 2) - 1;
+            if (hashSize < 0 || hashSize > MAX_HASH_SIZE || nodeCount <= 0 || nodeCount > maxNodeCount)
+                throw new IOException(String.format("Invalid Merkle tree of %d nodes with %d bytes hashes (for a tree of depth %d and at most %d leaves)",
+                                                    nodeCount, hashSize, hashdepth, maxsize));
+
+            int capacity;
+            try
+            {
+                capacity = Math.multiplyExact(recordSize(hashSize), nodeCount);
+            }
+            catch (ArithmeticException e)
+            {
+                throw new IOException(String.format("Merkle tree of %d nodes with %d bytes hashes is too large", nodeCount, hashSize));
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+            byte[] chunk = new byte[Math.min(capacity, 4096)];
+            while (buffer.hasRemaining())
+            {
+                int length = Math.min(chunk.length, buffer.remaining());
+                in.readFully(chunk, 0, length);
+                buffer.put(chunk, 0, length);
+            }
+            buffer.flip();
+            return new FlatTree(hashSize, nodeCount, buffer);
+        }
+
+        private int end(int node)
+        {
+            return node * recordSize + HASH_OFFSET + hashSize;
+        }
+
+        boolean isLeaf(int node)
+        {
+            return buffer.getInt(end(node) + RIGHT_CHILD_OFFSET) < 0;
+        }
+
+        int leftChild(int node)
+        {
+            return node < 0 || isLeaf(node) ? -1 : node + 1;
+        }
+
+        int rightChild(int node)
+        {
+            return node < 0 ? -1 : buffer.getInt(end(node) + RIGHT_CHILD_OFFSET);
+        }
+
+        private int hashLength(int node)
+        {
+            return buffer.getInt(node * recordSize + HASH_LENGTH_OFFSET);
+        }
+
+        /**
+         * @return whether the given node exists and has a hash
+         */
+        boolean hasHash(int node)
+        {
+            return node >= 0 && hashLength(node) >= 0;
+        }
+
+        /**
+         * @return a copy of the hash of the given node, null if it doesn't exist or doesn't have a hash
+         */
+        byte[] hash(int node)
+        {
+            if (!hasHash(node))
+                return null;
+            byte[] hash = new byte[hashLength(node)];
+            int position = node * recordSize + HASH_OFFSET;
+            for (int i = 0; i < hash.length; i++)
+                hash[i] = buffer.get(position + i);
+            return hash;
+        }
+
+        long sizeOfRange(int node)
+        {
+            return node < 0 ? 0 : buffer.getLong(end(node) + SIZE_OFFSET);
+        }
+
+        long rowsInRange(int node)
+        {
+            return node < 0 ? 0 : buffer.getLong(end(node) + ROWS_OFFSET);
+        }
+
+        /**
+         * Compares the hashes of two nodes in place, which must both have one.
+         */
+        static boolean hashesEqual(FlatTree ltree, int lnode, FlatTree rtree, int rnode)
+        {
+            int length = ltree.hashLength(lnode);
+            if (length != rtree.hashLength(rnode))
+                return false;
+            int lposition = lnode * ltree.recordSize + HASH_OFFSET;
+            int rposition = rnode * rtree.recordSize + HASH_OFFSET;
+            for (int i = 0; i < length; i++)
+            {
+                if (ltree.buffer.get(lposition + i) != rtree.buffer.get(rposition + i))
+                    return false;
+            }
+            return true;
+        }
+
+        void release()
+        {
+            FileUtils.clean(buffer);
+        }
+    }
+
     /**
      * Exceptions that stop recursion early when we are sure that no answer
      * can be found.
@@ -185,6 +185,61 @@ public class MerkleTrees implements Iterable<Map.Entry<Range<Token>, MerkleTree>
         return merkleTrees.get(range);
     }
 
+    /**
+     * Moves all the (complete) MerkleTrees off-heap, see {@link MerkleTree#moveOffHeap()}.
+     */
+    public void moveOffHeap()
+    {
+        for (MerkleTree tree : merkleTrees.values())
+            tree.moveOffHeap();
+    }
+
+    /**
+     * Frees the off-heap memory of all the MerkleTrees, which can't be used anymore afterwards.
+     */
+    public void release()
+    {
+        for (MerkleTree tree : merkleTrees.values())
+            tree.release();
+    }
+
+    /**
+     * Splits the ranges of the (initialized) trees into at most {@code parts} groups of contiguous token ranges, with
+     * about the same number of leaves. The groups don't share any leaf, so they can be validated concurrently.
+     */
+    public List<List<Range<Token>>> splitByLeaves(int parts)
+    {
+        if (parts <= 1)
+            return Collections.singletonList(new ArrayList<>(ranges()));
+
+        // split a few times more than needed, so that the groups can be balanced
+        int depth = 32 - Integer.numberOfLeadingZeros(parts * 4 - 1);
+        List<Pair<Range<Token>, Long>> subRanges = new ArrayList<>();
+        for (MerkleTree tree : merkleTrees.values())
+            tree.subRanges(depth, subRanges);
+
+        long totalLeaves = 0;
+        for (Pair<Range<Token>, Long> subRange : subRanges)
+            totalLeaves += subRange.right;
+
+        List<List<Range<Token>>> groups = new ArrayList<>(parts);
+        List<Range<Token>> group = new ArrayList<>();
+        long leaves = 0;
+        for (Pair<Range<Token>, Long> subRange : subRanges)
+        {
+            group.add(subRange.left);
+            leaves += subRange.right;
+            if (leaves * parts >= totalLeaves * (groups.size() + 1) && groups.size() < parts - 1)
+            {
+                groups.add(group);
+                group = new ArrayList<>();
+            }
+        }
+        if (!group.isEmpty())
+            groups.add(group);
+        return groups;
+    }
+
     public long size()
     {
         long size = 0;
@@ -209,7 +264,7 @@ public class MerkleTrees implements Iterable<Map.Entry<Range<Token>, MerkleTree>
      * @param t
      * @return The given MerkleTree or null if none exist.
      */
-    private MerkleTree getMerkleTree(Token t)
+    public MerkleTree getMerkleTree(Token t)
     {
         for (Range<Token> range : merkleTrees.keySet())
         {
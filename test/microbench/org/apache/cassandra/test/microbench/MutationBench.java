@@ -30,6 +30,8 @@ import org.apache.cassandra.schema.TableMetadata;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.schema.Schema;
 import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
 import org.apache.cassandra.dht.Murmur3Partitioner;
 import org.apache.cassandra.io.util.DataInputBuffer;
 import org.apache.cassandra.io.util.DataOutputBuffer;
@@ -72,6 +74,10 @@ public class MutationBench
 
     static String keyspace = "keyspace1";
 
+    @Param({"3"})
+    private int replicas;
+
+    private PartitionUpdate update;
     private Mutation mutation;
     private MessageOut<Mutation> messageOut;
 
@@ -84,6 +90,7 @@ public class MutationBench
     public static class ThreadState
     {
         MessageIn<Mutation> in;
+        long size;
         int counter = 0;
     }
 
@@ -103,6 +110,7 @@ public class MutationBench
         Schema.instance.load(ksm.withSwapped(ksm.tables.with(metadata)));
 
         mutation = (Mutation)UpdateBuilder.create(metadata, 1L).newRow(1L).add("commentid", 32L).makeMutation();
+        update = mutation.getPartitionUpdate(metadata);
         messageOut = mutation.createMessage();
         buffer = ByteBuffer.allocate(messageOut.serializedSize(MessagingService.current_version));
         outputBuffer = new DataOutputBufferFixed(buffer);
@@ -127,6 +135,41 @@ public class MutationBench
         state.counter++;
     }
 
+    /**
+     * Sizes and serializes a new mutation for each replica and the commit log, reusing its serialized form.
+     */
+    @Benchmark
+    public void fanOut(ThreadState state) throws IOException
+    {
+        Mutation fresh = new Mutation(update);
+        fresh.serialize(MessagingService.current_version);
+        for (int i = 0; i <= replicas; i++)
+        {
+            buffer.rewind();
+            state.size += Mutation.serializer.serializedSize(fresh, MessagingService.current_version);
+            Mutation.serializer.serialize(fresh, outputBuffer, MessagingService.current_version);
+        }
+        state.counter++;
+    }
+
+    /**
+     * Same as {@link #fanOut} but walks the partition update every time, as was done before the serialized
+     * form was kept.
+     */
+    @Benchmark
+    public void fanOutReserialized(ThreadState state) throws IOException
+    {
+        for (int i = 0; i <= replicas; i++)
+        {
+            buffer.rewind();
+            state.size += TypeSizes.sizeofUnsignedVInt(1)
+                          + PartitionUpdate.serializer.serializedSize(update, MessagingService.current_version);
+            outputBuffer.writeUnsignedVInt(1);
+            PartitionUpdate.serializer.serialize(update, outputBuffer, MessagingService.current_version);
+        }
+        state.counter++;
+    }
+
     public static void main(String... args) throws Exception {
         Options opts = new OptionsBuilder()
                        .include(".*"+MutationBench.class.getSimpleName()+".*")
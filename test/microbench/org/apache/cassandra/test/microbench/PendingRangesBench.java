@@ -22,17 +22,26 @@ package org.apache.cassandra.test.microbench;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.dht.Murmur3Partitioner;
 import org.apache.cassandra.dht.RandomPartitioner;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.locator.AbstractReplicationStrategy;
 import org.apache.cassandra.locator.PendingRangeMaps;
+import org.apache.cassandra.locator.SimpleSnitch;
+import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.locator.TokenMetadata;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
@@ -106,4 +115,75 @@ public class PendingRangesBench
         bh.consume(endpoints);
     }
 
+    /**
+     * A cluster of {@code nodes} nodes with {@code vnodes} tokens each, a node already bootstrapping and
+     * {@code keyspaces} keyspaces replicated the same way.
+     */
+    @State(Scope.Benchmark)
+    public static class Cluster
+    {
+        @Param({"100", "250", "500"})
+        int nodes;
+
+        @Param({"256"})
+        int vnodes;
+
+        @Param({"10"})
+        int keyspaces;
+
+        TokenMetadata tokenMetadata;
+        List<AbstractReplicationStrategy> strategies;
+        InetAddress bootstrapping;
+
+        @Setup
+        public void setUp() throws UnknownHostException
+        {
+            DatabaseDescriptor.clientInitialization(false);
+            // Partitioner is not set in client mode.
+            if (DatabaseDescriptor.getPartitioner() == null)
+                DatabaseDescriptor.setPartitionerUnsafe(Murmur3Partitioner.instance);
+            DatabaseDescriptor.setEndpointSnitch(new SimpleSnitch());
+
+            tokenMetadata = new TokenMetadata();
+            for (int i = 0; i < nodes; i++)
+                tokenMetadata.updateNormalTokens(randomTokens(vnodes), InetAddress.getByAddress(new byte[]{ 10, 0, (byte) (i >> 8), (byte) i }));
+            tokenMetadata.addBootstrapTokens(randomTokens(vnodes), InetAddress.getByName("10.1.0.1"));
+            bootstrapping = InetAddress.getByName("10.1.0.2");
+
+            strategies = new ArrayList<>();
+            for (int i = 0; i < keyspaces; i++)
+                strategies.add(new SimpleStrategy("keyspace" + i, tokenMetadata, new SimpleSnitch(), Collections.singletonMap("replication_factor", "3")));
+            calculatePendingRanges();
+        }
+
+        void calculatePendingRanges()
+        {
+            for (int i = 0; i < keyspaces; i++)
+                tokenMetadata.calculatePendingRanges(strategies.get(i), "keyspace" + i);
+        }
+
+        private static Collection<Token> randomTokens(int count)
+        {
+            List<Token> tokens = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                tokens.add(new Murmur3Partitioner.LongToken(ThreadLocalRandom.current().nextLong()));
+            return tokens;
+        }
+    }
+
+    /**
+     * What a node starting to bootstrap, then failing, costs to the pending range calculations of the other nodes.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+    public void calculatePendingRangesOnBootstrap(Cluster cluster, Blackhole bh)
+    {
+        Collection<Token> tokens = Cluster.randomTokens(cluster.vnodes);
+        cluster.tokenMetadata.addBootstrapTokens(tokens, cluster.bootstrapping);
+        cluster.calculatePendingRanges();
+        cluster.tokenMetadata.removeBootstrapTokens(tokens);
+        cluster.calculatePendingRanges();
+        bh.consume(cluster.tokenMetadata.getPendingRanges("keyspace0"));
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.notifications.TruncationNotification;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NegativeLookupCacheTest
+{
+    private static DecoratedKey dk(String key)
+    {
+        return Murmur3Partitioner.instance.decorateKey(ByteBufferUtil.bytes(key));
+    }
+
+    @Test
+    public void testLookup()
+    {
+        NegativeLookupCache cache = new NegativeLookupCache(16);
+        DecoratedKey key = dk("key");
+        assertFalse(cache.isAbsent(key));
+
+        cache.markAbsent(key, cache.generation(key));
+        assertTrue(cache.isAbsent(key));
+        assertEquals(1, cache.size());
+
+        cache.invalidate(key);
+        assertFalse(cache.isAbsent(key));
+    }
+
+    @Test
+    public void testInvalidationDuringLookup()
+    {
+        NegativeLookupCache cache = new NegativeLookupCache(16);
+        DecoratedKey key = dk("key");
+
+        long generation = cache.generation(key);
+        // a write to the key happens while we're checking the memtables and sstables
+        cache.invalidate(key);
+        cache.markAbsent(key, generation);
+        assertFalse(cache.isAbsent(key));
+
+        // a lookup that started after it can cache the key
+        cache.markAbsent(key, cache.generation(key));
+        assertTrue(cache.isAbsent(key));
+    }
+
+    @Test
+    public void testTruncation()
+    {
+        NegativeLookupCache cache = new NegativeLookupCache(16);
+        for (int i = 0; i < 10; i++)
+        {
+            DecoratedKey key = dk("key" + i);
+            cache.markAbsent(key, cache.generation(key));
+            assertTrue(cache.isAbsent(key));
+        }
+
+        DecoratedKey key = dk("key");
+        long generation = cache.generation(key);
+        cache.handleNotification(new TruncationNotification(System.currentTimeMillis()), null);
+        for (int i = 0; i < 10; i++)
+            assertFalse(cache.isAbsent(dk("key" + i)));
+
+        // lookups in progress during the truncation don't cache their key
+        cache.markAbsent(key, generation);
+        assertFalse(cache.isAbsent(key));
+    }
+}
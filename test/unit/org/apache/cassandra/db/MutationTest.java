@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.io.util.DataInputBuffer;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.schema.KeyspaceParams;
+import org.apache.cassandra.schema.TableMetadata;
+
+import static org.apache.cassandra.utils.ByteBufferUtil.bytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MutationTest
+{
+    private static final String KEYSPACE = "MutationTest";
+    private static final String CF_STANDARD1 = "Standard1";
+    private static final String CF_STANDARD2 = "Standard2";
+
+    @BeforeClass
+    public static void defineSchema()
+    {
+        SchemaLoader.prepareServer();
+        SchemaLoader.createKeyspace(KEYSPACE,
+                                    KeyspaceParams.simple(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE, CF_STANDARD1),
+                                    SchemaLoader.standardCFMD(KEYSPACE, CF_STANDARD2));
+    }
+
+    @Test
+    public void testSerializedOnce() throws IOException
+    {
+        int version = MessagingService.current_version;
+        TableMetadata cfm1 = Keyspace.open(KEYSPACE).getColumnFamilyStore(CF_STANDARD1).metadata();
+        TableMetadata cfm2 = Keyspace.open(KEYSPACE).getColumnFamilyStore(CF_STANDARD2).metadata();
+
+        Mutation mutation = new RowUpdateBuilder(cfm1, 0, bytes("key")).clustering("c").add("val", "v1").build();
+        byte[] serialized = mutation.serialize(version);
+        assertSame(serialized, mutation.serialize(version));
+        assertEquals(serialized.length, Mutation.serializer.serializedSize(mutation, version));
+        assertArrayEquals(serialized, serialize(mutation, version));
+
+        // adding modifications drops the serialized form
+        mutation.add(new RowUpdateBuilder(cfm2, 0, bytes("key")).clustering("c").add("val", "v2").build().getPartitionUpdate(cfm2));
+        byte[] reserialized = mutation.serialize(version);
+        assertNotSame(serialized, reserialized);
+        assertEquals(reserialized.length, Mutation.serializer.serializedSize(mutation, version));
+
+        try (DataInputBuffer in = new DataInputBuffer(reserialized))
+        {
+            Mutation deserialized = Mutation.serializer.deserialize(in, version);
+            assertEquals(mutation.toString(false), deserialized.toString(false));
+
+            // mutations only serialized once, like the ones received from the coordinator, are written directly
+            assertEquals(reserialized.length, Mutation.serializer.serializedSize(deserialized, version));
+            assertArrayEquals(reserialized, serialize(deserialized, version));
+        }
+
+        // other versions aren't kept
+        assertNotSame(mutation.serialize(MessagingService.VERSION_30), mutation.serialize(MessagingService.VERSION_30));
+    }
+
+    private static byte[] serialize(Mutation mutation, int version) throws IOException
+    {
+        try (DataOutputBuffer out = new DataOutputBuffer())
+        {
+            Mutation.serializer.serialize(mutation, out, version);
+            return out.toByteArray();
+        }
+    }
+}
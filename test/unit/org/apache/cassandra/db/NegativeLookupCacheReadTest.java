@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.UpdateBuilder;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.cache.NegativeLookupCache;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.rows.EncodingStats;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.SSTableTxnWriter;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.schema.KeyspaceParams;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.apache.cassandra.service.ActiveRepairService.NO_PENDING_REPAIR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class NegativeLookupCacheReadTest
+{
+    private static final String KEYSPACE = "NegativeLookupCacheReadTest";
+    private static final String TABLE = "Standard1";
+
+    @BeforeClass
+    public static void defineSchema()
+    {
+        SchemaLoader.prepareServer();
+        // the cache is created with the table
+        DatabaseDescriptor.getRawConfig().negative_lookup_cache_size = 100;
+        SchemaLoader.createKeyspace(KEYSPACE,
+                                    KeyspaceParams.simple(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE, TABLE));
+    }
+
+    @After
+    public void truncate()
+    {
+        Keyspace.open(KEYSPACE).getColumnFamilyStore(TABLE).truncateBlocking();
+    }
+
+    @Test
+    public void testMissingKeyIsCached()
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(TABLE);
+        NegativeLookupCache cache = cfs.negativeLookupCache;
+        assertNotNull(cache);
+
+        write(cfs, "present");
+        cfs.forceBlockingFlush();
+        write(cfs, "inMemtable");
+
+        // keys with data are never inserted
+        assertFalse(Util.getAll(Util.cmd(cfs, "present").build()).isEmpty());
+        assertFalse(Util.getAll(Util.cmd(cfs, "inMemtable").build()).isEmpty());
+        assertEquals(0, cache.size());
+        // and the index lookup for the sstable key was cached for the read
+        SSTableReader sstable = cfs.getLiveSSTables().iterator().next();
+        assertNotNull(sstable.getCachedPosition(cfs.decorateKey(ByteBufferUtil.bytes("present")), false));
+
+        Util.assertEmpty(Util.cmd(cfs, "missing").build());
+        assertTrue(cache.isAbsent(cfs.decorateKey(ByteBufferUtil.bytes("missing"))));
+
+        long hits = cfs.metric.negativeLookupCacheHit.getCount();
+        Util.assertEmpty(Util.cmd(cfs, "missing").build());
+        assertEquals(hits + 1, cfs.metric.negativeLookupCacheHit.getCount());
+
+        // writing the key invalidates it
+        write(cfs, "missing");
+        assertFalse(cache.isAbsent(cfs.decorateKey(ByteBufferUtil.bytes("missing"))));
+        assertFalse(Util.getAll(Util.cmd(cfs, "missing").build()).isEmpty());
+    }
+
+    @Test
+    public void testAddedSSTableInvalidatesKey()
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(TABLE);
+        NegativeLookupCache cache = cfs.negativeLookupCache;
+
+        Util.assertEmpty(Util.cmd(cfs, "streamed").build());
+        Util.assertEmpty(Util.cmd(cfs, "other").build());
+        assertTrue(cache.isAbsent(cfs.decorateKey(ByteBufferUtil.bytes("streamed"))));
+        assertTrue(cache.isAbsent(cfs.decorateKey(ByteBufferUtil.bytes("other"))));
+
+        // an sstable that doesn't go through the write path, like a streamed or imported one
+        cfs.addSSTable(writeSSTable(cfs, "streamed"));
+        assertFalse(cache.isAbsent(cfs.decorateKey(ByteBufferUtil.bytes("streamed"))));
+        assertFalse(Util.getAll(Util.cmd(cfs, "streamed").build()).isEmpty());
+        // keys the bloom filter of the new sstable excludes are kept
+        assertTrue(cache.isAbsent(cfs.decorateKey(ByteBufferUtil.bytes("other"))));
+        Util.assertEmpty(Util.cmd(cfs, "other").build());
+    }
+
+    private static void write(ColumnFamilyStore cfs, String key)
+    {
+        UpdateBuilder.create(cfs.metadata(), key).newRow("c").add("val", "value").applyUnsafe();
+    }
+
+    private static SSTableReader writeSSTable(ColumnFamilyStore cfs, String key)
+    {
+        File dir = cfs.getDirectories().getDirectoryForNewSSTables();
+        Descriptor desc = cfs.newSSTableDescriptor(dir);
+        SerializationHeader header = new SerializationHeader(true, cfs.metadata(), cfs.metadata().regularAndStaticColumns(), EncodingStats.NO_STATS);
+        try (SSTableTxnWriter writer = SSTableTxnWriter.create(cfs, desc, 1, 0, NO_PENDING_REPAIR, header))
+        {
+            writer.append(UpdateBuilder.create(cfs.metadata(), key).newRow("c").add("val", "value").build().unfilteredIterator());
+            Collection<SSTableReader> sstables = writer.finish(true);
+            assertEquals(1, sstables.size());
+            return sstables.iterator().next();
+        }
+    }
+}
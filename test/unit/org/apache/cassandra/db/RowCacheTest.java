@@ -472,6 +472,82 @@ public class RowCacheTest
         cachedStore.truncateBlocking();
     }
 
+    @Test
+    public void testRowCacheMergesWrites()
+    {
+        CompactionManager.instance.disableAutoCompaction();
+
+        Keyspace keyspace = Keyspace.open(KEYSPACE_CACHED);
+        ColumnFamilyStore cachedStore  = keyspace.getColumnFamilyStore(CF_CACHEDINT);
+        CacheService.instance.invalidateRowCache();
+        CacheService.instance.setRowCacheCapacityInMB(1);
+
+        ByteBuffer key = ByteBufferUtil.bytes("rowcachemergekey");
+        DecoratedKey dk = cachedStore.decorateKey(key);
+        for (int i = 0; i < 10; i++)
+            new RowUpdateBuilder(cachedStore.metadata(), System.currentTimeMillis(), key).clustering(String.valueOf(i)).add("val", "val" + i).build().applyUnsafe();
+
+        // populate the row cache, the whole partition fits
+        Util.getAll(Util.cmd(cachedStore, dk).build());
+        assertEquals(10, cachedStore.getRawCachedPartition(dk).rowCount());
+
+        // a write to a fully cached partition is merged in rather than evicting the partition
+        new RowUpdateBuilder(cachedStore.metadata(), System.currentTimeMillis(), key).clustering("10").add("val", "val10").build().applyUnsafe();
+        CachedPartition cached = cachedStore.getRawCachedPartition(dk);
+        assertNotNull(cached);
+        assertEquals(11, cached.rowCount());
+
+        long startRowCacheHits = cachedStore.metric.rowCacheHit.getCount();
+        assertEquals(11, Util.getOnlyPartition(Util.cmd(cachedStore, dk).build()).rowCount());
+        assertEquals(startRowCacheHits + 1, cachedStore.metric.rowCacheHit.getCount());
+
+        cachedStore.truncateBlocking();
+    }
+
+    @Test
+    public void testRowCacheMergesWritesIntoHead()
+    {
+        CompactionManager.instance.disableAutoCompaction();
+
+        Keyspace keyspace = Keyspace.open(KEYSPACE_CACHED);
+        ColumnFamilyStore cachedStore  = keyspace.getColumnFamilyStore(CF_CACHEDINT);
+        CacheService.instance.invalidateRowCache();
+        CacheService.instance.setRowCacheCapacityInMB(1);
+
+        ByteBuffer key = ByteBufferUtil.bytes("rowcachemergekey");
+        DecoratedKey dk = cachedStore.decorateKey(key);
+        for (int i = 0; i < 200; i++)
+            new RowUpdateBuilder(cachedStore.metadata(), System.currentTimeMillis(), key).clustering(String.valueOf(i)).add("val", "val" + i).build().applyUnsafe();
+
+        // populate the row cache with the first 100 rows
+        Util.getAll(Util.cmd(cachedStore, dk).withLimit(10).build());
+        assertEquals(100, cachedStore.getRawCachedPartition(dk).rowCount());
+
+        // "99" sorts after every cached clustering, so it shouldn't be added to the cached head
+        new RowUpdateBuilder(cachedStore.metadata(), System.currentTimeMillis(), key).clustering("99").add("val", "updated").build().applyUnsafe();
+        assertEquals(100, cachedStore.getRawCachedPartition(dk).rowCount());
+
+        // "0" is the first cached row, its update should be reflected in the cache
+        new RowUpdateBuilder(cachedStore.metadata(), System.currentTimeMillis(), key).clustering("0").add("val", "updated").build().applyUnsafe();
+        CachedPartition cached = cachedStore.getRawCachedPartition(dk);
+        assertEquals(100, cached.rowCount());
+        Row first = (Row) Util.once(cached.unfilteredIterator(ColumnFilter.selection(cached.columns()), Slices.ALL, false)).iterator().next();
+        assertEquals(ByteBufferUtil.bytes("updated"), first.getCell(cachedStore.metadata().getColumn(ByteBufferUtil.bytes("val"))).value());
+
+        // a row inserted into the head pushes its last row out, so that the head doesn't grow past 100 rows
+        Clustering last = cached.lastRow().clustering();
+        new RowUpdateBuilder(cachedStore.metadata(), System.currentTimeMillis(), key).clustering("00").add("val", "inserted").build().applyUnsafe();
+        cached = cachedStore.getRawCachedPartition(dk);
+        assertEquals(100, cached.rowCount());
+        assertTrue(cachedStore.metadata().comparator.compare(cached.lastRow().clustering(), last) < 0);
+
+        // deleting a cached row would make the head look like the whole partition, so the entry has to go
+        RowUpdateBuilder.deleteRow(cachedStore.metadata(), System.currentTimeMillis(), key, "0").applyUnsafe();
+        assertNull(cachedStore.getRawCachedPartition(dk));
+
+        cachedStore.truncateBlocking();
+    }
+
     @Test
     public void testSSTablesPerReadHistogramWhenRowCache()
     {
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.compaction.AdaptiveThroughputController.Decision;
+
+import static org.apache.cassandra.db.compaction.AdaptiveThroughputController.MIN_STREAM_THROUGHPUT_RATIO;
+import static org.apache.cassandra.db.compaction.AdaptiveThroughputController.nextCompactionThroughput;
+import static org.apache.cassandra.db.compaction.AdaptiveThroughputController.nextStreamThroughputRatio;
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveThroughputControllerTest
+{
+    private static final double DELTA = 0.0001;
+
+    @Test
+    public void testDecision()
+    {
+        assertEquals(Decision.DECREASE, Decision.of(true, false));
+        assertEquals(Decision.INCREASE, Decision.of(false, true));
+        // we can't both protect reads and catch up
+        assertEquals(Decision.HOLD, Decision.of(true, true));
+        // nothing to catch up with
+        assertEquals(Decision.HOLD, Decision.of(false, false));
+    }
+
+    @Test
+    public void testCompactionThroughput()
+    {
+        assertEquals(19.2, nextCompactionThroughput(16, Decision.INCREASE, 8, 64), DELTA);
+        assertEquals(11.2, nextCompactionThroughput(16, Decision.DECREASE, 8, 64), DELTA);
+        assertEquals(16, nextCompactionThroughput(16, Decision.HOLD, 8, 64), DELTA);
+
+        // stays within the bounds, even if they change
+        assertEquals(64, nextCompactionThroughput(60, Decision.INCREASE, 8, 64), DELTA);
+        assertEquals(8, nextCompactionThroughput(10, Decision.DECREASE, 8, 64), DELTA);
+        assertEquals(32, nextCompactionThroughput(60, Decision.HOLD, 8, 32), DELTA);
+
+        // converges back after a decrease and an increase
+        double throughput = 16;
+        for (int i = 0; i < 10; i++)
+            throughput = nextCompactionThroughput(throughput, Decision.DECREASE, 8, 64);
+        assertEquals(8, throughput, DELTA);
+        for (int i = 0; i < 10; i++)
+            throughput = nextCompactionThroughput(throughput, Decision.INCREASE, 8, 64);
+        assertEquals(49.5338, throughput, DELTA);
+    }
+
+    @Test
+    public void testStreamThroughputRatio()
+    {
+        double ratio = 1;
+        for (int i = 0; i < 10; i++)
+            ratio = nextStreamThroughputRatio(ratio, true);
+        assertEquals(MIN_STREAM_THROUGHPUT_RATIO, ratio, DELTA);
+
+        for (int i = 0; i < 10; i++)
+            ratio = nextStreamThroughputRatio(ratio, false);
+        assertEquals(1, ratio, DELTA);
+    }
+}
@@ -30,13 +30,17 @@ import org.apache.cassandra.db.compaction.writers.CompactionAwareWriter;
 import org.apache.cassandra.db.compaction.writers.DefaultCompactionWriter;
 import org.apache.cassandra.db.compaction.writers.MajorLeveledCompactionWriter;
 import org.apache.cassandra.db.compaction.writers.MaxSSTableSizeWriter;
+import org.apache.cassandra.db.compaction.writers.ShardedCompactionWriter;
 import org.apache.cassandra.db.compaction.writers.SplittingSizeTieredCompactionWriter;
 import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.UUIDGen;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class CompactionAwareWriterTest extends CQLTester
 {
@@ -165,6 +169,37 @@ public class CompactionAwareWriterTest extends CQLTester
         cfs.truncateBlocking();
     }
 
+    @Test
+    public void testShardedCompactionWriter() throws Throwable
+    {
+        ColumnFamilyStore cfs = getColumnFamilyStore();
+        cfs.disableAutoCompaction();
+        int rowCount = 1000;
+        populate(rowCount);
+        LifecycleTransaction txn = cfs.getTracker().tryModify(cfs.getLiveSSTables(), OperationType.COMPACTION);
+        List<Token> shardBoundaries = Arrays.asList(new Murmur3Partitioner.LongToken(Long.MIN_VALUE / 2),
+                                                    new Murmur3Partitioner.LongToken(0),
+                                                    new Murmur3Partitioner.LongToken(Long.MAX_VALUE / 2),
+                                                    cfs.getPartitioner().getMaximumToken());
+        CompactionAwareWriter writer = new ShardedCompactionWriter(cfs, cfs.getDirectories(), txn, txn.originals(), shardBoundaries);
+        int rows = compact(cfs, txn, writer);
+        assertEquals(rowCount, rows);
+
+        // a single sstable per shard, which only holds the keys of that shard
+        Set<Integer> shards = new HashSet<>();
+        for (SSTableReader sstable : cfs.getLiveSSTables())
+        {
+            int shard = 0;
+            while (sstable.first.getToken().compareTo(shardBoundaries.get(shard)) > 0)
+                shard++;
+            assertTrue(shards.add(shard));
+            assertTrue(sstable.last.getToken().compareTo(shardBoundaries.get(shard)) <= 0);
+        }
+        assertEquals(shardBoundaries.size(), shards.size());
+        validateData(cfs, rowCount);
+        cfs.truncateBlocking();
+    }
+
     private int compact(ColumnFamilyStore cfs, LifecycleTransaction txn, CompactionAwareWriter writer)
     {
         assert txn.originals().size() == 1;
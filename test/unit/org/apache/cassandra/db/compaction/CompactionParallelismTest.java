@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.UpdateBuilder;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.db.partitions.FilteredPartition;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.schema.CompactionParams;
+import org.apache.cassandra.schema.KeyspaceParams;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompactionParallelismTest
+{
+    private static final String KEYSPACE = "CompactionParallelismTest";
+    private static final String TABLE = "StandardLeveled";
+
+    private ColumnFamilyStore cfs;
+    private int parallelism;
+    private int minSizeInMB;
+
+    @BeforeClass
+    public static void defineSchema()
+    {
+        SchemaLoader.prepareServer();
+        // sub-ranges need a partitioner that can split them
+        SchemaLoader.createKeyspace(KEYSPACE,
+                                    KeyspaceParams.simple(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE, TABLE)
+                                                .partitioner(Murmur3Partitioner.instance)
+                                                .compaction(CompactionParams.lcs(Collections.emptyMap())));
+    }
+
+    @Before
+    public void setUp()
+    {
+        cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(TABLE);
+        cfs.disableAutoCompaction();
+        parallelism = DatabaseDescriptor.getCompactionParallelism();
+        minSizeInMB = DatabaseDescriptor.getRawConfig().compaction_parallelism_min_size_in_mb;
+        DatabaseDescriptor.getRawConfig().compaction_parallelism_min_size_in_mb = 0;
+    }
+
+    @After
+    public void tearDown()
+    {
+        DatabaseDescriptor.setCompactionParallelism(parallelism);
+        DatabaseDescriptor.getRawConfig().compaction_parallelism_min_size_in_mb = minSizeInMB;
+        cfs.truncateBlocking();
+    }
+
+    @Test
+    public void testParallelCompactionMatchesSequential()
+    {
+        DatabaseDescriptor.setCompactionParallelism(1);
+        List<String> sequential = compactToLevel1();
+        assertEquals(1, cfs.getLiveSSTables().size());
+        cfs.truncateBlocking();
+
+        DatabaseDescriptor.setCompactionParallelism(4);
+        List<String> parallel = compactToLevel1();
+        assertEquals(sequential, parallel);
+
+        // each sub-range is written to its own sstables, which must not overlap within the level
+        List<SSTableReader> sstables = new ArrayList<>(cfs.getLiveSSTables());
+        assertTrue(sstables.size() > 1);
+        sstables.sort(SSTableReader.sstableComparator);
+        for (int i = 0; i < sstables.size(); i++)
+        {
+            assertEquals(1, sstables.get(i).getSSTableLevel());
+            if (i > 0)
+                assertTrue(sstables.get(i - 1).last.compareTo(sstables.get(i).first) < 0);
+        }
+    }
+
+    @Test
+    public void testParallelCompactionMovesCachedKeys()
+    {
+        DatabaseDescriptor.setCompactionParallelism(4);
+        writeOverlappingSSTables();
+        List<DecoratedKey> keys = new ArrayList<>();
+        for (SSTableReader sstable : cfs.getLiveSSTables())
+        {
+            for (int i = 0; i < 100; i += 10)
+            {
+                DecoratedKey key = cfs.decorateKey(ByteBufferUtil.bytes(String.valueOf(i)));
+                if (sstable.getCachedPosition(key, false) != null)
+                    keys.add(key);
+            }
+        }
+        assertFalse(keys.isEmpty());
+
+        compactToLevel1(cfs.getLiveSSTables());
+        assertTrue(cfs.getLiveSSTables().size() > 1);
+        for (DecoratedKey key : keys)
+        {
+            boolean cached = false;
+            for (SSTableReader sstable : cfs.getLiveSSTables())
+                cached |= sstable.getCachedPosition(key, false) != null;
+            assertTrue("Key " + key + " is not cached anymore", cached);
+        }
+    }
+
+    @Test
+    public void testRunInParallel()
+    {
+        Set<Integer> ran = ConcurrentHashMap.newKeySet();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+        {
+            int task = i;
+            tasks.add(() -> ran.add(task));
+        }
+        CompactionManager.instance.runInParallel(tasks);
+        assertEquals(10, ran.size());
+
+        // the failure of any task is rethrown once they have all completed or been skipped
+        RuntimeException failure = new RuntimeException("sub-range failed");
+        ran.clear();
+        tasks.set(5, () -> { throw failure; });
+        try
+        {
+            CompactionManager.instance.runInParallel(tasks);
+            fail("Expected the sub-range failure to be rethrown");
+        }
+        catch (RuntimeException e)
+        {
+            assertSame(failure, e);
+        }
+    }
+
+    private List<String> compactToLevel1()
+    {
+        writeOverlappingSSTables();
+        compactToLevel1(cfs.getLiveSSTables());
+        return contents();
+    }
+
+    private void compactToLevel1(Set<SSTableReader> sstables)
+    {
+        try (LifecycleTransaction txn = cfs.getTracker().tryModify(sstables, OperationType.COMPACTION))
+        {
+            assertNotNull(txn);
+            new LeveledCompactionTask(cfs, txn, 1, FBUtilities.nowInSeconds(), Long.MAX_VALUE, false).execute(null);
+        }
+    }
+
+    /**
+     * Writes sstables all spanning the same keys, overwriting some of the rows of the previous ones.
+     */
+    private void writeOverlappingSSTables()
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            for (int r = 0; r < 100; r++)
+            {
+                UpdateBuilder.create(cfs.metadata(), String.valueOf(r))
+                             .withTimestamp(i)
+                             .newRow("column" + ((r + i) % 3))
+                             .add("val", ByteBufferUtil.bytes(i))
+                             .applyUnsafe();
+            }
+            cfs.forceBlockingFlush();
+        }
+        // read the keys we cache, so the compaction has some to move
+        for (int r = 0; r < 100; r += 10)
+            Util.getAll(Util.cmd(cfs, String.valueOf(r)).build());
+    }
+
+    private List<String> contents()
+    {
+        List<String> contents = new ArrayList<>();
+        for (FilteredPartition partition : Util.getAll(Util.cmd(cfs).build()))
+        {
+            for (Row row : partition)
+            {
+                for (Cell cell : row.cells())
+                    contents.add(String.format("%s:%s:%s=%s",
+                                               ByteBufferUtil.bytesToHex(partition.partitionKey().getKey()),
+                                               row.clustering().toString(cfs.metadata()),
+                                               cell.column().name,
+                                               ByteBufferUtil.bytesToHex(cell.value())));
+            }
+        }
+        return contents;
+    }
+}
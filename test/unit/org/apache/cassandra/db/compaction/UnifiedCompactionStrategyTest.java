@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.exceptions.ConfigurationException;
+
+import static org.apache.cassandra.db.compaction.CompactionTask.rangesFromBoundaries;
+import static org.apache.cassandra.db.compaction.UnifiedCompactionStrategy.groupShards;
+import static org.apache.cassandra.db.compaction.UnifiedCompactionStrategy.levelOf;
+import static org.apache.cassandra.db.compaction.UnifiedCompactionStrategy.overlappingSets;
+import static org.apache.cassandra.db.compaction.UnifiedCompactionStrategy.shardCount;
+import static org.apache.cassandra.db.compaction.UnifiedCompactionStrategy.validateOptions;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UnifiedCompactionStrategyTest
+{
+    private static final long MB = 1 << 20;
+
+    @Test
+    public void testOptionsValidation() throws ConfigurationException
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put(UnifiedCompactionStrategyOptions.SCALING_PARAMETERS_KEY, "T4, L10, N, -3");
+        options.put(UnifiedCompactionStrategyOptions.MIN_SSTABLE_SIZE_KEY, "50");
+        options.put(UnifiedCompactionStrategyOptions.TARGET_SSTABLE_SIZE_KEY, "512");
+        options.put(UnifiedCompactionStrategyOptions.BASE_SHARD_COUNT_KEY, "8");
+        Map<String, String> unvalidated = validateOptions(options);
+        assertTrue(unvalidated.isEmpty());
+
+        for (String invalid : new String[]{ "T1", "L0", "X", "" })
+        {
+            try
+            {
+                options.put(UnifiedCompactionStrategyOptions.SCALING_PARAMETERS_KEY, invalid);
+                validateOptions(options);
+                fail(invalid + " should be rejected");
+            }
+            catch (ConfigurationException e)
+            {
+                options.put(UnifiedCompactionStrategyOptions.SCALING_PARAMETERS_KEY, "T4");
+            }
+        }
+
+        try
+        {
+            options.put(UnifiedCompactionStrategyOptions.BASE_SHARD_COUNT_KEY, "0");
+            validateOptions(options);
+            fail("base_shard_count of 0 should be rejected");
+        }
+        catch (ConfigurationException e)
+        {
+            options.put(UnifiedCompactionStrategyOptions.BASE_SHARD_COUNT_KEY, "4");
+        }
+
+        options.put("bad_option", "1.0");
+        unvalidated = validateOptions(options);
+        assertTrue(unvalidated.containsKey("bad_option"));
+    }
+
+    @Test
+    public void testScalingParameters()
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put(UnifiedCompactionStrategyOptions.SCALING_PARAMETERS_KEY, "T4, L10, N, -3");
+        UnifiedCompactionStrategyOptions parsed = new UnifiedCompactionStrategyOptions(options);
+        assertArrayEquals(new int[]{ 2, -8, 0, -3 }, parsed.scalingParameters);
+
+        // tiered
+        assertEquals(4, parsed.fanout(0));
+        assertEquals(4, parsed.threshold(0));
+        // leveled
+        assertEquals(10, parsed.fanout(1));
+        assertEquals(2, parsed.threshold(1));
+        assertEquals(2, parsed.fanout(2));
+        assertEquals(2, parsed.threshold(2));
+        // the last parameter applies to all the levels above
+        assertEquals(5, parsed.fanout(3));
+        assertEquals(5, parsed.fanout(10));
+        assertEquals(2, parsed.threshold(10));
+    }
+
+    @Test
+    public void testLevels()
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put(UnifiedCompactionStrategyOptions.SCALING_PARAMETERS_KEY, "T4");
+        options.put(UnifiedCompactionStrategyOptions.MIN_SSTABLE_SIZE_KEY, "100");
+        UnifiedCompactionStrategyOptions tiered = new UnifiedCompactionStrategyOptions(options);
+
+        assertEquals(0, levelOf(tiered, 0));
+        assertEquals(0, levelOf(tiered, 10 * MB));
+        assertEquals(0, levelOf(tiered, 399 * MB));
+        assertEquals(1, levelOf(tiered, 400 * MB));
+        assertEquals(1, levelOf(tiered, 1599 * MB));
+        assertEquals(2, levelOf(tiered, 1600 * MB));
+
+        // changing the scaling parameter changes the levels of existing densities
+        options.put(UnifiedCompactionStrategyOptions.SCALING_PARAMETERS_KEY, "L10");
+        UnifiedCompactionStrategyOptions leveled = new UnifiedCompactionStrategyOptions(options);
+        assertEquals(0, levelOf(leveled, 999 * MB));
+        assertEquals(1, levelOf(leveled, 1600 * MB));
+        assertEquals(2, levelOf(leveled, 10000 * MB));
+    }
+
+    @Test
+    public void testShardCount()
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put(UnifiedCompactionStrategyOptions.TARGET_SSTABLE_SIZE_KEY, "1000");
+        options.put(UnifiedCompactionStrategyOptions.BASE_SHARD_COUNT_KEY, "4");
+        UnifiedCompactionStrategyOptions parsed = new UnifiedCompactionStrategyOptions(options);
+
+        assertEquals(4, shardCount(parsed, 0));
+        assertEquals(4, shardCount(parsed, 4000 * MB));
+        assertEquals(4, shardCount(parsed, 7999 * MB));
+        assertEquals(8, shardCount(parsed, 8000 * MB));
+        assertEquals(16, shardCount(parsed, 20000 * MB));
+        assertEquals(UnifiedCompactionStrategyOptions.MAX_SHARD_COUNT, shardCount(parsed, Double.MAX_VALUE));
+    }
+
+    @Test
+    public void testOverlappingSets()
+    {
+        // intervals are {start, end}, inclusive
+        List<int[]> intervals = Arrays.asList(new int[]{ 0, 10 },
+                                              new int[]{ 5, 15 },
+                                              new int[]{ 10, 20 },
+                                              new int[]{ 12, 18 },
+                                              new int[]{ 25, 30 },
+                                              new int[]{ 0, 100 });
+        List<List<int[]>> sets = overlappingSets(intervals, i -> i[0], i -> i[1]);
+
+        assertEquals(3, sets.size());
+        // overlapping at 10
+        assertEquals(4, sets.get(0).size());
+        assertTrue(sets.get(0).containsAll(Arrays.asList(intervals.get(0), intervals.get(1), intervals.get(2), intervals.get(5))));
+        // at 12-15, the set overlapping at 15-18 only isn't maximal
+        assertEquals(4, sets.get(1).size());
+        assertTrue(sets.get(1).containsAll(Arrays.asList(intervals.get(1), intervals.get(2), intervals.get(3), intervals.get(5))));
+        // at 25-30
+        assertEquals(2, sets.get(2).size());
+        assertTrue(sets.get(2).containsAll(Arrays.asList(intervals.get(4), intervals.get(5))));
+
+        assertTrue(overlappingSets(Arrays.<int[]>asList(), i -> i[0], i -> i[1]).isEmpty());
+    }
+
+    @Test
+    public void testGroupShards()
+    {
+        Murmur3Partitioner partitioner = Murmur3Partitioner.instance;
+        List<Token> shards = Arrays.asList(token(-100), token(0), token(100), token(200), token(300), partitioner.getMaximumToken());
+
+        // spanning shards 1 to 4, the upper bounds being inclusive
+        List<Token> groups = groupShards(shards, token(-50), token(250), 2);
+        assertEquals(Arrays.asList(token(100), partitioner.getMaximumToken()), groups);
+        groups = groupShards(shards, token(-50), token(250), 3);
+        assertEquals(Arrays.asList(token(0), token(100), partitioner.getMaximumToken()), groups);
+        // never more groups than spanned shards
+        groups = groupShards(shards, token(50), token(150), 4);
+        assertEquals(Arrays.asList(token(100), partitioner.getMaximumToken()), groups);
+        groups = groupShards(shards, token(400), token(500), 4);
+        assertEquals(Arrays.asList(partitioner.getMaximumToken()), groups);
+
+        List<Range<Token>> ranges = rangesFromBoundaries(partitioner, Arrays.asList(token(0), token(100), partitioner.getMaximumToken()));
+        assertEquals(Arrays.asList(new Range<>(partitioner.getMinimumToken(), token(0)),
+                                   new Range<>(token(0), token(100)),
+                                   new Range<>(token(100), partitioner.getMaximumToken())),
+                     ranges);
+    }
+
+    private static Token token(long value)
+    {
+        return new Murmur3Partitioner.LongToken(value);
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Set;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -56,6 +57,46 @@ public class SplitterTest
         randomSplitTestVNodes(new Murmur3Partitioner());
     }
 
+    @Test
+    public void segmentsTestRandomPartitioner()
+    {
+        segmentsTest(new RandomPartitioner());
+    }
+
+    @Test
+    public void segmentsTestMurmur3Partitioner()
+    {
+        segmentsTest(new Murmur3Partitioner());
+    }
+
+    private void segmentsTest(IPartitioner partitioner)
+    {
+        Splitter splitter = partitioner.splitter().get();
+        for (int count : new int[]{ 1, 3, 1024 })
+        {
+            // the segments cover the ring, without gaps
+            assertEquals(partitioner.getMinimumToken(), splitter.segment(0, count).left);
+            assertEquals(partitioner.getMaximumToken(), splitter.segment(count - 1, count).right);
+            for (int i = 1; i < count; i++)
+                assertEquals(splitter.segment(i - 1, count).right, splitter.segment(i, count).left);
+
+            // and each token belongs to the segment containing it, bounds included
+            for (int i = 0; i < count; i++)
+            {
+                Range<Token> segment = splitter.segment(i, count);
+                assertEquals(i, splitter.segmentOf(segment.right, count));
+                assertEquals(i, splitter.segmentOf(partitioner.midpoint(segment.left, segment.right), count));
+            }
+
+            Random r = new Random();
+            for (int i = 0; i < 1000; i++)
+            {
+                Token token = partitioner.getRandomToken(r);
+                assertTrue(splitter.segment(splitter.segmentOf(token, count), count).contains(token));
+            }
+        }
+    }
+
     public void randomSplitTestNoVNodes(IPartitioner partitioner)
     {
         Splitter splitter = partitioner.splitter().get();
@@ -31,29 +31,62 @@ import java.net.UnknownHostException;
 
 public class ArrivalWindowTest
 {
+    private static final long toNano = 1000000L;
+
     @Test
     public void testWithNanoTime()
     {
         final ArrivalWindow windowWithNano = new ArrivalWindow(4);
-        final long toNano = 1000000L;
-        InetAddress ep;
+        InetAddress ep = localHost();
+
+        // the initial value is forgotten once arrivals come at a steady rate
+        long last = addArrivals(windowWithNano, ep, 50);
+        assertEquals(111 * toNano, windowWithNano.mean(), 0.01 * toNano);
+
+        //all good
+        assertEquals(1.0, windowWithNano.phi(last + 111 * toNano), 0.01);
+        //oh noes, a much higher timestamp, something went wrong!
+        assertEquals(22.03, windowWithNano.phi(last + 2445 * toNano), 0.01);
+    }
+
+    @Test
+    public void testLocalPause()
+    {
+        final ArrivalWindow window = new ArrivalWindow(4);
+        InetAddress ep = localHost();
+        long last = addArrivals(window, ep, 50);
+
+        FailureDetector.reportLocalPause(1000 * toNano);
+
+        // the time we were paused ourselves is not held against the endpoint
+        assertEquals(1.0, window.phi(last + 1111 * toNano), 0.01);
+
+        // nor in the interval that spans the pause, which is sampled without it
+        window.add(last + 1222 * toNano, ep);
+        assertEquals((111 + 0.4 * 111) * toNano, window.mean(), 0.01 * toNano);
+        assertEquals(1.0, window.phi(last + 1222 * toNano + (long) window.mean()), 0.01);
+    }
+
+    private static long addArrivals(ArrivalWindow window, InetAddress ep, int count)
+    {
+        long time = 0;
+        for (int i = 1; i <= count; i++)
+        {
+            time = i * 111 * toNano;
+            window.add(time, ep);
+        }
+        return time;
+    }
+
+    private static InetAddress localHost()
+    {
         try
         {
-            ep = InetAddress.getLocalHost();
+            return InetAddress.getLocalHost();
         }
         catch (UnknownHostException e)
         {
             throw new RuntimeException(e);
         }
-        windowWithNano.add(111 * toNano, ep);
-        windowWithNano.add(222 * toNano, ep);
-        windowWithNano.add(333 * toNano, ep);
-        windowWithNano.add(444 * toNano, ep);
-        windowWithNano.add(555 * toNano, ep);
-
-        //all good
-        assertEquals(1.0, windowWithNano.phi(666 * toNano), 0.01);
-        //oh noes, a much higher timestamp, something went wrong!
-        assertEquals(22.03, windowWithNano.phi(3000 * toNano), 0.01);
     }
 }
@@ -21,7 +21,9 @@ package org.apache.cassandra.gms;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import com.google.common.collect.ImmutableMap;
@@ -37,6 +39,7 @@ import org.apache.cassandra.locator.TokenMetadata;
 import org.apache.cassandra.service.StorageService;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class GossiperTest
 {
@@ -90,4 +93,47 @@ public class GossiperTest
         //The generation should not have been updated because it is over Gossiper.MAX_GENERATION_DIFFERENCE in the future
         assertEquals(proposedRemoteHeartBeat.getGeneration(), actualRemoteHeartBeat.getGeneration());
     }
+
+    @Test
+    public void testOnlyNewerStatesApplied() throws UnknownHostException
+    {
+        Util.createInitialRing(ss, partitioner, endpointTokens, keyTokens, hosts, hostIds, 2);
+        InetAddress remoteHostAddress = hosts.get(1);
+
+        EndpointState localState = Gossiper.instance.getEndpointStateForEndpoint(remoteHostAddress);
+        VersionedValue tokens = localState.getApplicationState(ApplicationState.TOKENS);
+        VersionedValue load = new VersionedValue.VersionedValueFactory(partitioner).load(42);
+
+        // the remote state has the tokens we already know of, and a newer load
+        HeartBeatState heartBeat = localState.getHeartBeatState();
+        EndpointState remoteState = new EndpointState(new HeartBeatState(heartBeat.getGeneration(), heartBeat.getHeartBeatVersion()));
+        remoteState.addApplicationState(ApplicationState.TOKENS, tokens);
+        remoteState.addApplicationState(ApplicationState.LOAD, load);
+
+        Map<ApplicationState, VersionedValue> changes = new EnumMap<>(ApplicationState.class);
+        IEndpointStateChangeSubscriber subscriber = new IEndpointStateChangeSubscriber()
+        {
+            public void onJoin(InetAddress endpoint, EndpointState epState) {}
+            public void beforeChange(InetAddress endpoint, EndpointState currentState, ApplicationState newStateKey, VersionedValue newValue) {}
+            public void onChange(InetAddress endpoint, ApplicationState state, VersionedValue value) { changes.put(state, value); }
+            public void onAlive(InetAddress endpoint, EndpointState state) {}
+            public void onDead(InetAddress endpoint, EndpointState state) {}
+            public void onRemove(InetAddress endpoint) {}
+            public void onRestart(InetAddress endpoint, EndpointState state) {}
+        };
+        Gossiper.instance.register(subscriber);
+        try
+        {
+            Gossiper.instance.applyStateLocally(ImmutableMap.of(remoteHostAddress, remoteState));
+        }
+        finally
+        {
+            Gossiper.instance.unregister(subscriber);
+        }
+
+        assertEquals(1, changes.size());
+        assertSame(load, changes.get(ApplicationState.LOAD));
+        assertSame(load, Gossiper.instance.getEndpointStateForEndpoint(remoteHostAddress).getApplicationState(ApplicationState.LOAD));
+        assertSame(tokens, Gossiper.instance.getEndpointStateForEndpoint(remoteHostAddress).getApplicationState(ApplicationState.TOKENS));
+    }
 }
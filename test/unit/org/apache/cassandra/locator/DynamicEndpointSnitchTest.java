@@ -31,6 +31,7 @@ import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.FBUtilities;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class DynamicEndpointSnitchTest
 {
@@ -104,4 +105,52 @@ public class DynamicEndpointSnitchTest
         order = Arrays.asList(host1, host2, host3, host4);
         assertEquals(order, dsnitch.getSortedListByProximity(self, Arrays.asList(host1, host2, host3, host4)));
     }
+
+    @Test
+    public void testLatencyQuantiles() throws IOException
+    {
+        SimpleSnitch ss = new SimpleSnitch();
+        DynamicEndpointSnitch dsnitch = new DynamicEndpointSnitch(ss, String.valueOf(ss.hashCode()));
+        try
+        {
+            InetAddress host = InetAddress.getByName("127.0.0.2");
+            assertTrue(Double.isNaN(dsnitch.getLatency(host, 0.5)));
+
+            for (int latency = 1; latency <= 100; latency++)
+                dsnitch.receiveTiming(host, latency);
+
+            // the latencies are rounded up to the histogram buckets, which are 20% apart
+            assertEquals(50, dsnitch.getLatency(host, 0.5), 10);
+            assertEquals(99, dsnitch.getLatency(host, 0.99), 20);
+            assertEquals(100, dsnitch.dumpTimings(host.getHostAddress()).size());
+        }
+        finally
+        {
+            dsnitch.close();
+        }
+    }
+
+    @Test
+    public void testProbeLatenciesDontCountForQuantiles() throws IOException
+    {
+        SimpleSnitch ss = new SimpleSnitch();
+        DynamicEndpointSnitch dsnitch = new DynamicEndpointSnitch(ss, String.valueOf(ss.hashCode()));
+        try
+        {
+            InetAddress host = InetAddress.getByName("127.0.0.2");
+            dsnitch.receiveProbeTiming(host, 1);
+            assertTrue(Double.isNaN(dsnitch.getLatency(host, 0.5)));
+
+            for (int i = 0; i < 100; i++)
+            {
+                dsnitch.receiveTiming(host, 50);
+                dsnitch.receiveProbeTiming(host, 1);
+            }
+            assertEquals(50, dsnitch.getLatency(host, 0.01), 10);
+        }
+        finally
+        {
+            dsnitch.close();
+        }
+    }
 }
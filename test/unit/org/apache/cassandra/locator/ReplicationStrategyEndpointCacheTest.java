@@ -22,6 +22,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.BeforeClass;
@@ -34,6 +40,8 @@ import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.schema.KeyspaceParams;
 
+import static org.junit.Assert.assertEquals;
+
 public class ReplicationStrategyEndpointCacheTest
 {
     private TokenMetadata tmd;
@@ -120,6 +128,109 @@ public class ReplicationStrategyEndpointCacheTest
         assert !endpoints.equals(initial);
     }
 
+    @Test
+    public void testPrecomputedEndpoints() throws Exception
+    {
+        setup(SimpleStrategy.class, null);
+        strategy.getNaturalEndpoints(searchToken);
+        // changes the ring after the endpoints were computed
+        tmd.updateNormalToken(new BigIntegerToken(String.valueOf(50)), InetAddress.getByName("127.0.0.5"));
+
+        // the tokens of the ring, those between them, and those before the first and after the last one
+        for (int i = 0; i <= 90; i += 5)
+        {
+            Token token = new BigIntegerToken(String.valueOf(i));
+            assertEquals(strategy.calculateNaturalEndpoints(token, tmd.cloneOnlyTokenMap()), strategy.getNaturalEndpoints(token));
+        }
+    }
+
+    @Test
+    public void testLookupsDuringRingChange() throws Exception
+    {
+        setup(SimpleStrategy.class, null);
+        CountDownLatch calculating = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Token slowToken = new BigIntegerToken(String.valueOf(40));
+        AbstractReplicationStrategy slowStrategy = new SimpleStrategy(KEYSPACE, tmd, strategy.snitch, strategy.configOptions)
+        {
+            public List<InetAddress> calculateNaturalEndpoints(Token token, TokenMetadata metadata)
+            {
+                if (token.equals(slowToken))
+                {
+                    calculating.countDown();
+                    Uninterruptibles.awaitUninterruptibly(release);
+                }
+                return super.calculateNaturalEndpoints(token, metadata);
+            }
+        };
+        slowStrategy.getNaturalEndpoints(searchToken);
+
+        // the first lookup after a ring change is slow to calculate the endpoints of its token
+        tmd.updateNormalToken(new BigIntegerToken(String.valueOf(50)), InetAddress.getByName("127.0.0.5"));
+        Thread slowLookup = new Thread(() -> slowStrategy.getNaturalEndpoints(new BigIntegerToken(String.valueOf(35))));
+        slowLookup.start();
+        calculating.await();
+
+        // which doesn't hold up the lookups of the other tokens
+        for (int i = 0; i <= 90; i += 5)
+        {
+            if (i > 30 && i <= 40)
+                continue;
+            Token token = new BigIntegerToken(String.valueOf(i));
+            assertEquals(slowStrategy.calculateNaturalEndpoints(token, tmd.cloneOnlyTokenMap()), slowStrategy.getNaturalEndpoints(token));
+        }
+
+        release.countDown();
+        slowLookup.join();
+        assertEquals(slowStrategy.calculateNaturalEndpoints(slowToken, tmd.cloneOnlyTokenMap()), slowStrategy.getNaturalEndpoints(slowToken));
+    }
+
+    @Test
+    public void testConcurrentLookupsDuringRingChanges() throws Throwable
+    {
+        setup(NetworkTopologyStrategy.class, new HashMap<String, String>());
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++)
+        {
+            Thread reader = new Thread(() -> {
+                try
+                {
+                    Random random = new Random();
+                    while (!stop.get())
+                    {
+                        ArrayList<InetAddress> endpoints = strategy.getNaturalEndpoints(new BigIntegerToken(String.valueOf(random.nextInt(100))));
+                        assertEquals(StringUtils.join(endpoints, ","), 5, endpoints.size());
+                    }
+                }
+                catch (Throwable e)
+                {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+
+        // moves a node back and forth while the readers look up endpoints
+        InetAddress moving = InetAddress.getByName("127.0.0.5");
+        for (int i = 0; i < 200; i++)
+            tmd.updateNormalToken(new BigIntegerToken(String.valueOf(i % 2 == 0 ? 35 : 55)), moving);
+
+        stop.set(true);
+        for (Thread reader : readers)
+            reader.join();
+        if (failure.get() != null)
+            throw failure.get();
+
+        for (int i = 0; i <= 90; i += 5)
+        {
+            Token token = new BigIntegerToken(String.valueOf(i));
+            assertEquals(strategy.calculateNaturalEndpoints(token, tmd.cloneOnlyTokenMap()), strategy.getNaturalEndpoints(token));
+        }
+    }
+
     protected static class FakeSimpleStrategy extends SimpleStrategy
     {
         private boolean called = false;
@@ -20,9 +20,13 @@ package org.apache.cassandra.locator;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Multimap;
 
@@ -35,6 +39,7 @@ import static org.junit.Assert.assertEquals;
 
 import static org.apache.cassandra.Util.token;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.apache.cassandra.OrderedJUnit4ClassRunner;
@@ -175,6 +180,8 @@ public class TokenMetadataTest
         tokenMetadata.updateTopology(first);
         tokenMetadata.updateTopology(second);
 
+        // updates replace the topology rather than modifying it
+        topology = tokenMetadata.getTopology();
         allEndpoints = topology.getDatacenterEndpoints();
         assertNotNull(allEndpoints);
         assertTrue(allEndpoints.size() == 2);
@@ -272,6 +279,8 @@ public class TokenMetadataTest
 
         tokenMetadata.updateTopology();
 
+        // updates replace the topology rather than modifying it
+        topology = tokenMetadata.getTopology();
         allEndpoints = topology.getDatacenterEndpoints();
         assertNotNull(allEndpoints);
         assertTrue(allEndpoints.size() == 2);
@@ -327,4 +336,120 @@ public class TokenMetadataTest
         assertEquals(0, tokenMetadata.getSizeOfLeavingEndpoints());
         assertEquals(0, tokenMetadata.getSizeOfMovingEndpoints());
     }
+
+    @Test
+    public void testIncrementalPendingRanges() throws UnknownHostException
+    {
+        TokenMetadata tokenMetadata = new TokenMetadata();
+        for (int i = 1; i <= 9; i++)
+            tokenMetadata.updateNormalToken(token(i + "0"), InetAddress.getByName("127.0.0." + i));
+        InetAddress leaving = InetAddress.getByName("127.0.0.9");
+        tokenMetadata.addLeavingEndpoint(leaving);
+
+        InetAddress first = InetAddress.getByName("127.0.1.1");
+        InetAddress second = InetAddress.getByName("127.0.1.2");
+        tokenMetadata.addBootstrapTokens(Collections.singleton(token("15")), first);
+        tokenMetadata.calculatePendingRanges(simpleStrategy("ks1", tokenMetadata), "ks1");
+        tokenMetadata.calculatePendingRanges(simpleStrategy("ks2", tokenMetadata), "ks2");
+        // keyspaces replicated the same way share their pending ranges
+        assertSame(tokenMetadata.getPendingRanges("ks1"), tokenMetadata.getPendingRanges("ks2"));
+        assertPendingRanges(tokenMetadata);
+
+        // another node starts bootstrapping
+        tokenMetadata.addBootstrapTokens(Collections.singleton(token("55")), second);
+        assertPendingRanges(tokenMetadata);
+
+        // the first one is done
+        tokenMetadata.removeBootstrapTokens(Collections.singleton(token("15")));
+        tokenMetadata.updateNormalToken(token("15"), first);
+        assertPendingRanges(tokenMetadata);
+
+        // the leaving node is gone
+        tokenMetadata.removeEndpoint(leaving);
+        assertPendingRanges(tokenMetadata);
+    }
+
+    @Test
+    public void testUpdatesDontModifySnapshots() throws UnknownHostException
+    {
+        InetAddress first = InetAddress.getByName("127.0.0.1");
+        InetAddress second = InetAddress.getByName("127.0.0.2");
+        TokenMetadata tokenMetadata = new TokenMetadata();
+        tokenMetadata.updateNormalToken(token("10"), first);
+        tokenMetadata.updateHostId(UUID.randomUUID(), first);
+
+        TokenMetadata clone = tokenMetadata.cloneOnlyTokenMap();
+        ArrayList<Token> sortedTokens = tokenMetadata.sortedTokens();
+        TokenMetadata.Topology topology = tokenMetadata.getTopology();
+        Set<InetAddress> leaving = tokenMetadata.getLeavingEndpoints();
+
+        tokenMetadata.updateNormalToken(token("20"), second);
+        tokenMetadata.updateHostId(UUID.randomUUID(), second);
+        tokenMetadata.addLeavingEndpoint(first);
+
+        // what was read before the updates is left as is
+        assertEquals(Collections.singletonList(token("10")), sortedTokens);
+        assertEquals(Collections.singletonList(first), new ArrayList<>(topology.getDatacenterEndpoints().values()));
+        assertTrue(leaving.isEmpty());
+        assertEquals(Collections.singletonList(token("10")), clone.sortedTokens());
+        assertEquals(1, clone.getSizeOfAllEndpoints());
+
+        // and the updates of a copy don't change the metadata it was taken from
+        clone.removeEndpoint(first);
+        assertEquals(0, clone.getSizeOfAllEndpoints());
+        assertEquals(2, tokenMetadata.getSizeOfAllEndpoints());
+        assertTrue(tokenMetadata.isMember(first));
+        assertEquals(Arrays.asList(token("10"), token("20")), tokenMetadata.sortedTokens());
+    }
+
+    @Test
+    public void testUnchangedNormalTokensDontBumpRingVersion() throws UnknownHostException
+    {
+        InetAddress first = InetAddress.getByName("127.0.0.1");
+        InetAddress second = InetAddress.getByName("127.0.0.2");
+        TokenMetadata tokenMetadata = new TokenMetadata();
+        Multimap<InetAddress, Token> endpointTokens = HashMultimap.create();
+        endpointTokens.putAll(first, Arrays.asList(token("10"), token("30")));
+        endpointTokens.put(second, token("20"));
+        tokenMetadata.updateNormalTokens(endpointTokens);
+        assertEquals(Arrays.asList(token("10"), token("20"), token("30")), tokenMetadata.sortedTokens());
+
+        long ringVersion = tokenMetadata.getRingVersion();
+        ArrayList<Token> sortedTokens = tokenMetadata.sortedTokens();
+        tokenMetadata.updateNormalTokens(endpointTokens);
+        tokenMetadata.updateNormalTokens(Arrays.asList(token("30"), token("10")), first);
+        assertEquals(ringVersion, tokenMetadata.getRingVersion());
+        assertSame(sortedTokens, tokenMetadata.sortedTokens());
+
+        // but any actual change is published
+        tokenMetadata.updateNormalTokens(Collections.singletonList(token("10")), first);
+        assertTrue(tokenMetadata.getRingVersion() > ringVersion);
+        assertEquals(Arrays.asList(token("10"), token("20")), tokenMetadata.sortedTokens());
+
+        tokenMetadata.addLeavingEndpoint(second);
+        tokenMetadata.updateNormalTokens(Collections.singletonList(token("20")), second);
+        assertFalse(tokenMetadata.isLeaving(second));
+    }
+
+    /**
+     * Checks the pending ranges computed from the previous ones are those computed from scratch.
+     */
+    private static void assertPendingRanges(TokenMetadata tokenMetadata) throws UnknownHostException
+    {
+        tokenMetadata.calculatePendingRanges(simpleStrategy("ks1", tokenMetadata), "ks1");
+
+        TokenMetadata fromScratch = tokenMetadata.cloneOnlyTokenMap();
+        for (InetAddress endpoint : tokenMetadata.getLeavingEndpoints())
+            fromScratch.addLeavingEndpoint(endpoint);
+        for (Map.Entry<Token, InetAddress> entry : tokenMetadata.getBootstrapTokens().entrySet())
+            fromScratch.addBootstrapTokens(Collections.singleton(entry.getKey()), entry.getValue());
+        fromScratch.calculatePendingRanges(simpleStrategy("ks1", fromScratch), "ks1");
+
+        assertEquals(fromScratch.getPendingRangesMM("ks1"), tokenMetadata.getPendingRangesMM("ks1"));
+    }
+
+    private static AbstractReplicationStrategy simpleStrategy(String keyspaceName, TokenMetadata tokenMetadata)
+    {
+        return new SimpleStrategy(keyspaceName, tokenMetadata, new SimpleSnitch(), Collections.singletonMap("replication_factor", "3"));
+    }
 }
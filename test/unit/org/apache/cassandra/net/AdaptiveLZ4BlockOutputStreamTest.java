@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+import org.junit.Test;
+
+import org.apache.cassandra.io.util.FileUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveLZ4BlockOutputStreamTest
+{
+    private static final int BLOCK_SIZE = 1 << 12;
+
+    private final Counter uncompressedBytes = new Counter();
+    private final Counter compressedBytes = new Counter();
+    private final Timer compressionTime = new Timer();
+    private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    private final AdaptiveLZ4BlockOutputStream out = new AdaptiveLZ4BlockOutputStream(sent, BLOCK_SIZE, uncompressedBytes, compressedBytes, compressionTime);
+
+    @Test
+    public void testSmallBlocksAreNotCompressed() throws IOException
+    {
+        byte[] data = new byte[AdaptiveLZ4BlockOutputStream.MIN_COMPRESSED_BLOCK_SIZE - 1];
+        out.write(data);
+        out.flush();
+
+        assertEquals(data.length, uncompressedBytes.getCount());
+        assertTrue(compressedBytes.getCount() > data.length);
+        assertEquals(0, compressionTime.getCount());
+        assertRoundTrip(data);
+    }
+
+    @Test
+    public void testCompressibleBlocks() throws IOException
+    {
+        // larger than a block, and flushed in the middle
+        byte[] data = new byte[BLOCK_SIZE * 3];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i % 10);
+        out.write(data, 0, BLOCK_SIZE * 2 + 1000);
+        out.flush();
+        out.write(data, BLOCK_SIZE * 2 + 1000, BLOCK_SIZE - 1000);
+        out.flush();
+
+        assertEquals(data.length, uncompressedBytes.getCount());
+        assertTrue(compressedBytes.getCount() < data.length / 10);
+        assertEquals(4, compressionTime.getCount());
+        assertRoundTrip(data);
+    }
+
+    @Test
+    public void testIncompressibleBlocksAreSkipped() throws IOException
+    {
+        byte[] random = new byte[BLOCK_SIZE];
+        new Random(42).nextBytes(random);
+        byte[] compressible = new byte[BLOCK_SIZE];
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        // fails, skips 1, fails, skips 2, fails, skips 4
+        for (int i = 0; i < 10; i++)
+        {
+            out.write(random);
+            expected.write(random);
+        }
+        out.flush();
+        assertEquals(3, compressionTime.getCount());
+        assertEquals(10 * BLOCK_SIZE, uncompressedBytes.getCount());
+        assertTrue(compressedBytes.getCount() > 10 * BLOCK_SIZE);
+
+        // compressible blocks are compressed again once the skipped ones are over
+        out.write(compressible);
+        out.write(compressible);
+        expected.write(compressible);
+        expected.write(compressible);
+        out.flush();
+        assertEquals(5, compressionTime.getCount());
+        assertTrue(compressedBytes.getCount() < 11 * BLOCK_SIZE);
+
+        assertRoundTrip(expected.toByteArray());
+    }
+
+    private void assertRoundTrip(byte[] expected) throws IOException
+    {
+        out.close();
+        LZ4BlockInputStream in = new LZ4BlockInputStream(new ByteArrayInputStream(sent.toByteArray()),
+                                                         LZ4Factory.fastestInstance().fastDecompressor(),
+                                                         XXHashFactory.fastestInstance().newStreamingHash32(OutboundTcpConnection.LZ4_HASH_SEED).asChecksum());
+        byte[] received = new byte[expected.length + 1];
+        int length = 0;
+        int read;
+        while ((read = in.read(received, length, received.length - length)) > 0)
+            length += read;
+        FileUtils.closeQuietly(in);
+
+        assertArrayEquals(expected, Arrays.copyOf(received, length));
+    }
+}
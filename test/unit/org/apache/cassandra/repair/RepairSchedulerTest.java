@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.repair;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.dht.ByteOrderedPartitioner;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.repair.messages.RepairOption;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.progress.ProgressEvent;
+import org.apache.cassandra.utils.progress.ProgressEventType;
+import org.apache.cassandra.utils.progress.ProgressListener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RepairSchedulerTest
+{
+    private static final IPartitioner partitioner = Murmur3Partitioner.instance;
+
+    @BeforeClass
+    public static void setupDD()
+    {
+        DatabaseDescriptor.daemonInitialization();
+    }
+
+    @Test
+    public void testSubrangeCount()
+    {
+        assertEquals(1, RepairScheduler.subrangeCount(0, 100));
+        assertEquals(1, RepairScheduler.subrangeCount(100, 100));
+        assertEquals(2, RepairScheduler.subrangeCount(101, 100));
+        assertEquals(4, RepairScheduler.subrangeCount(300, 100));
+        assertEquals(4, RepairScheduler.subrangeCount(400, 100));
+        assertEquals(8, RepairScheduler.subrangeCount(401, 100));
+        assertEquals(RepairScheduler.MAX_SUBRANGES_PER_RANGE, RepairScheduler.subrangeCount(Long.MAX_VALUE, 1));
+    }
+
+    @Test
+    public void testSplit()
+    {
+        Range<Token> range = new Range<>(token(0), token(1000));
+        List<Range<Token>> subranges = RepairScheduler.split(range, 4, partitioner);
+        assertEquals(4, subranges.size());
+        assertContiguous(range, subranges);
+        assertEquals(new Range<>(token(0), token(250)), subranges.get(0));
+
+        // up to the end of the ring
+        Token min = partitioner.getMinimumToken();
+        range = new Range<>(token(0), min);
+        subranges = RepairScheduler.split(range, 8, partitioner);
+        assertEquals(8, subranges.size());
+        assertContiguous(range, subranges);
+
+        // too narrow to be split as much as asked
+        range = new Range<>(token(0), token(3));
+        subranges = RepairScheduler.split(range, 16, partitioner);
+        assertEquals(3, subranges.size());
+        assertContiguous(range, subranges);
+    }
+
+    @Test
+    public void testPlan()
+    {
+        Map<Range<Token>, Pair<Long, Long>> estimates = new HashMap<>();
+        estimates.put(new Range<>(token(0), token(1000)), Pair.create(300L, 10L));
+        estimates.put(new Range<>(token(5000), token(6000)), Pair.create(50L, 10L));
+
+        Map<Range<Token>, Long> subranges = RepairScheduler.plan(estimates, 100, partitioner);
+        assertEquals(5, subranges.size());
+        assertEquals(75L, (long) subranges.get(new Range<>(token(0), token(250))));
+        assertEquals(50L, (long) subranges.get(new Range<>(token(5000), token(6000))));
+
+        // slightly different estimates give the same subranges
+        estimates.put(new Range<>(token(0), token(1000)), Pair.create(350L, 10L));
+        assertEquals(subranges.keySet(), RepairScheduler.plan(estimates, 100, partitioner).keySet());
+
+        // partitioners that can't be split repair whole ranges
+        IPartitioner byteOrdered = ByteOrderedPartitioner.instance;
+        Range<Token> range = new Range<>(byteOrdered.getToken(ByteBufferUtil.bytes(1)), byteOrdered.getToken(ByteBufferUtil.bytes(2)));
+        assertEquals(Collections.singletonMap(range, 1000L),
+                     RepairScheduler.plan(Collections.singletonMap(range, Pair.create(1000L, 10L)), 100, byteOrdered));
+    }
+
+    @Test
+    public void testOldest()
+    {
+        Map<Range<Token>, Long> subranges = new HashMap<>();
+        Range<Token> first = new Range<>(token(0), token(10));
+        Range<Token> second = new Range<>(token(10), token(20));
+        Range<Token> third = new Range<>(token(20), token(30));
+        subranges.put(first, 1L);
+        subranges.put(second, 1L);
+        subranges.put(third, 1L);
+
+        Map<Pair<String, String>, Long> lastSuccesses = new HashMap<>();
+        lastSuccesses.put(Pair.create("0", "10"), 500L);
+        lastSuccesses.put(Pair.create("10", "20"), 100L);
+        lastSuccesses.put(Pair.create("20", "30"), 300L);
+        RepairScheduler.Subrange oldest = RepairScheduler.oldest("ks", "tbl", subranges, lastSuccesses, 1000);
+        assertEquals(second, oldest.range);
+        assertEquals(100L, oldest.lastSuccessMillis);
+
+        // never repaired goes first
+        lastSuccesses.remove(Pair.create("20", "30"));
+        assertEquals(third, RepairScheduler.oldest("ks", "tbl", subranges, lastSuccesses, 1000).range);
+
+        // nothing to repair if everything was repaired recently enough
+        lastSuccesses.put(Pair.create("20", "30"), 300L);
+        assertNull(RepairScheduler.oldest("ks", "tbl", subranges, lastSuccesses, 50));
+    }
+
+    @Test
+    public void testPause()
+    {
+        assertEquals(0, RepairScheduler.pauseMillis(1000, 1));
+        assertEquals(1000, RepairScheduler.pauseMillis(1000, 0.5));
+        assertEquals(3000, RepairScheduler.pauseMillis(1000, 0.25));
+    }
+
+    @Test
+    public void testTimeout()
+    {
+        // a session that never completes, as when a participant dies
+        AtomicReference<ProgressListener> listener = new AtomicReference<>();
+        RepairScheduler scheduler = new RepairScheduler()
+        {
+            void startRepair(String keyspace, RepairOption option, ProgressListener progressListener)
+            {
+                listener.set(progressListener);
+            }
+        };
+        RepairScheduler.Subrange subrange = new RepairScheduler.Subrange("ks", "tbl", new Range<>(token(0), token(10)), 1, 0);
+        scheduler.repair(subrange);
+        assertTrue(scheduler.isRunning());
+
+        long startedAt = System.currentTimeMillis();
+        scheduler.checkTimeout(startedAt);
+        assertTrue(scheduler.isRunning());
+
+        long now = startedAt + RepairScheduler.TIMEOUT_MILLIS + 1000;
+        scheduler.checkTimeout(now);
+        assertFalse(scheduler.isRunning());
+        assertTrue(scheduler.recentlyFailed(subrange, now));
+
+        // the session completing after all doesn't affect the next repair
+        ProgressListener timedOut = listener.get();
+        scheduler.repair(new RepairScheduler.Subrange("ks", "tbl", new Range<>(token(10), token(20)), 1, 0));
+        timedOut.progress("repair:1", new ProgressEvent(ProgressEventType.COMPLETE, 1, 1));
+        assertTrue(scheduler.isRunning());
+        assertTrue(scheduler.recentlyFailed(subrange, now));
+
+        listener.get().progress("repair:2", new ProgressEvent(ProgressEventType.COMPLETE, 1, 1));
+        assertFalse(scheduler.isRunning());
+    }
+
+    private static void assertContiguous(Range<Token> range, List<Range<Token>> subranges)
+    {
+        assertEquals(range.left, subranges.get(0).left);
+        assertEquals(range.right, subranges.get(subranges.size() - 1).right);
+        for (int i = 1; i < subranges.size(); i++)
+        {
+            assertEquals(subranges.get(i - 1).right, subranges.get(i).left);
+            assertTrue(range.contains(subranges.get(i).left));
+        }
+    }
+
+    private static Token token(long value)
+    {
+        return new Murmur3Partitioner.LongToken(value);
+    }
+}
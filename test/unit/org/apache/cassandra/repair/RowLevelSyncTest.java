@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.repair;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.net.InetAddresses;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.EmptyIterators;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.ReadExecutionController;
+import org.apache.cassandra.db.ReadResponse;
+import org.apache.cassandra.db.RowUpdateBuilder;
+import org.apache.cassandra.db.SinglePartitionReadCommand;
+import org.apache.cassandra.db.WriteResponse;
+import org.apache.cassandra.db.filter.ColumnFilter;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.partitions.SingletonUnfilteredPartitionIterator;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.rows.SerializationHelper;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIteratorSerializer;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.util.DataInputBuffer;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.MessageIn;
+import org.apache.cassandra.net.MessageOut;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.net.MockMessagingService;
+import org.apache.cassandra.repair.messages.PartitionDigests;
+import org.apache.cassandra.repair.messages.PartitionDigestsRequest;
+import org.apache.cassandra.repair.messages.RepairMessage;
+import org.apache.cassandra.schema.KeyspaceParams;
+import org.apache.cassandra.schema.TableMetadata;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.UUIDGen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.apache.cassandra.net.MockMessagingService.verb;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RowLevelSyncTest
+{
+    private static final String KEYSPACE = "RowLevelSyncTest";
+    private static final String CF = "Standard1";
+    // holds the data of the peer in the sync tests
+    private static final String PEER_CF = "Standard2";
+    private static final InetAddress PEER = FBUtilities.getLocalAddress().equals(InetAddresses.forString("127.0.0.2"))
+                                            ? InetAddresses.forString("127.0.0.3")
+                                            : InetAddresses.forString("127.0.0.2");
+
+    @BeforeClass
+    public static void defineSchema() throws Exception
+    {
+        SchemaLoader.prepareServer();
+        SchemaLoader.createKeyspace(KEYSPACE,
+                                    KeyspaceParams.simple(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE, CF),
+                                    SchemaLoader.standardCFMD(KEYSPACE, PEER_CF));
+    }
+
+    @After
+    public void cleanup()
+    {
+        MockMessagingService.cleanup();
+        Keyspace.open(KEYSPACE).getColumnFamilyStore(CF).truncateBlocking();
+        Keyspace.open(KEYSPACE).getColumnFamilyStore(PEER_CF).truncateBlocking();
+    }
+
+    @Test
+    public void testDiffering()
+    {
+        Map<ByteBuffer, byte[]> local = new HashMap<>();
+        local.put(ByteBufferUtil.bytes("same"), new byte[]{ 1 });
+        local.put(ByteBufferUtil.bytes("changed"), new byte[]{ 2 });
+        local.put(ByteBufferUtil.bytes("local only"), new byte[]{ 3 });
+
+        Map<ByteBuffer, byte[]> remote = new HashMap<>();
+        remote.put(ByteBufferUtil.bytes("same"), new byte[]{ 1 });
+        remote.put(ByteBufferUtil.bytes("changed"), new byte[]{ 4 });
+        remote.put(ByteBufferUtil.bytes("remote only"), new byte[]{ 5 });
+
+        List<ByteBuffer> toSend = RowLevelSync.differing(local, remote);
+        assertEquals(2, toSend.size());
+        assertTrue(toSend.contains(ByteBufferUtil.bytes("changed")));
+        assertTrue(toSend.contains(ByteBufferUtil.bytes("local only")));
+
+        List<ByteBuffer> toFetch = RowLevelSync.differing(remote, local);
+        assertEquals(2, toFetch.size());
+        assertTrue(toFetch.contains(ByteBufferUtil.bytes("changed")));
+        assertTrue(toFetch.contains(ByteBufferUtil.bytes("remote only")));
+
+        assertTrue(RowLevelSync.differing(local, local).isEmpty());
+    }
+
+    @Test
+    public void testPartitionDigests()
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(CF);
+        cfs.truncateBlocking();
+        for (int i = 0; i < 10; i++)
+        {
+            new RowUpdateBuilder(cfs.metadata(), 0, Integer.toString(i))
+                .clustering("c")
+                .add("val", "val")
+                .build()
+                .applyUnsafe();
+        }
+        cfs.forceBlockingFlush();
+
+        Token min = cfs.getPartitioner().getMinimumToken();
+        List<Range<Token>> ranges = Collections.singletonList(new Range<>(min, min));
+        int nowInSec = FBUtilities.nowInSeconds();
+        Map<ByteBuffer, byte[]> digests = RowLevelSync.partitionDigests(cfs, ranges, nowInSec, Integer.MAX_VALUE);
+        assertEquals(10, digests.size());
+        assertArrayEquals(digests.get(ByteBufferUtil.bytes("0")), RowLevelSync.partitionDigests(cfs, ranges, nowInSec, Integer.MAX_VALUE).get(ByteBufferUtil.bytes("0")));
+
+        // a newer write to a single partition changes its digest only
+        new RowUpdateBuilder(cfs.metadata(), 1, "0")
+            .clustering("c")
+            .add("val", "other")
+            .build()
+            .applyUnsafe();
+        Map<ByteBuffer, byte[]> updated = RowLevelSync.partitionDigests(cfs, ranges, nowInSec, Integer.MAX_VALUE);
+        List<ByteBuffer> changed = RowLevelSync.differing(updated, digests);
+        assertEquals(Collections.singletonList(ByteBufferUtil.bytes("0")), changed);
+        assertFalse(RowLevelSync.differing(digests, updated).contains(ByteBufferUtil.bytes("1")));
+    }
+
+    @Test
+    public void testPartitionDigestsLimit()
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(CF);
+        for (int i = 0; i < 10; i++)
+            write(cfs, Integer.toString(i), "val", 0);
+
+        Token min = cfs.getPartitioner().getMinimumToken();
+        List<Range<Token>> ranges = Collections.singletonList(new Range<>(min, min));
+        assertEquals(10, RowLevelSync.partitionDigests(cfs, ranges, FBUtilities.nowInSeconds(), 10).size());
+        assertNull(RowLevelSync.partitionDigests(cfs, ranges, FBUtilities.nowInSeconds(), 9));
+    }
+
+    @Test
+    public void testSync() throws Exception
+    {
+        ColumnFamilyStore local = Keyspace.open(KEYSPACE).getColumnFamilyStore(CF);
+        ColumnFamilyStore peer = Keyspace.open(KEYSPACE).getColumnFamilyStore(PEER_CF);
+        for (int i = 0; i < 10; i++)
+        {
+            write(local, Integer.toString(i), "val", 0);
+            write(peer, Integer.toString(i), "val", 0);
+        }
+        write(local, "local only", "val", 0);
+        write(peer, "peer only", "val", 0);
+        write(local, "3", "newer locally", 1);
+        write(peer, "7", "newer on peer", 1);
+        local.forceBlockingFlush();
+        peer.forceBlockingFlush();
+
+        mockPeer(local, peer);
+        int maxPartitions = DatabaseDescriptor.getRepairRowLevelMaxPartitions();
+        DatabaseDescriptor.setRepairRowLevelMaxPartitions(100);
+        try
+        {
+            Token min = local.getPartitioner().getMinimumToken();
+            List<Range<Token>> ranges = Collections.singletonList(new Range<>(min, min));
+            RepairJobDesc desc = new RepairJobDesc(UUIDGen.getTimeUUID(), UUIDGen.getTimeUUID(), KEYSPACE, CF, ranges);
+            // the partitions that differ are exchanged both ways: local only, 3 and 7 are sent, peer only, 3 and 7 fetched
+            assertEquals(6, (int) new RowLevelSync(desc, PEER, ranges, false).start().get(60, TimeUnit.SECONDS));
+
+            int nowInSec = FBUtilities.nowInSeconds();
+            Map<ByteBuffer, byte[]> localDigests = RowLevelSync.partitionDigests(local, ranges, nowInSec, Integer.MAX_VALUE);
+            Map<ByteBuffer, byte[]> peerDigests = RowLevelSync.partitionDigests(peer, ranges, nowInSec, Integer.MAX_VALUE);
+            assertEquals(12, localDigests.size());
+            assertTrue(RowLevelSync.differing(localDigests, peerDigests).isEmpty());
+            assertTrue(RowLevelSync.differing(peerDigests, localDigests).isEmpty());
+
+            // there are more partitions than the limit, so the caller has to fall back to streaming
+            DatabaseDescriptor.setRepairRowLevelMaxPartitions(5);
+            try
+            {
+                new RowLevelSync(desc, PEER, ranges, false).start().get(60, TimeUnit.SECONDS);
+                fail("Expected the sync to fail");
+            }
+            catch (ExecutionException e)
+            {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        finally
+        {
+            DatabaseDescriptor.setRepairRowLevelMaxPartitions(maxPartitions);
+        }
+    }
+
+    private static void write(ColumnFamilyStore cfs, String key, String value, long timestamp)
+    {
+        new RowUpdateBuilder(cfs.metadata(), timestamp, key)
+            .clustering("c")
+            .add("val", value)
+            .build()
+            .applyUnsafe();
+    }
+
+    /**
+     * Answers the messages sent to the peer with the data of the peer table, as if it was the local table of the peer.
+     */
+    private static void mockPeer(ColumnFamilyStore local, ColumnFamilyStore peer)
+    {
+        MockMessagingService.when(verb(MessagingService.Verb.REPAIR_MESSAGE)).respond((MessageOut<RepairMessage> message, InetAddress to) -> {
+            PartitionDigestsRequest request = (PartitionDigestsRequest) message.payload;
+            Map<ByteBuffer, byte[]> digests = RowLevelSync.partitionDigests(peer, request.ranges, FBUtilities.nowInSeconds(),
+                                                                            DatabaseDescriptor.getRepairRowLevelMaxPartitions());
+            return MessageIn.create(to, new PartitionDigests(request.desc, digests), Collections.emptyMap(),
+                                    MessagingService.Verb.INTERNAL_RESPONSE, MessagingService.current_version);
+        });
+        MockMessagingService.when(verb(MessagingService.Verb.READ)).respond((MessageOut<SinglePartitionReadCommand> message, InetAddress to) -> {
+            SinglePartitionReadCommand command = message.payload;
+            SinglePartitionReadCommand peerCommand = SinglePartitionReadCommand.fullPartitionRead(peer.metadata(), command.nowInSec(), command.partitionKey());
+            try (ReadExecutionController controller = peerCommand.executionController();
+                 UnfilteredPartitionIterator partitions = peerCommand.executeLocally(controller))
+            {
+                List<PartitionUpdate> updates = new ArrayList<>();
+                while (partitions.hasNext())
+                {
+                    try (UnfilteredRowIterator partition = partitions.next())
+                    {
+                        updates.add(copy(partition, local.metadata()));
+                    }
+                }
+                UnfilteredPartitionIterator data = updates.isEmpty()
+                                                   ? EmptyIterators.unfilteredPartition(local.metadata())
+                                                   : new SingletonUnfilteredPartitionIterator(updates.get(0).unfilteredIterator());
+                return MessageIn.create(to, ReadResponse.createDataResponse(data, command), Collections.emptyMap(),
+                                        MessagingService.Verb.REQUEST_RESPONSE, MessagingService.current_version);
+            }
+        });
+        MockMessagingService.when(verb(MessagingService.Verb.READ_REPAIR)).respond((MessageOut<Mutation> message, InetAddress to) -> {
+            for (PartitionUpdate update : message.payload.getPartitionUpdates())
+            {
+                try (UnfilteredRowIterator partition = update.unfilteredIterator())
+                {
+                    new Mutation(copy(partition, peer.metadata())).apply();
+                }
+            }
+            return MessageIn.create(to, WriteResponse.createMessage().payload, Collections.emptyMap(),
+                                    MessagingService.Verb.REQUEST_RESPONSE, MessagingService.current_version);
+        });
+    }
+
+    /**
+     * @return the given partition, as a partition of the table of the given metadata
+     */
+    private static PartitionUpdate copy(UnfilteredRowIterator partition, TableMetadata metadata)
+    {
+        try (DataOutputBuffer out = new DataOutputBuffer())
+        {
+            UnfilteredRowIteratorSerializer.serializer.serialize(partition, ColumnFilter.all(partition.metadata()), out, MessagingService.current_version);
+            try (DataInputBuffer in = new DataInputBuffer(out.buffer(), false);
+                 UnfilteredRowIterator copy = UnfilteredRowIteratorSerializer.serializer.deserialize(in, MessagingService.current_version, metadata,
+                                                                                                    ColumnFilter.all(metadata), SerializationHelper.Flag.LOCAL))
+            {
+                return PartitionUpdate.fromIterator(copy, ColumnFilter.all(metadata));
+            }
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+}
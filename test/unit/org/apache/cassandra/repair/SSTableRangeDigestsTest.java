@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.repair;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterators;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableFormat;
+import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.schema.TableMetadata;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SSTableRangeDigestsTest
+{
+    private static TableMetadata metadata;
+
+    @BeforeClass
+    public static void setup()
+    {
+        DatabaseDescriptor.clientInitialization();
+        metadata = TableMetadata.builder("ks", "tbl")
+                                .partitioner(Murmur3Partitioner.instance)
+                                .addPartitionKeyColumn("k", UTF8Type.instance)
+                                .addClusteringColumn("c", UTF8Type.instance)
+                                .addRegularColumn("v", UTF8Type.instance)
+                                .build();
+    }
+
+    @Test
+    public void testWrittenDigestsMatchValidation() throws Exception
+    {
+        File directory = Files.createTempDirectory("SSTableRangeDigestsTest").toFile();
+        Descriptor descriptor = new Descriptor(directory, "ks", "tbl", 1, SSTableFormat.Type.BIG);
+        // the digests are only moved into place if the sstable is still there
+        assertTrue(new File(descriptor.filenameFor(Component.DATA)).createNewFile());
+
+        SSTableRangeDigests.Writer writer = new SSTableRangeDigests.Writer(descriptor, metadata);
+        writer.begin();
+        Map<Token, byte[]> expected = new HashMap<>();
+        for (int i = 0; i < 10; i++)
+        {
+            PartitionUpdate.SimpleBuilder builder = PartitionUpdate.simpleBuilder(metadata, "key" + i).timestamp(10);
+            builder.row("a").add("v", "value" + i);
+            builder.row("b").add("v", "value");
+            if (i == 0)
+                builder.row("c").delete();
+            PartitionUpdate update = builder.build();
+
+            try (UnfilteredRowIterator partition = update.unfilteredIterator())
+            {
+                Validator.CountingDigest digest = new Validator.CountingDigest(FBUtilities.newMessageDigest("SHA-256"));
+                UnfilteredRowIterators.digest(partition, digest, MessagingService.current_version);
+                expected.put(partition.partitionKey().getToken(), digest.digest());
+            }
+
+            // sstables are written in token order, but only the segments depend on it
+            try (UnfilteredRowIterator partition = update.unfilteredIterator())
+            {
+                writer.startPartition(partition.partitionKey(), 0);
+                writer.partitionLevelDeletion(partition.partitionLevelDeletion());
+                while (partition.hasNext())
+                    writer.nextUnfilteredCluster(partition.next());
+            }
+        }
+        writer.complete();
+
+        File file = new File(descriptor.filenameFor(Component.RANGE_DIGESTS));
+        assertTrue(file.exists());
+        assertFalse(new File(descriptor.tmpFilenameFor(Component.RANGE_DIGESTS)).exists());
+
+        int partitions = 0;
+        int withTombstones = 0;
+        try (RandomAccessReader in = RandomAccessReader.open(file))
+        {
+            assertEquals(1, in.readInt());
+            assertEquals(MessagingService.current_version, in.readInt());
+            assertEquals(SSTableRangeDigests.SEGMENTS, in.readInt());
+            in.skipBytes(in.readUnsignedShort());
+            while (!in.isEOF())
+            {
+                in.readInt();
+                long segmentPartitions = in.readUnsignedVInt();
+                in.readUnsignedVInt();
+                if (in.readInt() != Integer.MAX_VALUE)
+                    withTombstones++;
+                assertEquals(Integer.MAX_VALUE, in.readInt());
+                in.skipBytes(32);
+                in.readUnsignedVInt();
+                for (long i = 0; i < segmentPartitions; i++)
+                {
+                    Token token = Token.serializer.deserialize(in, Murmur3Partitioner.instance, MessagingService.current_version);
+                    byte[] hash = new byte[32];
+                    in.readFully(hash);
+                    in.readUnsignedVInt();
+                    assertArrayEquals(expected.get(token), hash);
+                    partitions++;
+                }
+            }
+        }
+        assertEquals(10, partitions);
+        assertEquals(1, withTombstones);
+    }
+
+    @Test
+    public void testSubtract()
+    {
+        Range<Token> range = new Range<>(token(0), token(100));
+        List<Range<Token>> segments = Arrays.asList(new Range<>(token(0), token(10)),
+                                                    new Range<>(token(20), token(30)),
+                                                    new Range<>(token(30), token(40)));
+        assertEquals(Arrays.asList(new Range<>(token(10), token(20)), new Range<>(token(40), token(100))),
+                     SSTableRangeDigests.subtract(Collections.singletonList(range), segments));
+        assertEquals(Collections.singletonList(range), SSTableRangeDigests.subtract(Collections.singletonList(range), Collections.emptyList()));
+
+        // up to the end of the ring
+        Token min = Murmur3Partitioner.instance.getMinimumToken();
+        Token max = Murmur3Partitioner.instance.getMaximumToken();
+        assertTrue(SSTableRangeDigests.subtract(Collections.singletonList(new Range<>(token(50), min)),
+                                                Collections.singletonList(new Range<>(token(50), max))).isEmpty());
+    }
+
+    private static Token token(long value)
+    {
+        return new Murmur3Partitioner.LongToken(value);
+    }
+}
@@ -17,6 +17,7 @@
  */
 package org.apache.cassandra.repair;
 
+import java.io.File;
 import java.net.InetAddress;
 import java.util.Arrays;
 import java.util.Collections;
@@ -28,6 +29,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.cassandra.db.compaction.CompactionManager;
 import org.apache.cassandra.db.compaction.CompactionsTest;
+import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.junit.After;
 import org.junit.BeforeClass;
@@ -36,6 +38,7 @@ import org.junit.Test;
 import org.apache.cassandra.SchemaLoader;
 import org.apache.cassandra.schema.Schema;
 import org.apache.cassandra.db.BufferDecoratedKey;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.EmptyIterators;
 import org.apache.cassandra.db.Keyspace;
@@ -57,6 +60,7 @@ import org.apache.cassandra.utils.MerkleTrees;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.UUIDGen;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -160,6 +164,38 @@ public class ValidatorTest
         simpleValidationTest(1500);
     }
 
+    @Test
+    public void parallelValidationTest1500() throws Exception
+    {
+        Keyspace ks = Keyspace.open(keyspace);
+        ColumnFamilyStore cfs = ks.getColumnFamilyStore(columnFamily);
+        cfs.clearUnsafe();
+        cfs.disableAutoCompaction();
+
+        CompactionsTest.populate(keyspace, columnFamily, 0, 1500, 0);
+        cfs.forceBlockingFlush();
+
+        int parallelism = DatabaseDescriptor.getValidationParallelism();
+        try
+        {
+            Range<Token> fullRange = new Range<>(partitioner.getMinimumToken(), partitioner.getMinimumToken());
+            DatabaseDescriptor.setValidationParallelism(1);
+            MerkleTrees sequential = validate(cfs, fullRange);
+            DatabaseDescriptor.setValidationParallelism(4);
+            MerkleTrees parallel = validate(cfs, fullRange);
+
+            assertEquals(1500, parallel.rowCount());
+            assertEquals(sequential.rowCount(), parallel.rowCount());
+            assertEquals(sequential.size(), parallel.size());
+            assertArrayEquals(sequential.hash(fullRange), parallel.hash(fullRange));
+            assertTrue(MerkleTrees.difference(sequential, parallel).isEmpty());
+        }
+        finally
+        {
+            DatabaseDescriptor.setValidationParallelism(parallelism);
+        }
+    }
+
     /**
      * Test for CASSANDRA-5263
      * 1. Create N rows
@@ -213,6 +249,60 @@ public class ValidatorTest
         assertEquals(trees.rowCount(), n);
     }
 
+    @Test
+    public void rangeDigestsValidationTest() throws Exception
+    {
+        Keyspace ks = Keyspace.open(keyspace);
+        ColumnFamilyStore cfs = ks.getColumnFamilyStore(columnFamily);
+        cfs.clearUnsafe();
+        cfs.disableAutoCompaction();
+
+        boolean enabled = DatabaseDescriptor.isRepairRangeDigestsEnabled();
+        DatabaseDescriptor.setRepairRangeDigestsEnabled(true);
+        try
+        {
+            // the sstables only overlap on some of the segments, the others can use the digests
+            CompactionsTest.populate(keyspace, columnFamily, 0, 1000, 0);
+            cfs.forceBlockingFlush();
+            CompactionsTest.populate(keyspace, columnFamily, 900, 1100, 0);
+            cfs.forceBlockingFlush();
+            assertEquals(2, cfs.getLiveSSTables().size());
+            for (SSTableReader sstable : cfs.getLiveSSTables())
+                assertTrue(new File(sstable.descriptor.filenameFor(Component.RANGE_DIGESTS)).exists());
+
+            Range<Token> fullRange = new Range<>(partitioner.getMinimumToken(), partitioner.getMinimumToken());
+            MerkleTrees precomputed = validate(cfs, fullRange);
+            DatabaseDescriptor.setRepairRangeDigestsEnabled(false);
+            MerkleTrees read = validate(cfs, fullRange);
+
+            assertEquals(read.rowCount(), precomputed.rowCount());
+            assertTrue(MerkleTrees.difference(read, precomputed).isEmpty());
+        }
+        finally
+        {
+            DatabaseDescriptor.setRepairRangeDigestsEnabled(enabled);
+        }
+    }
+
+    private MerkleTrees validate(ColumnFamilyStore cfs, Range<Token> range) throws Exception
+    {
+        UUID repairSessionId = UUIDGen.getTimeUUID();
+        RepairJobDesc desc = new RepairJobDesc(repairSessionId, UUIDGen.getTimeUUID(), cfs.keyspace.getName(),
+                                               cfs.getTableName(), Collections.singletonList(range));
+        ActiveRepairService.instance.registerParentRepairSession(repairSessionId, FBUtilities.getBroadcastAddress(),
+                                                                 Collections.singletonList(cfs), desc.ranges, false, ActiveRepairService.UNREPAIRED_SSTABLE,
+                                                                 false, PreviewKind.NONE);
+
+        CompletableFuture<MessageOut> outgoingMessageSink = registerOutgoingMessageSink();
+        Validator validator = new Validator(desc, FBUtilities.getBroadcastAddress(), 0, true, false, PreviewKind.NONE);
+        CompactionManager.instance.submitValidation(cfs, validator);
+
+        MessageOut message = outgoingMessageSink.get(TEST_TIMEOUT, TimeUnit.SECONDS);
+        MessagingService.instance().clearMessageSinks();
+        assertTrue(((ValidationComplete) message.payload).success());
+        return ((ValidationComplete) message.payload).trees;
+    }
+
     private CompletableFuture<MessageOut> registerOutgoingMessageSink()
     {
         final CompletableFuture<MessageOut> future = new CompletableFuture<>();
@@ -22,7 +22,9 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import com.google.common.collect.Lists;
@@ -50,6 +52,7 @@ import org.apache.cassandra.schema.TableId;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.streaming.SessionSummary;
 import org.apache.cassandra.streaming.StreamSummary;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.MerkleTrees;
 import org.apache.cassandra.utils.UUIDGen;
 
@@ -168,6 +171,27 @@ public class RepairMessageSerializationsTest
         serializeRoundTrip(msg, SyncComplete.serializer);
     }
 
+    @Test
+    public void partitionDigestsRequestMessage() throws IOException
+    {
+        PartitionDigestsRequest msg = new PartitionDigestsRequest(buildRepairJobDesc(), buildTokenRanges());
+        serializeRoundTrip(msg, PartitionDigestsRequest.serializer);
+    }
+
+    @Test
+    public void partitionDigestsMessage() throws IOException
+    {
+        Map<ByteBuffer, byte[]> digests = new HashMap<>();
+        digests.put(ByteBufferUtil.bytes("key1"), new byte[]{ 1, 2, 3, 4 });
+        digests.put(ByteBufferUtil.bytes("key2"), new byte[16]);
+        PartitionDigests msg = new PartitionDigests(buildRepairJobDesc(), digests);
+        PartitionDigests deserialized = serializeRoundTrip(msg, PartitionDigests.serializer);
+        Assert.assertArrayEquals(new byte[]{ 1, 2, 3, 4 }, deserialized.digests.get(ByteBufferUtil.bytes("key1")));
+
+        serializeRoundTrip(new PartitionDigests(buildRepairJobDesc(), new HashMap<>()), PartitionDigests.serializer);
+        serializeRoundTrip(new PartitionDigests(buildRepairJobDesc(), null), PartitionDigests.serializer);
+    }
+
     @Test
     public void prepareMessage() throws IOException
     {
@@ -20,9 +20,12 @@ package org.apache.cassandra.schema;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import com.google.common.collect.ImmutableMap;
 
@@ -42,6 +45,8 @@ import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.utils.FBUtilities;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 public class SchemaKeyspaceTest
@@ -95,6 +100,36 @@ public class SchemaKeyspaceTest
         assertEquals(extensions, metadata.params.extensions);
     }
 
+    @Test
+    public void testKeyspaceDigests()
+    {
+        String keyspace = "DigestSandBox";
+
+        createTable(keyspace, "CREATE TABLE test (a text primary key, b int)");
+        Schema.instance.updateVersion();
+
+        Map<String, UUID> digests = SchemaKeyspace.calculateSchemaDigests();
+        assertEquals(digests, Schema.instance.getKeyspaceDigests());
+        assertEquals(SchemaKeyspace.calculateSchemaDigest(digests), Schema.instance.getVersion());
+        for (Map.Entry<String, UUID> entry : digests.entrySet())
+            assertEquals(entry.getValue(), SchemaKeyspace.calculateSchemaDigest(entry.getKey()));
+
+        // a change only makes the digest of its own keyspace stale
+        TableMetadata metadata = Schema.instance.getTableMetadata(keyspace, "test");
+        updateTable(keyspace, metadata, metadata.unbuild().comment("changed").build());
+        Map<String, UUID> upToDate = Schema.instance.getKeyspaceDigests();
+        assertFalse(upToDate.containsKey(keyspace));
+        assertEquals(digests.get(KEYSPACE1), upToDate.get(KEYSPACE1));
+
+        Schema.instance.updateVersion();
+        assertEquals(SchemaKeyspace.calculateSchemaDigests(), Schema.instance.getKeyspaceDigests());
+        assertNotEquals(digests.get(keyspace), Schema.instance.getKeyspaceDigests().get(keyspace));
+
+        // and it is the only one sent to a node that still has the old digests
+        Collection<Mutation> diff = SchemaKeyspace.convertSchemaDiffToMutations(digests);
+        assertEquals(Collections.singleton(keyspace), SchemaKeyspace.affectedKeyspaces(diff));
+    }
+
     private static void updateTable(String keyspace, TableMetadata oldTable, TableMetadata newTable)
     {
         KeyspaceMetadata ksm = Schema.instance.getKeyspaceInstance(keyspace).getMetadata();
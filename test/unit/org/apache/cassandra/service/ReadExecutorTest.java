@@ -18,7 +18,9 @@
 
 package org.apache.cassandra.service;
 
+import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -29,6 +31,7 @@ import org.junit.Test;
 
 import org.apache.cassandra.SchemaLoader;
 import org.apache.cassandra.Util;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.db.Keyspace;
@@ -36,11 +39,15 @@ import org.apache.cassandra.db.SinglePartitionReadCommand;
 import org.apache.cassandra.exceptions.ReadFailureException;
 import org.apache.cassandra.exceptions.ReadTimeoutException;
 import org.apache.cassandra.exceptions.RequestFailureReason;
+import org.apache.cassandra.locator.AbstractNetworkTopologySnitch;
+import org.apache.cassandra.locator.DynamicEndpointSnitch;
+import org.apache.cassandra.locator.IEndpointSnitch;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.schema.KeyspaceParams;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 public class ReadExecutorTest
@@ -176,6 +183,70 @@ public class ReadExecutorTest
         assertEquals(1, ks.metric.speculativeFailedRetries.getCount());
     }
 
+    @Test
+    public void testPredictedResponse()
+    {
+        // waiting for the data and the fastest digest
+        assertEquals(30, AbstractReadExecutor.predictedResponseNanos(new long[]{ 10, 30, 50 }, 2));
+        // the data is needed whatever the digests
+        assertEquals(40, AbstractReadExecutor.predictedResponseNanos(new long[]{ 40, 10, 20 }, 2));
+        assertEquals(20, AbstractReadExecutor.predictedResponseNanos(new long[]{ 20 }, 1));
+    }
+
+    @Test
+    public void testFastestReplicaCountsForConsistencyLevel() throws IOException
+    {
+        // 127.0.1.x are in another DC
+        IEndpointSnitch subsnitch = new AbstractNetworkTopologySnitch()
+        {
+            public String getRack(InetAddress endpoint)
+            {
+                return "rack1";
+            }
+
+            public String getDatacenter(InetAddress endpoint)
+            {
+                return endpoint.getAddress()[2] == 0 ? DatabaseDescriptor.getLocalDataCenter() : "remote";
+            }
+        };
+        DynamicEndpointSnitch dsnitch = new DynamicEndpointSnitch(subsnitch, "ReadExecutorTest");
+        IEndpointSnitch oldSnitch = DatabaseDescriptor.getEndpointSnitch();
+        DatabaseDescriptor.setEndpointSnitch(dsnitch);
+        try
+        {
+            InetAddress target = InetAddress.getByName("127.0.0.2");
+            InetAddress slow = InetAddress.getByName("127.0.0.3");
+            InetAddress fast = InetAddress.getByName("127.0.0.4");
+            InetAddress unknown = InetAddress.getByName("127.0.0.5");
+            InetAddress remote = InetAddress.getByName("127.0.1.2");
+            for (int i = 0; i < 100; i++)
+            {
+                dsnitch.receiveTiming(remote, 1);
+                dsnitch.receiveTiming(slow, 50);
+                dsnitch.receiveTiming(fast, 10);
+            }
+            List<InetAddress> targetReplicas = Collections.singletonList(target);
+
+            // the reply of the fast remote replica would only count for a consistency level that isn't DC-local
+            List<InetAddress> allReplicas = ImmutableList.of(target, remote, unknown, slow, fast);
+            assertEquals(fast, AbstractReadExecutor.fastestReplica(allReplicas, targetReplicas, ConsistencyLevel.LOCAL_QUORUM, 0.99));
+            assertEquals(remote, AbstractReadExecutor.fastestReplica(allReplicas, targetReplicas, ConsistencyLevel.QUORUM, 0.99));
+
+            // snitch order if we know nothing about the local replicas
+            allReplicas = ImmutableList.of(target, remote, unknown, InetAddress.getByName("127.0.0.6"));
+            assertEquals(unknown, AbstractReadExecutor.fastestReplica(allReplicas, targetReplicas, ConsistencyLevel.LOCAL_ONE, 0.99));
+
+            // no replica to speculate on
+            allReplicas = ImmutableList.of(target, remote);
+            assertNull(AbstractReadExecutor.fastestReplica(allReplicas, targetReplicas, ConsistencyLevel.LOCAL_QUORUM, 0.99));
+        }
+        finally
+        {
+            DatabaseDescriptor.setEndpointSnitch(oldSnitch);
+            dsnitch.close();
+        }
+    }
+
     public static class MockSinglePartitionReadCommand extends SinglePartitionReadCommand
     {
         private final long timeout;
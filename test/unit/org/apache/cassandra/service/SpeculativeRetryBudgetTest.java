@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpeculativeRetryBudgetTest
+{
+    @Test
+    public void testBudget()
+    {
+        SpeculativeRetryBudget budget = new SpeculativeRetryBudget(() -> 0.25);
+
+        // the saved retries can be spent at once
+        for (int i = 0; i < SpeculativeRetryBudget.MAX_SAVED_RETRIES; i++)
+            assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+
+        // then one retry every 4 reads
+        for (int i = 0; i < 3; i++)
+            budget.onRead();
+        assertFalse(budget.tryAcquire());
+        budget.onRead();
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+
+        // and no more than the maximum saved
+        for (int i = 0; i < 4 * SpeculativeRetryBudget.MAX_SAVED_RETRIES + 100; i++)
+            budget.onRead();
+        int retries = 0;
+        while (budget.tryAcquire())
+            retries++;
+        assertEquals(SpeculativeRetryBudget.MAX_SAVED_RETRIES, retries);
+    }
+
+    @Test
+    public void testNoBudget()
+    {
+        SpeculativeRetryBudget budget = new SpeculativeRetryBudget(() -> 0);
+        while (budget.tryAcquire());
+        for (int i = 0; i < 1000; i++)
+            budget.onRead();
+        assertFalse(budget.tryAcquire());
+    }
+}
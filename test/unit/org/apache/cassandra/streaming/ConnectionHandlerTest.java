@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.streaming;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.schema.KeyspaceParams;
+import org.apache.cassandra.schema.TableId;
+import org.apache.cassandra.streaming.messages.CompleteMessage;
+import org.apache.cassandra.streaming.messages.KeepAliveMessage;
+import org.apache.cassandra.streaming.messages.OutgoingFileMessage;
+import org.apache.cassandra.streaming.messages.StreamMessage;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ConnectionHandlerTest
+{
+    public static final String KEYSPACE1 = "ConnectionHandlerTest";
+    public static final String CF_STANDARD1 = "Standard1";
+    public static final String CF_STANDARD2 = "Standard2";
+
+    @BeforeClass
+    public static void defineSchema()
+    {
+        SchemaLoader.prepareServer();
+        SchemaLoader.createKeyspace(KEYSPACE1,
+                                    KeyspaceParams.simple(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE1, CF_STANDARD1),
+                                    SchemaLoader.standardCFMD(KEYSPACE1, CF_STANDARD2));
+    }
+
+    @After
+    public void tearDown()
+    {
+        Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF_STANDARD1).clearUnsafe();
+        Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF_STANDARD2).clearUnsafe();
+    }
+
+    @Test
+    public void testOutgoingMessageQueue() throws Exception
+    {
+        InetAddress peer = FBUtilities.getBroadcastAddress();
+        StreamSession session = new StreamSession(peer, peer, null, 0, true, null, PreviewKind.NONE);
+        List<OutgoingFileMessage> files1 = fileMessages(session, Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF_STANDARD1));
+        List<OutgoingFileMessage> files2 = fileMessages(session, Keyspace.open(KEYSPACE1).getColumnFamilyStore(CF_STANDARD2));
+
+        ConnectionHandler.OutgoingMessageQueue queue = new ConnectionHandler.OutgoingMessageQueue();
+        for (OutgoingFileMessage file : files1)
+            queue.put(file);
+        for (OutgoingFileMessage file : files2)
+            queue.put(file);
+        StreamMessage keepAlive = new KeepAliveMessage();
+        StreamMessage complete = new CompleteMessage();
+        queue.put(keepAlive);
+        queue.put(complete);
+
+        // file channels leave the other messages to the main connection
+        assertSame(files1.get(0), queue.poll(true, 0, TimeUnit.SECONDS));
+
+        // which sends them first, by priority
+        assertSame(keepAlive, queue.poll(false, 0, TimeUnit.SECONDS));
+        assertSame(complete, queue.poll(false, 0, TimeUnit.SECONDS));
+
+        // files are taken from each table in turn, in order
+        assertSame(files2.get(0), queue.poll(false, 0, TimeUnit.SECONDS));
+        assertSame(files1.get(1), queue.poll(true, 0, TimeUnit.SECONDS));
+        assertSame(files2.get(1), queue.poll(true, 0, TimeUnit.SECONDS));
+        assertNull(queue.poll(true, 10, TimeUnit.MILLISECONDS));
+        assertNull(queue.poll(false, 0, TimeUnit.SECONDS));
+    }
+
+    private static List<OutgoingFileMessage> fileMessages(StreamSession session, ColumnFamilyStore cfs)
+    {
+        for (int i = 0; i < 2; i++)
+        {
+            SchemaLoader.insertData(KEYSPACE1, cfs.name, i, 1);
+            cfs.forceBlockingFlush();
+        }
+
+        TableId tableId = cfs.metadata.id;
+        StreamTransferTask task = new StreamTransferTask(session, tableId);
+        for (SSTableReader sstable : cfs.getLiveSSTables())
+        {
+            List<Range<Token>> ranges = new ArrayList<>();
+            ranges.add(new Range<>(sstable.first.getToken(), sstable.last.getToken()));
+            task.addTransferFile(sstable.selfRef(), 1, sstable.getPositionsForRanges(ranges));
+        }
+        List<OutgoingFileMessage> files = new ArrayList<>(task.getFileMessages());
+        assertEquals(2, files.size());
+        files.sort((f1, f2) -> Integer.compare(f1.header.sequenceNumber, f2.header.sequenceNumber));
+        return files;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.streaming;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.UpdateBuilder;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.SerializationHeader;
+import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
+import org.apache.cassandra.db.rows.EncodingStats;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.SSTableMultiWriter;
+import org.apache.cassandra.io.sstable.format.SSTableFormat;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.schema.KeyspaceParams;
+import org.apache.cassandra.streaming.compress.CompressionInfo;
+import org.apache.cassandra.streaming.messages.FileMessageHeader;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
+
+import static org.apache.cassandra.service.ActiveRepairService.NO_PENDING_REPAIR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamCheckpointTest
+{
+    private static final String KEYSPACE = "StreamCheckpointTest";
+    private static final String TABLE = "Standard1";
+
+    @BeforeClass
+    public static void defineSchema()
+    {
+        SchemaLoader.prepareServer();
+        SchemaLoader.createKeyspace(KEYSPACE,
+                                    KeyspaceParams.simple(1),
+                                    SchemaLoader.standardCFMD(KEYSPACE, TABLE));
+    }
+
+    @After
+    public void tearDown()
+    {
+        Keyspace.open(KEYSPACE).getColumnFamilyStore(TABLE).truncateBlocking();
+        SystemKeyspace.resetStreamCheckpoints();
+    }
+
+    @Test
+    public void testSkipReceivedFiles()
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(TABLE);
+        for (int i = 0; i < 2; i++)
+        {
+            SchemaLoader.insertData(KEYSPACE, TABLE, i, 1);
+            cfs.forceBlockingFlush();
+        }
+        List<Range<Token>> ranges = Collections.singletonList(fullRange());
+        SSTableReader received = cfs.getLiveSSTables().iterator().next();
+        long size = StreamSession.transferSize(received, received.getPositionsForRanges(ranges));
+
+        // a file of the same generation but another size is another file, which is sent
+        assertEquals(2, filesToTransfer(cfs, ranges, Collections.singletonMap(received.descriptor.generation, size + 1)));
+        assertEquals(1, filesToTransfer(cfs, ranges, Collections.singletonMap(received.descriptor.generation, size)));
+    }
+
+    @Test
+    public void testAbortKeepsReceivedFiles()
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(TABLE);
+        InetAddress peer = FBUtilities.getBroadcastAddress();
+        StreamSession session = new StreamSession(peer, peer, null, 0, true, null, PreviewKind.NONE);
+        StreamCoordinator coordinator = new StreamCoordinator(1, true, null, false, null, PreviewKind.NONE);
+        session.init(StreamResultFuture.init(UUID.randomUUID(), StreamOperation.BOOTSTRAP, Collections.emptyList(), coordinator));
+        session.addStreamRequest(KEYSPACE, Collections.singleton(fullRange()), Collections.singleton(TABLE));
+
+        StreamReceiveTask task = new StreamReceiveTask(session, cfs.metadata.id, 2, 200);
+        FileMessageHeader header = header(cfs, 0, 42);
+        task.received(write(cfs, task.getTransaction(0)), header);
+        // the second file is being received when the session fails
+        LifecycleTransaction inProgress = task.getTransaction(1);
+        SSTableMultiWriter partial = write(cfs, inProgress);
+        task.abort();
+        partial.abort(null);
+
+        Util.spinAssertEquals(1, () -> cfs.getLiveSSTables().size(), 10);
+        Map<String, Pair<Set<Range<Token>>, Map<Integer, Long>>> checkpoints =
+            SystemKeyspace.getStreamCheckpoints(StreamOperation.BOOTSTRAP, peer, KEYSPACE, DatabaseDescriptor.getPartitioner());
+        assertEquals(Collections.singleton(fullRange()), checkpoints.get(TABLE).left);
+        assertEquals(Collections.singletonMap(42, header.size()), checkpoints.get(TABLE).right);
+        assertTrue(Util.getAll(Util.cmd(cfs).build()).size() > 0);
+    }
+
+    private static int filesToTransfer(ColumnFamilyStore cfs, List<Range<Token>> ranges, Map<Integer, Long> received)
+    {
+        InetAddress peer = FBUtilities.getBroadcastAddress();
+        StreamSession session = new StreamSession(peer, peer, null, 0, true, null, PreviewKind.NONE);
+        session.addTransferRanges(KEYSPACE, ranges, Collections.singleton(TABLE), false, Collections.singletonMap(TABLE, received));
+        StreamTransferTask task = session.transfers.get(cfs.metadata.id);
+        return task == null ? 0 : task.getTotalNumberOfFiles();
+    }
+
+    private static Range<Token> fullRange()
+    {
+        Token min = DatabaseDescriptor.getPartitioner().getMinimumToken();
+        return new Range<>(min, min);
+    }
+
+    private static SSTableMultiWriter write(ColumnFamilyStore cfs, LifecycleTransaction txn)
+    {
+        Descriptor desc = cfs.newSSTableDescriptor(cfs.getDirectories().getDirectoryForNewSSTables());
+        SerializationHeader header = new SerializationHeader(true, cfs.metadata(), cfs.metadata().regularAndStaticColumns(), EncodingStats.NO_STATS);
+        SSTableMultiWriter writer = cfs.createSSTableMultiWriter(desc, 1, 0, NO_PENDING_REPAIR, 0, header, txn);
+        writer.append(UpdateBuilder.create(cfs.metadata(), "key").newRow("c").add("val", "value").build().unfilteredIterator());
+        return writer;
+    }
+
+    private static FileMessageHeader header(ColumnFamilyStore cfs, int sequenceNumber, int generation)
+    {
+        return new FileMessageHeader(cfs.metadata.id, sequenceNumber, SSTableFormat.Type.current().info.getLatestVersion(), SSTableFormat.Type.current(),
+                                     1, Collections.singletonList(Pair.create(0L, 100L)), (CompressionInfo) null,
+                                     0, NO_PENDING_REPAIR, 0, null, generation);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.streaming;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.util.DataInputBuffer;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.streaming.messages.StreamMessage;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamRequestTest
+{
+    private static final int VERSION = StreamMessage.CURRENT_VERSION;
+
+    @BeforeClass
+    public static void setup()
+    {
+        DatabaseDescriptor.daemonInitialization();
+    }
+
+    @Test
+    public void testSerialization() throws IOException
+    {
+        IPartitioner partitioner = DatabaseDescriptor.getPartitioner();
+        Range<Token> range = new Range<>(partitioner.getMinimumToken(), partitioner.getRandomToken());
+
+        StreamRequest request = serdes(new StreamRequest("ks", Collections.singleton(range), Collections.singleton("tbl")));
+        assertEquals("ks", request.keyspace);
+        assertEquals(Collections.singletonList(range), request.ranges);
+        assertEquals(Collections.singleton("tbl"), request.columnFamilies);
+        assertEquals(Collections.emptyMap(), request.receivedFiles);
+
+        Map<String, Map<Integer, Long>> receivedFiles = new HashMap<>();
+        receivedFiles.put("tbl1", ImmutableMap.of(1, 100L, 3, 300L));
+        receivedFiles.put("tbl2", ImmutableMap.of(2, 200L));
+        request = serdes(new StreamRequest("ks", Collections.singleton(range), Collections.emptySet(), receivedFiles));
+        assertEquals(receivedFiles, request.receivedFiles);
+    }
+
+    private static StreamRequest serdes(StreamRequest request) throws IOException
+    {
+        int expectedSize = (int) StreamRequest.serializer.serializedSize(request, VERSION);
+        try (DataOutputBuffer out = new DataOutputBuffer(expectedSize))
+        {
+            StreamRequest.serializer.serialize(request, out, VERSION);
+            assertEquals(expectedSize, out.buffer().limit());
+            try (DataInputBuffer in = new DataInputBuffer(out.buffer(), false))
+            {
+                return StreamRequest.serializer.deserialize(in, VERSION);
+            }
+        }
+    }
+}
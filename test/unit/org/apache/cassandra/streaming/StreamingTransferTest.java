@@ -58,6 +58,7 @@ import static org.apache.cassandra.SchemaLoader.compositeIndexCFMD;
 import static org.apache.cassandra.SchemaLoader.createKeyspace;
 import static org.apache.cassandra.SchemaLoader.standardCFMD;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 
 @RunWith(OrderedJUnit4ClassRunner.class)
@@ -402,6 +403,54 @@ public class StreamingTransferTest
         doTransferTable(true);
     }
 
+    @Test
+    public void testTransferOverSeveralChannels() throws Exception
+    {
+        int channels = DatabaseDescriptor.getStreamingChannelsPerSession();
+        DatabaseDescriptor.getRawConfig().streaming_channels_per_session = 3;
+        try
+        {
+            // several sstables of several tables, so that all the channels get files
+            Keyspace keyspace = Keyspace.open(KEYSPACE_CACHEKEY);
+            List<String> tables = Arrays.asList(CF_STANDARD, CF_STANDARD2, CF_STANDARD3);
+            List<SSTableReader> sstables = new ArrayList<>();
+            for (String table : tables)
+            {
+                ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(table);
+                for (int i = 0; i < 3; i++)
+                {
+                    new RowUpdateBuilder(cfs.metadata(), 0, "key" + i).clustering("col").add("val", "val" + i).build().applyUnsafe();
+                    cfs.forceBlockingFlush();
+                }
+                sstables.addAll(cfs.getLiveSSTables());
+                cfs.clearUnsafe();
+            }
+
+            IPartitioner p = Util.testPartitioner();
+            List<Range<Token>> ranges = Collections.singletonList(new Range<>(p.getMinimumToken(), p.getMinimumToken()));
+            Refs<SSTableReader> refs = Refs.tryRef(sstables);
+            assert refs != null;
+            StreamState state = new StreamPlan(StreamOperation.OTHER).transferFiles(LOCAL, makeStreamingDetails(ranges, refs)).execute().get();
+            verifyConnectionsAreClosed();
+
+            assertFalse(state.hasFailedSession());
+            SessionInfo session = Iterables.getOnlyElement(state.sessions);
+            assertEquals(sstables.size(), session.getTotalFilesSent());
+            assertEquals(sstables.size(), session.getTotalFilesReceived());
+            for (String table : tables)
+            {
+                ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(table);
+                assertEquals(3, cfs.getLiveSSTables().size());
+                for (int i = 0; i < 3; i++)
+                    assertEquals(1, Util.getAll(Util.cmd(cfs, "key" + i).build()).size());
+            }
+        }
+        finally
+        {
+            DatabaseDescriptor.getRawConfig().streaming_channels_per_session = channels;
+        }
+    }
+
     /*
     @Test
     public void testTransferTableCounter() throws Exception
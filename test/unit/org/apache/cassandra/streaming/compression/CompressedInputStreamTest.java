@@ -18,6 +18,8 @@
 package org.apache.cassandra.streaming.compression;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.*;
 
 import org.junit.BeforeClass;
@@ -28,6 +30,8 @@ import org.apache.cassandra.db.ClusteringComparator;
 import org.apache.cassandra.db.marshal.BytesType;
 import org.apache.cassandra.io.compress.CompressedSequentialWriter;
 import org.apache.cassandra.io.compress.CompressionMetadata;
+import org.apache.cassandra.io.util.FileHandle;
+import org.apache.cassandra.io.util.RandomAccessReader;
 import org.apache.cassandra.io.util.SequentialWriterOption;
 import org.apache.cassandra.schema.CompressionParams;
 import org.apache.cassandra.io.sstable.Component;
@@ -40,6 +44,7 @@ import org.apache.cassandra.streaming.compress.CompressionInfo;
 import org.apache.cassandra.utils.ChecksumType;
 import org.apache.cassandra.utils.Pair;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
@@ -100,6 +105,115 @@ public class CompressedInputStreamTest
         testCompressedReadWith(new long[]{1L, 122L, 123L, 124L, 456L}, false, true, 3);
     }
 
+    @Test
+    public void testRewriteRetainedChunks() throws Exception
+    {
+        // the whole file starts with a chunk, so all its chunks are written as they were received
+        File source = writeLongs("retained", 1000);
+        File rewritten = rewrite(source, 0, 1000, 1000 * 8 / 32);
+        assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(rewritten.toPath()));
+
+        // chunks starting at another place hold other data, so they are all compressed again
+        rewrite(source, 3, 1000, 0);
+    }
+
+    private static File writeLongs(String table, long count) throws IOException
+    {
+        File parentDir = new File(System.getProperty("java.io.tmpdir"));
+        Descriptor desc = new Descriptor(parentDir, "ks", table, 1);
+        File file = new File(desc.filenameFor(Component.DATA));
+        MetadataCollector collector = new MetadataCollector(new ClusteringComparator(BytesType.instance));
+        try (CompressedSequentialWriter writer = new CompressedSequentialWriter(file,
+                                                                                desc.filenameFor(Component.COMPRESSION_INFO),
+                                                                                null,
+                                                                                SequentialWriterOption.DEFAULT,
+                                                                                CompressionParams.snappy(32), collector))
+        {
+            for (long l = 0L; l < count; l++)
+                writer.writeLong(l);
+            writer.finish();
+        }
+        return file;
+    }
+
+    /**
+     * Streams the longs from {@code from} to {@code to} of {@code source} to a new file, checking how many chunks are
+     * written as they were received.
+     */
+    private static File rewrite(File source, long from, long to, int expectedRetainedChunks) throws IOException
+    {
+        CompressionMetadata comp = CompressionMetadata.create(source.getAbsolutePath());
+        List<Pair<Long, Long>> sections = Collections.singletonList(Pair.create(from * 8, to * 8));
+        CompressionMetadata.Chunk[] chunks = comp.getChunksForSections(sections);
+        byte[] toRead = new byte[(int) comp.getTotalSizeForSections(sections)];
+        try (RandomAccessFile f = new RandomAccessFile(source, "r"))
+        {
+            int pos = 0;
+            for (CompressionMetadata.Chunk c : chunks)
+            {
+                f.seek(c.offset);
+                pos += f.read(toRead, pos, c.length + 4);
+            }
+        }
+
+        CompressedInputStream input = new CompressedInputStream(new ByteArrayInputStream(toRead), new CompressionInfo(chunks, CompressionParams.snappy(32)), ChecksumType.CRC32, () -> 1.0);
+        input.retainChunks();
+        int[] retainedChunks = { 0 };
+        CompressedSequentialWriter.PrecompressedChunks counting = new CompressedSequentialWriter.PrecompressedChunks()
+        {
+            public CompressionParams parameters()
+            {
+                return input.parameters();
+            }
+
+            public ByteBuffer compressed(ByteBuffer uncompressed)
+            {
+                ByteBuffer compressed = input.compressed(uncompressed);
+                if (compressed != null)
+                    retainedChunks[0]++;
+                return compressed;
+            }
+        };
+
+        File parentDir = new File(System.getProperty("java.io.tmpdir"));
+        Descriptor desc = new Descriptor(parentDir, "ks", "rewritten", 1);
+        File file = new File(desc.filenameFor(Component.DATA));
+        MetadataCollector collector = new MetadataCollector(new ClusteringComparator(BytesType.instance));
+        try (DataInputStream in = new DataInputStream(input);
+             CompressedSequentialWriter writer = new CompressedSequentialWriter(file,
+                                                                                desc.filenameFor(Component.COMPRESSION_INFO),
+                                                                                null,
+                                                                                SequentialWriterOption.DEFAULT,
+                                                                                CompressionParams.snappy(32), collector))
+        {
+            writer.usePrecompressedChunks(counting);
+            input.position(from * 8);
+            for (long l = from; l < to; l++)
+                writer.writeLong(in.readLong());
+            writer.finish();
+        }
+        assertEquals(expectedRetainedChunks, retainedChunks[0]);
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(readCompressed(file))))
+        {
+            for (long l = from; l < to; l++)
+                assertEquals(l, in.readLong());
+        }
+        return file;
+    }
+
+    private static byte[] readCompressed(File file) throws IOException
+    {
+        try (FileHandle.Builder builder = new FileHandle.Builder(file.getAbsolutePath()).withCompressionMetadata(CompressionMetadata.create(file.getAbsolutePath()));
+             FileHandle fh = builder.complete();
+             RandomAccessReader reader = fh.createReader())
+        {
+            byte[] bytes = new byte[(int) reader.length()];
+            reader.readFully(bytes);
+            return bytes;
+        }
+    }
+
     /**
      * @param valuesToCheck array of longs of range(0-999)
      * @throws Exception
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeavyHittersTest
+{
+    private static ByteBuffer key(int i)
+    {
+        return ByteBufferUtil.bytes("key" + i);
+    }
+
+    @Test
+    public void testFrequencies()
+    {
+        HeavyHitters hitters = HeavyHitters.frequencies(4, 256, 1, TimeUnit.HOURS);
+        // key0 is added 100 times, key1 99 times, ..., interleaved with a long tail of keys seen once
+        for (int round = 0; round < 100; round++)
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                if (round < 100 - i)
+                    hitters.add(key(i), 1);
+            }
+            hitters.add(key(1000 + round), 1);
+        }
+
+        List<HeavyHitters.Entry> top = hitters.top(3);
+        assertEquals(3, top.size());
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(key(i), top.get(i).key);
+            // the sketch may only overestimate
+            assertTrue(top.get(i).value >= 100 - i);
+        }
+        assertEquals(4, hitters.top(10).size());
+    }
+
+    @Test
+    public void testDecay()
+    {
+        HeavyHitters hitters = HeavyHitters.frequencies(2, 256, 1, TimeUnit.HOURS);
+        hitters.add(key(0), 1000);
+        hitters.add(key(1), 1);
+        assertEquals(2, hitters.top(2).size());
+
+        hitters.decay(1);
+        List<HeavyHitters.Entry> top = hitters.top(2);
+        // key1 decayed to 0, and isn't tracked anymore
+        assertEquals(1, top.size());
+        assertEquals(500, top.get(0).value);
+
+        // a key that was hot in the past gets replaced by a currently hot key
+        hitters.decay(8);
+        hitters.add(key(2), 10);
+        hitters.add(key(3), 10);
+        top = hitters.top(2);
+        assertEquals(2, top.size());
+        assertEquals(key(2), top.get(0).key);
+        assertEquals(key(3), top.get(1).key);
+    }
+
+    @Test
+    public void testMaxima()
+    {
+        HeavyHitters hitters = HeavyHitters.maxima(3, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 100; i++)
+            hitters.add(key(i), i);
+        // values aren't summed in maxima mode
+        hitters.add(key(50), 50);
+
+        List<HeavyHitters.Entry> top = hitters.top(5);
+        assertEquals(3, top.size());
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(key(99 - i), top.get(i).key);
+            assertEquals(99 - i, top.get(i).value);
+        }
+    }
+
+    @Test
+    public void testMaximaDecay()
+    {
+        HeavyHitters hitters = HeavyHitters.maxima(3, 1, TimeUnit.HOURS);
+        hitters.add(key(1), 100);
+        hitters.add(key(2), 200);
+        hitters.decay(1);
+
+        // only the keys added again during the last interval survive the next decay
+        hitters.add(key(2), 50);
+        hitters.add(key(3), 10);
+        hitters.decay(1);
+
+        List<HeavyHitters.Entry> top = hitters.top(3);
+        assertEquals(2, top.size());
+        assertEquals(key(2), top.get(0).key);
+        assertEquals(200, top.get(0).value);
+        assertEquals(key(3), top.get(1).key);
+
+        hitters.decay(1);
+        assertEquals(0, hitters.top(3).size());
+    }
+
+    @Test
+    public void testKeyIsCopied()
+    {
+        HeavyHitters hitters = HeavyHitters.maxima(1, 1, TimeUnit.HOURS);
+        ByteBuffer key = key(0);
+        hitters.add(key, 1);
+        key.put(0, (byte) 'K');
+        assertEquals(key(0), hitters.top(1).get(0).key);
+    }
+}
@@ -18,6 +18,7 @@
 */
 package org.apache.cassandra.utils;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.*;
 
@@ -474,6 +475,138 @@ public class MerkleTreeTest
         assertEquals(Lists.newArrayList(range), diffs);
     }
 
+    @Test
+    public void testOffHeap() throws Exception
+    {
+        Range<Token> full = new Range<>(tok(-1), tok(-1));
+        int maxsize = 16;
+        mt.maxsize(maxsize);
+        MerkleTree mt2 = new MerkleTree(partitioner, fullRange(), RECOMMENDED_DEPTH, maxsize);
+        mt.init();
+        mt2.init();
+        for (TreeRange range : mt.invalids())
+            range.addAll(new HIterator(range.right));
+        for (TreeRange range : mt2.invalids())
+            range.addAll(new HIterator(range.right));
+
+        // make the trees disagree on the leftmost range
+        TreeRange leftmost = mt.invalids().next();
+        mt.get(leftmost.right).hash("arbitrary!".getBytes());
+
+        List<TreeRange> onHeapDiffs = MerkleTree.difference(mt, mt2);
+        byte[] hash = mt.hash(full);
+        byte[] leftmostHash = mt.hash(leftmost);
+
+        mt.moveOffHeap();
+        assertTrue(mt.isOffHeap());
+        assertHashEquals(hash, mt.hash(full));
+        assertHashEquals(leftmostHash, mt.hash(leftmost));
+        // differences are the same whether one or both trees are off-heap
+        assertEquals(onHeapDiffs, MerkleTree.difference(mt, mt2));
+        mt2.moveOffHeap();
+        assertEquals(onHeapDiffs, MerkleTree.difference(mt, mt2));
+        assertEquals(Lists.newArrayList(leftmost), MerkleTree.difference(mt, mt2));
+
+        // the tree can't be modified anymore
+        try
+        {
+            mt.split(leftmost.right);
+            fail("An off-heap tree shouldn't be splittable");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        // the off-heap tree is serialized as is, and deserialized off-heap
+        DataOutputBuffer out = new DataOutputBuffer();
+        MerkleTree.serializer.serialize(mt, out, MessagingService.current_version);
+        assertEquals(out.getLength(), MerkleTree.serializer.serializedSize(mt, MessagingService.current_version));
+        MerkleTree restored = MerkleTree.serializer.deserialize(new DataInputBuffer(out.toByteArray()), MessagingService.current_version);
+        assertTrue(restored.isOffHeap());
+        assertHashEquals(hash, restored.hash(full));
+        assertEquals(mt.rowCount(), restored.rowCount());
+        assertEquals(onHeapDiffs, MerkleTree.difference(restored, mt2));
+
+        mt.release();
+        restored.release();
+        try
+        {
+            mt.hash(full);
+            fail("A released tree shouldn't be usable");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOversizedHeader() throws Exception
+    {
+        // a few bytes claiming a tree of about 2GB shouldn't have us allocate it
+        assertInvalidHeader(256, 20, Integer.MAX_VALUE / 64);
+        assertInvalidHeader(256, 20, 512);
+        assertInvalidHeader(256, Integer.MAX_VALUE - 64, 1);
+        assertInvalidHeader(256, -1, 1);
+        assertInvalidHeader(-1, 20, 1);
+    }
+
+    private void assertInvalidHeader(long maxsize, int hashSize, int nodeCount) throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        out.writeByte(RECOMMENDED_DEPTH);
+        out.writeLong(maxsize);
+        out.writeLong(1);
+        out.writeUTF(partitioner.getClass().getCanonicalName());
+        Token.serializer.serialize(tok(-1), out, MessagingService.current_version);
+        Token.serializer.serialize(tok(-1), out, MessagingService.current_version);
+        out.writeByte(MerkleTree.FlatTree.IDENT);
+        out.writeInt(hashSize);
+        out.writeInt(nodeCount);
+        try
+        {
+            MerkleTree.serializer.deserialize(new DataInputBuffer(out.toByteArray()), MessagingService.current_version);
+            fail(String.format("A tree of %d nodes with %d bytes hashes and at most %d leaves shouldn't be read", nodeCount, hashSize, maxsize));
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLegacySerialization() throws Exception
+    {
+        Range<Token> full = new Range<>(tok(-1), tok(-1));
+        mt.maxsize(256);
+        mt.init();
+        for (TreeRange range : mt.invalids())
+            range.addAll(new HIterator(range.right));
+        byte[] initialhash = mt.hash(full);
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        MerkleTree.serializer.serialize(mt, out, MessagingService.VERSION_30);
+        assertEquals(out.getLength(), MerkleTree.serializer.serializedSize(mt, MessagingService.VERSION_30));
+        MerkleTree restored = MerkleTree.serializer.deserialize(new DataInputBuffer(out.toByteArray()), MessagingService.VERSION_30);
+
+        assertFalse(restored.isOffHeap());
+        assertHashEquals(initialhash, restored.hash(full));
+        assertTrue(MerkleTree.difference(mt, restored).isEmpty());
+
+        // completed validations move their trees off-heap, which are still sent to older nodes in that format
+        mt.moveOffHeap();
+        out = new DataOutputBuffer();
+        MerkleTree.serializer.serialize(mt, out, MessagingService.VERSION_30);
+        assertEquals(out.getLength(), MerkleTree.serializer.serializedSize(mt, MessagingService.VERSION_30));
+        restored = MerkleTree.serializer.deserialize(new DataInputBuffer(out.toByteArray()), MessagingService.VERSION_30);
+
+        assertFalse(restored.isOffHeap());
+        assertHashEquals(initialhash, restored.hash(full));
+        assertTrue(MerkleTree.difference(mt, restored).isEmpty());
+        assertTrue(MerkleTree.difference(restored, mt).isEmpty());
+    }
+
     /**
      * Return the root hash of a binary tree with leaves at the given depths
      * and with the given hash val in each leaf.
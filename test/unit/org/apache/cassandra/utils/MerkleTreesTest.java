@@ -483,6 +483,41 @@ public class MerkleTreesTest
         assertTrue(diffs.contains(new Range<>(leftmost.left, middle.right)));
     }
 
+    @Test
+    public void testSplitByLeaves()
+    {
+        mts = new MerkleTrees(partitioner);
+        mts.addMerkleTree(16, new Range<>(tok(1), tok(3)));
+        mts.addMerkleTree(64, new Range<>(tok(4), tok(6)));
+        mts.init();
+
+        List<List<Range<Token>>> groups = mts.splitByLeaves(1);
+        assertEquals(1, groups.size());
+        assertEquals(new ArrayList<>(mts.ranges()), groups.get(0));
+
+        groups = mts.splitByLeaves(4);
+        assertEquals(4, groups.size());
+        // the groups cover all the ranges
+        List<Range<Token>> all = new ArrayList<>();
+        for (List<Range<Token>> group : groups)
+            all.addAll(group);
+        assertEquals(Range.normalize(mts.ranges()), Range.normalize(all));
+        // 80 leaves, split evenly and without sharing any
+        for (List<Range<Token>> group : groups)
+        {
+            int leaves = 0;
+            for (TreeRange leaf : mts.invalids())
+            {
+                if (Range.isInRanges(leaf.right, group))
+                {
+                    assertTrue(leaf + " is split", group.stream().anyMatch(r -> r.contains(leaf)));
+                    leaves++;
+                }
+            }
+            assertEquals(20, leaves);
+        }
+    }
+
     /**
      * Return the root hash of a binary tree with leaves at the given depths
      * and with the given hash val in each leaf.
@@ -129,6 +129,7 @@ public class StressGraph
         String currentThreadCount = null;
         Pattern threadCountMessage = Pattern.compile("Running ([A-Z]+) with ([0-9]+) threads .*");
         ReadingMode mode = ReadingMode.START;
+        String[] metricNames = StressMetrics.HEADMETRICS;
 
         try
         {
@@ -150,8 +151,10 @@ public class StressGraph
                 }
 
                 // Detect mode changes
-                if (line.equals(StressMetrics.HEAD))
+                if (line.equals(StressMetrics.HEAD) || line.equals(StressMetrics.FIXED_HEAD))
                 {
+                    // fixed rate runs also report the uncorrected latencies
+                    metricNames = line.equals(StressMetrics.HEAD) ? StressMetrics.HEADMETRICS : StressMetrics.FIXED_HEADMETRICS;
                     mode = ReadingMode.METRICS;
                     continue;
                 }
@@ -174,7 +177,7 @@ public class StressGraph
                 {
                     JSONArray metrics = new JSONArray();
                     String[] parts = line.split(",");
-                    if (parts.length != StressMetrics.HEADMETRICS.length)
+                    if (parts.length != metricNames.length)
                     {
                         continue;
                     }
@@ -204,7 +207,7 @@ public class StressGraph
                 else if (mode == ReadingMode.NEXTITERATION)
                 {
                     //Wrap up the results of this test and append to the array.
-                    json.put("metrics", Arrays.asList(StressMetrics.HEADMETRICS));
+                    json.put("metrics", Arrays.asList(metricNames));
                     json.put("test", stressSettings.graph.operation);
                     if (currentThreadCount == null)
                         json.put("revision", stressSettings.graph.revision);
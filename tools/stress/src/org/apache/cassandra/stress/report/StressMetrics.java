@@ -23,6 +23,7 @@ package org.apache.cassandra.stress.report;
 
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -49,6 +50,7 @@ import org.apache.cassandra.stress.util.ResultLogger;
 import org.apache.cassandra.stress.util.JmxCollector.GcStats;
 import org.apache.cassandra.stress.util.Uncertainty;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 
 public class StressMetrics implements MeasurementSink
@@ -60,6 +62,8 @@ public class StressMetrics implements MeasurementSink
     private final CountDownLatch stopped = new CountDownLatch(1);
     private final Callable<JmxCollector.GcStats> gcStatsCollector;
     private final HistogramLogWriter histogramWriter;
+    private final File histogramDir;
+    private final Map<String, HistogramLogWriter> opTypeToHistogramWriter = new TreeMap<>();
     private final long epochNs = System.nanoTime();
     private final long epochMs = System.currentTimeMillis();
 
@@ -79,28 +83,10 @@ public class StressMetrics implements MeasurementSink
     public StressMetrics(ResultLogger output, final long logIntervalMillis, StressSettings settings)
     {
         this.output = output;
-        if(settings.log.hdrFile != null)
-        {
-            try
-            {
-                histogramWriter = new HistogramLogWriter(settings.log.hdrFile);
-                histogramWriter.outputComment("Logging op latencies for Cassandra Stress");
-                histogramWriter.outputLogFormatVersion();
-                final long roundedEpoch = epochMs - (epochMs%1000);
-                histogramWriter.outputBaseTime(roundedEpoch);
-                histogramWriter.setBaseTime(roundedEpoch);
-                histogramWriter.outputStartTime(roundedEpoch);
-                histogramWriter.outputLegend();
-            }
-            catch (FileNotFoundException e)
-            {
-                throw new IllegalArgumentException(e);
-            }
-        }
-        else
-        {
-            histogramWriter = null;
-        }
+        histogramWriter = settings.log.hdrFile != null ? createHistogramWriter(settings.log.hdrFile) : null;
+        histogramDir = settings.log.hdrDir;
+        if (histogramDir != null && !histogramDir.isDirectory() && !histogramDir.mkdirs())
+            throw new IllegalArgumentException("Cannot create HDR log directory " + histogramDir);
         Callable<JmxCollector.GcStats> gcStatsCollector;
         totalGcStats = new JmxCollector.GcStats(0);
         try
@@ -119,12 +105,33 @@ public class StressMetrics implements MeasurementSink
         this.gcStatsCollector = gcStatsCollector;
         this.totalCurrentInterval = new TimingInterval(settings.rate.isFixed);
         this.totalSummaryInterval = new TimingInterval(settings.rate.isFixed);
-        printHeader("", output);
+        printHeader("", settings.rate.isFixed, output);
         thread = new Thread(() -> {
             reportingLoop(logIntervalMillis);
         });
         thread.setName("StressMetrics");
     }
+
+    private HistogramLogWriter createHistogramWriter(File file)
+    {
+        try
+        {
+            HistogramLogWriter writer = new HistogramLogWriter(file);
+            writer.outputComment("Logging op latencies for Cassandra Stress");
+            writer.outputLogFormatVersion();
+            final long roundedEpoch = epochMs - (epochMs%1000);
+            writer.outputBaseTime(roundedEpoch);
+            writer.setBaseTime(roundedEpoch);
+            writer.outputStartTime(roundedEpoch);
+            writer.outputLegend();
+            return writer;
+        }
+        catch (FileNotFoundException e)
+        {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
     public void start()
     {
         thread.start();
@@ -312,17 +319,26 @@ public class StressMetrics implements MeasurementSink
 
     private void logHistograms(String opName, TimingInterval opInterval)
     {
-        if (histogramWriter == null)
-            return;
+        if (histogramWriter != null)
+            logHistograms(histogramWriter, opName, opInterval);
+        if (histogramDir != null)
+        {
+            HistogramLogWriter opWriter = opTypeToHistogramWriter.computeIfAbsent(opName, k -> createHistogramWriter(new File(histogramDir, k + ".hlog")));
+            logHistograms(opWriter, opName, opInterval);
+        }
+    }
+
+    private void logHistograms(HistogramLogWriter writer, String opName, TimingInterval opInterval)
+    {
         final long startNs = opInterval.startNanos();
         final long endNs = opInterval.endNanos();
 
-        logHistogram(opName + "-st", startNs, endNs, opInterval.serviceTime());
-        logHistogram(opName + "-rt", startNs, endNs, opInterval.responseTime());
-        logHistogram(opName + "-wt", startNs, endNs, opInterval.waitTime());
+        logHistogram(writer, opName + "-st", startNs, endNs, opInterval.serviceTime());
+        logHistogram(writer, opName + "-rt", startNs, endNs, opInterval.responseTime());
+        logHistogram(writer, opName + "-wt", startNs, endNs, opInterval.waitTime());
     }
 
-    private void logHistogram(String opName, final long startNs, final long endNs, final Histogram histogram)
+    private void logHistogram(HistogramLogWriter writer, String opName, final long startNs, final long endNs, final Histogram histogram)
     {
         if (histogram.getTotalCount() != 0)
         {
@@ -333,7 +349,7 @@ public class StressMetrics implements MeasurementSink
             final long relativeEndNs = endNs - epochNs;
             final long endMs = (long) (1000 *((epochMs + NANOSECONDS.toMillis(relativeEndNs))/1000.0));
             histogram.setEndTimeStamp(endMs);
-            histogramWriter.outputIntervalHistogram(histogram);
+            writer.outputIntervalHistogram(histogram);
         }
     }
 
@@ -345,15 +361,22 @@ public class StressMetrics implements MeasurementSink
     public static final String[] HEADMETRICS = new String[]{"type", "total ops","op/s","pk/s","row/s","mean","med",".95",".99",".999","max","time","stderr", "errors", "gc: #", "max ms", "sum ms", "sdv ms", "mb"};
     public static final String HEAD = String.format(HEADFORMAT, (Object[]) HEADMETRICS);
 
-    private static void printHeader(String prefix, ResultLogger output)
+    // at a fixed rate the latencies are measured from the intended start of the operations, so the service times a
+    // closed loop would have reported are added for comparison
+    public static final String FIXED_HEADFORMAT = HEADFORMAT + ",%8s,%8s";
+    public static final String FIXED_ROWFORMAT = ROWFORMAT + ",%8.1f,%8.1f";
+    public static final String[] FIXED_HEADMETRICS = ArrayUtils.addAll(HEADMETRICS, "st .99", "st max");
+    public static final String FIXED_HEAD = String.format(FIXED_HEADFORMAT, (Object[]) FIXED_HEADMETRICS);
+
+    private static void printHeader(String prefix, boolean isFixed, ResultLogger output)
     {
-        output.println(prefix + HEAD);
+        output.println(prefix + (isFixed ? FIXED_HEAD : HEAD));
     }
 
     private static void printRow(String prefix, String type, TimingInterval interval, TimingInterval total,
                                  JmxCollector.GcStats gcStats, Uncertainty opRateUncertainty, ResultLogger output)
     {
-        output.println(prefix + String.format(ROWFORMAT,
+        Object[] values = new Object[] {
                 type + ",",
                 total.operationCount(),
                 interval.opRate(),
@@ -373,7 +396,13 @@ public class StressMetrics implements MeasurementSink
                 gcStats.summs,
                 gcStats.sdvms,
                 gcStats.bytes / (1 << 20)
-        ));
+        };
+        if (interval.isFixed)
+            output.println(prefix + String.format(FIXED_ROWFORMAT, ArrayUtils.addAll(values,
+                                                                                     interval.serviceLatencyAtPercentileMs(99.0),
+                                                                                     interval.maxServiceLatencyMs())));
+        else
+            output.println(prefix + String.format(ROWFORMAT, values));
     }
 
     public void summarise()
@@ -392,6 +421,11 @@ public class StressMetrics implements MeasurementSink
         output.println(String.format("Latency 99th percentile   : %6.1f ms %s", history.latencyAtPercentileMs(99.0), opHistory.latenciesAtPercentile(99.0)));
         output.println(String.format("Latency 99.9th percentile : %6.1f ms %s", history.latencyAtPercentileMs(99.9), opHistory.latenciesAtPercentile(99.9)));
         output.println(String.format("Latency max               : %6.1f ms %s", history.maxLatencyMs(), opHistory.maxLatencies()));
+        if (history.isFixed)
+        {
+            output.println(String.format("Uncorrected 99th pct      : %6.1f ms", history.serviceLatencyAtPercentileMs(99.0)));
+            output.println(String.format("Uncorrected max           : %6.1f ms", history.maxServiceLatencyMs()));
+        }
         output.println(String.format("Total partitions          : %,10d %s",   history.partitionCount, opHistory.partitionCounts()));
         output.println(String.format("Total errors              : %,10d %s",   history.errorCount, opHistory.errorCounts()));
         output.println(String.format("Total GC count            : %,1.0f", totalGcStats.count));
@@ -410,7 +444,7 @@ public class StressMetrics implements MeasurementSink
         for (String id : ids)
             idLen = Math.max(id.length(), idLen);
         String formatstr = "%" + idLen + "s, ";
-        printHeader(String.format(formatstr, "id"), out);
+        printHeader(String.format(formatstr, "id"), !summarise.isEmpty() && summarise.get(0).totalSummaryInterval.isFixed, out);
         for (int i = 0 ; i < ids.size() ; i++)
         {
             for (Map.Entry<String, TimingInterval> type : summarise.get(i).opTypeToSummaryTimingInterval.entrySet())
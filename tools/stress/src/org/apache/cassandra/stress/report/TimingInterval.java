@@ -98,6 +98,21 @@ public final class TimingInterval
         return getLatencyHistogram().getValueAtPercentile(percentile) * 0.000001d;
     }
 
+    /**
+     * @param percentile between 0.0 and 100.0
+     * @return service time in milliseconds at percentile, which doesn't include the time operations spent waiting
+     * behind their schedule at a fixed rate
+     */
+    public double serviceLatencyAtPercentileMs(double percentile)
+    {
+        return serviceTime.getValueAtPercentile(percentile) * 0.000001d;
+    }
+
+    public double maxServiceLatencyMs()
+    {
+        return serviceTime.getMaxValue() * 0.000001d;
+    }
+
     public long runTimeMs()
     {
         return (endNs - startNs) / 1000000;
@@ -40,6 +40,7 @@ public class SettingsLog implements Serializable
     public final boolean noSettings;
     public final File file;
     public final File hdrFile;
+    public final File hdrDir;
     public final int intervalMillis;
     public final Level level;
 
@@ -57,6 +58,10 @@ public class SettingsLog implements Serializable
             hdrFile = new File(options.hdrOutputFile.value());
         else
             hdrFile = null;
+        if (options.hdrOutputDir.setByUser())
+            hdrDir = new File(options.hdrOutputDir.value());
+        else
+            hdrDir = null;
         String interval = options.interval.value();
         if (interval.endsWith("ms"))
             intervalMillis = Integer.parseInt(interval.substring(0, interval.length() - 2));
@@ -88,13 +93,14 @@ public class SettingsLog implements Serializable
         final OptionSimple noSettings = new OptionSimple("no-settings", "", null, "Disable printing of settings values at start of test", false);
         final OptionSimple outputFile = new OptionSimple("file=", ".*", null, "Log to a file", false);
         final OptionSimple hdrOutputFile = new OptionSimple("hdrfile=", ".*", null, "Log to a file", false);
+        final OptionSimple hdrOutputDir = new OptionSimple("hdrdir=", ".*", null, "Log a .hlog file per operation type to this directory", false);
         final OptionSimple interval = new OptionSimple("interval=", "[0-9]+(ms|s|)", "1s", "Log progress every <value> seconds or milliseconds", false);
         final OptionSimple level = new OptionSimple("level=", "(minimal|normal|verbose)", "normal", "Logging level (minimal, normal or verbose)", false);
 
         @Override
         public List<? extends Option> options()
         {
-            return Arrays.asList(level, noSummmary, outputFile, hdrOutputFile, interval, noSettings);
+            return Arrays.asList(level, noSummmary, outputFile, hdrOutputFile, hdrOutputDir, interval, noSettings);
         }
     }
 
@@ -104,6 +110,8 @@ public class SettingsLog implements Serializable
         out.printf("  No Summary: %b%n", noSummary);
         out.printf("  No Settings: %b%n", noSettings);
         out.printf("  File: %s%n", file);
+        out.printf("  HDR File: %s%n", hdrFile);
+        out.printf("  HDR Directory: %s%n", hdrDir);
         out.printf("  Interval Millis: %d%n", intervalMillis);
         out.printf("  Level: %s%n", level);
     }
@@ -49,7 +49,7 @@ public class SettingsRate implements Serializable
         if(throttle != 0 && fixed != 0)
             throw new IllegalArgumentException("can't have both fixed and throttle set, choose one.");
         opsPerSecond = Math.max(fixed, throttle);
-        isFixed = (opsPerSecond == fixed);
+        isFixed = fixed != 0;
 
         minThreads = -1;
         maxThreads = -1;